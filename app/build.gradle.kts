@@ -49,6 +49,11 @@ android {
         }
     }
 
+    // 本地单元测试：android.jar 中的方法（AppLog 使用的 Log 等）返回默认值而不是抛异常
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
 }
 
 dependencies {
@@ -89,6 +94,8 @@ dependencies {
     implementation("io.grpc:grpc-stub:1.62.2")
 
     testImplementation(libs.junit)
+    // 心跳上传的 multipart / 签名头单元测试
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
@@ -46,6 +46,21 @@ public class AppConfig {
     // 存储清理配置
     private static final String KEY_VIDEO_STORAGE_LIMIT_GB = "video_storage_limit_gb";  // 视频存储限制（GB）
     private static final String KEY_PHOTO_STORAGE_LIMIT_GB = "photo_storage_limit_gb";  // 图片存储限制（GB）
+    private static final String KEY_LOW_SPACE_SAFETY_MARGIN_GB = "low_space_safety_margin_gb";  // 内部存储安全余量（GB）
+    private static final String KEY_VIDEO_SHARD_MODE = "video_shard_mode";  // 录像目录分片方式
+    private static final String KEY_SEGMENT_PREALLOCATION_ENABLED = "segment_preallocation_enabled";  // 分段文件预分配
+    private static final String KEY_TRANSFER_COPY_ENGINE = "transfer_copy_engine";  // 中转传输复制方式
+    private static final String KEY_TRANSFER_CHUNK_SIZE_KB = "transfer_chunk_size_kb";  // 中转传输块大小（KB）
+    private static final String KEY_TRANSFER_SYNC_INTERVAL_MB = "transfer_sync_interval_mb";  // 中转传输周期落盘间隔（MB）
+    private static final String KEY_GAPLESS_SEGMENT_ENABLED = "gapless_segment_enabled";  // MediaRecorder 无缝分段（setNextOutputFile）
+    private static final String KEY_FRAGMENTED_MP4_ENABLED = "fragmented_mp4_enabled";  // Codec 模式使用分片 MP4 封装
+    private static final String KEY_ASYNC_ENCODER_ENABLED = "async_encoder_enabled";  // Codec 模式使用异步编码回调
+    private static final String KEY_PRE_EVENT_SECONDS = "pre_event_seconds";  // Codec 模式预录缓冲时长（秒）
+    private static final String KEY_MOSAIC_RECORDING_ENABLED = "mosaic_recording_enabled";  // Codec 模式多路拼接为一路录制
+    private static final String KEY_MOSAIC_RESOLUTION = "mosaic_resolution";  // 拼接画面分辨率
+    public static final String MOSAIC_RESOLUTION_DEFAULT = "1920x1080";  // 默认拼接分辨率（2×2 时每路 960x540）
+    private static final String KEY_SHARED_RENDER_THREAD_ENABLED = "shared_render_thread_enabled";  // 录制/鱼眼渲染共用一个线程和 EGL context
+    private static final String KEY_HARDWARE_JPEG_CAPTURE_ENABLED = "hardware_jpeg_capture_enabled";  // 拍照走 ISP 硬件 JPEG 输出
     
     // 分段录制配置
     private static final String KEY_SEGMENT_DURATION_MINUTES = "segment_duration_minutes";  // 分段时长（分钟）
@@ -252,6 +267,11 @@ public class AppConfig {
     public static final String RECORDING_MODE_MEDIA_RECORDER = "media_recorder";  // MediaRecorder（硬件编码）
     public static final String RECORDING_MODE_CODEC = "codec";  // MediaCodec（软编码）
     
+    // 录像目录分片方式常量
+    public static final String VIDEO_SHARD_MODE_NONE = "none";  // 不分片（所有录像在同一目录）
+    public static final String VIDEO_SHARD_MODE_DAILY = "daily";  // 按天分片（yyyy/MM/dd）
+    public static final String VIDEO_SHARD_MODE_HOURLY = "hourly";  // 按小时分片（yyyy/MM/dd/HH）
+    
     // 分辨率配置相关键名
     private static final String KEY_TARGET_RESOLUTION = "target_resolution";  // 目标分辨率
     
@@ -369,6 +389,153 @@ public class AppConfig {
         this.context = context.getApplicationContext();
         this.prefs = this.context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
     }
+
+    // ==================== 配置快照 ====================
+
+    /**
+     * 进程内共享的只读配置快照
+     * 录制、拍照、存储等频繁读取的配置项解析成 final 字段，读取时不再经过 SharedPreferences；
+     * 配置变化时整体重建并替换引用，读取方拿到的一份快照内各项始终一致
+     */
+    public static final class Snapshot {
+        public final boolean autoStartOnBoot;
+        public final boolean autoStartRecording;
+        public final boolean floatingWindowEnabled;
+
+        // 存储
+        public final boolean usingExternalSdCard;
+        public final String customSdCardPath;       // 未设置时为 null
+        public final boolean relayWrite;            // 同 shouldUseRelayWrite()
+
+        // 摄像头 / 录制
+        public final String targetResolution;
+        public final String recordingMode;
+        public final long segmentDurationMs;
+        public final String bitrateLevel;
+        public final String framerateLevel;
+        public final boolean gaplessSegmentEnabled;
+        public final boolean sharedRenderThreadEnabled;
+        public final boolean forceH264Encoding;
+        public final boolean segmentPreallocationEnabled;
+        public final boolean fragmentedMp4Enabled;
+        public final boolean asyncEncoderEnabled;
+        public final int preEventSeconds;
+        public final boolean mosaicRecordingEnabled;
+        public final int mosaicWidth;
+        public final int mosaicHeight;
+
+        // 中转传输
+        public final String transferCopyEngine;
+        public final int transferChunkSizeKb;
+        public final int transferSyncIntervalMb;
+
+        // 拍照
+        public final boolean timestampWatermarkEnabled;
+        public final boolean hardwareJpegCaptureEnabled;
+
+        private Snapshot(AppConfig config) {
+            autoStartOnBoot = config.isAutoStartOnBoot();
+            autoStartRecording = config.isAutoStartRecording();
+            floatingWindowEnabled = config.isFloatingWindowEnabled();
+            usingExternalSdCard = config.isUsingExternalSdCard();
+            customSdCardPath = config.getCustomSdCardPath();
+            relayWrite = config.shouldUseRelayWrite();
+            targetResolution = config.getTargetResolution();
+            recordingMode = config.getRecordingMode();
+            segmentDurationMs = config.getSegmentDurationMs();
+            bitrateLevel = config.getBitrateLevel();
+            framerateLevel = config.getFramerateLevel();
+            gaplessSegmentEnabled = config.isGaplessSegmentEnabled();
+            sharedRenderThreadEnabled = config.isSharedRenderThreadEnabled();
+            forceH264Encoding = config.isForceH264Encoding();
+            segmentPreallocationEnabled = config.isSegmentPreallocationEnabled();
+            fragmentedMp4Enabled = config.isFragmentedMp4Enabled();
+            asyncEncoderEnabled = config.isAsyncEncoderEnabled();
+            preEventSeconds = config.getPreEventSeconds();
+            mosaicRecordingEnabled = config.isMosaicRecordingEnabled();
+            int[] mosaicResolution = config.getMosaicResolution();
+            mosaicWidth = mosaicResolution[0];
+            mosaicHeight = mosaicResolution[1];
+            transferCopyEngine = config.getTransferCopyEngine();
+            transferChunkSizeKb = config.getTransferChunkSizeKb();
+            transferSyncIntervalMb = config.getTransferSyncIntervalMb();
+            timestampWatermarkEnabled = config.isTimestampWatermarkEnabled();
+            hardwareJpegCaptureEnabled = config.isHardwareJpegCaptureEnabled();
+        }
+
+        /** 同 AppConfig.getActualBitrate */
+        public int getActualBitrate(int width, int height, int frameRate) {
+            return AppConfig.getActualBitrate(width, height, frameRate, bitrateLevel);
+        }
+
+        /** 同 AppConfig.getActualFrameRate */
+        public int getActualFrameRate(int hardwareMaxFps) {
+            return AppConfig.getActualFrameRate(hardwareMaxFps, framerateLevel);
+        }
+    }
+
+    private static volatile Snapshot snapshot;
+    private static AppConfig snapshotSource;
+
+    // 批量写入期间共用的 Editor（null 表示不在批量写入中）
+    private SharedPreferences.Editor batchEditor;
+
+    /**
+     * 获取当前配置快照（无锁读取；首次调用时创建）
+     */
+    public static Snapshot snapshot(Context context) {
+        Snapshot current = snapshot;
+        return current != null ? current : initSnapshot(context);
+    }
+
+    private static synchronized Snapshot initSnapshot(Context context) {
+        if (snapshot == null) {
+            snapshotSource = new AppConfig(context);
+            snapshot = new Snapshot(snapshotSource);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 重建快照（每次 apply 后调用一次，写入方随后的读取即可看到新值）
+     * 快照中的配置项都经 apply 写入，因此不再监听 SharedPreferences 变化（监听回调按键逐个触发，会重复重建）
+     */
+    private static synchronized void rebuildSnapshot() {
+        if (snapshotSource != null) {
+            snapshot = new Snapshot(snapshotSource);
+        }
+    }
+
+    /**
+     * 批量修改配置：edits 中调用的所有 setter 合并为一次 apply()
+     */
+    public void batchEdit(Runnable edits) {
+        if (batchEditor != null) {
+            edits.run();  // 已在批量写入中
+            return;
+        }
+        batchEditor = prefs.edit();
+        try {
+            edits.run();
+        } finally {
+            SharedPreferences.Editor editor = batchEditor;
+            batchEditor = null;
+            editor.apply();
+            rebuildSnapshot();
+        }
+    }
+
+    private SharedPreferences.Editor edit() {
+        return batchEditor != null ? batchEditor : prefs.edit();
+    }
+
+    private void apply(SharedPreferences.Editor editor) {
+        if (editor == batchEditor) {
+            return;  // 批量写入结束时统一 apply
+        }
+        editor.apply();
+        rebuildSnapshot();
+    }
     
     // ==================== 首次启动相关方法 ====================
     
@@ -384,7 +551,7 @@ public class AppConfig {
      * 标记首次启动已完成
      */
     public void setFirstLaunchCompleted() {
-        prefs.edit().putBoolean(KEY_FIRST_LAUNCH, false).apply();
+        apply(edit().putBoolean(KEY_FIRST_LAUNCH, false));
         AppLog.d(TAG, "首次启动标记已设置为完成");
     }
     
@@ -403,7 +570,7 @@ public class AppConfig {
      * @param nickname 设备名称
      */
     public void setDeviceNickname(String nickname) {
-        prefs.edit().putString(KEY_DEVICE_NICKNAME, nickname).apply();
+        apply(edit().putString(KEY_DEVICE_NICKNAME, nickname));
         AppLog.d(TAG, "设备识别名称已设置: " + nickname);
     }
     
@@ -423,7 +590,7 @@ public class AppConfig {
      * @param enabled true 表示启用开机自启动
      */
     public void setAutoStartOnBoot(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AUTO_START_ON_BOOT, enabled).apply();
+        apply(edit().putBoolean(KEY_AUTO_START_ON_BOOT, enabled));
         AppLog.d(TAG, "开机自启动设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -441,7 +608,7 @@ public class AppConfig {
      * @param enabled true 表示启用启动自动录制
      */
     public void setAutoStartRecording(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AUTO_START_RECORDING, enabled).apply();
+        apply(edit().putBoolean(KEY_AUTO_START_RECORDING, enabled));
         AppLog.d(TAG, "启动自动录制设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -459,7 +626,7 @@ public class AppConfig {
      * @param enabled true 表示息屏时继续录制
      */
     public void setScreenOffRecordingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SCREEN_OFF_RECORDING, enabled).apply();
+        apply(edit().putBoolean(KEY_SCREEN_OFF_RECORDING, enabled));
         AppLog.d(TAG, "息屏录制设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -477,7 +644,7 @@ public class AppConfig {
      * @param enabled true 表示启用保活服务
      */
     public void setKeepAliveEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_KEEP_ALIVE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_KEEP_ALIVE_ENABLED, enabled));
         AppLog.d(TAG, "保活服务设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -495,7 +662,7 @@ public class AppConfig {
      * @param enabled true 表示启用防止休眠
      */
     public void setPreventSleepEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_PREVENT_SLEEP_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_PREVENT_SLEEP_ENABLED, enabled));
         AppLog.d(TAG, "防止休眠设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -516,7 +683,7 @@ public class AppConfig {
      * @param mode 录制模式（auto/media_recorder/codec）
      */
     public void setRecordingMode(String mode) {
-        prefs.edit().putString(KEY_RECORDING_MODE, mode).apply();
+        apply(edit().putString(KEY_RECORDING_MODE, mode));
         AppLog.d(TAG, "录制模式设置: " + mode);
     }
     
@@ -550,7 +717,7 @@ public class AppConfig {
      * 重置所有配置为默认值
      */
     public void resetToDefault() {
-        prefs.edit().clear().apply();
+        apply(edit().clear());
         AppLog.d(TAG, "配置已重置为默认值");
     }
     
@@ -561,7 +728,7 @@ public class AppConfig {
      * @param resolution 分辨率字符串（如 "1280x720"）或 "default"
      */
     public void setTargetResolution(String resolution) {
-        prefs.edit().putString(KEY_TARGET_RESOLUTION, resolution).apply();
+        apply(edit().putString(KEY_TARGET_RESOLUTION, resolution));
         AppLog.d(TAG, "目标分辨率设置: " + resolution);
     }
     
@@ -609,7 +776,7 @@ public class AppConfig {
      * @param level 码率等级（low/medium/high）
      */
     public void setBitrateLevel(String level) {
-        prefs.edit().putString(KEY_BITRATE_LEVEL, level).apply();
+        apply(edit().putString(KEY_BITRATE_LEVEL, level));
         AppLog.d(TAG, "码率等级设置: " + level);
     }
     
@@ -643,9 +810,15 @@ public class AppConfig {
      * @return 实际码率（bps）
      */
     public int getActualBitrate(int width, int height, int frameRate) {
+        return getActualBitrate(width, height, frameRate, getBitrateLevel());
+    }
+
+    /**
+     * 按指定码率等级计算实际码率（bps）
+     * @param level 码率等级（BITRATE_LOW / BITRATE_MEDIUM / BITRATE_HIGH）
+     */
+    public static int getActualBitrate(int width, int height, int frameRate, String level) {
         int baseBitrate = calculateBitrate(width, height, frameRate);
-        String level = getBitrateLevel();
-        
         switch (level) {
             case BITRATE_LOW:
                 // 50%，取整到 0.5Mbps
@@ -737,7 +910,7 @@ public class AppConfig {
      * @param level 帧率等级（standard/low）
      */
     public void setFramerateLevel(String level) {
-        prefs.edit().putString(KEY_FRAMERATE_LEVEL, level).apply();
+        apply(edit().putString(KEY_FRAMERATE_LEVEL, level));
         AppLog.d(TAG, "帧率等级设置: " + level);
     }
     
@@ -755,9 +928,15 @@ public class AppConfig {
      * @return 实际使用的帧率
      */
     public int getActualFrameRate(int hardwareMaxFps) {
+        return getActualFrameRate(hardwareMaxFps, getFramerateLevel());
+    }
+
+    /**
+     * 按指定帧率等级计算实际帧率
+     * @param level 帧率等级（FRAMERATE_STANDARD / FRAMERATE_LOW）
+     */
+    public static int getActualFrameRate(int hardwareMaxFps, String level) {
         int standardFps = getStandardFrameRate(hardwareMaxFps);
-        String level = getFramerateLevel();
-        
         if (FRAMERATE_LOW.equals(level)) {
             // 低帧率：标准值除以2，最低10fps
             return Math.max(10, standardFps / 2);
@@ -784,7 +963,7 @@ public class AppConfig {
      * @param carModel 车型标识（galaxy_e5 或 custom）
      */
     public void setCarModel(String carModel) {
-        prefs.edit().putString(KEY_CAR_MODEL, carModel).apply();
+        apply(edit().putString(KEY_CAR_MODEL, carModel));
         AppLog.d(TAG, "车型设置: " + carModel);
     }
     
@@ -822,7 +1001,7 @@ public class AppConfig {
      * @param count 摄像头数量（4/2/1）
      */
     public void setCameraCount(int count) {
-        prefs.edit().putInt(KEY_CAMERA_COUNT, count).apply();
+        apply(edit().putInt(KEY_CAMERA_COUNT, count));
         AppLog.d(TAG, "摄像头数量设置: " + count);
     }
     
@@ -865,7 +1044,7 @@ public class AppConfig {
      * @param orientation 屏幕方向（landscape/portrait）
      */
     public void setScreenOrientation(String orientation) {
-        prefs.edit().putString(KEY_SCREEN_ORIENTATION, orientation).apply();
+        apply(edit().putString(KEY_SCREEN_ORIENTATION, orientation));
         AppLog.d(TAG, "屏幕方向设置: " + orientation);
     }
     
@@ -901,7 +1080,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putString(key, cameraId).apply();
+        apply(edit().putString(key, cameraId));
         AppLog.d(TAG, "摄像头编号设置: " + position + " = " + cameraId);
     }
     
@@ -960,7 +1139,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putString(key, name).apply();
+        apply(edit().putString(key, name));
         AppLog.d(TAG, "摄像头名称设置: " + position + " = " + name);
     }
     
@@ -1044,7 +1223,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putInt(key, rotation).apply();
+        apply(edit().putInt(key, rotation));
         AppLog.d(TAG, "摄像头旋转角度设置: " + position + " = " + rotation + "°");
     }
 
@@ -1102,7 +1281,7 @@ public class AppConfig {
             default:
                 return;
         }
-        prefs.edit().putBoolean(key, mirror).apply();
+        apply(edit().putBoolean(key, mirror));
         AppLog.d(TAG, position + " 摄像头镜像设置: " + mirror);
     }
 
@@ -1140,7 +1319,7 @@ public class AppConfig {
      */
     public void setCameraCrop(String position, String direction, int pixels) {
         String key = KEY_CAMERA_CROP_PREFIX + position + "_" + direction;
-        prefs.edit().putInt(key, Math.max(0, pixels)).apply();
+        apply(edit().putInt(key, Math.max(0, pixels)));
     }
 
     /**
@@ -1201,7 +1380,7 @@ public class AppConfig {
      * @param location 存储位置（internal 或 external_sd）
      */
     public void setStorageLocation(String location) {
-        prefs.edit().putString(KEY_STORAGE_LOCATION, location).apply();
+        apply(edit().putString(KEY_STORAGE_LOCATION, location));
         AppLog.d(TAG, "存储位置设置: " + location);
     }
     
@@ -1227,10 +1406,10 @@ public class AppConfig {
      */
     public void setCustomSdCardPath(String path) {
         if (path == null || path.trim().isEmpty()) {
-            prefs.edit().remove(KEY_CUSTOM_SD_CARD_PATH).apply();
+            apply(edit().remove(KEY_CUSTOM_SD_CARD_PATH));
             AppLog.d(TAG, "清除自定义U盘路径，使用自动检测");
         } else {
-            prefs.edit().putString(KEY_CUSTOM_SD_CARD_PATH, path.trim()).apply();
+            apply(edit().putString(KEY_CUSTOM_SD_CARD_PATH, path.trim()));
             AppLog.d(TAG, "设置自定义U盘路径: " + path.trim());
         }
     }
@@ -1260,9 +1439,9 @@ public class AppConfig {
      */
     public void setLastDetectedSdPath(String path) {
         if (path == null || path.trim().isEmpty()) {
-            prefs.edit().remove(KEY_LAST_DETECTED_SD_PATH).apply();
+            apply(edit().remove(KEY_LAST_DETECTED_SD_PATH));
         } else {
-            prefs.edit().putString(KEY_LAST_DETECTED_SD_PATH, path.trim()).apply();
+            apply(edit().putString(KEY_LAST_DETECTED_SD_PATH, path.trim()));
             AppLog.d(TAG, "缓存U盘路径: " + path.trim());
         }
     }
@@ -1315,7 +1494,7 @@ public class AppConfig {
      * @param enabled true 表示启用中转写入
      */
     public void setRelayWriteEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_RELAY_WRITE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_RELAY_WRITE_ENABLED, enabled));
         AppLog.d(TAG, "中转写入设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1334,7 +1513,7 @@ public class AppConfig {
      * @param enabled true 表示启用悬浮窗
      */
     public void setFloatingWindowEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FLOATING_WINDOW_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_FLOATING_WINDOW_ENABLED, enabled));
         AppLog.d(TAG, "悬浮窗设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1351,7 +1530,7 @@ public class AppConfig {
      * @param sizeDp 悬浮窗大小，单位dp
      */
     public void setFloatingWindowSize(int sizeDp) {
-        prefs.edit().putInt(KEY_FLOATING_WINDOW_SIZE, sizeDp).apply();
+        apply(edit().putInt(KEY_FLOATING_WINDOW_SIZE, sizeDp));
         AppLog.d(TAG, "悬浮窗大小设置: " + sizeDp + "dp");
     }
     
@@ -1368,7 +1547,7 @@ public class AppConfig {
      * @param alpha 透明度百分比，0为完全透明，100为完全不透明
      */
     public void setFloatingWindowAlpha(int alpha) {
-        prefs.edit().putInt(KEY_FLOATING_WINDOW_ALPHA, alpha).apply();
+        apply(edit().putInt(KEY_FLOATING_WINDOW_ALPHA, alpha));
         AppLog.d(TAG, "悬浮窗透明度设置: " + alpha + "%");
     }
     
@@ -1386,10 +1565,9 @@ public class AppConfig {
      * @param y Y坐标
      */
     public void setFloatingWindowPosition(int x, int y) {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_FLOATING_WINDOW_X, x)
-            .putInt(KEY_FLOATING_WINDOW_Y, y)
-            .apply();
+            .putInt(KEY_FLOATING_WINDOW_Y, y));
     }
     
     /**
@@ -1415,7 +1593,7 @@ public class AppConfig {
      * @param limitGb 存储限制，单位GB，0表示不限制
      */
     public void setVideoStorageLimitGb(int limitGb) {
-        prefs.edit().putInt(KEY_VIDEO_STORAGE_LIMIT_GB, limitGb).apply();
+        apply(edit().putInt(KEY_VIDEO_STORAGE_LIMIT_GB, limitGb));
         AppLog.d(TAG, "视频存储限制设置: " + limitGb + " GB");
     }
     
@@ -1432,7 +1610,7 @@ public class AppConfig {
      * @param limitGb 存储限制，单位GB，0表示不限制
      */
     public void setPhotoStorageLimitGb(int limitGb) {
-        prefs.edit().putInt(KEY_PHOTO_STORAGE_LIMIT_GB, limitGb).apply();
+        apply(edit().putInt(KEY_PHOTO_STORAGE_LIMIT_GB, limitGb));
         AppLog.d(TAG, "图片存储限制设置: " + limitGb + " GB");
     }
     
@@ -1452,6 +1630,259 @@ public class AppConfig {
         return getVideoStorageLimitGb() > 0 || getPhotoStorageLimitGb() > 0;
     }
     
+    /**
+     * 设置内部存储安全余量（GB）
+     * 录制时预测式清理会保持剩余空间不低于此值
+     * @param marginGb 安全余量，单位GB
+     */
+    public void setLowSpaceSafetyMarginGb(int marginGb) {
+        apply(edit().putInt(KEY_LOW_SPACE_SAFETY_MARGIN_GB, marginGb));
+        AppLog.d(TAG, "内部存储安全余量设置: " + marginGb + " GB");
+    }
+    
+    /**
+     * 获取内部存储安全余量（GB）
+     * @return 安全余量，单位GB，默认3GB
+     */
+    public int getLowSpaceSafetyMarginGb() {
+        return prefs.getInt(KEY_LOW_SPACE_SAFETY_MARGIN_GB, 3);
+    }
+    
+    /**
+     * 设置录像目录分片方式
+     * 修改后后台迁移会把已有录像移动到新的目录结构
+     * @param mode VIDEO_SHARD_MODE_NONE / VIDEO_SHARD_MODE_DAILY / VIDEO_SHARD_MODE_HOURLY
+     */
+    public void setVideoShardMode(String mode) {
+        apply(edit().putString(KEY_VIDEO_SHARD_MODE, mode));
+        AppLog.d(TAG, "录像目录分片方式设置: " + mode);
+    }
+    
+    /**
+     * 获取录像目录分片方式
+     * @return 分片方式，默认不分片
+     */
+    public String getVideoShardMode() {
+        return prefs.getString(KEY_VIDEO_SHARD_MODE, VIDEO_SHARD_MODE_NONE);
+    }
+    
+    /**
+     * 设置是否启用分段文件预分配
+     * 直接写入U盘的录像分段和中转传输的目标文件在创建时预留空间，减少碎片
+     * @param enabled true 表示启用
+     */
+    public void setSegmentPreallocationEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_SEGMENT_PREALLOCATION_ENABLED, enabled));
+        AppLog.d(TAG, "分段文件预分配设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否启用分段文件预分配
+     * @return true 表示启用，默认禁用
+     */
+    public boolean isSegmentPreallocationEnabled() {
+        return prefs.getBoolean(KEY_SEGMENT_PREALLOCATION_ENABLED, false);
+    }
+    
+    /**
+     * 设置中转传输的复制方式
+     * @param engine "stream"（堆缓冲区）或 "channel"（FileChannel.transferTo）
+     */
+    public void setTransferCopyEngine(String engine) {
+        apply(edit().putString(KEY_TRANSFER_COPY_ENGINE, engine));
+        AppLog.d(TAG, "中转复制方式设置: " + engine);
+    }
+    
+    /**
+     * 获取中转传输的复制方式
+     * @return 复制方式，默认 "stream"
+     */
+    public String getTransferCopyEngine() {
+        return prefs.getString(KEY_TRANSFER_COPY_ENGINE, "stream");
+    }
+    
+    /**
+     * 设置中转传输块大小
+     * @param kb 每次读写/传输的块大小（KB）
+     */
+    public void setTransferChunkSizeKb(int kb) {
+        apply(edit().putInt(KEY_TRANSFER_CHUNK_SIZE_KB, kb));
+        AppLog.d(TAG, "中转块大小设置: " + kb + " KB");
+    }
+    
+    /**
+     * 获取中转传输块大小
+     * @return 块大小（KB），默认 64KB
+     */
+    public int getTransferChunkSizeKb() {
+        return prefs.getInt(KEY_TRANSFER_CHUNK_SIZE_KB, 64);
+    }
+    
+    /**
+     * 设置中转传输的周期落盘间隔
+     * @param mb 每写入多少 MB 执行一次 force，0 表示只在复制结束时 fsync
+     */
+    public void setTransferSyncIntervalMb(int mb) {
+        apply(edit().putInt(KEY_TRANSFER_SYNC_INTERVAL_MB, mb));
+        AppLog.d(TAG, "中转落盘间隔设置: " + mb + " MB");
+    }
+    
+    /**
+     * 获取中转传输的周期落盘间隔
+     * @return 间隔（MB），默认 0（只在结束时 fsync）
+     */
+    public int getTransferSyncIntervalMb() {
+        return prefs.getInt(KEY_TRANSFER_SYNC_INTERVAL_MB, 0);
+    }
+    
+    /**
+     * 设置 MediaRecorder 模式是否使用无缝分段
+     * 启用后通过 setNextOutputFile 切换分段文件，录制 Surface 和相机会话跨分段保持不变
+     * 个别车机上表现异常时关闭，回退到停止/重建的分段方式
+     * @param enabled true 表示启用
+     */
+    public void setGaplessSegmentEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_GAPLESS_SEGMENT_ENABLED, enabled));
+        AppLog.d(TAG, "MediaRecorder 无缝分段设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 MediaRecorder 模式是否使用无缝分段
+     * @return true 表示启用，默认禁用
+     */
+    public boolean isGaplessSegmentEnabled() {
+        return prefs.getBoolean(KEY_GAPLESS_SEGMENT_ENABLED, false);
+    }
+    
+    /**
+     * 设置 Codec 模式是否使用分片 MP4 封装
+     * 分片 MP4 每个 GOP 写出一个分片，熄火断电后录像仍可播放到最后一个完整分片
+     * @param enabled true 表示启用
+     */
+    public void setFragmentedMp4Enabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_FRAGMENTED_MP4_ENABLED, enabled));
+        AppLog.d(TAG, "分片 MP4 封装设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 模式是否使用分片 MP4 封装
+     * @return true 表示启用，默认禁用
+     */
+    public boolean isFragmentedMp4Enabled() {
+        return prefs.getBoolean(KEY_FRAGMENTED_MP4_ENABLED, false);
+    }
+    
+    /**
+     * 设置 Codec 模式是否使用异步编码回调
+     * 启用后编码输出由独立线程写入，渲染线程不再轮询编码器
+     * @param enabled true 表示启用
+     */
+    public void setAsyncEncoderEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_ASYNC_ENCODER_ENABLED, enabled));
+        AppLog.d(TAG, "异步编码回调设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 模式是否使用异步编码回调
+     * @return true 表示启用，默认禁用（使用轮询排空）
+     */
+    public boolean isAsyncEncoderEnabled() {
+        return prefs.getBoolean(KEY_ASYNC_ENCODER_ENABLED, false);
+    }
+    
+    /**
+     * 设置 Codec 模式预录缓冲时长
+     * 录制期间在内存中保留最近一段编码帧，远程录制触发时先写成事件前片段
+     * @param seconds 缓冲时长（秒），0 表示关闭
+     */
+    public void setPreEventSeconds(int seconds) {
+        apply(edit().putInt(KEY_PRE_EVENT_SECONDS, seconds));
+        AppLog.d(TAG, "预录缓冲时长设置: " + seconds + " 秒");
+    }
+    
+    /**
+     * 获取 Codec 模式预录缓冲时长
+     * @return 缓冲时长（秒），默认 0（关闭）
+     */
+    public int getPreEventSeconds() {
+        return prefs.getInt(KEY_PRE_EVENT_SECONDS, 0);
+    }
+    
+    /**
+     * 设置 Codec 模式是否把多路摄像头拼接为一路录制
+     * 启用后所有摄像头合成到一个网格画面，只占用一个硬件编码器，每个分段一个文件
+     * @param enabled true 表示启用
+     */
+    public void setMosaicRecordingEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_MOSAIC_RECORDING_ENABLED, enabled));
+        AppLog.d(TAG, "拼接录制设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取 Codec 模式是否拼接录制
+     * @return true 表示启用，默认禁用（每路独立编码）
+     */
+    public boolean isMosaicRecordingEnabled() {
+        return prefs.getBoolean(KEY_MOSAIC_RECORDING_ENABLED, false);
+    }
+    
+    /**
+     * 设置拼接画面分辨率
+     * @param resolution 分辨率字符串（如 "1920x1080"）
+     */
+    public void setMosaicResolution(String resolution) {
+        apply(edit().putString(KEY_MOSAIC_RESOLUTION, resolution));
+        AppLog.d(TAG, "拼接画面分辨率设置: " + resolution);
+    }
+    
+    /**
+     * 获取拼接画面分辨率
+     * @return [width, height]，配置无效时返回默认值
+     */
+    public int[] getMosaicResolution() {
+        int[] size = parseResolution(prefs.getString(KEY_MOSAIC_RESOLUTION, MOSAIC_RESOLUTION_DEFAULT));
+        if (size == null || size[0] < 16 || size[1] < 16) {
+            size = parseResolution(MOSAIC_RESOLUTION_DEFAULT);
+        }
+        return size;
+    }
+    
+    /**
+     * 设置是否使用共享渲染线程
+     * 启用后 Codec 录制渲染和鱼眼矫正预览共用一个线程和 EGL context，各路新帧合并到 vsync 统一绘制
+     * @param enabled true 表示启用
+     */
+    public void setSharedRenderThreadEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_SHARED_RENDER_THREAD_ENABLED, enabled));
+        AppLog.d(TAG, "共享渲染线程设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否使用共享渲染线程
+     * @return true 表示启用，默认禁用（每路独立线程和 EGL context）
+     */
+    public boolean isSharedRenderThreadEnabled() {
+        return prefs.getBoolean(KEY_SHARED_RENDER_THREAD_ENABLED, false);
+    }
+    
+    /**
+     * 设置是否使用硬件 JPEG 拍照
+     * 启用后预览会话额外挂一路 JPEG 输出，拍照由 ISP 编码后直接写盘，不再经过 TextureView 截图和 Bitmap 压缩
+     * @param enabled true 表示启用
+     */
+    public void setHardwareJpegCaptureEnabled(boolean enabled) {
+        apply(edit().putBoolean(KEY_HARDWARE_JPEG_CAPTURE_ENABLED, enabled));
+        AppLog.d(TAG, "硬件 JPEG 拍照设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否使用硬件 JPEG 拍照
+     * @return true 表示启用，默认禁用（TextureView 截图）
+     */
+    public boolean isHardwareJpegCaptureEnabled() {
+        return prefs.getBoolean(KEY_HARDWARE_JPEG_CAPTURE_ENABLED, false);
+    }
+    
     // ==================== 分段录制配置相关方法 ====================
     
     /**
@@ -1459,7 +1890,7 @@ public class AppConfig {
      * @param minutes 分段时长，单位分钟（1/3/5）
      */
     public void setSegmentDurationMinutes(int minutes) {
-        prefs.edit().putInt(KEY_SEGMENT_DURATION_MINUTES, minutes).apply();
+        apply(edit().putInt(KEY_SEGMENT_DURATION_MINUTES, minutes));
         AppLog.d(TAG, "分段时长设置: " + minutes + " 分钟");
     }
     
@@ -1486,7 +1917,7 @@ public class AppConfig {
      * @param enabled true 表示显示录制时间和分段数
      */
     public void setRecordingStatsEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_RECORDING_STATS_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_RECORDING_STATS_ENABLED, enabled));
         AppLog.d(TAG, "录制状态显示设置: " + (enabled ? "显示" : "隐藏"));
     }
     
@@ -1507,7 +1938,7 @@ public class AppConfig {
      * @param enabled true 表示启用补盲功能
      */
     public void setBlindSpotGlobalEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_BLIND_SPOT_GLOBAL_ENABLED, enabled));
         AppLog.d(TAG, "补盲功能全局开关: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1526,7 +1957,7 @@ public class AppConfig {
      * @param enabled true 表示启用超视模式
      */
     public void setSupervisionModeEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SUPERVISION_MODE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_SUPERVISION_MODE_ENABLED, enabled));
         AppLog.d(TAG, "超视模式设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1615,7 +2046,7 @@ public class AppConfig {
      * @param enabled true 表示启用长视模式
      */
     public void setLongViewModeEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_LONG_VIEW_MODE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_LONG_VIEW_MODE_ENABLED, enabled));
         AppLog.d(TAG, "长视模式设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1643,7 +2074,7 @@ public class AppConfig {
         int leftX = rightX - width - gap;
         int leftY = rightY;
         
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_SUPERVISION_LEFT_X, leftX)
             .putInt(KEY_SUPERVISION_LEFT_Y, leftY)
             .putInt(KEY_SUPERVISION_LEFT_WIDTH, width)
@@ -1651,8 +2082,7 @@ public class AppConfig {
             .putInt(KEY_SUPERVISION_RIGHT_X, rightX)
             .putInt(KEY_SUPERVISION_RIGHT_Y, rightY)
             .putInt(KEY_SUPERVISION_RIGHT_WIDTH, width)
-            .putInt(KEY_SUPERVISION_RIGHT_HEIGHT, height)
-            .apply();
+            .putInt(KEY_SUPERVISION_RIGHT_HEIGHT, height));
         
         AppLog.i(TAG, "🎯 重置超视模式默认位置: 左窗口(" + leftX + "," + leftY + "), 右窗口(" + rightX + "," + rightY + "), 尺寸=" + width + "x" + height);
     }
@@ -1673,7 +2103,7 @@ public class AppConfig {
      * 设置副屏显示开关
      */
     public void setSecondaryDisplayEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SECONDARY_DISPLAY_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_SECONDARY_DISPLAY_ENABLED, enabled));
         AppLog.d(TAG, "副屏显示设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -1685,7 +2115,7 @@ public class AppConfig {
      * 设置副屏显示的摄像头位置
      */
     public void setSecondaryDisplayCamera(String position) {
-        prefs.edit().putString(KEY_SECONDARY_DISPLAY_CAMERA, position).apply();
+        apply(edit().putString(KEY_SECONDARY_DISPLAY_CAMERA, position));
     }
     
     public String getSecondaryDisplayCamera() {
@@ -1696,7 +2126,7 @@ public class AppConfig {
      * 设置副屏 Display ID
      */
     public void setSecondaryDisplayId(int displayId) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ID, displayId).apply();
+        apply(edit().putInt(KEY_SECONDARY_DISPLAY_ID, displayId));
     }
     
     public int getSecondaryDisplayId() {
@@ -1707,12 +2137,11 @@ public class AppConfig {
      * 设置副屏位置和大小
      */
     public void setSecondaryDisplayBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_SECONDARY_DISPLAY_X, x)
             .putInt(KEY_SECONDARY_DISPLAY_Y, y)
             .putInt(KEY_SECONDARY_DISPLAY_WIDTH, width)
-            .putInt(KEY_SECONDARY_DISPLAY_HEIGHT, height)
-            .apply();
+            .putInt(KEY_SECONDARY_DISPLAY_HEIGHT, height));
     }
     
     public int getSecondaryDisplayX() {
@@ -1735,7 +2164,7 @@ public class AppConfig {
      * 设置副屏旋转角度
      */
     public void setSecondaryDisplayRotation(int rotation) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ROTATION, rotation).apply();
+        apply(edit().putInt(KEY_SECONDARY_DISPLAY_ROTATION, rotation));
     }
     
     public int getSecondaryDisplayRotation() {
@@ -1746,7 +2175,7 @@ public class AppConfig {
      * 设置是否显示白边框
      */
     public void setSecondaryDisplayBorderEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_SECONDARY_DISPLAY_BORDER, enabled).apply();
+        apply(edit().putBoolean(KEY_SECONDARY_DISPLAY_BORDER, enabled));
     }
     
     public boolean isSecondaryDisplayBorderEnabled() {
@@ -1757,7 +2186,7 @@ public class AppConfig {
      * 设置屏幕方向
      */
     public void setSecondaryDisplayOrientation(int orientation) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ORIENTATION, orientation).apply();
+        apply(edit().putInt(KEY_SECONDARY_DISPLAY_ORIENTATION, orientation));
     }
     
     public int getSecondaryDisplayOrientation() {
@@ -1769,7 +2198,7 @@ public class AppConfig {
      * @param alpha 透明度百分比，0为完全透明，100为完全不透明
      */
     public void setSecondaryDisplayAlpha(int alpha) {
-        prefs.edit().putInt(KEY_SECONDARY_DISPLAY_ALPHA, Math.max(0, Math.min(100, alpha))).apply();
+        apply(edit().putInt(KEY_SECONDARY_DISPLAY_ALPHA, Math.max(0, Math.min(100, alpha))));
         AppLog.d(TAG, "副屏补盲悬浮窗透明度设置: " + alpha + "%");
     }
 
@@ -1782,7 +2211,7 @@ public class AppConfig {
     }
 
     public void setMainFloatingAspectRatioLocked(boolean locked) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, locked).apply();
+        apply(edit().putBoolean(KEY_MAIN_FLOATING_ASPECT_RATIO_LOCKED, locked));
     }
 
     public boolean isMainFloatingAspectRatioLocked() {
@@ -1790,7 +2219,7 @@ public class AppConfig {
     }
 
     public void setMainFloatingLongPressDragEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, enabled).apply();
+        apply(edit().putBoolean(KEY_MAIN_FLOATING_LONG_PRESS_DRAG, enabled));
     }
 
     public boolean isMainFloatingLongPressDragEnabled() {
@@ -1798,7 +2227,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_BLIND_SPOT_CORRECTION_ENABLED, enabled));
     }
 
     public boolean isBlindSpotCorrectionEnabled() {
@@ -1806,7 +2235,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotDisclaimerAccepted(boolean accepted) {
-        prefs.edit().putBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, accepted).apply();
+        apply(edit().putBoolean(KEY_BLIND_SPOT_DISCLAIMER_ACCEPTED, accepted));
     }
 
     public boolean isBlindSpotDisclaimerAccepted() {
@@ -1818,19 +2247,19 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionScaleX(String cameraPos, float scaleX) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
+        apply(edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), scaleX));
     }
 
     public void setBlindSpotCorrectionScaleY(String cameraPos, float scaleY) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
+        apply(edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), scaleY));
     }
 
     public void setBlindSpotCorrectionTranslateX(String cameraPos, float translateX) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), translateX).apply();
+        apply(edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), translateX));
     }
 
     public void setBlindSpotCorrectionTranslateY(String cameraPos, float translateY) {
-        prefs.edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), translateY).apply();
+        apply(edit().putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), translateY));
     }
 
     public float getBlindSpotCorrectionScaleX(String cameraPos) {
@@ -1850,7 +2279,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionRotation(String cameraPos, int rotation) {
-        prefs.edit().putInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), rotation).apply();
+        apply(edit().putInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), rotation));
     }
 
     public int getBlindSpotCorrectionRotation(String cameraPos) {
@@ -1869,7 +2298,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionMirrorH(String cameraPos, boolean mirror) {
-        prefs.edit().putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_h"), mirror).apply();
+        apply(edit().putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_h"), mirror));
     }
 
     public boolean getBlindSpotCorrectionMirrorH(String cameraPos) {
@@ -1877,7 +2306,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotCorrectionMirrorV(String cameraPos, boolean mirror) {
-        prefs.edit().putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_v"), mirror).apply();
+        apply(edit().putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_v"), mirror));
     }
 
     public boolean getBlindSpotCorrectionMirrorV(String cameraPos) {
@@ -1885,15 +2314,14 @@ public class AppConfig {
     }
 
     public void resetBlindSpotCorrection(String cameraPos) {
-        prefs.edit()
+        apply(edit()
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_x"), 1.0f)
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "scale_y"), 1.0f)
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_x"), 0.0f)
                 .putFloat(getBlindSpotCorrectionKey(cameraPos, "translate_y"), 0.0f)
                 .putInt(getBlindSpotCorrectionKey(cameraPos, "rotation"), 0)
                 .putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_h"), false)
-                .putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_v"), false)
-                .apply();
+                .putBoolean(getBlindSpotCorrectionKey(cameraPos, "mirror_v"), false));
     }
 
     // ==================== 预览画面矫正配置相关方法 ====================
@@ -1902,7 +2330,7 @@ public class AppConfig {
      * 设置预览画面矫正开关
      */
     public void setPreviewCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_PREVIEW_CORRECTION_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_PREVIEW_CORRECTION_ENABLED, enabled));
         AppLog.d(TAG, "预览画面矫正设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -1918,19 +2346,19 @@ public class AppConfig {
     }
 
     public void setPreviewCorrectionScaleX(String cameraPos, float scaleX) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), scaleX).apply();
+        apply(edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), scaleX));
     }
 
     public void setPreviewCorrectionScaleY(String cameraPos, float scaleY) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), scaleY).apply();
+        apply(edit().putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), scaleY));
     }
 
     public void setPreviewCorrectionTranslateX(String cameraPos, float translateX) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), translateX).apply();
+        apply(edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), translateX));
     }
 
     public void setPreviewCorrectionTranslateY(String cameraPos, float translateY) {
-        prefs.edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), translateY).apply();
+        apply(edit().putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), translateY));
     }
 
     public float getPreviewCorrectionScaleX(String cameraPos) {
@@ -1953,12 +2381,11 @@ public class AppConfig {
      * 重置单路摄像头的预览矫正参数
      */
     public void resetPreviewCorrection(String cameraPos) {
-        prefs.edit()
+        apply(edit()
                 .putFloat(getPreviewCorrectionKey(cameraPos, "scale_x"), 1.0f)
                 .putFloat(getPreviewCorrectionKey(cameraPos, "scale_y"), 1.0f)
                 .putFloat(getPreviewCorrectionKey(cameraPos, "translate_x"), 0.0f)
-                .putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), 0.0f)
-                .apply();
+                .putFloat(getPreviewCorrectionKey(cameraPos, "translate_y"), 0.0f));
     }
 
     /**
@@ -1978,7 +2405,7 @@ public class AppConfig {
      * 设置鱼眼矫正开关
      */
     public void setFisheyeCorrectionEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FISHEYE_CORRECTION_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_FISHEYE_CORRECTION_ENABLED, enabled));
         AppLog.d(TAG, "鱼眼矫正设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -1995,7 +2422,7 @@ public class AppConfig {
 
     // --- K1 (主畸变系数) ---
     public void setFisheyeCorrectionK1(String cameraPos, float k1) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), k1).apply();
+        apply(edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), k1));
     }
 
     public float getFisheyeCorrectionK1(String cameraPos) {
@@ -2004,7 +2431,7 @@ public class AppConfig {
 
     // --- K2 (二次畸变系数) ---
     public void setFisheyeCorrectionK2(String cameraPos, float k2) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), k2).apply();
+        apply(edit().putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), k2));
     }
 
     public float getFisheyeCorrectionK2(String cameraPos) {
@@ -2013,7 +2440,7 @@ public class AppConfig {
 
     // --- Zoom (矫正后缩放) ---
     public void setFisheyeCorrectionZoom(String cameraPos, float zoom) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), zoom).apply();
+        apply(edit().putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), zoom));
     }
 
     public float getFisheyeCorrectionZoom(String cameraPos) {
@@ -2022,7 +2449,7 @@ public class AppConfig {
 
     // --- CenterX (畸变中心X偏移) ---
     public void setFisheyeCorrectionCenterX(String cameraPos, float cx) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), cx).apply();
+        apply(edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), cx));
     }
 
     public float getFisheyeCorrectionCenterX(String cameraPos) {
@@ -2031,7 +2458,7 @@ public class AppConfig {
 
     // --- CenterY (畸变中心Y偏移) ---
     public void setFisheyeCorrectionCenterY(String cameraPos, float cy) {
-        prefs.edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), cy).apply();
+        apply(edit().putFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), cy));
     }
 
     public float getFisheyeCorrectionCenterY(String cameraPos) {
@@ -2040,7 +2467,7 @@ public class AppConfig {
 
     // --- Rotation (旋转角度) ---
     public void setFisheyeCorrectionRotation(String cameraPos, int rotation) {
-        prefs.edit().putInt(getFisheyeCorrectionKey(cameraPos, "rotation"), rotation).apply();
+        apply(edit().putInt(getFisheyeCorrectionKey(cameraPos, "rotation"), rotation));
     }
 
     public int getFisheyeCorrectionRotation(String cameraPos) {
@@ -2051,14 +2478,13 @@ public class AppConfig {
      * 重置单路摄像头的鱼眼矫正参数
      */
     public void resetFisheyeCorrection(String cameraPos) {
-        prefs.edit()
+        apply(edit()
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "k1"), 0.0f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "k2"), 0.0f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "zoom"), 1.0f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "center_x"), 0.5f)
                 .putFloat(getFisheyeCorrectionKey(cameraPos, "center_y"), 0.5f)
-                .putInt(getFisheyeCorrectionKey(cameraPos, "rotation"), 0)
-                .apply();
+                .putInt(getFisheyeCorrectionKey(cameraPos, "rotation"), 0));
     }
 
     /**
@@ -2080,7 +2506,7 @@ public class AppConfig {
     private static final String KEY_FULLSCREEN_WINDOW_HEIGHT = "fullscreen_window_height";
 
     public void setFullscreenWindowX(String cameraPos, int x) {
-        prefs.edit().putInt(KEY_FULLSCREEN_WINDOW_X + "_" + cameraPos, x).apply();
+        apply(edit().putInt(KEY_FULLSCREEN_WINDOW_X + "_" + cameraPos, x));
     }
 
     public int getFullscreenWindowX(String cameraPos) {
@@ -2088,7 +2514,7 @@ public class AppConfig {
     }
 
     public void setFullscreenWindowY(String cameraPos, int y) {
-        prefs.edit().putInt(KEY_FULLSCREEN_WINDOW_Y + "_" + cameraPos, y).apply();
+        apply(edit().putInt(KEY_FULLSCREEN_WINDOW_Y + "_" + cameraPos, y));
     }
 
     public int getFullscreenWindowY(String cameraPos) {
@@ -2096,7 +2522,7 @@ public class AppConfig {
     }
 
     public void setFullscreenWindowWidth(String cameraPos, int width) {
-        prefs.edit().putInt(KEY_FULLSCREEN_WINDOW_WIDTH + "_" + cameraPos, width).apply();
+        apply(edit().putInt(KEY_FULLSCREEN_WINDOW_WIDTH + "_" + cameraPos, width));
     }
 
     public int getFullscreenWindowWidth(String cameraPos) {
@@ -2104,7 +2530,7 @@ public class AppConfig {
     }
 
     public void setFullscreenWindowHeight(String cameraPos, int height) {
-        prefs.edit().putInt(KEY_FULLSCREEN_WINDOW_HEIGHT + "_" + cameraPos, height).apply();
+        apply(edit().putInt(KEY_FULLSCREEN_WINDOW_HEIGHT + "_" + cameraPos, height));
     }
 
     public int getFullscreenWindowHeight(String cameraPos) {
@@ -2119,12 +2545,11 @@ public class AppConfig {
     }
 
     public void clearFullscreenWindowParams(String cameraPos) {
-        prefs.edit()
+        apply(edit()
                 .remove(KEY_FULLSCREEN_WINDOW_X + "_" + cameraPos)
                 .remove(KEY_FULLSCREEN_WINDOW_Y + "_" + cameraPos)
                 .remove(KEY_FULLSCREEN_WINDOW_WIDTH + "_" + cameraPos)
-                .remove(KEY_FULLSCREEN_WINDOW_HEIGHT + "_" + cameraPos)
-                .apply();
+                .remove(KEY_FULLSCREEN_WINDOW_HEIGHT + "_" + cameraPos));
     }
 
     // ==================== 主屏悬浮窗配置相关方法 ====================
@@ -2133,7 +2558,7 @@ public class AppConfig {
      * 设置主屏悬浮窗开关
      */
     public void setMainFloatingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MAIN_FLOATING_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_MAIN_FLOATING_ENABLED, enabled));
         AppLog.d(TAG, "主屏悬浮窗设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2145,7 +2570,7 @@ public class AppConfig {
      * 设置主屏悬浮窗显示的摄像头位置
      */
     public void setMainFloatingCamera(String position) {
-        prefs.edit().putString(KEY_MAIN_FLOATING_CAMERA, position).apply();
+        apply(edit().putString(KEY_MAIN_FLOATING_CAMERA, position));
     }
 
     public String getMainFloatingCamera() {
@@ -2156,12 +2581,11 @@ public class AppConfig {
      * 设置主屏悬浮窗位置和大小
      */
     public void setMainFloatingBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_MAIN_FLOATING_X, x)
             .putInt(KEY_MAIN_FLOATING_Y, y)
             .putInt(KEY_MAIN_FLOATING_WIDTH, width)
-            .putInt(KEY_MAIN_FLOATING_HEIGHT, height)
-            .apply();
+            .putInt(KEY_MAIN_FLOATING_HEIGHT, height));
     }
 
     public int getMainFloatingX() {
@@ -2184,12 +2608,11 @@ public class AppConfig {
      * 重置主屏悬浮窗位置和大小为默认值
      */
     public void resetMainFloatingBounds() {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_MAIN_FLOATING_X, 100)
             .putInt(KEY_MAIN_FLOATING_Y, 100)
             .putInt(KEY_MAIN_FLOATING_WIDTH, 480)
-            .putInt(KEY_MAIN_FLOATING_HEIGHT, 320)
-            .apply();
+            .putInt(KEY_MAIN_FLOATING_HEIGHT, 320));
     }
 
     // ==================== 转向灯联动配置相关方法 ====================
@@ -2198,7 +2621,7 @@ public class AppConfig {
      * 设置转向灯联动开关
      */
     public void setTurnSignalLinkageEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_TURN_SIGNAL_LINKAGE_ENABLED, enabled));
         AppLog.d(TAG, "转向灯联动设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2210,7 +2633,7 @@ public class AppConfig {
      * 设置转向灯熄灭后的延迟消失时间（秒）
      */
     public void setTurnSignalTimeout(int seconds) {
-        prefs.edit().putInt(KEY_TURN_SIGNAL_TIMEOUT, seconds).apply();
+        apply(edit().putInt(KEY_TURN_SIGNAL_TIMEOUT, seconds));
     }
 
    public int getTurnSignalTimeout() {
@@ -2221,7 +2644,7 @@ public class AppConfig {
      * 设置是否复用主屏悬浮窗
      */
     public void setTurnSignalReuseMainFloating(boolean reuse) {
-        prefs.edit().putBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, reuse).apply();
+        apply(edit().putBoolean(KEY_TURN_SIGNAL_REUSE_MAIN_FLOATING, reuse));
     }
 
     public boolean isTurnSignalReuseMainFloating() {
@@ -2229,7 +2652,7 @@ public class AppConfig {
     }
 
     public void setTurnSignalCustomLeftTriggerLog(String keyword) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_CUSTOM_LEFT_TRIGGER_LOG, keyword).apply();
+        apply(edit().putString(KEY_TURN_SIGNAL_CUSTOM_LEFT_TRIGGER_LOG, keyword));
     }
 
     public String getTurnSignalCustomLeftTriggerLog() {
@@ -2240,7 +2663,7 @@ public class AppConfig {
     }
 
     public void setTurnSignalCustomRightTriggerLog(String keyword) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_CUSTOM_RIGHT_TRIGGER_LOG, keyword).apply();
+        apply(edit().putString(KEY_TURN_SIGNAL_CUSTOM_RIGHT_TRIGGER_LOG, keyword));
     }
 
     public String getTurnSignalCustomRightTriggerLog() {
@@ -2263,7 +2686,7 @@ public class AppConfig {
      * @param mode TRIGGER_MODE_LOGCAT 或 TRIGGER_MODE_CAR_API
      */
     public void setTurnSignalTriggerMode(String mode) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_TRIGGER_MODE, mode).apply();
+        apply(edit().putString(KEY_TURN_SIGNAL_TRIGGER_MODE, mode));
         AppLog.d(TAG, "转向灯触发模式: " + mode);
     }
 
@@ -2301,7 +2724,7 @@ public class AppConfig {
      * @param presetName 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public void setTurnSignalPresetSelection(String presetName) {
-        prefs.edit().putString(KEY_TURN_SIGNAL_PRESET_SELECTION, presetName).apply();
+        apply(edit().putString(KEY_TURN_SIGNAL_PRESET_SELECTION, presetName));
         AppLog.d(TAG, "保存转向灯预设选择: " + presetName);
     }
 
@@ -2319,7 +2742,7 @@ public class AppConfig {
      * 设置车门联动开关（左右补盲）
      */
     public void setDoorLinkageEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_DOOR_LINKAGE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_DOOR_LINKAGE_ENABLED, enabled));
         AppLog.d(TAG, "车门联动设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2331,7 +2754,7 @@ public class AppConfig {
      * 设置车门关闭后延迟消失时间
      */
     public void setDoorTimeout(int seconds) {
-        prefs.edit().putInt(KEY_DOOR_TIMEOUT, seconds).apply();
+        apply(edit().putInt(KEY_DOOR_TIMEOUT, seconds));
     }
 
     public int getDoorTimeout() {
@@ -2343,7 +2766,7 @@ public class AppConfig {
      * @param presetName 预设名称，如 "l6l7" 或 "boyue_l"
      */
     public void setDoorPresetSelection(String presetName) {
-        prefs.edit().putString(KEY_DOOR_PRESET_SELECTION, presetName).apply();
+        apply(edit().putString(KEY_DOOR_PRESET_SELECTION, presetName));
         AppLog.d(TAG, "保存车门联动预设选择: " + presetName);
     }
 
@@ -2359,7 +2782,7 @@ public class AppConfig {
      * 设置车门联动是否复用主屏悬浮窗
      */
     public void setDoorReuseMainFloating(boolean reuse) {
-        prefs.edit().putBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, reuse).apply();
+        apply(edit().putBoolean(KEY_DOOR_REUSE_MAIN_FLOATING, reuse));
     }
 
     public boolean isDoorReuseMainFloating() {
@@ -2370,7 +2793,7 @@ public class AppConfig {
      * 设置车门联动副屏显示开关
      */
     public void setDoorSecondaryDisplayEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_DOOR_SECONDARY_DISPLAY_ENABLED, enabled));
     }
 
     public boolean isDoorSecondaryDisplayEnabled() {
@@ -2381,12 +2804,11 @@ public class AppConfig {
      * 设置独立补盲悬浮窗位置和大小
      */
     public void setTurnSignalFloatingBounds(int x, int y, int width, int height) {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_TURN_SIGNAL_FLOATING_X, x)
             .putInt(KEY_TURN_SIGNAL_FLOATING_Y, y)
             .putInt(KEY_TURN_SIGNAL_FLOATING_WIDTH, width)
-            .putInt(KEY_TURN_SIGNAL_FLOATING_HEIGHT, height)
-            .apply();
+            .putInt(KEY_TURN_SIGNAL_FLOATING_HEIGHT, height));
     }
 
     public int getTurnSignalFloatingX() {
@@ -2409,7 +2831,7 @@ public class AppConfig {
      * 设置独立补盲悬浮窗旋转
      */
     public void setTurnSignalFloatingRotation(int rotation) {
-        prefs.edit().putInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, rotation).apply();
+        apply(edit().putInt(KEY_TURN_SIGNAL_FLOATING_ROTATION, rotation));
     }
 
     public int getTurnSignalFloatingRotation() {
@@ -2419,7 +2841,7 @@ public class AppConfig {
     // ==================== 桌面悬浮模拟按钮配置相关方法 ====================
 
     public void setMockTurnSignalFloatingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_MOCK_TURN_SIGNAL_FLOATING_ENABLED, enabled));
     }
 
     public boolean isMockTurnSignalFloatingEnabled() {
@@ -2427,10 +2849,9 @@ public class AppConfig {
     }
 
     public void setMockTurnSignalFloatingPosition(int x, int y) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_MOCK_TURN_SIGNAL_FLOATING_X, x)
-                .putInt(KEY_MOCK_TURN_SIGNAL_FLOATING_Y, y)
-                .apply();
+                .putInt(KEY_MOCK_TURN_SIGNAL_FLOATING_Y, y));
     }
 
     public int getMockTurnSignalFloatingX() {
@@ -2444,7 +2865,7 @@ public class AppConfig {
     // ==================== 悬浮窗动效配置 ====================
 
     public void setFloatingWindowAnimationEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_FLOATING_WINDOW_ANIMATION_ENABLED, enabled));
     }
 
     public boolean isFloatingWindowAnimationEnabled() {
@@ -2452,7 +2873,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotStatusBarStyle(int style) {
-        prefs.edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_STYLE, style).apply();
+        apply(edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_STYLE, style));
     }
 
     /**
@@ -2463,7 +2884,7 @@ public class AppConfig {
     }
 
     public void setBlindSpotStatusBarColor(int color) {
-        prefs.edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_COLOR, color).apply();
+        apply(edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_COLOR, color));
     }
 
     /**
@@ -2477,7 +2898,7 @@ public class AppConfig {
      * @param opacity 0-100, 0=完全透明, 100=完全不透明
      */
     public void setBlindSpotStatusBarBgOpacity(int opacity) {
-        prefs.edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_BG_OPACITY, opacity).apply();
+        apply(edit().putInt(KEY_BLIND_SPOT_STATUS_BAR_BG_OPACITY, opacity));
     }
 
     /**
@@ -2494,7 +2915,7 @@ public class AppConfig {
      * @param enabled true 表示在保存的视频和图片上添加时间角标
      */
     public void setTimestampWatermarkEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, enabled));
         AppLog.d(TAG, "时间角标设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2514,7 +2935,7 @@ public class AppConfig {
      * @param enabled true 表示强制 H.264（兼容性优先），false 表示优先使用 H.265/HEVC
      */
     public void setForceH264Encoding(boolean enabled) {
-        prefs.edit().putBoolean(KEY_FORCE_H264_ENCODING, enabled).apply();
+        apply(edit().putBoolean(KEY_FORCE_H264_ENCODING, enabled));
         AppLog.d(TAG, "强制 H.264 编码: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -2552,7 +2973,7 @@ public class AppConfig {
                 AppLog.w(TAG, "未知的摄像头位置: " + position);
                 return;
         }
-        prefs.edit().putBoolean(key, enabled).apply();
+        apply(edit().putBoolean(key, enabled));
         AppLog.d(TAG, "录制摄像头设置: " + position + " = " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2628,12 +3049,11 @@ public class AppConfig {
      * 重置录制摄像头选择为全选
      */
     public void resetRecordingCameraSelection() {
-        prefs.edit()
+        apply(edit()
             .putBoolean(KEY_RECORDING_CAMERA_FRONT_ENABLED, true)
             .putBoolean(KEY_RECORDING_CAMERA_BACK_ENABLED, true)
             .putBoolean(KEY_RECORDING_CAMERA_LEFT_ENABLED, true)
-            .putBoolean(KEY_RECORDING_CAMERA_RIGHT_ENABLED, true)
-            .apply();
+            .putBoolean(KEY_RECORDING_CAMERA_RIGHT_ENABLED, true));
         AppLog.d(TAG, "录制摄像头选择已重置为全选");
     }
     
@@ -2687,7 +3107,7 @@ public class AppConfig {
             default:
                 return;  // 未知位置不处理
         }
-        prefs.edit().putBoolean(key, visible).apply();
+        apply(edit().putBoolean(key, visible));
     }
     
     /**
@@ -2713,7 +3133,7 @@ public class AppConfig {
      * @param enabled true 表示启用
      */
     public void setImageAdjustEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_IMAGE_ADJUST_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_IMAGE_ADJUST_ENABLED, enabled));
         AppLog.d(TAG, "亮度/降噪调节设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2730,7 +3150,7 @@ public class AppConfig {
      * @param value 曝光补偿值（范围取决于设备，通常 -12 到 +12）
      */
     public void setExposureCompensation(int value) {
-        prefs.edit().putInt(KEY_EXPOSURE_COMPENSATION, value).apply();
+        apply(edit().putInt(KEY_EXPOSURE_COMPENSATION, value));
         AppLog.d(TAG, "曝光补偿设置: " + value);
     }
     
@@ -2747,7 +3167,7 @@ public class AppConfig {
      * @param mode 白平衡模式（AWB_MODE_* 常量）
      */
     public void setAwbMode(int mode) {
-        prefs.edit().putInt(KEY_AWB_MODE, mode).apply();
+        apply(edit().putInt(KEY_AWB_MODE, mode));
         AppLog.d(TAG, "白平衡模式设置: " + mode);
     }
     
@@ -2764,7 +3184,7 @@ public class AppConfig {
      * @param mode 色调映射模式（TONEMAP_MODE_* 常量）
      */
     public void setTonemapMode(int mode) {
-        prefs.edit().putInt(KEY_TONEMAP_MODE, mode).apply();
+        apply(edit().putInt(KEY_TONEMAP_MODE, mode));
         AppLog.d(TAG, "色调映射模式设置: " + mode);
     }
     
@@ -2781,7 +3201,7 @@ public class AppConfig {
      * @param mode 边缘增强模式（EDGE_MODE_* 常量）
      */
     public void setEdgeMode(int mode) {
-        prefs.edit().putInt(KEY_EDGE_MODE, mode).apply();
+        apply(edit().putInt(KEY_EDGE_MODE, mode));
         AppLog.d(TAG, "边缘增强模式设置: " + mode);
     }
     
@@ -2798,7 +3218,7 @@ public class AppConfig {
      * @param mode 降噪模式（NOISE_REDUCTION_* 常量）
      */
     public void setNoiseReductionMode(int mode) {
-        prefs.edit().putInt(KEY_NOISE_REDUCTION_MODE, mode).apply();
+        apply(edit().putInt(KEY_NOISE_REDUCTION_MODE, mode));
         AppLog.d(TAG, "降噪模式设置: " + mode);
     }
     
@@ -2815,7 +3235,7 @@ public class AppConfig {
      * @param mode 特效模式（EFFECT_MODE_* 常量）
      */
     public void setEffectMode(int mode) {
-        prefs.edit().putInt(KEY_EFFECT_MODE, mode).apply();
+        apply(edit().putInt(KEY_EFFECT_MODE, mode));
         AppLog.d(TAG, "特效模式设置: " + mode);
     }
     
@@ -2832,7 +3252,7 @@ public class AppConfig {
      * @param mode 场景模式
      */
     public void setSceneMode(int mode) {
-        prefs.edit().putInt(KEY_SCENE_MODE, mode).apply();
+        apply(edit().putInt(KEY_SCENE_MODE, mode));
         AppLog.d(TAG, "场景模式设置: " + mode);
     }
     
@@ -2848,15 +3268,14 @@ public class AppConfig {
      * 重置所有亮度/降噪调节参数为默认值
      */
     public void resetImageAdjustParams() {
-        prefs.edit()
+        apply(edit()
             .putInt(KEY_EXPOSURE_COMPENSATION, 0)
             .putInt(KEY_AWB_MODE, AWB_MODE_DEFAULT)
             .putInt(KEY_TONEMAP_MODE, TONEMAP_MODE_DEFAULT)
             .putInt(KEY_EDGE_MODE, EDGE_MODE_DEFAULT)
             .putInt(KEY_NOISE_REDUCTION_MODE, NOISE_REDUCTION_DEFAULT)
             .putInt(KEY_EFFECT_MODE, EFFECT_MODE_DEFAULT)
-            .putInt(KEY_SCENE_MODE, -1)
-            .apply();
+            .putInt(KEY_SCENE_MODE, -1));
         AppLog.d(TAG, "亮度/降噪调节参数已重置为默认值");
     }
     
@@ -2940,7 +3359,7 @@ public class AppConfig {
      * @param enabled true 表示启用自由操控
      */
     public void setCustomFreeControlEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_CUSTOM_FREE_CONTROL_ENABLED, enabled));
         AppLog.d(TAG, "自由操控设置: " + (enabled ? "启用" : "禁用"));
     }
     
@@ -2957,7 +3376,7 @@ public class AppConfig {
      * @param style 按钮样式（BUTTON_STYLE_STANDARD / BUTTON_STYLE_MULTI）
      */
     public void setCustomButtonStyle(String style) {
-        prefs.edit().putString(KEY_CUSTOM_BUTTON_STYLE, style).apply();
+        apply(edit().putString(KEY_CUSTOM_BUTTON_STYLE, style));
         AppLog.d(TAG, "按钮样式设置: " + style);
     }
     
@@ -2974,7 +3393,7 @@ public class AppConfig {
      * @param orientation 方向（BUTTON_ORIENTATION_HORIZONTAL / BUTTON_ORIENTATION_VERTICAL）
      */
     public void setCustomButtonOrientation(String orientation) {
-        prefs.edit().putString(KEY_CUSTOM_BUTTON_ORIENTATION, orientation).apply();
+        apply(edit().putString(KEY_CUSTOM_BUTTON_ORIENTATION, orientation));
         AppLog.d(TAG, "按钮布局方向设置: " + orientation);
     }
     
@@ -2991,7 +3410,7 @@ public class AppConfig {
      * @param layoutDataJson 布局数据JSON字符串
      */
     public void setCustomLayoutData(String layoutDataJson) {
-        prefs.edit().putString(KEY_CUSTOM_LAYOUT_DATA, layoutDataJson).apply();
+        apply(edit().putString(KEY_CUSTOM_LAYOUT_DATA, layoutDataJson));
         AppLog.d(TAG, "自定义布局数据已保存");
     }
     
@@ -3007,7 +3426,7 @@ public class AppConfig {
      * 清除自定义布局数据
      */
     public void clearCustomLayoutData() {
-        prefs.edit().remove(KEY_CUSTOM_LAYOUT_DATA).apply();
+        apply(edit().remove(KEY_CUSTOM_LAYOUT_DATA));
         AppLog.d(TAG, "自定义布局数据已清除");
     }
 
@@ -3016,7 +3435,7 @@ public class AppConfig {
     }
 
     public void setCustomLayoutVersion(int version) {
-        prefs.edit().putInt(KEY_CUSTOM_LAYOUT_VERSION, version).apply();
+        apply(edit().putInt(KEY_CUSTOM_LAYOUT_VERSION, version));
     }
     
     /**
@@ -3062,10 +3481,10 @@ public class AppConfig {
      */
     public void setUpdateServerUrl(String url) {
         if (url == null || url.trim().isEmpty()) {
-            prefs.edit().remove(KEY_UPDATE_SERVER_URL).apply();
+            apply(edit().remove(KEY_UPDATE_SERVER_URL));
             AppLog.d(TAG, "清除更新服务器地址");
         } else {
-            prefs.edit().putString(KEY_UPDATE_SERVER_URL, url.trim()).apply();
+            apply(edit().putString(KEY_UPDATE_SERVER_URL, url.trim()));
             AppLog.d(TAG, "更新服务器地址设置: " + url.trim());
         }
     }
@@ -3096,7 +3515,7 @@ public class AppConfig {
      * 设置全景影像避让开关
      */
     public void setAvmAvoidanceEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_AVM_AVOIDANCE_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_AVM_AVOIDANCE_ENABLED, enabled));
         AppLog.d(TAG, "全景影像避让设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -3111,7 +3530,7 @@ public class AppConfig {
      * 设置全景影像避让的Activity名称
      */
     public void setAvmAvoidanceActivity(String activityName) {
-        prefs.edit().putString(KEY_AVM_AVOIDANCE_ACTIVITY, activityName).apply();
+        apply(edit().putString(KEY_AVM_AVOIDANCE_ACTIVITY, activityName));
         AppLog.d(TAG, "全景影像避让Activity: " + activityName);
     }
 
@@ -3128,7 +3547,7 @@ public class AppConfig {
      * 设置定制键唤醒开关
      */
     public void setCustomKeyWakeupEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_CUSTOM_KEY_WAKEUP_ENABLED, enabled));
         AppLog.d(TAG, "定制键唤醒设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -3143,7 +3562,7 @@ public class AppConfig {
      * 设置速度阈值（秒速 m/s）
      */
     public void setCustomKeySpeedThreshold(float threshold) {
-        prefs.edit().putFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, threshold).apply();
+        apply(edit().putFloat(KEY_CUSTOM_KEY_SPEED_THRESHOLD, threshold));
         AppLog.d(TAG, "定制键速度阈值: " + threshold + " m/s");
     }
 
@@ -3158,7 +3577,7 @@ public class AppConfig {
      * 设置速度属性ID
      */
     public void setCustomKeySpeedPropId(int propId) {
-        prefs.edit().putInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, propId).apply();
+        apply(edit().putInt(KEY_CUSTOM_KEY_SPEED_PROP_ID, propId));
     }
 
     /**
@@ -3172,7 +3591,7 @@ public class AppConfig {
      * 设置按钮属性ID
      */
     public void setCustomKeyButtonPropId(int propId) {
-        prefs.edit().putInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, propId).apply();
+        apply(edit().putInt(KEY_CUSTOM_KEY_BUTTON_PROP_ID, propId));
     }
 
     /**
@@ -3188,13 +3607,12 @@ public class AppConfig {
      * 设置前轮模式左视图参数
      */
     public void setFrontWheelLeftViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_FRONT_WHEEL_LEFT_WIDTH, width)
                 .putInt(KEY_FRONT_WHEEL_LEFT_HEIGHT, height)
                 .putInt(KEY_FRONT_WHEEL_LEFT_X, x)
                 .putInt(KEY_FRONT_WHEEL_LEFT_Y, y)
-                .putInt(KEY_FRONT_WHEEL_LEFT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_FRONT_WHEEL_LEFT_ROTATION, rotation));
         AppLog.d(TAG, "前轮模式左视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3237,13 +3655,12 @@ public class AppConfig {
      * 设置前轮模式右视图参数
      */
     public void setFrontWheelRightViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_FRONT_WHEEL_RIGHT_WIDTH, width)
                 .putInt(KEY_FRONT_WHEEL_RIGHT_HEIGHT, height)
                 .putInt(KEY_FRONT_WHEEL_RIGHT_X, x)
                 .putInt(KEY_FRONT_WHEEL_RIGHT_Y, y)
-                .putInt(KEY_FRONT_WHEEL_RIGHT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_FRONT_WHEEL_RIGHT_ROTATION, rotation));
         AppLog.d(TAG, "前轮模式右视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3286,13 +3703,12 @@ public class AppConfig {
      * 设置后轮模式左视图参数
      */
     public void setRearWheelLeftViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_REAR_WHEEL_LEFT_WIDTH, width)
                 .putInt(KEY_REAR_WHEEL_LEFT_HEIGHT, height)
                 .putInt(KEY_REAR_WHEEL_LEFT_X, x)
                 .putInt(KEY_REAR_WHEEL_LEFT_Y, y)
-                .putInt(KEY_REAR_WHEEL_LEFT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_REAR_WHEEL_LEFT_ROTATION, rotation));
         AppLog.d(TAG, "后轮模式左视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3335,13 +3751,12 @@ public class AppConfig {
      * 设置后轮模式右视图参数
      */
     public void setRearWheelRightViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_REAR_WHEEL_RIGHT_WIDTH, width)
                 .putInt(KEY_REAR_WHEEL_RIGHT_HEIGHT, height)
                 .putInt(KEY_REAR_WHEEL_RIGHT_X, x)
                 .putInt(KEY_REAR_WHEEL_RIGHT_Y, y)
-                .putInt(KEY_REAR_WHEEL_RIGHT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_REAR_WHEEL_RIGHT_ROTATION, rotation));
         AppLog.d(TAG, "后轮模式右视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3384,13 +3799,12 @@ public class AppConfig {
      * 设置普通模式左视图参数
      */
     public void setNormalLeftViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_NORMAL_LEFT_WIDTH, width)
                 .putInt(KEY_NORMAL_LEFT_HEIGHT, height)
                 .putInt(KEY_NORMAL_LEFT_X, x)
                 .putInt(KEY_NORMAL_LEFT_Y, y)
-                .putInt(KEY_NORMAL_LEFT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_NORMAL_LEFT_ROTATION, rotation));
         AppLog.d(TAG, "普通模式左视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3433,13 +3847,12 @@ public class AppConfig {
      * 设置普通模式右视图参数
      */
     public void setNormalRightViewParams(int width, int height, int x, int y, int rotation) {
-        prefs.edit()
+        apply(edit()
                 .putInt(KEY_NORMAL_RIGHT_WIDTH, width)
                 .putInt(KEY_NORMAL_RIGHT_HEIGHT, height)
                 .putInt(KEY_NORMAL_RIGHT_X, x)
                 .putInt(KEY_NORMAL_RIGHT_Y, y)
-                .putInt(KEY_NORMAL_RIGHT_ROTATION, rotation)
-                .apply();
+                .putInt(KEY_NORMAL_RIGHT_ROTATION, rotation));
         AppLog.d(TAG, "普通模式右视图参数已保存: " + width + "x" + height + " @(" + x + "," + y + ") 旋转" + rotation + "°");
     }
 
@@ -3559,7 +3972,7 @@ public class AppConfig {
      * 设置是否使用新的录制架构
      */
     public void setUseNewRecordingArchitecture(boolean enabled) {
-        prefs.edit().putBoolean("use_new_recording_architecture", enabled).apply();
+        apply(edit().putBoolean("use_new_recording_architecture", enabled));
         AppLog.d(TAG, "新录制架构设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -3583,7 +3996,7 @@ public class AppConfig {
      * 设置录制悬浮按钮启用状态
      */
     public void setRecordingFloatingEnabled(boolean enabled) {
-        prefs.edit().putBoolean(KEY_RECORDING_FLOATING_ENABLED, enabled).apply();
+        apply(edit().putBoolean(KEY_RECORDING_FLOATING_ENABLED, enabled));
         AppLog.d(TAG, "录制悬浮按钮设置: " + (enabled ? "启用" : "禁用"));
     }
 
@@ -3598,7 +4011,7 @@ public class AppConfig {
      * 设置录制悬浮按钮大小（dp）
      */
     public void setRecordingFloatingButtonSizeDp(int sizeDp) {
-        prefs.edit().putInt(KEY_RECORDING_FLOATING_BUTTON_SIZE, sizeDp).apply();
+        apply(edit().putInt(KEY_RECORDING_FLOATING_BUTTON_SIZE, sizeDp));
         AppLog.d(TAG, "录制悬浮按钮大小设置: " + sizeDp + "dp");
     }
 
@@ -3613,7 +4026,7 @@ public class AppConfig {
      * 设置录制悬浮按钮时间文字大小（sp）
      */
     public void setRecordingFloatingTimeTextSizeSp(int sizeSp) {
-        prefs.edit().putInt(KEY_RECORDING_FLOATING_TIME_TEXT_SIZE, sizeSp).apply();
+        apply(edit().putInt(KEY_RECORDING_FLOATING_TIME_TEXT_SIZE, sizeSp));
         AppLog.d(TAG, "录制悬浮按钮时间文字大小设置: " + sizeSp + "sp");
     }
 }
@@ -157,8 +157,7 @@ public class CameraForegroundService extends Service {
      */
     private void acquireWakeLock() {
         try {
-            AppConfig appConfig = new AppConfig(this);
-            if (appConfig.isAutoStartOnBoot()) {
+            if (AppConfig.snapshot(this).autoStartOnBoot) {
                 WakeUpHelper.acquirePersistentWakeLock(this);
                 AppLog.d(TAG, "WakeLock acquired (开机自启动已开启)");
             } else {
@@ -232,13 +231,13 @@ public class CameraForegroundService extends Service {
      */
     private void ensureRemoteServicesStarted() {
         try {
-            AppConfig appConfig = new AppConfig(this);
-            if (!appConfig.isAutoStartOnBoot()) {
+            AppConfig.Snapshot configSnapshot = AppConfig.snapshot(this);
+            if (!configSnapshot.autoStartOnBoot) {
                 return;  // 未开启开机自启动，跳过
             }
             
             // 检查并启动悬浮窗
-            if (appConfig.isFloatingWindowEnabled() && !FloatingWindowService.isRunning()) {
+            if (configSnapshot.floatingWindowEnabled && !FloatingWindowService.isRunning()) {
                 AppLog.d(TAG, "悬浮窗未运行，重新启动...");
                 FloatingWindowService.start(this);
             }
@@ -251,7 +250,7 @@ public class CameraForegroundService extends Service {
             }
             
             // 检查并启动 MainActivity（如果启用了自动录制且 Activity 未运行）
-            if (appConfig.isAutoStartRecording() && MainActivity.getInstance() == null) {
+            if (configSnapshot.autoStartRecording && MainActivity.getInstance() == null) {
                 startMainActivityForAutoRecording();
             }
         } catch (Exception e) {
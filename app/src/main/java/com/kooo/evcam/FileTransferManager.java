@@ -3,14 +3,24 @@ package com.kooo.evcam;
 import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.kooo.evcam.storage.FileCopyEngine;
+import com.kooo.evcam.storage.StorageIndex;
+import com.kooo.evcam.storage.TransferJournal;
+import com.kooo.evcam.storage.VideoShardLayout;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 文件传输管理器
@@ -22,6 +32,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 3. 后台线程负责将文件移动/复制到目标目录
  * 4. 传输完成后删除临时文件
  * 
+ * 调度：
+ * - 传输线程阻塞在优先级队列上，没有任务时不唤醒
+ * - 远程命令请求的文件（PRIORITY_REMOTE）优先于常规中转
+ * - 失败后按指数退避加随机抖动重试，退避同时参考目标设备（如U盘）的连续失败次数
+ * 
  * 这样可以避免U盘慢速写入影响录制性能
  */
 public class FileTransferManager {
@@ -30,21 +45,53 @@ public class FileTransferManager {
     // 临时目录名称（在内部存储的应用缓存目录下）
     public static final String TEMP_VIDEO_DIR = "temp_video";
     
+    // 任务优先级（数值越小越先处理）
+    public static final int PRIORITY_REMOTE = 0;   // 远程命令请求的文件
+    public static final int PRIORITY_NORMAL = 1;   // 常规中转
+    
     // 传输任务
     private static class TransferTask {
         final File sourceFile;      // 源文件（临时目录中）
         final File targetFile;      // 目标文件（最终存储位置）
-        final TransferCallback callback;
+        final List<TransferCallback> callbacks = new CopyOnWriteArrayList<>();
+        final long sequence;        // 入队顺序（同优先级先进先出）
+        volatile int priority;
         int retryCount;             // 重试次数
+        volatile boolean awaitingRetry;  // 正在退避等待重试
         
-        TransferTask(File source, File target, TransferCallback callback) {
+        TransferTask(File source, File target, TransferCallback callback, int priority, long sequence) {
             this.sourceFile = source;
             this.targetFile = target;
-            this.callback = callback;
+            this.priority = priority;
+            this.sequence = sequence;
             this.retryCount = 0;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+        
+        void notifyComplete() {
+            for (TransferCallback callback : callbacks) {
+                callback.onTransferComplete(sourceFile, targetFile);
+            }
+        }
+        
+        void notifyFailed(String error) {
+            for (TransferCallback callback : callbacks) {
+                callback.onTransferFailed(sourceFile, targetFile, error);
+            }
         }
     }
     
+    // 目标设备的重试状态
+    private static class DeviceRetryState {
+        int consecutiveFailures;    // 连续失败次数（成功后清零）
+        long totalRetries;          // 累计重试次数
+    }
+    
+    // 停止信号（优先级最高，传输线程处理完当前任务后退出）
+    private static final TransferTask STOP_SIGNAL = new TransferTask(null, null, null, Integer.MIN_VALUE, Long.MIN_VALUE);
+    
     // 传输回调
     public interface TransferCallback {
         void onTransferComplete(File sourceFile, File targetFile);
@@ -55,30 +102,40 @@ public class FileTransferManager {
     private static FileTransferManager instance;
     
     private final Context context;
-    private final ConcurrentLinkedQueue<TransferTask> transferQueue;
-    private HandlerThread transferThread;
-    private Handler transferHandler;
+    private final PriorityBlockingQueue<TransferTask> transferQueue;
+    private final Map<String, TransferTask> tasksBySource = new ConcurrentHashMap<>();  // 排队、进行中、等待重试的任务
+    private final Map<String, DeviceRetryState> deviceStates = new ConcurrentHashMap<>();
+    private final AtomicLong taskSequence = new AtomicLong();
+    private final Random jitter = new Random();
+    private final Object workerLock = new Object();
+    private Thread workerThread;         // 仅在 workerLock 内读写
+    private HandlerThread timerThread;   // 重试退避和启动恢复的定时器
+    private volatile Handler timerHandler;
     private final AtomicBoolean isRunning;
-    private final AtomicBoolean isProcessing;
     
     // 配置
     private static final int MAX_RETRY_COUNT = 5;           // 最大重试次数（增加到5次）
-    private static final long RETRY_DELAY_MS = 3000;        // 重试延迟（毫秒）- 减少到3秒加快重试
-    private static final long TRANSFER_CHECK_INTERVAL_MS = 500;  // 检查队列间隔（缩短到500ms）
-    private static final long STARTUP_CLEANUP_DELAY_MS = 60 * 1000;  // 启动后清理延迟：1分钟
-    private static final long TEMP_FILE_EXPIRE_MS = 60 * 60 * 1000;  // 临时文件过期时间：1小时
+    private static final long RETRY_BASE_DELAY_MS = 3000;   // 首次重试延迟（毫秒），之后每次翻倍
+    private static final long RETRY_MAX_DELAY_MS = 60 * 1000;  // 重试延迟上限
+    private static final long STARTUP_RECOVERY_DELAY_MS = 60 * 1000;  // 启动后恢复未完成传输的延迟：1分钟
+    private static final long RECOVER_IDLE_MS = 2 * 60 * 1000;  // 超过此时间未修改的临时文件视为遗留文件
     private static final long MIN_VALID_FILE_SIZE = 500 * 1024;  // 最小有效文件大小：500KB（增加到500KB）
     
     // 统计
     private long totalTransferred = 0;      // 已传输文件数
     private long totalFailed = 0;           // 失败文件数
     private long totalBytesTransferred = 0; // 已传输字节数
+    private long totalRenamed = 0;          // 同文件系统重命名完成的文件数
+    private long totalCopied = 0;           // 跨设备复制完成的文件数
+    private long totalBytesSavedByRename = 0;  // 重命名省去的写入字节数
     
     private FileTransferManager(Context context) {
         this.context = context.getApplicationContext();
-        this.transferQueue = new ConcurrentLinkedQueue<>();
+        this.transferQueue = new PriorityBlockingQueue<>(16, (a, b) -> {
+            int byPriority = Integer.compare(a.priority, b.priority);
+            return byPriority != 0 ? byPriority : Long.compare(a.sequence, b.sequence);
+        });
         this.isRunning = new AtomicBoolean(false);
-        this.isProcessing = new AtomicBoolean(false);
     }
     
     /**
@@ -100,15 +157,20 @@ public class FileTransferManager {
             return;
         }
         
-        transferThread = new HandlerThread("FileTransfer");
-        transferThread.start();
-        transferHandler = new Handler(transferThread.getLooper());
+        timerThread = new HandlerThread("FileTransferTimer");
+        timerThread.start();
+        timerHandler = new Handler(timerThread.getLooper());
         
-        // 启动定期检查队列
-        scheduleNextCheck();
+        // 传输线程：阻塞等待任务，无需轮询（上次停止时仍在处理任务的线程会继续沿用）
+        synchronized (workerLock) {
+            if (workerThread == null) {
+                workerThread = new Thread(this::runWorker, "FileTransfer");
+                workerThread.start();
+            }
+        }
         
-        // 启动后1分钟检查并清理过期的临时文件
-        transferHandler.postDelayed(this::cleanupExpiredTempFiles, STARTUP_CLEANUP_DELAY_MS);
+        // 启动后1分钟恢复上次遗留的未完成传输
+        timerHandler.postDelayed(this::recoverPendingTempFiles, STARTUP_RECOVERY_DELAY_MS);
         
         AppLog.d(TAG, "File transfer service started");
     }
@@ -121,19 +183,36 @@ public class FileTransferManager {
             return;
         }
         
-        if (transferHandler != null) {
-            transferHandler.removeCallbacksAndMessages(null);
-            transferHandler = null;
+        if (timerHandler != null) {
+            timerHandler.removeCallbacksAndMessages(null);
+            timerHandler = null;
+        }
+        
+        if (timerThread != null) {
+            timerThread.quitSafely();
+            timerThread = null;
         }
         
-        if (transferThread != null) {
-            transferThread.quitSafely();
+        // 退避中的任务放回队列，下次启动时继续
+        for (TransferTask task : tasksBySource.values()) {
+            if (task.awaitingRetry) {
+                task.awaitingRetry = false;
+                transferQueue.offer(task);
+            }
+        }
+        
+        // 传输线程处理完当前任务后退出，剩余任务留在队列中
+        Thread worker;
+        synchronized (workerLock) {
+            worker = workerThread;
+        }
+        if (worker != null) {
+            transferQueue.offer(STOP_SIGNAL);
             try {
-                transferThread.join(1000);
+                worker.join(1000);
             } catch (InterruptedException e) {
                 // Ignore
             }
-            transferThread = null;
         }
         
         AppLog.d(TAG, "File transfer service stopped. Stats: transferred=" + totalTransferred + 
@@ -141,12 +220,24 @@ public class FileTransferManager {
     }
     
     /**
-     * 添加传输任务
+     * 添加传输任务（常规优先级）
      * @param sourceFile 源文件（临时目录中）
      * @param targetFile 目标文件（最终位置）
      * @param callback 回调（可为null）
      */
     public void addTransferTask(File sourceFile, File targetFile, TransferCallback callback) {
+        addTransferTask(sourceFile, targetFile, callback, PRIORITY_NORMAL);
+    }
+    
+    /**
+     * 添加传输任务
+     * 同一源文件已在队列中时合并回调，并按较高的优先级处理
+     * @param sourceFile 源文件（临时目录中）
+     * @param targetFile 目标文件（最终位置）
+     * @param callback 回调（可为null）
+     * @param priority PRIORITY_REMOTE 或 PRIORITY_NORMAL
+     */
+    public void addTransferTask(File sourceFile, File targetFile, TransferCallback callback, int priority) {
         if (sourceFile == null || !sourceFile.exists()) {
             AppLog.w(TAG, "Source file does not exist: " + sourceFile);
             if (callback != null) {
@@ -155,15 +246,33 @@ public class FileTransferManager {
             return;
         }
         
-        TransferTask task = new TransferTask(sourceFile, targetFile, callback);
-        transferQueue.offer(task);
-        
-        AppLog.d(TAG, "Added transfer task: " + sourceFile.getName() + " -> " + targetFile.getAbsolutePath());
-        
-        // 如果服务在运行，立即触发处理
-        if (isRunning.get() && transferHandler != null) {
-            transferHandler.post(this::processQueue);
+        String key = sourceFile.getAbsolutePath();
+        synchronized (tasksBySource) {
+            TransferTask existing = tasksBySource.get(key);
+            if (existing != null && existing.targetFile.equals(targetFile)) {
+                if (callback != null) {
+                    existing.callbacks.add(callback);
+                }
+                if (priority < existing.priority) {
+                    // 提升优先级：队列中的任务需要重新入队才能调整顺序
+                    boolean queued = transferQueue.remove(existing);
+                    existing.priority = priority;
+                    if (queued) {
+                        transferQueue.offer(existing);
+                    }
+                }
+                AppLog.d(TAG, "Merged transfer task: " + sourceFile.getName() + " (priority " + existing.priority + ")");
+                return;
+            }
+            
+            TransferTask task = new TransferTask(sourceFile, targetFile, callback, priority,
+                    taskSequence.incrementAndGet());
+            tasksBySource.put(key, task);
+            transferQueue.offer(task);
         }
+        
+        AppLog.d(TAG, "Added transfer task: " + sourceFile.getName() + " -> " + targetFile.getAbsolutePath() +
+                (priority == PRIORITY_REMOTE ? " (remote)" : ""));
     }
     
     /**
@@ -238,41 +347,55 @@ public class FileTransferManager {
      * 获取队列中等待传输的任务数
      */
     public int getQueueSize() {
-        return transferQueue.size();
+        return transferQueue.size() - (transferQueue.contains(STOP_SIGNAL) ? 1 : 0);
     }
     
     /**
      * 获取传输统计信息
      */
     public String getStats() {
-        return String.format("已传输: %d 个文件 (%s), 失败: %d, 队列: %d, 临时文件: %d",
-                totalTransferred, formatSize(totalBytesTransferred), 
-                totalFailed, getQueueSize(), getPendingFileCount());
+        return String.format("已传输: %d 个文件 (%s), 重命名: %d (节省写入 %s), 复制: %d, 失败: %d, 队列: %d, 临时文件: %d, 断点: %s, 复制引擎: %s",
+                totalTransferred, formatSize(totalBytesTransferred),
+                totalRenamed, formatSize(totalBytesSavedByRename), totalCopied,
+                totalFailed, getQueueSize(), getPendingFileCount(),
+                TransferJournal.getInstance(context).getStats(), FileCopyEngine.getStats())
+                + getDeviceRetryStats();
     }
     
-    // ===== 私有方法 =====
-    
     /**
-     * 调度下一次队列检查
+     * 各目标设备的重试统计
      */
-    private void scheduleNextCheck() {
-        if (!isRunning.get() || transferHandler == null) {
-            return;
-        }
-        
-        transferHandler.postDelayed(() -> {
-            if (isRunning.get()) {
-                processQueue();
-                scheduleNextCheck();
+    private String getDeviceRetryStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, DeviceRetryState> entry : deviceStates.entrySet()) {
+            DeviceRetryState state = entry.getValue();
+            synchronized (state) {
+                sb.append(String.format(", 设备 %s: 重试 %d 次, 连续失败 %d",
+                        entry.getKey(), state.totalRetries, state.consecutiveFailures));
             }
-        }, TRANSFER_CHECK_INTERVAL_MS);
+        }
+        return sb.toString();
     }
     
+    // ===== 私有方法 =====
+    
     /**
-     * 清理过期的临时文件
-     * 在服务运行期间定期调用
+     * 恢复未完成的传输
+     * 启动后调用：上次运行（断电、熄火、U盘拔出）遗留在临时目录中的录像重新加入传输队列，
+     * 有传输日志的从断点续传；无效的残留文件（过小或非视频）才被删除
      */
-    private void cleanupExpiredTempFiles() {
+    private void recoverPendingTempFiles() {
+        TransferJournal journal = TransferJournal.getInstance(context);
+
+        // 源文件已不存在的日志记录：删除对应的部分文件
+        for (TransferJournal.Entry entry : journal.getPendingEntries()) {
+            if (!entry.source.exists()) {
+                AppLog.d(TAG, "Recovery: source gone, dropping partial transfer: " + entry.source.getName());
+                TransferJournal.partFileOf(entry.target).delete();
+                journal.finish(entry);
+            }
+        }
+
         File tempDir = getTempVideoDir();
         if (tempDir == null || !tempDir.exists()) {
             return;
@@ -282,49 +405,100 @@ public class FileTransferManager {
         if (files == null || files.length == 0) {
             return;
         }
-        
+
         long now = System.currentTimeMillis();
         int deletedCount = 0;
         long deletedSize = 0;
+        int requeuedCount = 0;
+        File videoDir = null;
         
         for (File file : files) {
-            long fileAge = now - file.lastModified();
-            if (fileAge > TEMP_FILE_EXPIRE_MS) {
-                long fileSize = file.length();
+            // 最近仍在写入的文件可能是当前录制中的分段
+            if (now - file.lastModified() < RECOVER_IDLE_MS || tasksBySource.containsKey(file.getAbsolutePath())) {
+                continue;
+            }
+
+            long fileSize = file.length();
+            if (!file.getName().endsWith(".mp4") || fileSize < MIN_VALID_FILE_SIZE) {
                 if (file.delete()) {
                     deletedCount++;
                     deletedSize += fileSize;
-                    AppLog.d(TAG, "Cleanup: deleted expired temp file: " + file.getName());
+                    AppLog.d(TAG, "Recovery: deleted invalid temp file: " + file.getName());
+                }
+                continue;
+            }
+
+            File targetFile;
+            TransferJournal.Entry entry = journal.find(file);
+            if (entry != null) {
+                targetFile = entry.target;
+            } else {
+                if (videoDir == null) {
+                    videoDir = StorageHelper.getVideoDir(context);
+                }
+                if (videoDir == null) {
+                    // 存储暂不可用，保留文件等下次启动
+                    continue;
                 }
+                targetFile = VideoShardLayout.targetFor(context, videoDir, file.getName());
             }
+
+            addTransferTask(file, targetFile, new TransferCallback() {
+                @Override
+                public void onTransferComplete(File sourceFile, File targetFile) {
+                    AppLog.d(TAG, "Recovered transfer complete: " + targetFile.getName());
+                }
+
+                @Override
+                public void onTransferFailed(File sourceFile, File targetFile, String error) {
+                    AppLog.e(TAG, "Recovered transfer failed: " + sourceFile.getName() + " - " + error);
+                }
+            });
+            requeuedCount++;
         }
         
-        if (deletedCount > 0) {
-            AppLog.d(TAG, "Periodic cleanup: deleted " + deletedCount + " expired files, freed " + formatSize(deletedSize));
+        if (deletedCount > 0 || requeuedCount > 0) {
+            AppLog.d(TAG, "Recovery: re-enqueued " + requeuedCount + " pending file(s), deleted " + deletedCount +
+                    " invalid file(s), freed " + formatSize(deletedSize) + " (" + journal.getStats() + ")");
         }
     }
     
     /**
-     * 处理传输队列
+     * 传输线程主循环：阻塞等待队列中优先级最高的任务
      */
-    private void processQueue() {
-        if (!isRunning.get() || isProcessing.getAndSet(true)) {
-            return;
-        }
-        
-        try {
+    private void runWorker() {
+        while (true) {
             TransferTask task;
-            while ((task = transferQueue.poll()) != null) {
-                if (!isRunning.get()) {
-                    // 服务停止，将任务放回队列
-                    transferQueue.offer(task);
-                    break;
+            try {
+                task = transferQueue.take();
+            } catch (InterruptedException e) {
+                synchronized (workerLock) {
+                    workerThread = null;
+                }
+                return;
+            }
+            if (task == STOP_SIGNAL) {
+                synchronized (workerLock) {
+                    // 停止后又被重新启动时忽略过期的停止信号
+                    if (!isRunning.get()) {
+                        workerThread = null;
+                        return;
+                    }
                 }
-                
+                continue;
+            }
+            
+            try {
                 processTask(task);
+            } catch (Exception e) {
+                AppLog.e(TAG, "Unexpected error transferring " + task.sourceFile.getName(), e);
+                handleTransferFailure(task, "Unexpected error: " + e.getMessage());
+            }
+            
+            // 完成或最终失败的任务移出记录（退避中的任务稍后重新入队）
+            if (!task.awaitingRetry) {
+                tasksBySource.remove(task.sourceFile.getAbsolutePath(), task);
             }
-        } finally {
-            isProcessing.set(false);
         }
     }
     
@@ -334,9 +508,8 @@ public class FileTransferManager {
     private void processTask(TransferTask task) {
         if (!task.sourceFile.exists()) {
             AppLog.w(TAG, "Source file no longer exists: " + task.sourceFile.getName());
-            if (task.callback != null) {
-                task.callback.onTransferFailed(task.sourceFile, task.targetFile, "Source file not found");
-            }
+            abandonPartialTransfer(task.sourceFile);
+            task.notifyFailed("Source file not found");
             totalFailed++;
             return;
         }
@@ -346,9 +519,8 @@ public class FileTransferManager {
         if (sourceSize < MIN_VALID_FILE_SIZE) {
             AppLog.w(TAG, "Source file too small: " + task.sourceFile.getName() + " (" + sourceSize + " bytes)");
             task.sourceFile.delete();
-            if (task.callback != null) {
-                task.callback.onTransferFailed(task.sourceFile, task.targetFile, "Source file too small");
-            }
+            abandonPartialTransfer(task.sourceFile);
+            task.notifyFailed("Source file too small");
             totalFailed++;
             return;
         }
@@ -379,7 +551,36 @@ public class FileTransferManager {
             }
         }
 
-        // 尝试复制文件（直接复制，不尝试移动，因为U盘可能是不同的文件系统）
+        // 同一文件系统（如存储回退到内部存储）：直接原子重命名，不产生额外写入
+        if (isSameFilesystem(task.sourceFile, targetDir) && renameFile(task.sourceFile, task.targetFile)) {
+            long targetSize = task.targetFile.length();
+
+            // 验证目标文件大小
+            if (targetSize != sourceSize) {
+                // 源文件已被移走，不能删除目标：移回临时目录后按失败重试
+                AppLog.w(TAG, "File size mismatch after rename: source=" + sourceSize + ", target=" + targetSize);
+                renameFile(task.targetFile, task.sourceFile);
+                handleTransferFailure(task, "File size mismatch after rename");
+                return;
+            }
+
+            AppLog.d(TAG, "File renamed successfully: " + task.sourceFile.getName() +
+                    " -> " + task.targetFile.getAbsolutePath() + " (" + formatSize(targetSize) + ")");
+
+            totalTransferred++;
+            totalBytesTransferred += targetSize;
+            totalRenamed++;
+            totalBytesSavedByRename += targetSize;
+
+            // 记录到目标目录的存储索引
+            StorageIndex.notifyFileAdded(context, task.targetFile);
+
+            recordDeviceSuccess(task);
+            task.notifyComplete();
+            return;
+        }
+
+        // 跨设备（如U盘）：复制后删除源文件
         AppLog.d(TAG, "Copying file: " + task.sourceFile.getName() + " (" + formatSize(sourceSize) + ") to " + task.targetFile.getAbsolutePath());
 
         boolean copied = copyFile(task.sourceFile, task.targetFile);
@@ -405,10 +606,13 @@ public class FileTransferManager {
 
             totalTransferred++;
             totalBytesTransferred += targetSize;
+            totalCopied++;
 
-            if (task.callback != null) {
-                task.callback.onTransferComplete(task.sourceFile, task.targetFile);
-            }
+            // 记录到目标目录的存储索引
+            StorageIndex.notifyFileAdded(context, task.targetFile);
+
+            recordDeviceSuccess(task);
+            task.notifyComplete();
         } else {
             // 复制失败
             // 清理可能不完整的目标文件
@@ -424,98 +628,187 @@ public class FileTransferManager {
      */
     private void handleTransferFailure(TransferTask task, String error) {
         task.retryCount++;
+        int deviceFailures = recordDeviceFailure(task);
         
         if (task.retryCount < MAX_RETRY_COUNT) {
-            // 重试
-            AppLog.w(TAG, "Transfer failed, will retry (" + task.retryCount + "/" + MAX_RETRY_COUNT + "): " + 
+            // 退避次数取任务与目标设备中较大者：U盘拔出时同一设备上的任务一起拉长间隔
+            long delay = computeRetryDelay(Math.max(task.retryCount, deviceFailures));
+            AppLog.w(TAG, "Transfer failed, will retry in " + delay + "ms (" + task.retryCount + "/" + MAX_RETRY_COUNT + "): " + 
                     task.sourceFile.getName() + " - " + error);
             
             // 延迟后重新加入队列
-            if (transferHandler != null) {
-                transferHandler.postDelayed(() -> {
-                    transferQueue.offer(task);
-                }, RETRY_DELAY_MS);
+            task.awaitingRetry = true;
+            Handler handler = timerHandler;
+            if (handler == null || !handler.postDelayed(() -> {
+                task.awaitingRetry = false;
+                transferQueue.offer(task);
+            }, delay)) {
+                task.awaitingRetry = false;
+                transferQueue.offer(task);
             }
         } else {
-            // 超过重试次数，放弃
+            // 超过重试次数，放弃（临时文件保留，下次启动时恢复）
             AppLog.e(TAG, "Transfer failed after " + MAX_RETRY_COUNT + " retries: " + 
                     task.sourceFile.getName() + " - " + error);
             
             totalFailed++;
             
-            if (task.callback != null) {
-                task.callback.onTransferFailed(task.sourceFile, task.targetFile, error);
+            task.notifyFailed(error);
+        }
+    }
+    
+    /**
+     * 计算重试延迟：指数退避，取 [d/2, d) 之间的随机值，避免多个任务同时重试
+     * @param attempt 第几次重试（从 1 开始）
+     */
+    private long computeRetryDelay(int attempt) {
+        int shift = Math.min(Math.max(0, attempt - 1), 16);
+        long delay = Math.min(RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS << shift);
+        long half = delay / 2;
+        synchronized (jitter) {
+            return half + (long) (jitter.nextDouble() * half);
+        }
+    }
+    
+    /**
+     * 目标设备标识：U盘等外部卷按卷目录区分，其余归为内部存储
+     */
+    private static String deviceKeyOf(File target) {
+        String path = target.getAbsolutePath();
+        String[] parts = path.split("/");
+        // /storage/<卷ID>/... 或 /mnt/media_rw/<卷ID>/...
+        if (parts.length > 2 && "storage".equals(parts[1])
+                && !"emulated".equals(parts[2]) && !"self".equals(parts[2])) {
+            return "/storage/" + parts[2];
+        }
+        if (parts.length > 3 && "mnt".equals(parts[1]) && "media_rw".equals(parts[2])) {
+            return "/storage/" + parts[3];
+        }
+        return "internal";
+    }
+    
+    private int recordDeviceFailure(TransferTask task) {
+        DeviceRetryState state = deviceStates.computeIfAbsent(deviceKeyOf(task.targetFile), k -> new DeviceRetryState());
+        synchronized (state) {
+            state.consecutiveFailures++;
+            state.totalRetries++;
+            return state.consecutiveFailures;
+        }
+    }
+    
+    private void recordDeviceSuccess(TransferTask task) {
+        DeviceRetryState state = deviceStates.get(deviceKeyOf(task.targetFile));
+        if (state != null) {
+            synchronized (state) {
+                state.consecutiveFailures = 0;
             }
         }
     }
     
     /**
-     * 复制文件（使用缓冲流，更稳定可靠）
-     * 针对U盘等慢速存储优化
+     * 判断源文件和目标目录是否位于同一文件系统（st_dev 相同）
      */
-    private boolean copyFile(File source, File target) {
-        FileInputStream fis = null;
-        FileOutputStream fos = null;
-
+    private boolean isSameFilesystem(File source, File targetDir) {
+        if (targetDir == null) {
+            return false;
+        }
         try {
-            fis = new FileInputStream(source);
-            fos = new FileOutputStream(target);
-
-            // 验证源文件大小
-            long size = source.length();
-            if (size < MIN_VALID_FILE_SIZE) {
-                AppLog.w(TAG, "Source file too small: " + source.getName() + " (" + size + " bytes)");
-                return false;
-            }
+            return Os.stat(source.getAbsolutePath()).st_dev == Os.stat(targetDir.getAbsolutePath()).st_dev;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
 
-            // 使用 64KB 缓冲区（对U盘更友好）
-            byte[] buffer = new byte[64 * 1024];
-            long transferred = 0;
-            int read;
+    /**
+     * 原子重命名文件
+     * @return false 表示无法重命名（如 EXDEV），由调用方回退到复制
+     */
+    private boolean renameFile(File source, File target) {
+        try {
+            Os.rename(source.getAbsolutePath(), target.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            AppLog.w(TAG, "Rename failed, falling back to copy: " + source.getName() + " - " + e.getMessage());
+            return false;
+        }
+    }
 
-            while ((read = fis.read(buffer)) != -1) {
-                fos.write(buffer, 0, read);
-                transferred += read;
+    /**
+     * 复制文件（复制方式和落盘策略由 FileCopyEngine 配置决定）
+     * 针对U盘等慢速存储优化
+     *
+     * 数据先写入 .part 文件，每个检查点落盘后记录到 TransferJournal；
+     * 中途失败时保留已落盘的部分，下次从最后一个校验通过的检查点续传
+     */
+    private boolean copyFile(File source, File target) {
+        // 验证源文件大小
+        long size = source.length();
+        if (size < MIN_VALID_FILE_SIZE) {
+            AppLog.w(TAG, "Source file too small: " + source.getName() + " (" + size + " bytes)");
+            return false;
+        }
 
-                // 定期刷新缓冲区，避免内存中积累太多
-                if (transferred % (1024 * 1024) == 0) {  // 每1MB刷新一次
-                    fos.flush();
-                }
-            }
+        AppConfig.Snapshot config = AppConfig.snapshot(context);
+        FileCopyEngine engine = FileCopyEngine.create(
+                config.transferCopyEngine,
+                config.transferChunkSizeKb * 1024,
+                config.transferSyncIntervalMb * 1024L * 1024L);
 
-            // 最终刷新
-            fos.flush();
+        TransferJournal journal = TransferJournal.getInstance(context);
+        TransferJournal.Entry entry = journal.begin(source, target);
+        File partFile = TransferJournal.partFileOf(target);
+        long resumeOffset = journal.verifyResumeOffset(entry);
 
-            // 同步到磁盘（确保数据真正写入）
-            fos.getFD().sync();
+        try {
+            // 预分配目标文件：一次性分配最终大小，避免U盘上边追加边分配造成碎片
+            engine.copy(source, partFile, resumeOffset, config.segmentPreallocationEnabled,
+                    TransferJournal.CHECKPOINT_BYTES,
+                    (start, end) -> journal.commit(entry, end));
 
             // 验证目标文件大小
-            long targetSize = target.length();
+            long targetSize = partFile.length();
             if (targetSize != size) {
                 AppLog.w(TAG, "File size mismatch after copy: source=" + size + ", target=" + targetSize);
-                target.delete();
+                partFile.delete();
+                journal.finish(entry);
                 return false;
             }
 
-            AppLog.d(TAG, "File copied successfully: " + source.getName() + " (" + formatSize(size) + ")");
+            if (!partFile.renameTo(target)) {
+                throw new IOException("Failed to rename " + partFile.getName() + " to " + target.getName());
+            }
+            journal.finish(entry);
+
+            AppLog.d(TAG, "File copied successfully: " + source.getName() + " (" + formatSize(size)
+                    + (resumeOffset > 0 ? ", resumed from " + formatSize(resumeOffset) : "")
+                    + ", " + engine.describe() + ")");
             return true;
 
         } catch (IOException e) {
             AppLog.e(TAG, "Error copying file: " + source.getName(), e);
 
-            // 删除可能不完整的目标文件
-            if (target.exists()) {
-                target.delete();
+            // 已有落盘的检查点时保留部分文件用于续传，否则删除
+            if (entry.getCommittedBytes() > 0) {
+                AppLog.d(TAG, "Keeping partial file for resume: " + partFile.getName() +
+                        " (" + formatSize(entry.getCommittedBytes()) + " committed)");
+            } else {
+                partFile.delete();
+                journal.finish(entry);
             }
 
             return false;
-        } finally {
-            try {
-                if (fis != null) fis.close();
-                if (fos != null) fos.close();
-            } catch (IOException e) {
-                // Ignore
-            }
+        }
+    }
+
+    /**
+     * 放弃某个源文件的未完成传输（源文件已不存在或无效）
+     */
+    private void abandonPartialTransfer(File source) {
+        TransferJournal journal = TransferJournal.getInstance(context);
+        TransferJournal.Entry entry = journal.find(source);
+        if (entry != null) {
+            TransferJournal.partFileOf(entry.target).delete();
+            journal.finish(entry);
         }
     }
     
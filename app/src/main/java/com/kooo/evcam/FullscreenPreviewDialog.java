@@ -325,16 +325,19 @@ public class FullscreenPreviewDialog extends Dialog {
             savedCenterY = currentCenterY;
             savedRotation = currentRotation;
 
-            appConfig.setFullscreenWindowX(cameraPosition, savedPosX);
-            appConfig.setFullscreenWindowY(cameraPosition, savedPosY);
-            appConfig.setFullscreenWindowWidth(cameraPosition, savedWidth);
-            appConfig.setFullscreenWindowHeight(cameraPosition, savedHeight);
-            appConfig.setFisheyeCorrectionK1(cameraPosition, savedK1);
-            appConfig.setFisheyeCorrectionK2(cameraPosition, savedK2);
-            appConfig.setFisheyeCorrectionZoom(cameraPosition, savedZoom);
-            appConfig.setFisheyeCorrectionCenterX(cameraPosition, savedCenterX);
-            appConfig.setFisheyeCorrectionCenterY(cameraPosition, savedCenterY);
-            appConfig.setFisheyeCorrectionRotation(cameraPosition, savedRotation);
+            // 窗口位置和矫正参数合并为一次写入
+            appConfig.batchEdit(() -> {
+                appConfig.setFullscreenWindowX(cameraPosition, savedPosX);
+                appConfig.setFullscreenWindowY(cameraPosition, savedPosY);
+                appConfig.setFullscreenWindowWidth(cameraPosition, savedWidth);
+                appConfig.setFullscreenWindowHeight(cameraPosition, savedHeight);
+                appConfig.setFisheyeCorrectionK1(cameraPosition, savedK1);
+                appConfig.setFisheyeCorrectionK2(cameraPosition, savedK2);
+                appConfig.setFisheyeCorrectionZoom(cameraPosition, savedZoom);
+                appConfig.setFisheyeCorrectionCenterX(cameraPosition, savedCenterX);
+                appConfig.setFisheyeCorrectionCenterY(cameraPosition, savedCenterY);
+                appConfig.setFisheyeCorrectionRotation(cameraPosition, savedRotation);
+            });
 
             if (onParamsSavedListener != null) {
                 onParamsSavedListener.onParamsSaved(cameraPosition, savedK1, savedK2, savedZoom, savedCenterX, savedCenterY, savedRotation);
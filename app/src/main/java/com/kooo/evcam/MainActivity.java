@@ -1796,6 +1796,15 @@ public class MainActivity extends AppCompatActivity {
                     cameraManager.clearSegmentDurationOverride();
                 }
             }
+            
+            @Override
+            public void savePreEventClips(RemoteCommandHandler.PreEventClipsCallback callback) {
+                if (cameraManager != null) {
+                    cameraManager.savePreEventClips(callback::onPreEventClipsSaved);
+                } else {
+                    callback.onPreEventClipsSaved(null);
+                }
+            }
         });
         
         // 设置录制状态监听器
@@ -4449,6 +4458,15 @@ public class MainActivity extends AppCompatActivity {
             public String onBackgroundCommand() {
                 return handleBackgroundCommand();
             }
+
+            @Override
+            public String onClipCommand(long chatId, int seconds) {
+                if (remoteCommandDispatcher == null) {
+                    return "❌ 功能不可用";
+                }
+                remoteCommandDispatcher.sendTelegramClip(chatId, seconds);
+                return String.format("收到回放指令，正在导出最近 %d 秒视频...", seconds);
+            }
         };
 
         // 创建并启动 Bot 管理器
@@ -5,14 +5,23 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
 
+import com.kooo.evcam.camera.CameraManagerHolder;
+import com.kooo.evcam.camera.MultiCameraManager;
+import com.kooo.evcam.storage.FreeSpaceScheduler;
+import com.kooo.evcam.storage.StorageIndex;
+import com.kooo.evcam.storage.ThrottledDeleter;
+import com.kooo.evcam.storage.VideoShardMigrator;
+
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 存储清理管理器
@@ -20,9 +29,14 @@ import java.util.concurrent.TimeUnit;
  * 
  * 功能：
  * - 冷启动30秒后执行首次检测
- * - 每隔1小时执行定期检测
+ * - 事件驱动：新文件写入索引后立即检查配额，超限马上清理（不再等待定时器）
+ * - 每隔1小时执行轻量检测（索引校验），每24小时全量扫描一次纠正偏差
+ * - 内部存储预测式清理：根据录制码率预测写满时间，每30秒少量删除，保持剩余空间不低于安全余量
  * - 支持分别设置视频和图片的存储限制（GB）
  * - 删除时额外删除20%，避免频繁删除
+ * - 基于持久化存储索引（StorageIndex）统计占用和选择最旧文件，不再每次全量扫描目录
+ * - 删除通过限速后台执行器分批进行，录制写入有压力时暂停，避免阻塞U盘上的录制
+ * - 录像按日期分片时按最旧文件逐个淘汰，分片目录删空后整个删除
  */
 public class StorageCleanupManager {
     private static final String TAG = "StorageCleanupManager";
@@ -30,6 +44,7 @@ public class StorageCleanupManager {
     // 定时任务延迟
     private static final long INITIAL_DELAY_MS = 30 * 1000;  // 冷启动后30秒
     private static final long PERIODIC_INTERVAL_MS = 60 * 60 * 1000;  // 每1小时
+    private static final long DRIFT_CORRECTION_INTERVAL_MS = 24 * 60 * 60 * 1000L;  // 每24小时全量扫描纠偏
     
     // 额外删除比例（20%）
     private static final double EXTRA_DELETE_RATIO = 0.20;
@@ -37,11 +52,9 @@ public class StorageCleanupManager {
     // GB 转 字节
     private static final long GB_TO_BYTES = 1024L * 1024L * 1024L;
     
-    // 内部存储低空间阈值（3GB）
-    private static final long LOW_SPACE_THRESHOLD_BYTES = 3L * GB_TO_BYTES;
-    
-    // 低空间强制清理比例（删除20%的已用空间，保留80%）
-    private static final double LOW_SPACE_CLEANUP_RATIO = 0.20;
+    // 预测式低空间清理：调度周期和预测窗口
+    private static final long PREDICTIVE_TICK_MS = 30 * 1000;  // 每30秒
+    private static final long PREDICTIVE_LOOKAHEAD_MS = 2 * 60 * 1000;  // 预留未来2分钟的写入
     
     private final Context context;
     private final AppConfig appConfig;
@@ -49,6 +62,20 @@ public class StorageCleanupManager {
     private Handler mainHandler;
     private boolean isRunning = false;
     
+    // 事件驱动配额检查
+    private final Map<String, Long> quotaLimits = new ConcurrentHashMap<>();  // 目录路径 -> 限制（字节）
+    private final AtomicBoolean quotaCheckPending = new AtomicBoolean(false);
+    private volatile boolean enforcingQuota = false;
+    private final AtomicInteger quotaCleanupsInFlight = new AtomicInteger();  // 已提交、尚未删完的配额清理
+    private final AtomicBoolean quotaRecheckNeeded = new AtomicBoolean(false);  // 清理期间有超额写入被忽略
+    private final StorageIndex.UsageListener usageListener = this::onUsageIncreased;
+    
+    // 预测式低空间清理
+    private final FreeSpaceScheduler freeSpaceScheduler =
+            new FreeSpaceScheduler(PREDICTIVE_TICK_MS, PREDICTIVE_LOOKAHEAD_MS);
+    private boolean lowSpaceEvicting = false;  // 是否处于低空间清理阶段（用于只提示一次）
+    private final AtomicLong lowSpaceBytesInFlight = new AtomicLong();  // 已提交、尚未删完的字节数
+    
     public StorageCleanupManager(Context context) {
         this.context = context.getApplicationContext();
         this.appConfig = new AppConfig(context);
@@ -80,7 +107,33 @@ public class StorageCleanupManager {
             TimeUnit.MILLISECONDS
         );
         
-        AppLog.d(TAG, "存储清理任务已启动：30秒后首次检测，之后每1小时检测一次");
+        // 每30秒执行一次预测式低空间清理（只做 StatFs 和 O(1) 计算，需要时少量删除）
+        scheduler.scheduleWithFixedDelay(
+            this::performPredictiveLowSpaceCleanup,
+            INITIAL_DELAY_MS,
+            PREDICTIVE_TICK_MS,
+            TimeUnit.MILLISECONDS
+        );
+        
+        // 每24小时全量扫描一次，纠正索引与磁盘的偏差（外部删除、异常断电等）
+        scheduler.scheduleAtFixedRate(
+            this::performDriftCorrection,
+            DRIFT_CORRECTION_INTERVAL_MS,
+            DRIFT_CORRECTION_INTERVAL_MS,
+            TimeUnit.MILLISECONDS
+        );
+        
+        // 后台把录像迁移到配置的分片目录结构（布局未变化时只归档根目录中的遗留文件）
+        scheduler.schedule(
+            () -> VideoShardMigrator.getInstance(context).requestMigration(),
+            INITIAL_DELAY_MS,
+            TimeUnit.MILLISECONDS
+        );
+        
+        // 监听索引占用变化，写入超限时立即清理
+        StorageIndex.addUsageListener(usageListener);
+        
+        AppLog.d(TAG, "存储清理任务已启动：30秒后首次检测，之后每1小时检测一次，写入超限时立即清理");
         AppLog.d(TAG, "视频限制: " + appConfig.getVideoStorageLimitGb() + " GB, 图片限制: " + appConfig.getPhotoStorageLimitGb() + " GB");
     }
     
@@ -88,6 +141,8 @@ public class StorageCleanupManager {
      * 停止存储清理任务
      */
     public void stop() {
+        StorageIndex.removeUsageListener(usageListener);
+        quotaLimits.clear();
         if (scheduler != null && !scheduler.isShutdown()) {
             scheduler.shutdown();
             scheduler = null;
@@ -102,155 +157,228 @@ public class StorageCleanupManager {
     private void performCleanup() {
         AppLog.d(TAG, "开始执行存储清理检测...");
         
-        // 首先检测内部存储低空间情况（强制清理）
-        performLowSpaceCleanupIfNeeded();
+        enforceQuotas();
         
+        AppLog.d(TAG, "存储清理检测完成");
+    }
+    
+    /**
+     * 偏差纠正：全量扫描重建索引后再执行一次清理检测
+     */
+    private void performDriftCorrection() {
+        AppLog.d(TAG, "开始全量扫描纠正存储索引偏差...");
+        StorageIndex.get(context, StorageHelper.getVideoDir(context)).rebuild();
+        StorageIndex.get(context, StorageHelper.getPhotoDir(context)).rebuild();
+        performCleanup();
+    }
+    
+    /**
+     * 按配额清理视频和图片，并刷新事件驱动检查使用的配额表
+     */
+    private void enforceQuotas() {
         int videoLimitGb = appConfig.getVideoStorageLimitGb();
         int photoLimitGb = appConfig.getPhotoStorageLimitGb();
-        
-        // 检测并清理视频
-        if (videoLimitGb > 0) {
-            CleanupResult videoResult = cleanupDirectory(
-                StorageHelper.getVideoDir(context),
-                videoLimitGb * GB_TO_BYTES,
-                "视频"
-            );
-            if (videoResult.deletedCount > 0) {
-                showCleanupNotification(videoResult, "视频");
+        File videoDir = StorageHelper.getVideoDir(context);
+        File photoDir = StorageHelper.getPhotoDir(context);
+        
+        // 目录可能因U盘插拔而变化，每次检测时重新登记
+        quotaLimits.clear();
+        
+        enforcingQuota = true;
+        try {
+            // 检测并清理视频
+            if (videoLimitGb > 0) {
+                quotaLimits.put(videoDir.getAbsolutePath(), videoLimitGb * GB_TO_BYTES);
+                CleanupResult videoResult = cleanupDirectory(
+                    videoDir,
+                    videoLimitGb * GB_TO_BYTES,
+                    "视频"
+                );
+                notifyWhenDeleted(videoResult, "视频");
             }
-        }
-        
-        // 检测并清理图片
-        if (photoLimitGb > 0) {
-            CleanupResult photoResult = cleanupDirectory(
-                StorageHelper.getPhotoDir(context),
-                photoLimitGb * GB_TO_BYTES,
-                "图片"
-            );
-            if (photoResult.deletedCount > 0) {
-                showCleanupNotification(photoResult, "图片");
+            
+            // 检测并清理图片
+            if (photoLimitGb > 0) {
+                quotaLimits.put(photoDir.getAbsolutePath(), photoLimitGb * GB_TO_BYTES);
+                CleanupResult photoResult = cleanupDirectory(
+                    photoDir,
+                    photoLimitGb * GB_TO_BYTES,
+                    "图片"
+                );
+                notifyWhenDeleted(photoResult, "图片");
             }
+        } finally {
+            enforcingQuota = false;
+        }
+        if (quotaCleanupsInFlight.get() == 0) {
+            recheckQuotaIfNeeded(true);
         }
-        
-        AppLog.d(TAG, "存储清理检测完成");
     }
     
     /**
-     * 内部存储低空间时强制清理
-     * 当使用内部存储且可用空间低于3GB时，强制清理20%的已用空间
+     * 配额清理提交后不等待删除完成，删完时再提示
+     * 删除进行期间（失败的文件会重新加入索引）不再触发事件驱动检查
      */
-    private void performLowSpaceCleanupIfNeeded() {
-        // 检测当前是否使用内部存储
-        boolean usingInternal = !appConfig.isUsingExternalSdCard() || StorageHelper.isSdCardFallback(context);
-        
-        if (!usingInternal) {
-            // 使用U盘，不需要强制清理
-            return;
+    private void notifyWhenDeleted(CleanupResult result, String typeName) {
+        boolean submitted = result.plannedCount > 0;
+        if (submitted) {
+            quotaCleanupsInFlight.incrementAndGet();
         }
-        
-        // 获取内部存储可用空间
-        File internalDir = android.os.Environment.getExternalStorageDirectory();
-        long availableSpace = StorageHelper.getAvailableSpace(internalDir);
-        
-        AppLog.d(TAG, "内部存储可用空间: " + StorageHelper.formatSize(availableSpace));
-        
-        if (availableSpace < 0 || availableSpace >= LOW_SPACE_THRESHOLD_BYTES) {
-            // 空间充足，不需要清理
+        result.whenDone(() -> {
+            if (result.deletedCount.get() > 0) {
+                showCleanupNotification(result, typeName);
+            }
+            if (submitted && quotaCleanupsInFlight.decrementAndGet() == 0) {
+                recheckQuotaIfNeeded(result.deletedCount.get() > 0);
+            }
+        });
+    }
+
+    /**
+     * 清理期间被忽略的写入可能使目录再次超额，清理全部完成后补做一次检查
+     * 不补查的话要等到每小时的定时检查才会清理
+     * @param progressed 刚完成的清理是否删掉了文件；一个都没删掉（文件无法删除）时不补查，避免反复重试
+     */
+    private void recheckQuotaIfNeeded(boolean progressed) {
+        if (!quotaRecheckNeeded.getAndSet(false) || !progressed) {
             return;
         }
-        
-        AppLog.w(TAG, "内部存储空间不足（<3GB），开始强制清理...");
-        
-        // 强制清理视频（删除20%的已用空间）
-        File videoDir = StorageHelper.getVideoDir(context, false);
-        CleanupResult videoResult = cleanupByPercentage(videoDir, LOW_SPACE_CLEANUP_RATIO, "视频");
-        if (videoResult.deletedCount > 0) {
-            showLowSpaceCleanupNotification(videoResult, "视频");
-        }
-        
-        // 强制清理图片（删除20%的已用空间）
-        File photoDir = StorageHelper.getPhotoDir(context, false);
-        CleanupResult photoResult = cleanupByPercentage(photoDir, LOW_SPACE_CLEANUP_RATIO, "图片");
-        if (photoResult.deletedCount > 0) {
-            showLowSpaceCleanupNotification(photoResult, "图片");
+        for (Map.Entry<String, Long> entry : quotaLimits.entrySet()) {
+            long totalBytes = StorageIndex.get(context, new File(entry.getKey())).getTotalBytes();
+            if (totalBytes > entry.getValue()) {
+                AppLog.d(TAG, "清理期间写入后仍超过配额（" + StorageHelper.formatSize(totalBytes) + " > " +
+                        StorageHelper.formatSize(entry.getValue()) + "），再次清理");
+                postQuotaCheck();
+                return;
+            }
         }
     }
     
     /**
-     * 按比例清理目录（删除指定比例的已用空间）
-     * @param directory 目标目录
-     * @param deleteRatio 删除比例（0.0-1.0）
-     * @param typeName 类型名称
-     * @return 清理结果
+     * 索引占用增加回调（在写入线程中调用，只做 O(1) 判断）
+     * 超过配额时向清理线程投递一次检查，多次触发会合并
      */
-    private CleanupResult cleanupByPercentage(File directory, double deleteRatio, String typeName) {
-        CleanupResult result = new CleanupResult();
-        
-        if (directory == null || !directory.exists() || !directory.isDirectory()) {
-            return result;
+    private void onUsageIncreased(StorageIndex index, long totalBytes) {
+        Long limit = quotaLimits.get(index.getDirectory().getAbsolutePath());
+        if (limit == null || totalBytes <= limit) {
+            return;
         }
-        
-        File[] files = directory.listFiles(File::isFile);
-        if (files == null || files.length == 0) {
-            return result;
+        if (enforcingQuota || quotaCleanupsInFlight.get() > 0) {
+            // 清理进行中不重复投递（删除失败的文件也会重新加入索引），清理完成后再检查一次
+            quotaRecheckNeeded.set(true);
+            return;
         }
-        
-        // 计算当前总大小
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
+        AppLog.d(TAG, "写入后超过配额（" + StorageHelper.formatSize(totalBytes) + " > " +
+                StorageHelper.formatSize(limit) + "），立即清理");
+        postQuotaCheck();
+    }
+
+    /**
+     * 向清理线程投递一次配额检查，未执行前的重复投递会合并
+     */
+    private void postQuotaCheck() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null || executor.isShutdown() || quotaCheckPending.getAndSet(true)) {
+            return;
         }
-        
-        result.originalSize = totalSize;
-        
-        if (totalSize == 0) {
-            return result;
+        try {
+            executor.execute(() -> {
+                quotaCheckPending.set(false);
+                enforceQuotas();
+            });
+        } catch (Exception e) {
+            quotaCheckPending.set(false);
+            AppLog.w(TAG, "投递配额检查失败: " + e.getMessage());
         }
-        
-        // 计算需要删除的大小（总大小的指定比例）
-        long needToDelete = (long) (totalSize * deleteRatio);
-        long targetSize = totalSize - needToDelete;
-        
-        AppLog.d(TAG, typeName + "强制清理：当前占用 " + StorageHelper.formatSize(totalSize) + 
-                "，将删除 " + StorageHelper.formatSize(needToDelete) + " (20%)");
-        
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
-        
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
-        
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
+    }
+    
+    /**
+     * 内部存储预测式低空间清理
+     * 当使用内部存储时，根据录制中各摄像头的码率估算写入速度，
+     * 每个周期只删除刚好够用的最旧录像，使剩余空间保持在安全余量之上
+     * 录像不足以释放时再删除最旧的图片
+     */
+    private void performPredictiveLowSpaceCleanup() {
+        try {
+            // 检测当前是否使用内部存储
+            boolean usingInternal = !appConfig.isUsingExternalSdCard() || StorageHelper.isSdCardFallback(context);
+            
+            if (!usingInternal) {
+                // 使用U盘，不需要强制清理
+                lowSpaceEvicting = false;
+                return;
+            }
+            
+            // 获取内部存储可用空间
+            File internalDir = android.os.Environment.getExternalStorageDirectory();
+            long availableSpace = StorageHelper.getAvailableSpace(internalDir);
+            if (availableSpace < 0) {
+                return;
             }
             
-            long fileSize = file.length();
-            if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "强制删除旧文件: " + file.getName() + " (" + StorageHelper.formatSize(fileSize) + ")");
+            long marginBytes = appConfig.getLowSpaceSafetyMarginGb() * GB_TO_BYTES;
+            long totalBitrate = 0;
+            int recordingCameras = 0;
+            MultiCameraManager cameraManager = CameraManagerHolder.getInstance().getCameraManager();
+            if (cameraManager != null) {
+                totalBitrate = cameraManager.getActiveRecordingBitrate();
+                recordingCameras = cameraManager.getRecordingCameraCount();
             }
+            long writeRate = FreeSpaceScheduler.toWriteBytesPerSecond(totalBitrate);
+            
+            // 已提交但还没删完的文件按已释放计算，避免下个周期重复淘汰
+            long inFlightBytes = lowSpaceBytesInFlight.get();
+            long bytesToFree = freeSpaceScheduler.planEvictionBytes(availableSpace + inFlightBytes, marginBytes, writeRate);
+            if (bytesToFree <= 0) {
+                if (lowSpaceEvicting) {
+                    AppLog.d(TAG, "内部存储已恢复到安全余量以上，可用: " + StorageHelper.formatSize(availableSpace));
+                }
+                lowSpaceEvicting = false;
+                return;
+            }
+            
+            long timeToMarginMs = freeSpaceScheduler.projectTimeToMarginMs(availableSpace, marginBytes, writeRate);
+            AppLog.d(TAG, "内部存储可用 " + StorageHelper.formatSize(availableSpace) +
+                    "，安全余量 " + StorageHelper.formatSize(marginBytes) +
+                    "，写入速度 " + StorageHelper.formatSize(writeRate) + "/s（" + recordingCameras + " 路）" +
+                    "，预计 " + (timeToMarginMs == Long.MAX_VALUE ? "-" : (timeToMarginMs / 1000) + "s") +
+                    " 后低于余量，删除中 " + StorageHelper.formatSize(inFlightBytes) +
+                    "，本周期释放 " + StorageHelper.formatSize(bytesToFree));
+            
+            // 先删除最旧的录像
+            CleanupResult result = new CleanupResult();
+            File videoDir = StorageHelper.getVideoDir(context, false);
+            deleteOldest(openIndex(videoDir), bytesToFree, "视频", result);
+            
+            // 录像不足时删除最旧的图片（按已提交的录像大小计算差额，不等待删除完成）
+            if (result.plannedSize < bytesToFree) {
+                File photoDir = StorageHelper.getPhotoDir(context, false);
+                deleteOldest(openIndex(photoDir), bytesToFree - result.plannedSize, "图片", result);
+            }
+            
+            long plannedSize = result.plannedSize;
+            lowSpaceBytesInFlight.addAndGet(plannedSize);
+            // 进入低空间清理阶段时提示一次，之后的小批量删除不再打扰
+            boolean firstEviction = result.plannedCount > 0 && !lowSpaceEvicting;
+            result.whenDone(() -> {
+                lowSpaceBytesInFlight.addAndGet(-plannedSize);
+                if (firstEviction && result.deletedCount.get() > 0) {
+                    showLowSpaceCleanupNotification(result);
+                }
+            });
+            lowSpaceEvicting = result.plannedCount > 0;
+        } catch (Exception e) {
+            AppLog.e(TAG, "预测式低空间清理失败", e);
         }
-        
-        result.deletedSize = deletedSize;
-        result.deletedCount = deletedCount;
-        result.finalSize = totalSize - deletedSize;
-        
-        AppLog.d(TAG, typeName + "强制清理完成：删除 " + deletedCount + " 个文件，释放 " + StorageHelper.formatSize(deletedSize));
-        
-        return result;
     }
     
     /**
-     * 显示低空间强制清理通知
+     * 显示低空间清理通知
      */
-    private void showLowSpaceCleanupNotification(CleanupResult result, String typeName) {
+    private void showLowSpaceCleanupNotification(CleanupResult result) {
         mainHandler.post(() -> {
-            String message = "内部存储空间不足，已清理" + typeName + " " + 
-                    result.deletedCount + "个文件（" + StorageHelper.formatSize(result.deletedSize) + "）";
+            String message = "内部存储空间不足，已开始自动清理最旧的录像（本次 " + 
+                    result.deletedCount.get() + " 个文件，" + StorageHelper.formatSize(result.deletedSize.get()) + "）";
             Toast.makeText(context, message, Toast.LENGTH_LONG).show();
         });
     }
@@ -270,19 +398,15 @@ public class StorageCleanupManager {
             return result;
         }
         
-        // 获取目录中所有文件（不筛选格式）
-        File[] files = directory.listFiles(File::isFile);
+        StorageIndex index = openIndex(directory);
         
-        if (files == null || files.length == 0) {
+        if (index.getFileCount() == 0) {
             AppLog.d(TAG, typeName + "目录为空");
             return result;
         }
         
-        // 计算当前总大小
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
+        // 当前总大小（索引中 O(1) 读取）
+        long totalSize = index.getTotalBytes();
         
         result.originalSize = totalSize;
         
@@ -302,48 +426,67 @@ public class StorageCleanupManager {
         AppLog.d(TAG, typeName + "超过限制，需要删除: " + StorageHelper.formatSize(needToDelete) + 
                 "，目标大小: " + StorageHelper.formatSize(targetSize));
         
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
-        
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
-        
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
-            }
-            
-            long fileSize = file.length();
-            String fileName = file.getName();
-            
-            if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "已删除" + typeName + ": " + fileName + " (" + StorageHelper.formatSize(fileSize) + ")");
-            } else {
-                AppLog.w(TAG, "删除" + typeName + "失败: " + fileName);
-            }
-        }
+        // 从索引中取出最旧的文件，交给后台删除
+        deleteOldest(index, needToDelete, typeName, result);
         
-        result.deletedCount = deletedCount;
-        result.deletedSize = deletedSize;
-        result.finalSize = totalSize - deletedSize;
+        result.finalSize = totalSize - result.plannedSize;
         
-        AppLog.d(TAG, typeName + "清理完成：删除 " + deletedCount + " 个文件，释放 " + 
-                StorageHelper.formatSize(deletedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
+        AppLog.d(TAG, typeName + "清理已提交：删除 " + result.plannedCount + " 个文件，释放 " + 
+                StorageHelper.formatSize(result.plannedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
         
         return result;
     }
     
+    /**
+     * 打开目录的存储索引
+     * 索引不存在或校验失败时执行一次全量扫描重建
+     */
+    private StorageIndex openIndex(File directory) {
+        StorageIndex index = StorageIndex.get(context, directory);
+        if (index.needsRescan() || !index.validate()) {
+            AppLog.d(TAG, "存储索引需要重建: " + directory.getAbsolutePath());
+            index.rebuild();
+        }
+        return index;
+    }
+    
+    /**
+     * 从索引中取出最旧的文件（直到达到指定大小）并提交删除，不等待删除完成
+     * 删除交给限速后台删除执行器（ThrottledDeleter），录制写入有压力时自动让路，
+     * 清理线程因此不会被阻塞；提交的大小立即计入 plannedSize，实际结果在批次完成时累加
+     * 删除失败（文件仍存在）的条目会重新加入索引
+     */
+    private void deleteOldest(StorageIndex index, long bytesToFree, String typeName, CleanupResult result) {
+        List<StorageIndex.Entry> victims = index.pollOldest(bytesToFree);
+        if (victims.isEmpty()) {
+            return;
+        }
+        
+        long plannedBytes = 0;
+        for (StorageIndex.Entry entry : victims) {
+            plannedBytes += entry.size;
+        }
+        result.plannedSize += plannedBytes;
+        result.plannedCount += victims.size();
+        result.pending.incrementAndGet();
+        
+        ThrottledDeleter deleter = ThrottledDeleter.getInstance();
+        deleter.submit(index, victims, typeName, batch -> {
+            result.deletedSize.addAndGet(batch.getDeletedBytes());
+            result.deletedCount.addAndGet(batch.getDeletedCount());
+            AppLog.d(TAG, typeName + "删除完成: " + batch.getDeletedCount() + "/" + victims.size() + " 个文件，释放 " +
+                    StorageHelper.formatSize(batch.getDeletedBytes()) + "，删除统计: " + deleter.getStats());
+            result.batchDone();
+        });
+    }
+    
     /**
      * 显示清理通知
      */
     private void showCleanupNotification(CleanupResult result, String typeName) {
         mainHandler.post(() -> {
-            String message = "已清理" + typeName + "：删除 " + result.deletedCount + " 个文件，释放 " + 
-                    StorageHelper.formatSize(result.deletedSize);
+            String message = "已清理" + typeName + "：删除 " + result.deletedCount.get() + " 个文件，释放 " + 
+                    StorageHelper.formatSize(result.deletedSize.get());
             Toast.makeText(context, message, Toast.LENGTH_LONG).show();
             AppLog.d(TAG, "清理通知: " + message);
         });
@@ -373,33 +516,49 @@ public class StorageCleanupManager {
     }
     
     /**
-     * 获取目录中所有文件的总大小
+     * 获取目录中所有文件的总大小（从存储索引读取，不扫描目录）
+     * 仅在该目录尚未建立索引时执行一次全量扫描
      */
     private long getDirectorySize(File directory) {
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             return 0;
         }
         
-        File[] files = directory.listFiles(File::isFile);
-        
-        if (files == null) {
-            return 0;
-        }
-        
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
+        StorageIndex index = StorageIndex.get(context, directory);
+        if (index.needsRescan()) {
+            index.rebuild();
         }
-        return totalSize;
+        return index.getTotalBytes();
     }
     
     /**
      * 清理结果
+     * 提交时只知道计划删除量（plannedSize/plannedCount），实际删除量在后台批次完成后累加
      */
     private static class CleanupResult {
         long originalSize = 0;  // 清理前大小
-        long deletedSize = 0;   // 删除的大小
-        long finalSize = 0;     // 清理后大小
-        int deletedCount = 0;   // 删除的文件数
+        long plannedSize = 0;   // 提交删除的大小（按索引记录）
+        int plannedCount = 0;   // 提交删除的文件数
+        long finalSize = 0;     // 清理后大小（按提交删除量推算）
+        final AtomicLong deletedSize = new AtomicLong();       // 实际删除的大小
+        final AtomicInteger deletedCount = new AtomicInteger(); // 实际删除的文件数
+        
+        // 未完成的批次数（初始的 1 代表提交阶段，whenDone 时释放）
+        final AtomicInteger pending = new AtomicInteger(1);
+        private volatile Runnable onComplete;
+        
+        /**
+         * 所有批次提交后调用：全部删除完成时执行 action（可能在删除线程，也可能立即在当前线程）
+         */
+        void whenDone(Runnable action) {
+            onComplete = action;
+            batchDone();
+        }
+        
+        void batchDone() {
+            if (pending.decrementAndGet() == 0 && onComplete != null) {
+                onComplete.run();
+            }
+        }
     }
 }
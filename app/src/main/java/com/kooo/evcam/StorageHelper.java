@@ -101,9 +101,8 @@ public class StorageHelper {
     public static boolean isSdCardFallback(Context context) {
         if (context == null) return false;
         
-        AppConfig config = new AppConfig(context);
         // 只有当用户选择了U盘时才需要检测回退
-        if (!config.isUsingExternalSdCard()) {
+        if (!AppConfig.snapshot(context).usingExternalSdCard) {
             return false;
         }
         
@@ -223,8 +222,7 @@ public class StorageHelper {
      * @return 视频存储目录
      */
     public static File getVideoDir(Context context) {
-        AppConfig config = new AppConfig(context);
-        return getVideoDir(context, config.isUsingExternalSdCard());
+        return getVideoDir(context, AppConfig.snapshot(context).usingExternalSdCard);
     }
     
     /**
@@ -234,10 +232,8 @@ public class StorageHelper {
      * @return 录制写入目录
      */
     public static File getRecordingDir(Context context) {
-        AppConfig config = new AppConfig(context);
-        
         // 检查是否应该使用中转写入
-        if (config.shouldUseRelayWrite()) {
+        if (AppConfig.snapshot(context).relayWrite) {
             // 使用临时目录（内部存储的缓存目录）
             File tempDir = new File(context.getCacheDir(), FileTransferManager.TEMP_VIDEO_DIR);
             if (!tempDir.exists()) {
@@ -262,8 +258,7 @@ public class StorageHelper {
      * @return 最终存储目录
      */
     public static File getFinalVideoDir(Context context) {
-        AppConfig config = new AppConfig(context);
-        return getVideoDir(context, config.isUsingExternalSdCard());
+        return getVideoDir(context, AppConfig.snapshot(context).usingExternalSdCard);
     }
     
     /**
@@ -293,8 +288,7 @@ public class StorageHelper {
      * @return 图片存储目录
      */
     public static File getPhotoDir(Context context) {
-        AppConfig config = new AppConfig(context);
-        return getPhotoDir(context, config.isUsingExternalSdCard());
+        return getPhotoDir(context, AppConfig.snapshot(context).usingExternalSdCard);
     }
     
     /**
@@ -684,8 +678,7 @@ public class StorageHelper {
      * @return 当前存储路径描述
      */
     public static String getCurrentStoragePathDesc(Context context) {
-        AppConfig config = new AppConfig(context);
-        boolean useExternalSd = config.isUsingExternalSdCard();
+        boolean useExternalSd = AppConfig.snapshot(context).usingExternalSdCard;
         
         File videoDir = getVideoDir(context, useExternalSd);
         return videoDir.getAbsolutePath();
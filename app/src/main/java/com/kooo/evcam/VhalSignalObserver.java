@@ -58,6 +58,10 @@ public class VhalSignalObserver {
 
     // 定制键唤醒状态跟踪
     private volatile float currentSpeed = 0f;
+    private volatile boolean speedReceived = false;  // 是否收到过车速信号（未配置速度属性时不会收到）
+
+    // 当前运行中的观察者（供录制水印读取车速）
+    private static volatile VhalSignalObserver activeObserver;
     private volatile int lastButtonState = -1;
 
     private ManagedChannel grpcChannel;
@@ -102,6 +106,18 @@ public class VhalSignalObserver {
         return currentSpeed;
     }
 
+    /**
+     * 获取当前运行中的观察者的车速（用于录制水印）
+     * @return 车速（km/h），未连接或未收到过车速信号时返回 NaN
+     */
+    public static float getActiveSpeedKmh() {
+        VhalSignalObserver observer = activeObserver;
+        if (observer == null || !observer.connected || !observer.speedReceived) {
+            return Float.NaN;
+        }
+        return observer.currentSpeed * 3.6f;  // 车辆信号为 m/s
+    }
+
     /**
      * 配置定制键唤醒参数
      */
@@ -119,6 +135,7 @@ public class VhalSignalObserver {
     public void start() {
         if (running) return;
         running = true;
+        activeObserver = this;
         lastSignalState = -1;
         isPassDoorOpen = false;
         isLeftRearDoorOpen = false;
@@ -133,6 +150,9 @@ public class VhalSignalObserver {
      */
     public void stop() {
         running = false;
+        if (activeObserver == this) {
+            activeObserver = null;
+        }
         disconnect();
         if (connectThread != null) {
             connectThread.interrupt();
@@ -390,6 +410,7 @@ public class VhalSignalObserver {
                     break;
                 case VhalNative.EVT_SPEED:
                     currentSpeed = Float.intBitsToFloat(p1);
+                    speedReceived = true;
                     break;
                 case VhalNative.EVT_CUSTOM_KEY:
                     handleCustomKeyEvent(p1);
@@ -0,0 +1,476 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步编码输出管线
+ * MediaCodec 以回调模式运行在独立线程上，编码输出复制到预分配的槽位后立即归还给编码器，
+ * 再经有界队列交给封装线程写入文件。渲染线程只负责画帧，U 盘写入变慢时不会卡住 GL 渲染
+ *
+ * 背压：槽位用完时回调线程最多等待 BACKPRESSURE_WAIT_MS，仍无空闲槽位则丢弃该帧，
+ * 并一直丢到下一个关键帧（同时请求编码器立即产生关键帧），保证写入的数据仍可解码
+ *
+ * 线程：
+ * - 回调线程：onOutputBufferAvailable / onOutputFormatChanged / onError
+ * - 封装线程：调用 Sink 写入（分段切换也在此线程上发生）
+ * - 渲染线程：onFrameRendered 记录渲染时间，用于统计渲染到写入的延迟
+ */
+public class AsyncEncoderPipeline {
+    private static final String TAG = "AsyncEncoderPipeline";
+
+    private static final long BACKPRESSURE_WAIT_MS = 20;  // 槽位用完时回调线程最多等待时间
+    private static final long EVENT_WAIT_MS = 1000;  // 格式/结束事件不丢弃，最多等待 1 秒
+    private static final int INITIAL_SLOT_BYTES = 64 * 1024;  // 槽位初始容量，按需扩容后复用
+    private static final int LATENCY_RING_SIZE = 64;  // 渲染时间记录数（按 PTS 匹配）
+
+    private static final int TYPE_SAMPLE = 0;
+    private static final int TYPE_FORMAT = 1;
+    private static final int TYPE_BARRIER = 2;
+
+    /**
+     * 编码输出的接收方
+     */
+    public interface Sink {
+        /**
+         * 编码器输出格式确定（封装线程）
+         */
+        void onOutputFormat(MediaFormat format);
+
+        /**
+         * 一帧编码数据（封装线程），data 从 0 开始、长度为 size，返回后槽位被复用
+         */
+        void onEncodedSample(ByteBuffer data, int size, long presentationTimeUs, boolean keyFrame);
+
+        /**
+         * 编码器或写入出错（回调线程或封装线程）
+         */
+        void onPipelineError(Exception error);
+    }
+
+    /**
+     * 预分配的队列槽位
+     */
+    private static final class Slot {
+        int type;
+        ByteBuffer data = ByteBuffer.allocateDirect(INITIAL_SLOT_BYTES);
+        int size;
+        long presentationTimeUs;
+        int flags;
+        MediaFormat format;
+        CountDownLatch barrier;
+    }
+
+    private final String name;
+    private final Sink sink;
+    private final int capacity;
+    private final ArrayBlockingQueue<Slot> freeSlots;
+    private final ArrayBlockingQueue<Slot> filledSlots;
+
+    private HandlerThread callbackThread;
+    private Handler callbackHandler;
+    private Thread muxThread;
+    private volatile boolean running = false;
+
+    // 每个编码器实例的状态（attach 时重置）
+    private volatile CountDownLatch endOfStreamLatch = new CountDownLatch(1);
+    private volatile boolean dropUntilKeyFrame = false;
+
+    // 健康与统计
+    private final AtomicInteger framesSinceLastOutput = new AtomicInteger(0);
+    private final AtomicLong queuedSamples = new AtomicLong(0);
+    private final AtomicLong writtenSamples = new AtomicLong(0);
+    private final AtomicLong droppedSamples = new AtomicLong(0);
+    private final AtomicLong backpressureEvents = new AtomicLong(0);
+    private final AtomicLong backpressureWaitMs = new AtomicLong(0);
+    private final AtomicLong slotGrowths = new AtomicLong(0);
+    private volatile int maxQueueDepth = 0;
+
+    // 渲染到写入延迟（纳秒）
+    private final long[] renderPtsUs = new long[LATENCY_RING_SIZE];
+    private final long[] renderTimeNs = new long[LATENCY_RING_SIZE];
+    private int renderRingIndex = 0;
+    private long latencyCount = 0;
+    private long latencyTotalNs = 0;
+    private long latencyMaxNs = 0;
+    private volatile long lastLatencyNs = 0;
+
+    /**
+     * @param capacity 队列槽位数（决定写入卡顿时最多缓冲的帧数）
+     */
+    public AsyncEncoderPipeline(String name, int capacity, Sink sink) {
+        this.name = name;
+        this.sink = sink;
+        int slots = Math.max(2, capacity);
+        this.capacity = slots;
+        this.freeSlots = new ArrayBlockingQueue<>(slots);
+        this.filledSlots = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            freeSlots.add(new Slot());
+        }
+        for (int i = 0; i < LATENCY_RING_SIZE; i++) {
+            renderPtsUs[i] = -1;
+        }
+    }
+
+    /**
+     * 启动回调线程和封装线程
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        callbackThread = new HandlerThread("EncoderCallback-" + name);
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+        muxThread = new Thread(this::muxLoop, "EncoderMux-" + name);
+        muxThread.start();
+    }
+
+    /**
+     * 将编码器切换到回调模式（必须在 configure 之前调用）
+     */
+    public void attach(MediaCodec codec) {
+        endOfStreamLatch = new CountDownLatch(1);
+        dropUntilKeyFrame = false;
+        framesSinceLastOutput.set(0);
+        codec.setCallback(callback, callbackHandler);
+    }
+
+    /**
+     * 渲染线程：一帧已提交给编码器
+     * @param presentationTimeUs 该帧的显示时间戳（与编码输出的时间戳对应）
+     */
+    public void onFrameRendered(long presentationTimeUs) {
+        framesSinceLastOutput.incrementAndGet();
+        synchronized (renderPtsUs) {
+            renderPtsUs[renderRingIndex] = presentationTimeUs;
+            renderTimeNs[renderRingIndex] = System.nanoTime();
+            renderRingIndex = (renderRingIndex + 1) % LATENCY_RING_SIZE;
+        }
+    }
+
+    /**
+     * 等待结束标志经过封装线程（在 signalEndOfInputStream 之后调用）
+     * @return 是否在超时前收到
+     */
+    public boolean awaitEndOfStream(long timeoutMs) {
+        try {
+            return endOfStreamLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 等待队列中已有的数据全部写入（编码器停止后、关闭分段前调用）
+     * @return 是否在超时前完成
+     */
+    public boolean awaitDrained(long timeoutMs) {
+        if (!running) {
+            return true;
+        }
+        Slot slot = obtainSlot(timeoutMs);
+        if (slot == null) {
+            return false;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        slot.type = TYPE_BARRIER;
+        slot.barrier = latch;
+        enqueue(slot);
+        try {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 自上次编码输出以来已渲染的帧数（健康检查用）
+     */
+    public int getFramesSinceLastOutput() {
+        return framesSinceLastOutput.get();
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * 最近一帧从渲染到写入完成的延迟（毫秒）
+     */
+    public long getLastRenderToMuxLatencyMs() {
+        return lastLatencyNs / 1000000L;
+    }
+
+    /**
+     * 统计信息
+     */
+    public String getStats() {
+        long count;
+        long total;
+        long max;
+        synchronized (renderPtsUs) {
+            count = latencyCount;
+            total = latencyTotalNs;
+            max = latencyMaxNs;
+        }
+        double avgMs = count > 0 ? total / 1e6 / count : 0;
+        return String.format(Locale.US,
+                "异步编码: 写入 %d/%d 帧, 丢弃 %d 帧, 背压 %d 次 (%dms), 队列峰值 %d/%d, 扩容 %d, 渲染到写入 平均 %.1fms 最大 %.1fms",
+                writtenSamples.get(), queuedSamples.get(), droppedSamples.get(),
+                backpressureEvents.get(), backpressureWaitMs.get(),
+                maxQueueDepth, capacity,
+                slotGrowths.get(), avgMs, max / 1e6);
+    }
+
+    /**
+     * 停止线程（队列中未写入的数据丢弃）
+     */
+    public void release() {
+        running = false;
+        if (muxThread != null) {
+            muxThread.interrupt();
+            try {
+                muxThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            muxThread = null;
+        }
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+            callbackThread = null;
+            callbackHandler = null;
+        }
+        endOfStreamLatch.countDown();
+    }
+
+    // ==================== 回调线程 ====================
+
+    private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // Surface 输入，不使用输入缓冲区
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            try {
+                handleOutputBuffer(codec, index, info);
+            } catch (IllegalStateException e) {
+                // 编码器已停止或释放
+                AppLog.w(TAG, name + " output buffer after codec stopped: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            AppLog.e(TAG, name + " codec error (recoverable=" + e.isRecoverable() + ", transient=" + e.isTransient() + ")", e);
+            if (!e.isTransient()) {
+                sink.onPipelineError(e);
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            framesSinceLastOutput.set(0);
+            Slot slot = obtainSlot(EVENT_WAIT_MS);
+            if (slot == null) {
+                sink.onPipelineError(new IllegalStateException("no slot for output format"));
+                return;
+            }
+            slot.type = TYPE_FORMAT;
+            slot.format = format;
+            enqueue(slot);
+        }
+    };
+
+    private void handleOutputBuffer(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+        boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        boolean isData = info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0;
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+
+        if (!isData && !endOfStream) {
+            // 配置数据已包含在输出格式中
+            codec.releaseOutputBuffer(index, false);
+            return;
+        }
+        if (isData) {
+            framesSinceLastOutput.set(0);
+        }
+
+        // 丢帧后一直丢到关键帧，避免写入无法解码的帧
+        if (isData && dropUntilKeyFrame && !keyFrame) {
+            droppedSamples.incrementAndGet();
+            if (!endOfStream) {
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+            isData = false;
+        }
+
+        Slot slot = obtainSlot(endOfStream ? EVENT_WAIT_MS : BACKPRESSURE_WAIT_MS);
+        if (slot == null) {
+            codec.releaseOutputBuffer(index, false);
+            if (isData) {
+                droppedSamples.incrementAndGet();
+                if (!dropUntilKeyFrame) {
+                    dropUntilKeyFrame = true;
+                    AppLog.w(TAG, name + " mux queue full, dropping until next key frame");
+                    requestSyncFrame(codec);
+                }
+            }
+            if (endOfStream) {
+                endOfStreamLatch.countDown();
+            }
+            return;
+        }
+
+        slot.type = TYPE_SAMPLE;
+        slot.flags = endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0;
+        slot.size = 0;
+        if (isData) {
+            ByteBuffer output = codec.getOutputBuffer(index);
+            if (output != null) {
+                copyInto(slot, output, info.offset, info.size);
+                slot.presentationTimeUs = info.presentationTimeUs;
+                slot.flags |= keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                if (keyFrame) {
+                    dropUntilKeyFrame = false;
+                }
+            }
+        }
+        // 数据已复制，立即归还给编码器
+        codec.releaseOutputBuffer(index, false);
+        if (slot.size > 0) {
+            queuedSamples.incrementAndGet();
+        }
+        enqueue(slot);
+    }
+
+    private void copyInto(Slot slot, ByteBuffer output, int offset, int size) {
+        if (slot.data.capacity() < size) {
+            // 按 1.5 倍扩容，关键帧大小稳定后不再分配
+            slot.data = ByteBuffer.allocateDirect(Math.max(size, slot.data.capacity() * 3 / 2));
+            slotGrowths.incrementAndGet();
+        }
+        output.limit(offset + size);
+        output.position(offset);
+        slot.data.clear();
+        slot.data.put(output);
+        slot.data.flip();
+        slot.size = size;
+    }
+
+    private Slot obtainSlot(long waitMs) {
+        Slot slot = freeSlots.poll();
+        if (slot != null || !running) {
+            return slot;
+        }
+        backpressureEvents.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            slot = freeSlots.poll(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backpressureWaitMs.addAndGet(System.currentTimeMillis() - start);
+        return slot;
+    }
+
+    private void enqueue(Slot slot) {
+        // 槽位总数等于队列容量，offer 不会失败
+        filledSlots.offer(slot);
+        int depth = filledSlots.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    private void requestSyncFrame(MediaCodec codec) {
+        try {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            codec.setParameters(params);
+        } catch (Exception e) {
+            AppLog.w(TAG, name + " failed to request sync frame: " + e.getMessage());
+        }
+    }
+
+    // ==================== 封装线程 ====================
+
+    private void muxLoop() {
+        while (running) {
+            Slot slot;
+            try {
+                slot = filledSlots.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                switch (slot.type) {
+                    case TYPE_FORMAT:
+                        sink.onOutputFormat(slot.format);
+                        break;
+                    case TYPE_BARRIER:
+                        slot.barrier.countDown();
+                        break;
+                    default:
+                        if (slot.size > 0) {
+                            sink.onEncodedSample(slot.data, slot.size, slot.presentationTimeUs, (slot.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+                            writtenSamples.incrementAndGet();
+                            recordLatency(slot.presentationTimeUs);
+                        }
+                        if ((slot.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            endOfStreamLatch.countDown();
+                        }
+                        break;
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, name + " mux error", e);
+                sink.onPipelineError(e);
+            } finally {
+                slot.format = null;
+                slot.barrier = null;
+                freeSlots.offer(slot);
+            }
+        }
+    }
+
+    private void recordLatency(long presentationTimeUs) {
+        long now = System.nanoTime();
+        synchronized (renderPtsUs) {
+            for (int i = 0; i < LATENCY_RING_SIZE; i++) {
+                if (renderPtsUs[i] == presentationTimeUs) {
+                    long latency = now - renderTimeNs[i];
+                    renderPtsUs[i] = -1;
+                    latencyCount++;
+                    latencyTotalNs += latency;
+                    if (latency > latencyMaxNs) {
+                        latencyMaxNs = latency;
+                    }
+                    lastLatencyNs = latency;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -3,16 +3,18 @@ package com.kooo.evcam.camera;
 import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Process;
+import android.util.Size;
 import android.view.Surface;
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.storage.SegmentPreallocator;
+import com.kooo.evcam.storage.WritePressureMonitor;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,8 +22,12 @@ import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -32,7 +38,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 1. 创建 MediaCodec 编码器，获取其输入 Surface
  * 2. 使用 EglSurfaceEncoder 将 Camera 的帧渲染到编码器输入 Surface
  * 3. 从 MediaCodec 获取编码后的数据
- * 4. 通过 MediaMuxer 写入 MP4 文件
+ * 4. 通过 SegmentSplitter/SegmentMuxer 写入 MP4 文件
+ * 
+ * 分段切换不重建编码器：请求同步帧后由 SegmentSplitter 在关键帧处切换到新文件，相邻分段之间不丢帧
+ *
+ * 拼接模式（setMosaicLayout）：多路 Camera 合成到同一画面，只用一个编码器和一个文件，
+ * 每个分段附带布局旁路文件（MosaicLayout）
  */
 public class CodecVideoRecorder {
     private static final String TAG = "CodecVideoRecorder";
@@ -47,6 +58,7 @@ public class CodecVideoRecorder {
     // 编码参数（可配置）
     private int frameRate = 20;       // 默认 20fps - 降低帧率减少CPU占用，同时保持流畅
     private int bitRate = 0;          // 默认自动计算码率
+    private int encoderBitRate = 0;   // 编码器实际使用的码率（createEncoder 时确定）
     
     // 性能优化：码率上限（防止过高码率导致卡顿）
     private static final int MAX_BITRATE = 12000000;  // 最大码率 12Mbps
@@ -79,24 +91,45 @@ public class CodecVideoRecorder {
     private Surface encoderInputSurface;
     private MediaCodec.BufferInfo bufferInfo;
 
-    // MediaMuxer 相关
-    private MediaMuxer muxer;
-    private int videoTrackIndex = -1;
-    private boolean muxerStarted = false;
+    // 分段封装（编码输出写入当前分段，在关键帧处无缝切换）
+    private static final long FRAME_DURATION_US = 40000L;  // 分段内时间戳按帧序号计算（25fps 间隔）
+    private final SegmentSplitter splitter;
+
+    // 异步编码（MediaCodec 回调模式，编码输出经有界队列由独立线程写入）
+    private static final int ASYNC_QUEUE_CAPACITY = 30;  // 最多缓冲约 1 秒编码输出
+    private static final long ASYNC_END_OF_STREAM_TIMEOUT_MS = 2000;
+    private boolean asyncEncoderEnabled = false;
+    private AsyncEncoderPipeline asyncPipeline;
+
+    // 预录缓冲（最近若干秒的编码帧，事件触发时写成独立片段）
+    private static final int PRE_EVENT_MIN_BYTES = 2 * 1024 * 1024;
+    private static final int PRE_EVENT_MAX_BYTES = 24 * 1024 * 1024;  // 每路硬性上限（堆外内存）
+    private int preEventSeconds = 0;
+    private volatile PreEventRingBuffer preEventBuffer;
 
     // EGL 渲染器
     private EglSurfaceEncoder eglEncoder;
     private SurfaceTexture inputSurfaceTexture;
     private int textureId;
 
-    // 编码线程
+    // 拼接录制（多路合成一个画面，共用一个编码器）
+    private MosaicLayout mosaicLayout;
+    private Map<String, Size> mosaicSourceSizes = new HashMap<>();
+    private File mosaicSidecarDir;
+    private final Map<String, SurfaceTexture> tileSurfaceTextures = new LinkedHashMap<>();
+
+    // 编码线程（共享渲染模式下为共享渲染线程，不单独创建）
     private HandlerThread encoderThread;
     private Handler encoderHandler;
+    private SharedRenderThread sharedRenderThread;
+    private boolean sharedRenderAcquired = false;
+    private RenderScheduler.Target renderTarget;
 
     // 状态
     private final AtomicBoolean isRecording = new AtomicBoolean(false);  // 使用 AtomicBoolean 确保线程安全
     private volatile boolean isReleased = false;
-    private String currentFilePath;
+    // 分段状态：异步编码时由写入线程（SegmentSplitter 回调）更新，停止、恢复等在其他线程读取
+    private volatile String currentFilePath;
     
     // 缓存的录制 Surface，避免重复创建导致内存泄漏
     private Surface cachedRecordSurface = null;
@@ -121,16 +154,18 @@ public class CodecVideoRecorder {
     private Handler segmentHandler;
     
     private Runnable segmentRunnable;
-    private int segmentIndex = 0;
+    private volatile int segmentIndex = 0;
     private String saveDirectory;
     private String cameraPosition;
     private VideoRecorder.SegmentTimestampProvider timestampProvider;  // 分段时间戳提供者（用于多路同步）
     private long lastFileSize = 0;
+    private boolean preallocationEnabled = false;  // 分段文件预分配（直接写入U盘时启用）
+    private boolean fragmentedMp4Enabled = false;  // 使用分片 MP4 封装（断电后仍可播放）
     private static final long FILE_SIZE_CHECK_INTERVAL_MS = 5000;
     private static final long FIRST_CHECK_DELAY_MS = 500;  // 首次检查延迟（更快检测首次写入）
     private Runnable fileSizeCheckRunnable;
     private long recordedFrameCount = 0;
-    private List<String> recordedFilePaths = new ArrayList<>();  // 本次录制的所有文件路径
+    private final List<String> recordedFilePaths = new CopyOnWriteArrayList<>();  // 本次录制的所有文件路径（写入线程追加，遍历时为快照）
     
     // 首次写入检测（与 VideoRecorder 保持一致）
     private static final long FIRST_WRITE_TIMEOUT_MS = 10000;  // 首次写入超时（10秒）
@@ -140,7 +175,7 @@ public class CodecVideoRecorder {
     // 快速恢复机制
     private static final long RECOVERY_RETRY_INTERVAL_MS = 5000;  // 恢复重试间隔：5秒
     private static final int MAX_RECOVERY_ATTEMPTS = 60;  // 最大重试次数（5秒 × 60 = 5分钟内重试）
-    private int recoveryAttempts = 0;  // 当前重试次数
+    private volatile int recoveryAttempts = 0;  // 当前重试次数
     private Runnable recoveryRunnable;  // 恢复重试任务
 
     // 编码器健康检查
@@ -154,8 +189,13 @@ public class CodecVideoRecorder {
     // 回调
     private RecordCallback callback;
 
-    // 时间水印设置
+    // 水印设置
     private boolean watermarkEnabled = false;
+    private boolean watermarkShowTime = true;
+    private boolean watermarkShowSpeed = false;
+    private boolean watermarkShowBrand = false;
+    private int watermarkColor = 0xFFFFFFFF;
+    private WatermarkLayout.SpeedSource speedSource;
 
     // 注意：帧同步变量已移除，帧处理现在直接在 onFrameAvailable 回调中完成
 
@@ -173,6 +213,17 @@ public class CodecVideoRecorder {
         };
         segmentThread.start();
         this.segmentHandler = new Handler(segmentThread.getLooper());
+        this.splitter = new SegmentSplitter(this::createSegmentMuxer, FRAME_DURATION_US, new SegmentSplitter.Listener() {
+            @Override
+            public void onSegmentSwitched(SegmentMuxer completed, String nextPath) {
+                handleSegmentSwitched(completed, nextPath);
+            }
+
+            @Override
+            public void onSplitFailed(String nextPath, Exception error) {
+                handleSegmentSplitFailed(nextPath, error);
+            }
+        });
     }
 
     /**
@@ -188,6 +239,23 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " Watermark " + (enabled ? "enabled" : "disabled"));
     }
 
+    /**
+     * 设置水印字段（在 prepareRecording 之前调用，录制中不变）
+     * @param showTime 显示时间
+     * @param showSpeed 显示车速
+     * @param showBrand 显示品牌标识
+     * @param colorArgb 文字颜色
+     * @param speedSource 车速来源
+     */
+    public void setWatermarkFields(boolean showTime, boolean showSpeed, boolean showBrand, int colorArgb,
+                                   WatermarkLayout.SpeedSource speedSource) {
+        this.watermarkShowTime = showTime;
+        this.watermarkShowSpeed = showSpeed;
+        this.watermarkShowBrand = showBrand;
+        this.watermarkColor = colorArgb;
+        this.speedSource = speedSource;
+    }
+
     /**
      * 检查是否启用了时间水印
      */
@@ -267,6 +335,167 @@ public class CodecVideoRecorder {
         return bitRate;
     }
 
+    /**
+     * 获取编码器实际使用的码率（HEVC 优化路径下可能低于配置值）
+     * 编码器尚未创建时返回配置码率
+     */
+    public int getEffectiveBitRate() {
+        return encoderBitRate > 0 ? encoderBitRate : bitRate;
+    }
+
+    /**
+     * 设置是否预分配分段文件
+     * 启用后每个分段创建时预留 码率 × 分段时长 的空间，结束后截断到实际长度
+     */
+    public void setPreallocationEnabled(boolean enabled) {
+        this.preallocationEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " segment preallocation = " + enabled);
+    }
+
+    /**
+     * 设置是否使用分片 MP4 封装
+     * 启用后每个 GOP 写出一个分片，断电时文件仍可播放到最后一个完整分片；
+     * 关闭时使用 MediaMuxer（moov 在分段结束时写入）
+     */
+    public void setFragmentedMp4Enabled(boolean enabled) {
+        this.fragmentedMp4Enabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " fragmented MP4 = " + enabled);
+    }
+
+    /**
+     * 设置预录缓冲时长（需在 prepareRecording 之前调用）
+     * 录制期间在内存中保留最近 seconds 秒的编码帧，供 savePreEventClip 写成事件前片段
+     * @param seconds 0 表示关闭
+     */
+    public void setPreEventSeconds(int seconds) {
+        this.preEventSeconds = Math.max(0, seconds);
+        AppLog.d(TAG, "Camera " + cameraId + " pre-event buffer = " + this.preEventSeconds + "s");
+    }
+
+    /**
+     * 预录缓冲中已有的时长（毫秒）
+     */
+    public long getPreEventDurationMs() {
+        PreEventRingBuffer buffer = preEventBuffer;
+        return buffer != null ? buffer.getBufferedDurationUs() / 1000 : 0;
+    }
+
+    /**
+     * 把预录缓冲写成独立片段（阻塞，在后台线程调用）
+     * 文件名与普通分段一致：时间戳_位置.mp4，写入当前录制目录；录制继续进行，缓冲不清空
+     * @param timestamp 片段起始时间戳（多路摄像头使用同一个）
+     * @return 片段路径，没有缓冲数据或写入失败时返回 null
+     */
+    public String savePreEventClip(String timestamp) {
+        if (preEventBuffer == null || saveDirectory == null) {
+            return null;
+        }
+        File clipFile = new File(saveDirectory, timestamp + "_" + cameraPosition + ".mp4");
+        if (clipFile.exists()) {
+            // 与正在录制的分段同名，不能覆盖
+            AppLog.w(TAG, "Camera " + cameraId + " Pre-event clip already exists: " + clipFile.getName());
+            return null;
+        }
+        return writePreEventClip(clipFile, Long.MAX_VALUE, true) ? clipFile.getAbsolutePath() : null;
+    }
+
+    /**
+     * 把预录缓冲中最近 maxDurationUs 的帧导出到指定文件（阻塞，在后台线程调用）
+     * 供远程回放在当前分段尚无索引时使用；不写拼接布局、不预分配，录制继续进行，缓冲不清空
+     * @return 是否写出了有效片段，失败时文件已删除
+     */
+    public boolean exportPreEventClip(File clipFile, long maxDurationUs) {
+        return writePreEventClip(clipFile, maxDurationUs, false);
+    }
+
+    /**
+     * @param asSegment 按录制分段创建封装器（拼接布局、预分配与正常分段一致）
+     */
+    private boolean writePreEventClip(File clipFile, long maxDurationUs, boolean asSegment) {
+        PreEventRingBuffer buffer = preEventBuffer;
+        if (buffer == null || buffer.getBufferedFrames() == 0) {
+            return false;
+        }
+
+        String path = clipFile.getAbsolutePath();
+        SegmentMuxer muxer = null;
+        try {
+            muxer = asSegment ? createSegmentMuxer(path) : new MediaSegmentMuxer(path, 0);
+            int frames = buffer.writeClip(muxer, maxDurationUs);
+            boolean ok = muxer.close();
+            muxer = null;
+            if (frames == 0 || !ok || clipFile.length() < MIN_VALID_FILE_SIZE) {
+                AppLog.w(TAG, "Camera " + cameraId + " Pre-event clip not saved (frames=" + frames + ", ok=" + ok + ")");
+                clipFile.delete();
+                return false;
+            }
+            AppLog.d(TAG, "Camera " + cameraId + " Pre-event clip saved: " + clipFile.getName() +
+                    ", frames: " + frames + ", size: " + (clipFile.length() / 1024) + "KB");
+            return true;
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Failed to save pre-event clip: " + path, e);
+            if (muxer != null) {
+                muxer.close();
+            }
+            clipFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 摄像头位置（分段文件名中的位置部分）
+     */
+    public String getCameraPosition() {
+        return cameraPosition;
+    }
+
+    /**
+     * 设置是否使用异步编码回调（需在 prepareRecording 之前调用）
+     * 启用后编码器以回调模式运行，输出由独立线程写入文件，渲染线程不再轮询编码器；
+     * 关闭时在渲染线程上定期排空编码器
+     */
+    public void setAsyncEncoderEnabled(boolean enabled) {
+        this.asyncEncoderEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " async encoder = " + enabled);
+    }
+
+    /**
+     * 使用共享渲染线程（需在 prepareRecording 之前调用）
+     * 启用后不再创建独立的编码线程和 EGL context，帧回调由共享线程合并到 vsync 渲染
+     * @param sharedRenderThread 共享渲染线程，null 表示使用独立编码线程
+     */
+    public void setSharedRenderThread(SharedRenderThread sharedRenderThread) {
+        this.sharedRenderThread = sharedRenderThread;
+    }
+
+    /**
+     * 设置拼接录制布局（在 prepareRecording 之前调用）
+     * 宽高（构造参数）即合成画面分辨率，各路 Camera 通过 getTileSurfaceTexture 获取各自的输出
+     * @param layout 布局，null 表示单路录制
+     * @param sourceSizes 各路 Camera 的输出分辨率（SurfaceTexture 缓冲尺寸）
+     * @param sidecarDir 布局旁路文件目录
+     */
+    public void setMosaicLayout(MosaicLayout layout, Map<String, Size> sourceSizes, File sidecarDir) {
+        this.mosaicLayout = layout;
+        this.mosaicSourceSizes = sourceSizes != null ? new HashMap<>(sourceSizes) : new HashMap<>();
+        this.mosaicSidecarDir = sidecarDir;
+    }
+
+    /**
+     * 是否为拼接录制
+     */
+    public boolean isMosaic() {
+        return mosaicLayout != null;
+    }
+
+    /**
+     * 获取拼接模式下某一路 Camera 的输出 SurfaceTexture
+     * @return 不在布局中或尚未准备时返回 null
+     */
+    public SurfaceTexture getTileSurfaceTexture(String position) {
+        return tileSurfaceTextures.get(position);
+    }
+
     /**
      * 获取当前配置的帧率
      */
@@ -346,19 +575,32 @@ public class CodecVideoRecorder {
         }
 
         try {
-            // 创建编码线程
-            encoderThread = new HandlerThread("Encoder-" + cameraId) {
-                @Override
-                protected void onLooperPrepared() {
-                    // 降低编码线程优先级，避免与补盲画面渲染竞争资源
-                    // THREAD_PRIORITY_BACKGROUND 比 FOREGROUND 更低，给补盲画面留出更多 CPU 时间
-                    // 同时保持比 THREAD_PRIORITY_LOWEST 高，确保录制不会掉帧
-                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-                    AppLog.d(TAG, "Camera " + cameraId + " 编码线程优先级设置为 BACKGROUND");
-                }
-            };
-            encoderThread.start();
-            encoderHandler = new Handler(encoderThread.getLooper());
+            if (sharedRenderThread != null) {
+                // 共享渲染线程：EGL 渲染和编码器排空都在共享线程上执行
+                sharedRenderThread.acquire();
+                sharedRenderAcquired = true;
+                encoderHandler = sharedRenderThread.getHandler();
+            } else {
+                // 创建编码线程
+                encoderThread = new HandlerThread("Encoder-" + cameraId) {
+                    @Override
+                    protected void onLooperPrepared() {
+                        // 降低编码线程优先级，避免与补盲画面渲染竞争资源
+                        // THREAD_PRIORITY_BACKGROUND 比 FOREGROUND 更低，给补盲画面留出更多 CPU 时间
+                        // 同时保持比 THREAD_PRIORITY_LOWEST 高，确保录制不会掉帧
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        AppLog.d(TAG, "Camera " + cameraId + " 编码线程优先级设置为 BACKGROUND");
+                    }
+                };
+                encoderThread.start();
+                encoderHandler = new Handler(encoderThread.getLooper());
+            }
+
+            // 异步模式：启动回调线程和封装线程（createEncoder 中挂接到编码器）
+            if (asyncEncoderEnabled && asyncPipeline == null) {
+                asyncPipeline = new AsyncEncoderPipeline(cameraId, ASYNC_QUEUE_CAPACITY, asyncSink);
+                asyncPipeline.start();
+            }
 
             // 创建 MediaCodec 编码器
             createEncoder();
@@ -376,96 +618,46 @@ public class CodecVideoRecorder {
                 try {
                     // 创建 EGL 渲染器（在编码线程上）
                     eglEncoder = new EglSurfaceEncoder(cameraId, width, height);
+                    if (sharedRenderAcquired) {
+                        eglEncoder.setSharedRenderThread(sharedRenderThread);
+                        renderTarget = sharedRenderThread.register("encoder-" + cameraId, this::renderSharedFrame);
+                    }
                     resultTextureId[0] = eglEncoder.initialize(encoderInputSurface);
                     textureId = resultTextureId[0];
 
-                    // 创建 SurfaceTexture 供 Camera 输出（在编码线程上，绑定到 EGL context）
-                    inputSurfaceTexture = new SurfaceTexture(textureId);
-                    inputSurfaceTexture.setDefaultBufferSize(width, height);
-
-                    // 设置帧可用回调（在编码线程上）
-                    // 直接在回调中处理帧，避免 Handler 死锁
-                    inputSurfaceTexture.setOnFrameAvailableListener(surfaceTexture -> {
-                        if (isReleased) {
-                            return;
-                        }
-
-                        try {
-                            // 关键修复：即使不在录制状态，也必须调用 updateTexImage() 消费帧
-                            // 否则 SurfaceTexture 会保持 pending 状态，不再触发后续回调
-                            // updateTexImage 在 drawFrame 内部调用，这里单独处理非录制状态
-                            if (!isRecording.get()) {
-                                // 不在录制状态时，仍需消费帧以保持 SurfaceTexture 正常工作
-                                if (eglEncoder != null && eglEncoder.isInitialized()) {
-                                    eglEncoder.consumeFrame();  // 只消费帧，不编码
-                                }
-                                return;
-                            }
-
-                            // 检查编码器健康状态，不健康时只消费帧不编码
-                            if (!encoderHealthy) {
-                                if (eglEncoder != null && eglEncoder.isInitialized()) {
-                                    eglEncoder.consumeFrame();  // 只消费帧，等待重建
-                                }
-                                return;
-                            }
-
-                            // 获取绝对时间戳（系统启动以来的纳秒）
-                            long absoluteTimestampNs = surfaceTexture.getTimestamp();
-                            
-                            // 计算相对时间戳（以第一帧为基准）
-                            // 注意：firstFrameTimestampNs 在整个录制期间不重置
-                            // 因为 eglPresentationTimeANDROID 需要单调递增的时间戳
-                            // 否则 GraphicBufferSource 会拒绝帧
-                            if (firstFrameTimestampNs < 0) {
-                                firstFrameTimestampNs = absoluteTimestampNs;
-                                AppLog.d(TAG, "Camera " + cameraId + " First frame timestamp: " + absoluteTimestampNs + " ns");
-                            }
-                            long relativeTimestampNs = absoluteTimestampNs - firstFrameTimestampNs;
+                    if (mosaicLayout == null) {
+                        // 创建 SurfaceTexture 供 Camera 输出（在编码线程上，绑定到 EGL context）
+                        inputSurfaceTexture = new SurfaceTexture(textureId);
+                        inputSurfaceTexture.setDefaultBufferSize(width, height);
 
-                            // 直接渲染帧到编码器（使用相对时间戳）
-                            if (eglEncoder != null && eglEncoder.isInitialized()) {
-                                eglEncoder.drawFrame(relativeTimestampNs);
-                                recordedFrameCount++;
-                                framesSinceLastDrain++;
+                        // 设置帧可用回调（在编码线程上）
+                        // 直接在回调中处理帧，避免 Handler 死锁
+                        attachInputSurfaceTexture(inputSurfaceTexture);
 
-                                // 定期输出帧计数
-                                if (recordedFrameCount % 100 == 0) {
-                                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount);
-                                }
-                            }
-
-                            // 自适应 drain 控制：根据时间间隔决定是否 drain
-                            // 优化：使用更激进的批量策略，减少系统调用开销
-                            long currentTimeMs = System.currentTimeMillis();
-                            // 优化：增加帧数阈值到 10 帧，进一步减少 drain 次数
-                            if (currentTimeMs - lastDrainTimeMs >= currentDrainIntervalMs || framesSinceLastDrain >= 10) {
-                                // 从编码器获取输出数据并写入 muxer
-                                boolean hadOutput = drainEncoderWithResult(false);
-                                lastDrainTimeMs = currentTimeMs;
-                                framesSinceLastDrain = 0;
-                                
-                                // 调整 drain 间隔：有输出时缩短间隔，无输出时延长间隔
-                                // 优化：使用更平滑的调整策略
-                                if (hadOutput) {
-                                    currentDrainIntervalMs = Math.max(DRAIN_INTERVAL_MIN_MS, currentDrainIntervalMs - 1);
-                                } else {
-                                    currentDrainIntervalMs = Math.min(DRAIN_INTERVAL_MAX_MS, currentDrainIntervalMs + 2);
-                                }
+                        // 设置 EGL 渲染器的输入
+                        eglEncoder.setInputSurfaceTexture(inputSurfaceTexture);
+                    } else {
+                        // 拼接模式：每路一个 SurfaceTexture，任一路有新帧时合成一帧
+                        for (MosaicLayout.Tile tile : mosaicLayout.getTiles()) {
+                            int tileTextureId = eglEncoder.addTileInput(tile.position, tile.x, tile.y, tile.width, tile.height);
+                            SurfaceTexture tileSurfaceTexture = new SurfaceTexture(tileTextureId);
+                            Size sourceSize = mosaicSourceSizes.get(tile.position);
+                            if (sourceSize != null) {
+                                tileSurfaceTexture.setDefaultBufferSize(sourceSize.getWidth(), sourceSize.getHeight());
+                            } else {
+                                tileSurfaceTexture.setDefaultBufferSize(tile.width, tile.height);
                             }
-
-                        } catch (Exception e) {
-                            AppLog.e(TAG, "Camera " + cameraId + " Error processing frame", e);
-                            // 发生异常时标记编码器不健康
-                            encoderHealthy = false;
+                            attachInputSurfaceTexture(tileSurfaceTexture);
+                            eglEncoder.setTileSurfaceTexture(tile.position, tileSurfaceTexture);
+                            tileSurfaceTextures.put(tile.position, tileSurfaceTexture);
                         }
-                    }, encoderHandler);
-
-                    // 设置 EGL 渲染器的输入
-                    eglEncoder.setInputSurfaceTexture(inputSurfaceTexture);
+                        inputSurfaceTexture = tileSurfaceTextures.values().iterator().next();
+                    }
 
-                    // 设置时间水印（如果启用）
+                    // 设置水印（如果启用）
                     if (watermarkEnabled) {
+                        eglEncoder.setWatermarkFields(watermarkShowTime, watermarkShowSpeed, watermarkShowBrand,
+                                watermarkColor, speedSource);
                         eglEncoder.setWatermarkEnabled(true);
                     }
 
@@ -503,6 +695,121 @@ public class CodecVideoRecorder {
         }
     }
     
+    /**
+     * 设置输入 SurfaceTexture 的帧回调（共享渲染模式下交给调度器合并到 vsync）
+     */
+    private void attachInputSurfaceTexture(SurfaceTexture surfaceTexture) {
+        if (renderTarget != null) {
+            sharedRenderThread.attach(surfaceTexture, renderTarget);
+        } else {
+            surfaceTexture.setOnFrameAvailableListener(this::onInputFrameAvailable, encoderHandler);
+        }
+    }
+
+    /**
+     * 共享渲染线程的 vsync 批次中渲染一帧：积压的旧帧只消费不编码
+     */
+    private void renderSharedFrame(int pendingFrames, long frameTimeNanos) {
+        if (isReleased || inputSurfaceTexture == null) {
+            return;
+        }
+        if (eglEncoder != null && eglEncoder.isInitialized()) {
+            for (int i = 1; i < pendingFrames; i++) {
+                eglEncoder.consumeFrame();
+            }
+        }
+        onInputFrameAvailable(inputSurfaceTexture);
+    }
+
+    /**
+     * 输入帧可用（编码线程）
+     * 拼接模式下任一路有新帧都会触发，由 EglSurfaceEncoder 的帧率控制合并为一帧
+     */
+    private void onInputFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (isReleased) {
+            return;
+        }
+
+        try {
+            // 关键修复：即使不在录制状态，也必须调用 updateTexImage() 消费帧
+            // 否则 SurfaceTexture 会保持 pending 状态，不再触发后续回调
+            // updateTexImage 在 drawFrame 内部调用，这里单独处理非录制状态
+            if (!isRecording.get()) {
+                // 不在录制状态时，仍需消费帧以保持 SurfaceTexture 正常工作
+                if (eglEncoder != null && eglEncoder.isInitialized()) {
+                    eglEncoder.consumeFrame();  // 只消费帧，不编码
+                }
+                return;
+            }
+
+            // 检查编码器健康状态，不健康时只消费帧不编码
+            if (!encoderHealthy) {
+                if (eglEncoder != null && eglEncoder.isInitialized()) {
+                    eglEncoder.consumeFrame();  // 只消费帧，等待重建
+                }
+                return;
+            }
+
+            // 获取绝对时间戳（系统启动以来的纳秒）
+            // 拼接模式下各路 Camera 的时间戳来源可能不同，使用渲染时刻保证单调递增
+            long absoluteTimestampNs = mosaicLayout != null ? System.nanoTime() : surfaceTexture.getTimestamp();
+            
+            // 计算相对时间戳（以第一帧为基准）
+            // 注意：firstFrameTimestampNs 在整个录制期间不重置
+            // 因为 eglPresentationTimeANDROID 需要单调递增的时间戳
+            // 否则 GraphicBufferSource 会拒绝帧
+            if (firstFrameTimestampNs < 0) {
+                firstFrameTimestampNs = absoluteTimestampNs;
+                AppLog.d(TAG, "Camera " + cameraId + " First frame timestamp: " + absoluteTimestampNs + " ns");
+            }
+            long relativeTimestampNs = absoluteTimestampNs - firstFrameTimestampNs;
+
+            // 直接渲染帧到编码器（使用相对时间戳）
+            if (eglEncoder != null && eglEncoder.isInitialized()
+                    && eglEncoder.drawFrame(relativeTimestampNs)) {
+                recordedFrameCount++;
+                framesSinceLastDrain++;
+                if (asyncPipeline != null) {
+                    asyncPipeline.onFrameRendered(relativeTimestampNs / 1000);
+                }
+
+                // 定期输出帧计数
+                if (recordedFrameCount % 100 == 0) {
+                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount);
+                }
+            }
+
+            // 异步模式下编码输出由回调线程处理，无需轮询
+            if (asyncPipeline != null) {
+                return;
+            }
+
+            // 自适应 drain 控制：根据时间间隔决定是否 drain
+            // 优化：使用更激进的批量策略，减少系统调用开销
+            long currentTimeMs = System.currentTimeMillis();
+            // 优化：增加帧数阈值到 10 帧，进一步减少 drain 次数
+            if (currentTimeMs - lastDrainTimeMs >= currentDrainIntervalMs || framesSinceLastDrain >= 10) {
+                // 从编码器获取输出数据并写入 muxer
+                boolean hadOutput = drainEncoderWithResult(false);
+                lastDrainTimeMs = currentTimeMs;
+                framesSinceLastDrain = 0;
+                
+                // 调整 drain 间隔：有输出时缩短间隔，无输出时延长间隔
+                // 优化：使用更平滑的调整策略
+                if (hadOutput) {
+                    currentDrainIntervalMs = Math.max(DRAIN_INTERVAL_MIN_MS, currentDrainIntervalMs - 1);
+                } else {
+                    currentDrainIntervalMs = Math.min(DRAIN_INTERVAL_MAX_MS, currentDrainIntervalMs + 2);
+                }
+            }
+
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error processing frame", e);
+            // 发生异常时标记编码器不健康
+            encoderHealthy = false;
+        }
+    }
+
     /**
      * 准备录制回调接口
      */
@@ -657,22 +964,22 @@ public class CodecVideoRecorder {
                     if (encoder != null) {
                         try {
                             encoder.signalEndOfInputStream();
-                            // 排空编码器
-                            drainEncoder(true);
+                            if (asyncPipeline != null) {
+                                // 异步模式：等待结束标志经封装线程写入
+                                if (!asyncPipeline.awaitEndOfStream(ASYNC_END_OF_STREAM_TIMEOUT_MS)) {
+                                    AppLog.w(TAG, "Camera " + cameraId + " Timeout waiting for async end of stream");
+                                }
+                            } else {
+                                // 排空编码器
+                                drainEncoder(true);
+                            }
                         } catch (Exception e) {
                             AppLog.e(TAG, "Camera " + cameraId + " Error signaling end of stream", e);
                         }
                     }
 
-                    // 停止 muxer
-                    if (muxerStarted && muxer != null) {
-                        try {
-                            muxer.stop();
-                        } catch (Exception e) {
-                            AppLog.e(TAG, "Camera " + cameraId + " Error stopping muxer", e);
-                        }
-                        muxerStarted = false;
-                    }
+                    // 停止当前分段
+                    splitter.close();
 
                     AppLog.d(TAG, "Camera " + cameraId + " Codec recording stopped on encoder thread, frames recorded: " + recordedFrameCount);
                 } catch (Exception e) {
@@ -694,10 +1001,21 @@ public class CodecVideoRecorder {
             }
         }
 
+        // 等待分段线程完成上一个分段的收尾（无缝切换时旧分段在分段线程上关闭）
+        awaitSegmentThreadIdle(3000);
+
         // 验证并清理所有录制的文件
         List<String> deletedFiles = validateAndCleanupAllFiles();
 
-        AppLog.d(TAG, "Camera " + cameraId + " Codec recording stopped, frames recorded: " + recordedFrameCount);
+        AppLog.d(TAG, "Camera " + cameraId + " Codec recording stopped, frames recorded: " + recordedFrameCount +
+                ", gapless switches: " + splitter.getSplitCount() +
+                String.format(Locale.US, " (avg %.1f frames to keyframe)", splitter.getAverageFramesWaited()));
+        if (preallocationEnabled) {
+            AppLog.d(TAG, "Camera " + cameraId + " " + SegmentPreallocator.getStats());
+        }
+        if (asyncPipeline != null) {
+            AppLog.d(TAG, "Camera " + cameraId + " " + asyncPipeline.getStats());
+        }
 
         if (callback != null) {
             callback.onRecordStop(cameraId);
@@ -726,9 +1044,22 @@ public class CodecVideoRecorder {
             stopRecording();
         }
 
-        // 释放 EGL 渲染器
+        // 释放 EGL 渲染器（共享 context 只能在共享渲染线程上使用）
+        if (renderTarget != null) {
+            sharedRenderThread.unregister(renderTarget);
+            renderTarget = null;
+        }
         if (eglEncoder != null) {
-            eglEncoder.release();
+            EglSurfaceEncoder encoderToRelease = eglEncoder;
+            if (sharedRenderAcquired) {
+                try {
+                    sharedRenderThread.runSync(encoderToRelease::release);
+                } catch (RuntimeException e) {
+                    AppLog.w(TAG, "Camera " + cameraId + " Error releasing EGL on shared render thread: " + e.getMessage());
+                }
+            } else {
+                encoderToRelease.release();
+            }
             eglEncoder = null;
         }
 
@@ -738,7 +1069,13 @@ public class CodecVideoRecorder {
             cachedRecordSurface = null;
         }
 
-        // 释放 SurfaceTexture
+        // 释放 SurfaceTexture（拼接模式下 inputSurfaceTexture 是其中一路）
+        for (SurfaceTexture tileSurfaceTexture : tileSurfaceTextures.values()) {
+            if (tileSurfaceTexture != inputSurfaceTexture) {
+                tileSurfaceTexture.release();
+            }
+        }
+        tileSurfaceTextures.clear();
         if (inputSurfaceTexture != null) {
             inputSurfaceTexture.release();
             inputSurfaceTexture = null;
@@ -755,24 +1092,26 @@ public class CodecVideoRecorder {
             encoder = null;
         }
 
+        // 停止异步编码线程（编码器已停止，不再有回调）
+        if (asyncPipeline != null) {
+            asyncPipeline.release();
+            asyncPipeline = null;
+        }
+
+        // 释放预录缓冲（正在写出的片段持有自己的引用）
+        if (preEventBuffer != null) {
+            AppLog.d(TAG, "Camera " + cameraId + " " + preEventBuffer.getStats());
+            preEventBuffer = null;
+        }
+
         // 释放编码器输入 Surface
         if (encoderInputSurface != null) {
             encoderInputSurface.release();
             encoderInputSurface = null;
         }
 
-        // 释放 muxer
-        if (muxer != null) {
-            try {
-                if (muxerStarted) {
-                    muxer.stop();
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
-            muxer.release();
-            muxer = null;
-        }
+        // 释放当前分段
+        splitter.close();
 
         // 停止编码线程
         if (encoderThread != null) {
@@ -785,6 +1124,11 @@ public class CodecVideoRecorder {
             encoderThread = null;
             encoderHandler = null;
         }
+        if (sharedRenderAcquired) {
+            sharedRenderAcquired = false;
+            encoderHandler = null;
+            sharedRenderThread.release();
+        }
 
         // 清理分段处理线程
         if (segmentHandler != null) {
@@ -853,14 +1197,19 @@ public class CodecVideoRecorder {
      * 优先尝试 HEVC (H.265)，如果不支持则回退到 H.264
      */
     private void createEncoder() throws IOException {
+        long createStartMs = System.currentTimeMillis();
+        EncoderCapabilities capabilities = EncoderCapabilities.getInstance();
+
         // 检测并选择最优编码格式（forceH264 开启时固定 H.264）
-        mimeType = selectBestEncoder();
+        mimeType = selectBestEncoder(capabilities);
+        EncoderCapabilities.EncoderInfo encoderInfo = forceH264 ? null : capabilities.getEncoder(mimeType);
 
         // 如果启用了补盲优化模式，使用降低的帧率
         int effectiveFrameRate = blindSpotOptimizeMode ? BLIND_SPOT_OPTIMIZED_FPS : frameRate;
 
         // 码率：HEVC 模式使用优化后码率；H.264 兼容模式使用显式配置值
         int effectiveBitrate = forceH264 ? bitRate : calculateOptimalBitrate();
+        encoderBitRate = effectiveBitrate;
 
         MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
@@ -868,116 +1217,105 @@ public class CodecVideoRecorder {
         format.setInteger(MediaFormat.KEY_FRAME_RATE, effectiveFrameRate);
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
 
+        boolean withProfile = false;
         if (!forceH264) {
-            // HEVC/H.264 优化路径：附加 Profile/Level 以获得更好效率
+            // HEVC/H.264 优化路径：附加 Profile/Level 以获得更好效率（编码器声明支持该 Profile 时）
             if (mimeType.equals(MIME_TYPE_HEVC)) {
-                format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
-                format.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.HEVCHighTierLevel4);
-            } else {
+                if (declaresProfile(encoderInfo, MediaCodecInfo.CodecProfileLevel.HEVCProfileMain)) {
+                    format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
+                    format.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.HEVCHighTierLevel4);
+                    withProfile = true;
+                }
+            } else if (declaresProfile(encoderInfo, MediaCodecInfo.CodecProfileLevel.AVCProfileHigh)) {
                 format.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileHigh);
+                withProfile = true;
             }
         }
         // forceH264 开启：不设置 Profile/Level，走 v1.2.4 兼容路径，避免车机硬件 configure 失败
 
-        // 编码器创建：兼容模式用 createEncoderByType；优化模式优先选择硬件编码器
-        if (forceH264) {
-            encoder = MediaCodec.createEncoderByType(mimeType);
+        // 编码器创建：兼容模式用 createEncoderByType；优化模式使用能力缓存中选定的编码器（硬件优先）
+        if (encoderInfo != null) {
+            encoder = MediaCodec.createByCodecName(encoderInfo.name);
         } else {
-            encoder = createHardwareEncoder(mimeType);
+            encoder = MediaCodec.createEncoderByType(mimeType);
+        }
+        // 异步模式：回调必须在 configure 之前设置
+        if (asyncPipeline != null) {
+            asyncPipeline.attach(encoder);
+        }
+        String encoderName = encoder.getName();
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            capabilities.recordConfigureResult(encoderName, mimeType, width, height, withProfile, false);
+            encoder.release();
+            encoder = null;
+            if (mimeType.equals(MIME_TYPE_HEVC)) {
+                // 已记录失败，重新选择时会改用 H.264
+                AppLog.w(TAG, "Camera " + cameraId + " HEVC configure failed, retrying with H.264: " + e.getMessage());
+                createEncoder();
+                return;
+            }
+            throw e;
         }
-        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        capabilities.recordConfigureResult(encoderName, mimeType, width, height, withProfile, true);
 
         encoderInputSurface = encoder.createInputSurface();
         encoder.start();
 
+        // 预录缓冲按码率估算大小，首次创建编码器时分配（重建编码器时复用，收到新格式后清空）
+        if (preEventSeconds > 0 && preEventBuffer == null) {
+            long estimated = (long) effectiveBitrate / 8 * preEventSeconds * 5 / 4;
+            int capacity = (int) Math.max(PRE_EVENT_MIN_BYTES, Math.min(PRE_EVENT_MAX_BYTES, estimated));
+            preEventBuffer = new PreEventRingBuffer(capacity, preEventSeconds * 1000000L,
+                    effectiveFrameRate * preEventSeconds * 2);
+            AppLog.d(TAG, "Camera " + cameraId + " Pre-event buffer allocated: " + (capacity / 1024) + "KB for " + preEventSeconds + "s");
+        }
+
         bufferInfo = new MediaCodec.BufferInfo();
 
+        // 新编码器会重新输出格式（CSD），旧缓存格式失效
+        splitter.onEncoderReset();
+
         AppLog.d(TAG, "Camera " + cameraId + " Encoder created: " + width + "x" + height +
                 " @ " + effectiveFrameRate + "fps" + (blindSpotOptimizeMode ? "(补盲优化)" : "") +
                 ", " + (effectiveBitrate / 1000) + " Kbps, " +
                 (mimeType.equals(MIME_TYPE_HEVC) ? "HEVC" : "H.264") +
-                (forceH264 ? " [兼容模式]" : ""));
+                (forceH264 ? " [兼容模式]" : "") + ", " + encoderName +
+                ", " + (System.currentTimeMillis() - createStartMs) + "ms (probes avoided: " +
+                capabilities.getProbesAvoided() + ")");
+    }
+
+    /**
+     * 编码器是否声明支持某 Profile（未知或未声明任何 Profile 时按支持处理，保持原有行为）
+     */
+    private static boolean declaresProfile(EncoderCapabilities.EncoderInfo info, int profile) {
+        return info == null || !info.hasProfiles() || info.supportsProfile(profile);
     }
 
     /**
      * 选择最优编码器类型
-     * 优先使用 HEVC (H.265)，如果不支持则回退到 H.264
-     * 优化：优先选择硬件编码器，性能更好
+     * 优先使用 HEVC (H.265)，如果不支持或之前在该分辨率下 configure 失败则回退到 H.264
+     * 能力来自 {@link EncoderCapabilities} 缓存，不再每次创建探测用的编码器
      */
-    private String selectBestEncoder() {
+    private String selectBestEncoder(EncoderCapabilities capabilities) {
         // 用户强制 H.264：兼容部分车型（避免 HEVC 在车机硬件上的闪烁/configure 失败）
         if (forceH264) {
             AppLog.i(TAG, "Camera " + cameraId + " force H.264 encoder (user setting)");
             return MIME_TYPE_H264;
         }
-        try {
-            // 检查 HEVC 编码器是否可用
-            MediaCodec hevcEncoder = MediaCodec.createEncoderByType(MIME_TYPE_HEVC);
-            hevcEncoder.release();
-            AppLog.d(TAG, "HEVC encoder available, using H.265 for better efficiency");
-            return MIME_TYPE_HEVC;
-        } catch (Exception e) {
+        EncoderCapabilities.EncoderInfo hevc = capabilities.getEncoder(MIME_TYPE_HEVC);
+        if (hevc == null) {
             AppLog.w(TAG, "HEVC encoder not available, falling back to H.264");
             return MIME_TYPE_H264;
         }
-    }
-    
-    /**
-     * 创建编码器，优先使用硬件编码器
-     * 优化：通过编码器名称选择硬件编码器，避免软件编码器性能问题
-     */
-    private MediaCodec createHardwareEncoder(String mimeType) throws IOException {
-        // 获取所有支持该类型的编码器
-        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
-        MediaCodecInfo[] codecInfos = codecList.getCodecInfos();
-        
-        MediaCodecInfo bestEncoder = null;
-        String bestEncoderName = null;
-        
-        for (MediaCodecInfo codecInfo : codecInfos) {
-            if (!codecInfo.isEncoder()) {
-                continue;
-            }
-            
-            String[] supportedTypes = codecInfo.getSupportedTypes();
-            boolean supportsMimeType = false;
-            for (String type : supportedTypes) {
-                if (type.equalsIgnoreCase(mimeType)) {
-                    supportsMimeType = true;
-                    break;
-                }
-            }
-            
-            if (!supportsMimeType) {
-                continue;
-            }
-            
-            String name = codecInfo.getName();
-            
-            // 优先选择硬件编码器（通常名称包含特定关键字）
-            // 避免软件编码器（如 c2.android.* 或 OMX.google.*）
-            if (name.contains("c2.android") || name.contains("OMX.google")) {
-                // 软件编码器，作为备选
-                if (bestEncoder == null) {
-                    bestEncoder = codecInfo;
-                    bestEncoderName = name;
-                }
-                continue;
-            }
-            
-            // 硬件编码器优先
-            bestEncoder = codecInfo;
-            bestEncoderName = name;
-            AppLog.i(TAG, "Camera " + cameraId + " Selected hardware encoder: " + name);
-            break;
-        }
-        
-        if (bestEncoder != null) {
-            return MediaCodec.createByCodecName(bestEncoderName);
+        if (Boolean.FALSE.equals(capabilities.getConfigureResult(hevc.name, MIME_TYPE_HEVC, width, height, true))
+                || Boolean.FALSE.equals(capabilities.getConfigureResult(hevc.name, MIME_TYPE_HEVC, width, height, false))) {
+            AppLog.w(TAG, "Camera " + cameraId + " HEVC configure failed before at " + width + "x" + height + ", using H.264");
+            return MIME_TYPE_H264;
         }
-        
-        // 回退到默认方式
-        return MediaCodec.createEncoderByType(mimeType);
+        AppLog.d(TAG, "HEVC encoder available, using H.265 for better efficiency");
+        return MIME_TYPE_HEVC;
     }
 
     /**
@@ -1043,14 +1381,33 @@ public class CodecVideoRecorder {
     }
 
     /**
-     * 创建 MediaMuxer
+     * 打开新分段（开始录制、编码器重建后使用；正常分段切换见 switchToNextSegment）
      */
     private void createMuxer(String filePath) throws IOException {
-        muxer = new MediaMuxer(filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        videoTrackIndex = -1;
-        muxerStarted = false;
+        splitter.open(filePath);
+    }
 
-        AppLog.d(TAG, "Camera " + cameraId + " Muxer created: " + filePath);
+    /**
+     * 创建分段封装器（SegmentSplitter 的工厂）
+     */
+    private SegmentMuxer createSegmentMuxer(String filePath) throws IOException {
+        if (mosaicLayout != null && mosaicSidecarDir != null) {
+            mosaicLayout.writeSidecar(mosaicSidecarDir, new File(filePath).getName());
+        }
+        long reserveBytes = 0;
+        if (preallocationEnabled) {
+            File file = new File(filePath);
+            reserveBytes = SegmentPreallocator.estimateSegmentBytes(getEffectiveBitRate(), segmentDurationMs,
+                    SegmentPreallocator.getClusterSize(file.getParentFile()));
+        }
+        if (fragmentedMp4Enabled) {
+            FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(filePath, reserveBytes);
+            AppLog.d(TAG, "Camera " + cameraId + " Fragmented muxer created: " + filePath + (muxer.isPreallocated() ? " (preallocated)" : ""));
+            return muxer;
+        }
+        MediaSegmentMuxer muxer = new MediaSegmentMuxer(filePath, reserveBytes);
+        AppLog.d(TAG, "Camera " + cameraId + " Muxer created: " + filePath + (muxer.isPreallocated() ? " (preallocated)" : ""));
+        return muxer;
     }
 
     // 注意：encodingLoop() 方法已被移除
@@ -1097,17 +1454,17 @@ public class CodecVideoRecorder {
                         break;  // 已经处理了一些帧，可以返回了
                     }
                 } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    // 输出格式变化，添加视频轨道
-                    if (muxerStarted) {
-                        AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
-                    } else {
-                        MediaFormat newFormat = encoder.getOutputFormat();
-                        videoTrackIndex = muxer.addTrack(newFormat);
-                        muxer.start();
-                        muxerStarted = true;
+                    // 输出格式变化，添加视频轨道（格式同时缓存给后续分段）
+                    MediaFormat outputFormat = encoder.getOutputFormat();
+                    if (preEventBuffer != null) {
+                        preEventBuffer.setFormat(outputFormat);
+                    }
+                    if (splitter.onOutputFormat(outputFormat)) {
                         encoderHealthy = true;  // 收到格式变化说明编码器正常
                         lastEncoderOutputTime = System.currentTimeMillis();
-                        AppLog.d(TAG, "Camera " + cameraId + " Muxer started, track=" + videoTrackIndex);
+                        AppLog.d(TAG, "Camera " + cameraId + " Muxer started: " + splitter.getCurrentPath());
+                    } else {
+                        AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
                     }
                     gotOutput = true;
                 } else if (outputBufferIndex >= 0) {
@@ -1120,34 +1477,23 @@ public class CodecVideoRecorder {
                         bufferInfo.size = 0;
                     }
 
-                    if (bufferInfo.size != 0) {
-                        if (!muxerStarted) {
+                    if (bufferInfo.size != 0 && encodedData != null) {
+                        // 性能优化：分段内 PTS 按帧序号计算（SegmentSplitter 中，每帧 40000 微秒），
+                        // 减少 System.nanoTime() 调用，时间戳单调递增，分段切换后从 0 开始
+                        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                        if (!splitter.writeSample(encodedData, bufferInfo.offset, bufferInfo.size, keyFrame)) {
                             AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
                         } else {
-                            // 性能优化：使用基于帧数的 PTS 计算，减少 System.nanoTime() 调用
-                            // 假设目标帧率为 25fps，每帧间隔 40000 微秒
-                            // 优点：
-                            //   1. 大幅减少系统调用开销
-                            //   2. 时间戳单调递增，不会出现乱序
-                            //   3. 掉帧时时间轴仍然正确
-                            long calculatedPtsUs = encodedOutputFrameCount * 40000L;
-                            
                             // 调试日志（仅第一帧）
                             if (encodedOutputFrameCount == 0) {
-                                AppLog.d(TAG, "Camera " + cameraId + " First frame PTS: " + calculatedPtsUs + " us");
+                                AppLog.d(TAG, "Camera " + cameraId + " First frame written, keyFrame=" + keyFrame);
                             }
                             
-                            // 使用计算的时间戳
-                            bufferInfo.presentationTimeUs = calculatedPtsUs;
-                            
-                            encodedData.position(bufferInfo.offset);
-                            encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                            muxer.writeSampleData(videoTrackIndex, encodedData, bufferInfo);
-                            
                             encodedOutputFrameCount++;
                             lastEncoderOutputTime = System.currentTimeMillis();
                             gotOutput = true;
                             processedFrames++;  // 增加已处理帧计数
+                            bufferPreEventSample(encodedData, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, keyFrame);
                         }
                     }
 
@@ -1177,6 +1523,62 @@ public class CodecVideoRecorder {
         }
     }
 
+    /**
+     * 已写入分段的帧同时复制到预录缓冲
+     */
+    private void bufferPreEventSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) {
+        PreEventRingBuffer buffer = preEventBuffer;
+        if (buffer != null) {
+            buffer.append(data, offset, size, presentationTimeUs, keyFrame);
+        }
+    }
+
+    /**
+     * 无编码器输出的连续帧数（异步模式由回调线程统计）
+     */
+    private int getFramesWithoutEncoderOutput() {
+        return asyncPipeline != null ? asyncPipeline.getFramesSinceLastOutput() : framesWithoutEncoderOutput;
+    }
+
+    /**
+     * 异步模式的编码输出接收方（在封装线程上写入当前分段）
+     */
+    private final AsyncEncoderPipeline.Sink asyncSink = new AsyncEncoderPipeline.Sink() {
+        @Override
+        public void onOutputFormat(MediaFormat format) {
+            if (preEventBuffer != null) {
+                preEventBuffer.setFormat(format);
+            }
+            if (splitter.onOutputFormat(format)) {
+                encoderHealthy = true;
+                lastEncoderOutputTime = System.currentTimeMillis();
+                AppLog.d(TAG, "Camera " + cameraId + " Muxer started (async): " + splitter.getCurrentPath());
+            } else {
+                AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
+            }
+        }
+
+        @Override
+        public void onEncodedSample(ByteBuffer data, int size, long presentationTimeUs, boolean keyFrame) {
+            if (!splitter.writeSample(data, 0, size, keyFrame)) {
+                AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
+                return;
+            }
+            if (encodedOutputFrameCount == 0) {
+                AppLog.d(TAG, "Camera " + cameraId + " First frame written (async), keyFrame=" + keyFrame);
+            }
+            encodedOutputFrameCount++;
+            lastEncoderOutputTime = System.currentTimeMillis();
+            bufferPreEventSample(data, 0, size, presentationTimeUs, keyFrame);
+        }
+
+        @Override
+        public void onPipelineError(Exception error) {
+            // 由健康检查在编码线程上重建编码器
+            encoderHealthy = false;
+        }
+    };
+
     /**
      * 排空编码器输出（带返回值）
      * @param endOfStream 是否结束流
@@ -1205,11 +1607,11 @@ public class CodecVideoRecorder {
                         break;
                     }
                 } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    if (!muxerStarted) {
-                        MediaFormat newFormat = encoder.getOutputFormat();
-                        videoTrackIndex = muxer.addTrack(newFormat);
-                        muxer.start();
-                        muxerStarted = true;
+                    MediaFormat outputFormat = encoder.getOutputFormat();
+                    if (preEventBuffer != null) {
+                        preEventBuffer.setFormat(outputFormat);
+                    }
+                    if (splitter.onOutputFormat(outputFormat)) {
                         encoderHealthy = true;
                         lastEncoderOutputTime = System.currentTimeMillis();
                     }
@@ -1217,20 +1619,15 @@ public class CodecVideoRecorder {
                 } else if (outputBufferIndex >= 0) {
                     ByteBuffer encodedData = encoder.getOutputBuffer(outputBufferIndex);
 
-                    if (encodedData != null && bufferInfo.size != 0) {
-                        if (muxerStarted) {
-                            // 性能优化：使用基于帧数的 PTS 计算，减少 System.nanoTime() 调用开销
-                            // 与 drainEncoder 中的计算方式保持一致
-                            long calculatedPtsUs = encodedOutputFrameCount * 40000L;
-                            bufferInfo.presentationTimeUs = calculatedPtsUs;
-
-                            encodedData.position(bufferInfo.offset);
-                            encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                            muxer.writeSampleData(videoTrackIndex, encodedData, bufferInfo);
-
+                    if (encodedData != null && bufferInfo.size != 0
+                            && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                        // 与 drainEncoder 中的写入方式保持一致
+                        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                        if (splitter.writeSample(encodedData, bufferInfo.offset, bufferInfo.size, keyFrame)) {
                             encodedOutputFrameCount++;
                             lastEncoderOutputTime = System.currentTimeMillis();
                             gotOutput = true;
+                            bufferPreEventSample(encodedData, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, keyFrame);
                         }
                     }
 
@@ -1263,6 +1660,16 @@ public class CodecVideoRecorder {
      * 3. 这样可以确保实际录制的视频时长达到设定的分段时长
      */
     private void scheduleNextSegment() {
+        // 延迟执行（使用配置的分段时长 + 补偿时间）
+        long actualDelayMs = segmentDurationMs + SEGMENT_DURATION_COMPENSATION_MS;
+        scheduleSegmentSwitch(actualDelayMs);
+        AppLog.d(TAG, "Camera " + cameraId + " Scheduled next segment in " + (segmentDurationMs / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
+    }
+
+    /**
+     * 在指定延迟后请求分段切换
+     */
+    private void scheduleSegmentSwitch(long delayMs) {
         if (segmentRunnable != null) {
             segmentHandler.removeCallbacks(segmentRunnable);
         }
@@ -1275,22 +1682,15 @@ public class CodecVideoRecorder {
             }
         };
 
-        // 延迟执行（使用配置的分段时长 + 补偿时间）
-        // 补偿编码器初始化延迟和停止时的帧丢失
-        long actualDelayMs = segmentDurationMs + SEGMENT_DURATION_COMPENSATION_MS;
-        segmentHandler.postDelayed(segmentRunnable, actualDelayMs);
-        AppLog.d(TAG, "Camera " + cameraId + " Scheduled next segment in " + (segmentDurationMs / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
+        segmentHandler.postDelayed(segmentRunnable, delayMs);
     }
 
     /**
      * 切换到下一段（在编码线程上执行）
      * 
-     * 采用简单方案：完整停止当前录制，然后重新开始
-     * 类似 MediaRecorder 的方式，虽然会丢失几帧，但更简单可靠
-     * 
-     * 快速恢复机制：
-     * - 成功时：重置恢复计数器，调度正常的1分钟定时器
-     * - 失败时：使用5秒快速重试，最多重试6次（30秒内），之后回到正常1分钟间隔
+     * 无缝切换：编码器持续运行，请求同步帧后由 SegmentSplitter 在下一个关键帧处
+     * 打开新文件，关键帧之前的帧仍写入当前文件，相邻分段之间不丢帧
+     * 实际切换发生在 handleSegmentSwitched（编码线程，写入关键帧时）
      */
     private void switchToNextSegment() {
         // 检查是否仍在录制状态（防止与 stopRecording 竞态）
@@ -1298,79 +1698,100 @@ public class CodecVideoRecorder {
             AppLog.w(TAG, "Camera " + cameraId + " Skipping segment switch (not recording or released)");
             return;
         }
-        
-        AppLog.d(TAG, "Camera " + cameraId + " Starting segment switch on encoder thread");
-        
-        boolean switchSuccess = false;
-        
+
+        String nextSegmentPath = generateSegmentPath();
+        splitter.requestSplit(nextSegmentPath);
+        requestSyncFrame();
+        AppLog.d(TAG, "Camera " + cameraId + " Segment switch requested at next keyframe: " + nextSegmentPath);
+
+        // 分段定时器从请求时刻继续计时
+        segmentHandler.post(() -> scheduleNextSegment());
+    }
+
+    /**
+     * 让编码器尽快输出一个关键帧（分段边界）
+     */
+    private void requestSyncFrame() {
+        if (encoder == null) {
+            return;
+        }
         try {
-            // 1. 停止当前录制（会排空编码器、停止 Muxer）
-            stopRecordingForSegmentSwitch();
-            
-            // 2. 验证当前文件（在主线程上执行，因为是 IO 操作）
-            final String previousFilePath = currentFilePath;
-            segmentHandler.post(() -> validateAndCleanupFile(previousFilePath));
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            encoder.setParameters(params);
+        } catch (Exception e) {
+            // 不支持时等待下一个 I 帧（最多 I_FRAME_INTERVAL 秒）
+            AppLog.w(TAG, "Camera " + cameraId + " Failed to request sync frame: " + e.getMessage());
+        }
+    }
 
-            // 3. 准备下一段
-            segmentIndex++;
-            String nextSegmentPath = generateSegmentPath();
-            currentFilePath = nextSegmentPath;
-            recordedFilePaths.add(nextSegmentPath);  // 记录新分段文件
-            
-            // 重置分段开始时间和帧计数
-            segmentStartTimeNs = System.nanoTime();
-            encodedOutputFrameCount = 0;
-            // 不重置 firstFrameTimestampNs，保持 EGL 时间戳单调递增
+    /**
+     * 已在关键帧处切换到新分段（写入线程，SegmentSplitter 回调）
+     * 旧分段的收尾（写 MP4 索引）放到分段线程，不阻塞编码
+     * 异步编码时写入线程与停止/恢复线程并发，更新的分段状态均为 volatile，文件列表为写时复制
+     */
+    private void handleSegmentSwitched(SegmentMuxer completed, String nextPath) {
+        segmentIndex++;
+        currentFilePath = nextPath;
+        recordedFilePaths.add(nextPath);  // 记录新分段文件
+        recoveryAttempts = 0;
 
-            // 4. 创建新的 Muxer
-            createMuxer(nextSegmentPath);
-            
-            // 5. 重新开始录制
-            isRecording.set(true);
-            switchSuccess = true;
-            
-            // 成功：重置恢复计数器
-            recoveryAttempts = 0;
-            
-            AppLog.d(TAG, "Camera " + cameraId + " Switched to segment " + segmentIndex + ": " + nextSegmentPath);
+        AppLog.d(TAG, "Camera " + cameraId + " Switched to segment " + segmentIndex + ": " + nextPath);
 
+        final int newIndex = segmentIndex;
+        final String completedPath = completed.getPath();  // 已完成的文件路径
+        segmentHandler.post(() -> {
+            completed.close();
+            validateAndCleanupFile(completedPath);
             if (callback != null) {
-                final int newIndex = segmentIndex;
-                final String completedPath = previousFilePath;  // 已完成的文件路径
-                segmentHandler.post(() -> callback.onSegmentSwitch(cameraId, newIndex, completedPath));
+                callback.onSegmentSwitch(cameraId, newIndex, completedPath);
             }
+        });
+    }
 
-        } catch (Exception e) {
-            AppLog.e(TAG, "Camera " + cameraId + " Failed to switch segment (attempt " + (recoveryAttempts + 1) + ")", e);
-            
-            // 标记录制状态（允许帧回调继续消费帧）
-            isRecording.set(false);
-            
-            if (callback != null) {
-                final String errorMsg = e.getMessage();
-                segmentHandler.post(() -> callback.onRecordError(cameraId, "Failed to switch segment: " + errorMsg));
-            }
+    /**
+     * 新分段创建失败（写入线程）：当前分段继续写入，稍后重试切换
+     */
+    private void handleSegmentSplitFailed(String nextPath, Exception error) {
+        AppLog.e(TAG, "Camera " + cameraId + " Failed to switch segment (attempt " + (recoveryAttempts + 1) + "): " + nextPath, error);
+
+        if (callback != null) {
+            final String errorMsg = error.getMessage();
+            segmentHandler.post(() -> callback.onRecordError(cameraId, "Failed to switch segment: " + errorMsg));
         }
-        
-        // 6. 根据结果调度下一次操作
-        if (switchSuccess) {
-            // 成功：调度正常的1分钟定时器
-            segmentHandler.post(() -> scheduleNextSegment());
+
+        recoveryAttempts++;
+        if (recoveryAttempts <= MAX_RECOVERY_ATTEMPTS) {
+            // 快速重试（5秒后）
+            AppLog.w(TAG, "Camera " + cameraId + " Segment switch failed, quick retry in " 
+                + (RECOVERY_RETRY_INTERVAL_MS / 1000) + "s (attempt " + recoveryAttempts + "/" + MAX_RECOVERY_ATTEMPTS + ")");
+            segmentHandler.post(() -> scheduleSegmentSwitch(RECOVERY_RETRY_INTERVAL_MS));
         } else {
-            // 失败：启动快速恢复机制
-            recoveryAttempts++;
-            if (recoveryAttempts <= MAX_RECOVERY_ATTEMPTS) {
-                // 快速重试（5秒后）
-                AppLog.w(TAG, "Camera " + cameraId + " Segment switch failed, quick retry in " 
-                    + (RECOVERY_RETRY_INTERVAL_MS / 1000) + "s (attempt " + recoveryAttempts + "/" + MAX_RECOVERY_ATTEMPTS + ")");
-                scheduleRecoveryRetry();
-            } else {
-                // 超过最大重试次数，回到正常分段间隔
-                AppLog.w(TAG, "Camera " + cameraId + " Max recovery attempts reached, will retry in " 
-                    + (segmentDurationMs / 1000) + " seconds");
-                recoveryAttempts = 0;  // 重置计数器
-                segmentHandler.post(() -> scheduleNextSegment());
+            // 超过最大重试次数，回到正常分段间隔
+            AppLog.w(TAG, "Camera " + cameraId + " Max recovery attempts reached, will retry in " 
+                + (segmentDurationMs / 1000) + " seconds");
+            recoveryAttempts = 0;
+            segmentHandler.post(() -> scheduleNextSegment());
+        }
+    }
+
+    /**
+     * 等待分段线程处理完已提交的任务（旧分段收尾、回调）
+     */
+    private void awaitSegmentThreadIdle(long timeoutMs) {
+        if (segmentHandler == null || Looper.myLooper() == segmentHandler.getLooper()) {
+            return;
+        }
+        final java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+        if (!segmentHandler.post(latch::countDown)) {
+            return;
+        }
+        try {
+            if (!latch.await(timeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS)) {
+                AppLog.w(TAG, "Camera " + cameraId + " Timeout waiting for segment thread");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     
@@ -1412,7 +1833,7 @@ public class CodecVideoRecorder {
             }
             
             // 创建新的 Muxer
-            if (muxer == null) {
+            if (!splitter.hasCurrent()) {
                 String nextSegmentPath = generateSegmentPath();
                 currentFilePath = nextSegmentPath;
                 createMuxer(nextSegmentPath);
@@ -1453,84 +1874,6 @@ public class CodecVideoRecorder {
         }
     }
     
-    /**
-     * 为分段切换停止录制（在编码线程上执行）
-     * 完整停止并重新创建编码器
-     * 
-     * 注意：此方法有完善的异常处理，即使部分操作失败也会继续执行
-     */
-    private void stopRecordingForSegmentSwitch() {
-        AppLog.d(TAG, "Camera " + cameraId + " Stopping recording for segment switch");
-        
-        // 1. 停止录制（阻止新帧写入）
-        isRecording.set(false);
-        
-        // 2. 排空编码器（drainEncoder 现在在同一线程执行，不会有竞争）
-        if (encoder != null) {
-            try {
-                drainEncoder(false);  // 先排空已有数据
-            } catch (Exception e) {
-                AppLog.e(TAG, "Camera " + cameraId + " Error draining encoder during segment switch", e);
-            }
-        }
-        
-        // 3. 停止 Muxer（即使失败也继续）
-        if (muxer != null) {
-            try {
-                if (muxerStarted) {
-                    muxer.stop();
-                }
-                muxer.release();
-            } catch (Exception e) {
-                AppLog.e(TAG, "Camera " + cameraId + " Error stopping muxer during segment switch", e);
-            }
-            muxer = null;
-            muxerStarted = false;
-            videoTrackIndex = -1;
-        }
-        
-        // 4. 释放旧编码器（即使失败也继续）
-        if (encoder != null) {
-            try {
-                encoder.stop();
-            } catch (Exception e) {
-                AppLog.w(TAG, "Camera " + cameraId + " Error stopping encoder: " + e.getMessage());
-            }
-            try {
-                encoder.release();
-            } catch (Exception e) {
-                AppLog.w(TAG, "Camera " + cameraId + " Error releasing encoder: " + e.getMessage());
-            }
-            encoder = null;
-        }
-        
-        if (encoderInputSurface != null) {
-            try {
-                encoderInputSurface.release();
-            } catch (Exception e) {
-                AppLog.w(TAG, "Camera " + cameraId + " Error releasing encoder surface: " + e.getMessage());
-            }
-            encoderInputSurface = null;
-        }
-        
-        // 5. 重新创建编码器
-        try {
-            createEncoder();
-            
-            // 重新设置 EGL 的输出 Surface
-            if (eglEncoder != null && encoderInputSurface != null) {
-                eglEncoder.updateOutputSurface(encoderInputSurface);
-            }
-            
-            AppLog.d(TAG, "Camera " + cameraId + " Encoder recreated for new segment");
-            
-        } catch (Exception e) {
-            AppLog.e(TAG, "Camera " + cameraId + " Failed to recreate encoder", e);
-            // 抛出异常，让调用者处理
-            throw new RuntimeException("Failed to recreate encoder for segment switch", e);
-        }
-    }
-
     /**
      * 生成新的分段文件路径
      * 优先使用 TimestampProvider 获取统一时间戳（多路摄像头同步）
@@ -1572,13 +1915,13 @@ public class CodecVideoRecorder {
             if (!encoderHealthy) {
                 needsRecovery = true;
                 reason = "encoder marked unhealthy";
-            } else if (!muxerStarted && recordedFrameCount > MAX_FRAMES_WITHOUT_OUTPUT) {
+            } else if (!splitter.isStarted() && recordedFrameCount > MAX_FRAMES_WITHOUT_OUTPUT) {
                 // Muxer 从未启动，但已经处理了很多帧
                 needsRecovery = true;
                 reason = "muxer never started after " + recordedFrameCount + " frames";
-            } else if (framesWithoutEncoderOutput > MAX_FRAMES_WITHOUT_OUTPUT) {
+            } else if (getFramesWithoutEncoderOutput() > MAX_FRAMES_WITHOUT_OUTPUT) {
                 needsRecovery = true;
-                reason = "no encoder output for " + framesWithoutEncoderOutput + " frames";
+                reason = "no encoder output for " + getFramesWithoutEncoderOutput() + " frames";
             }
 
             if (needsRecovery) {
@@ -1609,19 +1952,21 @@ public class CodecVideoRecorder {
         isRecording.set(false);
 
         try {
-            // 1. 清理旧的 Muxer（可能已损坏）
-            if (muxer != null) {
+            // 异步模式：先停止编码器，等队列中已有的输出写完再关闭分段
+            if (asyncPipeline != null && encoder != null) {
                 try {
-                    if (muxerStarted) {
-                        muxer.stop();
-                    }
-                    muxer.release();
+                    encoder.stop();
                 } catch (Exception e) {
-                    AppLog.w(TAG, "Camera " + cameraId + " Error releasing old muxer: " + e.getMessage());
+                    // Ignore
                 }
-                muxer = null;
-                muxerStarted = false;
-                videoTrackIndex = -1;
+                if (!asyncPipeline.awaitDrained(1000)) {
+                    AppLog.w(TAG, "Camera " + cameraId + " Timeout draining async encoder output");
+                }
+            }
+
+            // 1. 清理旧的 Muxer（可能已损坏）
+            if (!splitter.close()) {
+                AppLog.w(TAG, "Camera " + cameraId + " Error releasing old muxer");
             }
 
             // 2. 清理旧的编码器
@@ -1714,8 +2059,10 @@ public class CodecVideoRecorder {
         fileSizeCheckRunnable = () -> {
             if (isRecording.get() && currentFilePath != null) {
                 File file = new File(currentFilePath);
-                long currentSize = file.exists() ? file.length() : 0;
+                // 预分配时文件长度是预留大小，改用已写入 muxer 的数据量判断进度
+                long currentSize = preallocationEnabled ? splitter.getCurrentWrittenBytes() : (file.exists() ? file.length() : 0);
                 long sizeIncrease = currentSize - lastFileSize;
+                boolean wasFirstWrite = hasFirstWrite;  // 本次检查前是否已有首次写入（检查间隔不同）
 
                 // 检查是否有写入
                 boolean hasWrite = (sizeIncrease > 0) || (currentSize > MIN_VALID_FILE_SIZE);
@@ -1744,6 +2091,14 @@ public class CodecVideoRecorder {
                     AppLog.w(TAG, "Camera " + cameraId + " WARNING: File size not growing! Current: " + currentSize + " bytes");
                 }
 
+                // 上报写入进度：后台删除在录制写入滞后时让路
+                if (!hasFirstWrite) {
+                    WritePressureMonitor.reportAwaitingFirstWrite("Camera " + cameraId);
+                } else if (wasFirstWrite) {
+                    long expectedIncrease = (long) getEffectiveBitRate() / 8 * FILE_SIZE_CHECK_INTERVAL_MS / 1000;
+                    WritePressureMonitor.reportWriteProgress("Camera " + cameraId, sizeIncrease, expectedIncrease);
+                }
+
                 lastFileSize = currentSize;
                 
                 // 继续下一次检查（首次写入前用快速间隔，之后用正常间隔）
@@ -1796,10 +2151,11 @@ public class CodecVideoRecorder {
      */
     private List<String> validateAndCleanupAllFiles() {
         List<String> deletedFiles = new ArrayList<>();
+        List<String> filePaths = new ArrayList<>(recordedFilePaths);
         
-        AppLog.d(TAG, "Camera " + cameraId + " validating " + recordedFilePaths.size() + " recorded files");
+        AppLog.d(TAG, "Camera " + cameraId + " validating " + filePaths.size() + " recorded files");
         
-        for (String filePath : recordedFilePaths) {
+        for (String filePath : filePaths) {
             String deletedFileName = validateAndCleanupFile(filePath);
             if (deletedFileName != null) {
                 deletedFiles.add(deletedFileName);
@@ -1,11 +1,6 @@
 package com.kooo.evcam.camera;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.SurfaceTexture;
-import android.graphics.Typeface;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
@@ -14,7 +9,6 @@ import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.view.Surface;
 
@@ -23,9 +17,9 @@ import com.kooo.evcam.AppLog;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * EGL/OpenGL 渲染桥接类
@@ -36,6 +30,15 @@ import java.util.Locale;
  * 2. 本类监听 SurfaceTexture 的 onFrameAvailable 回调
  * 3. 使用 OpenGL 将 SurfaceTexture 的内容渲染到 MediaCodec 的输入 Surface
  * 4. MediaCodec 编码后通过 MediaMuxer 写入文件
+ *
+ * 拼接模式（addTileInput）：多路 Camera 各自输出到本类创建的 SurfaceTexture，
+ * 每次渲染把各路最新画面画到网格中对应区域，合成一帧送给同一个编码器
+ *
+ * 水印（setWatermarkEnabled/setWatermarkFields）：由 {@link WatermarkRenderer} 用字形图集叠加绘制，
+ * 字段变化时只更新变化的字符
+ *
+ * 共享渲染模式（setSharedRenderThread）：使用 {@link SharedRenderThread} 的 EGL context，
+ * 只创建自己的 window surface，释放时不销毁 context（必须在共享渲染线程上调用）
  */
 public class EglSurfaceEncoder {
     private static final String TAG = "EglSurfaceEncoder";
@@ -62,32 +65,6 @@ public class EglSurfaceEncoder {
             "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
             "}\n";
 
-    // Fragment shader - 带时间水印版本
-    private static final String FRAGMENT_SHADER_WITH_WATERMARK =
-            "#extension GL_OES_EGL_image_external : require\n" +
-            "precision mediump float;\n" +
-            "varying vec2 vTextureCoord;\n" +
-            "uniform samplerExternalOES sTexture;\n" +
-            "uniform sampler2D sWatermarkTexture;\n" +
-            "uniform vec4 uWatermarkRect;\n" +  // x, y, width, height (归一化坐标)
-            "void main() {\n" +
-            "    vec4 videoColor = texture2D(sTexture, vTextureCoord);\n" +
-            "    // 检查是否在水印区域内\n" +
-            "    if (vTextureCoord.x >= uWatermarkRect.x && vTextureCoord.x <= uWatermarkRect.x + uWatermarkRect.z &&\n" +
-            "        vTextureCoord.y >= uWatermarkRect.y && vTextureCoord.y <= uWatermarkRect.y + uWatermarkRect.w) {\n" +
-            "        // 计算水印纹理坐标\n" +
-            "        vec2 watermarkCoord = vec2(\n" +
-            "            (vTextureCoord.x - uWatermarkRect.x) / uWatermarkRect.z,\n" +
-            "            (vTextureCoord.y - uWatermarkRect.y) / uWatermarkRect.w\n" +
-            "        );\n" +
-            "        vec4 watermarkColor = texture2D(sWatermarkTexture, watermarkCoord);\n" +
-            "        // Alpha 混合\n" +
-            "        gl_FragColor = mix(videoColor, watermarkColor, watermarkColor.a);\n" +
-            "    } else {\n" +
-            "        gl_FragColor = videoColor;\n" +
-            "    }\n" +
-            "}\n";
-
     // 顶点坐标（全屏四边形）
     private static final float[] VERTICES = {
             -1.0f, -1.0f,  // 左下
@@ -138,26 +115,17 @@ public class EglSurfaceEncoder {
     private boolean isInitialized = false;
     private boolean isReleased = false;
 
-    // 时间水印相关
+    // 共享渲染线程（null 表示独立 EGL context）
+    private SharedRenderThread sharedRenderThread;
+
+    // 水印相关
     private boolean watermarkEnabled = false;
-    private int watermarkProgram;
-    private int watermarkTextureId;
-    private int watermarkTextureHandle;
-    private int watermarkRectHandle;
-    private int watermarkPositionHandle;
-    private int watermarkTexCoordHandle;
-    private int watermarkMvpMatrixHandle;
-    private int watermarkTexMatrixHandle;
-    private int watermarkOesTextureHandle;
-    private Bitmap watermarkBitmap;
-    private String lastWatermarkTime = "";
-    private static final int WATERMARK_WIDTH = 400;   // 水印纹理宽度（需容纳19字符的时间戳）
-    private static final int WATERMARK_HEIGHT = 44;   // 水印纹理高度
-    private final SimpleDateFormat watermarkDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-    
-    // 性能优化：水印更新控制
-    private long lastWatermarkUpdateMs = 0;
-    private static final long WATERMARK_UPDATE_INTERVAL_MS = 1000; // 每秒更新一次水印
+    private boolean watermarkShowTime = true;
+    private boolean watermarkShowSpeed = false;
+    private boolean watermarkShowBrand = false;
+    private int watermarkColor = 0xFFFFFFFF;
+    private WatermarkLayout.SpeedSource speedSource;
+    private WatermarkRenderer watermarkRenderer;
     
     // 性能优化：跳帧控制（仅用于录制编码，不影响预览质量）
     private int frameSkipCounter = 0;
@@ -177,6 +145,28 @@ public class EglSurfaceEncoder {
     // 优化：控制何时需要清除缓冲（避免闪屏）
     private boolean needsClear = true;  // 初始需要清除
 
+    // 拼接模式：每路一个 OES 纹理，区域为像素坐标（原点在左上角）
+    private static final class TileInput {
+        final String position;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final float[] texMatrix = new float[16];
+        int textureId;
+        SurfaceTexture surfaceTexture;
+        boolean hasFrame = false;
+
+        TileInput(String position, int x, int y, int width, int height) {
+            this.position = position;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+    private final List<TileInput> tileInputs = new ArrayList<>();
+
     public EglSurfaceEncoder(String cameraId, int width, int height) {
         this.cameraId = cameraId;
         this.width = width;
@@ -227,7 +217,51 @@ public class EglSurfaceEncoder {
     }
 
     /**
-     * 设置是否启用时间水印
+     * 添加拼接输入（必须在 initialize 之后、在 EGL 所在线程调用）
+     * @param position 摄像头位置
+     * @param x 区域左上角 x（像素）
+     * @param y 区域左上角 y（像素）
+     * @return 创建的 OES 纹理 ID（用于创建该路 Camera 输出的 SurfaceTexture）
+     */
+    public int addTileInput(String position, int x, int y, int tileWidth, int tileHeight) {
+        makeCurrent();
+        TileInput tile = new TileInput(position, x, y, tileWidth, tileHeight);
+        tile.textureId = createOesTexture();
+        tileInputs.add(tile);
+        AppLog.d(TAG, "Camera " + cameraId + " Tile input added: " + position + " [" + x + ", " + y + ", " +
+                tileWidth + "x" + tileHeight + "], textureId=" + tile.textureId);
+        return tile.textureId;
+    }
+
+    /**
+     * 设置拼接输入的 SurfaceTexture
+     */
+    public void setTileSurfaceTexture(String position, SurfaceTexture surfaceTexture) {
+        for (TileInput tile : tileInputs) {
+            if (tile.position.equals(position)) {
+                tile.surfaceTexture = surfaceTexture;
+                return;
+            }
+        }
+        AppLog.w(TAG, "Camera " + cameraId + " Unknown tile input: " + position);
+    }
+
+    /**
+     * 使用共享渲染线程的 EGL context（必须在 initialize 之前调用）
+     */
+    public void setSharedRenderThread(SharedRenderThread sharedRenderThread) {
+        this.sharedRenderThread = sharedRenderThread;
+    }
+
+    /**
+     * 是否为拼接模式
+     */
+    public boolean isMosaic() {
+        return !tileInputs.isEmpty();
+    }
+
+    /**
+     * 设置是否启用水印
      * @param enabled true 表示启用水印
      */
     public void setWatermarkEnabled(boolean enabled) {
@@ -235,11 +269,28 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " Watermark " + (enabled ? "enabled" : "disabled"));
         
         // 如果已初始化且启用水印，需要初始化水印相关资源
-        if (isInitialized && enabled && watermarkProgram == 0) {
+        if (isInitialized && enabled && watermarkRenderer == null) {
             initWatermarkGl();
         }
     }
 
+    /**
+     * 设置水印字段（必须在 setWatermarkEnabled(true) 之前调用）
+     * @param showTime 显示时间
+     * @param showSpeed 显示车速（来自 speedSource）
+     * @param showBrand 显示品牌标识
+     * @param colorArgb 文字颜色
+     * @param speedSource 车速来源（不显示车速时可为 null）
+     */
+    public void setWatermarkFields(boolean showTime, boolean showSpeed, boolean showBrand, int colorArgb,
+                                   WatermarkLayout.SpeedSource speedSource) {
+        this.watermarkShowTime = showTime;
+        this.watermarkShowSpeed = showSpeed && speedSource != null;
+        this.watermarkShowBrand = showBrand;
+        this.watermarkColor = colorArgb;
+        this.speedSource = speedSource;
+    }
+
     /**
      * 检查是否启用了时间水印
      */
@@ -268,15 +319,16 @@ public class EglSurfaceEncoder {
      * 渲染一帧到输出 Surface
      * 应该在 SurfaceTexture.onFrameAvailable 回调中调用
      * @param presentationTimeNs 帧的呈现时间（纳秒）
+     * @return 是否送出了一帧（帧率控制跳过时返回 false）
      */
-    public void drawFrame(long presentationTimeNs) {
+    public boolean drawFrame(long presentationTimeNs) {
         if (!isInitialized || isReleased) {
-            return;
+            return false;
         }
 
-        if (inputSurfaceTexture == null) {
+        if (inputSurfaceTexture == null && tileInputs.isEmpty()) {
             AppLog.w(TAG, "Camera " + cameraId + " No input SurfaceTexture set");
-            return;
+            return false;
         }
 
         // 性能优化：帧率控制，防止过度渲染占用CPU
@@ -285,11 +337,11 @@ public class EglSurfaceEncoder {
             // 帧间隔太短，跳过渲染但消费帧
             try {
                 makeCurrent();
-                inputSurfaceTexture.updateTexImage();
+                latchInputs();
             } catch (Exception e) {
                 // 忽略
             }
-            return;
+            return false;
         }
 
         // 性能优化：跳帧控制（当启用时，每3帧渲染1次）
@@ -299,11 +351,11 @@ public class EglSurfaceEncoder {
                 // 跳过渲染，但更新时间戳
                 try {
                     makeCurrent();
-                    inputSurfaceTexture.updateTexImage();
+                    latchInputs();
                 } catch (Exception e) {
                     // 忽略
                 }
-                return;
+                return false;
             }
             frameSkipCounter = 0;
         }
@@ -313,51 +365,108 @@ public class EglSurfaceEncoder {
             makeCurrent();
 
             // 更新纹理（需要在正确的 EGL context 中）
-            inputSurfaceTexture.updateTexImage();
-            inputSurfaceTexture.getTransformMatrix(texMatrix);
+            latchInputs();
             lastFrameTimeNs = currentTimeNs;
 
-            // 设置视口
-            GLES20.glViewport(0, 0, width, height);
+            if (!tileInputs.isEmpty()) {
+                drawTiles();
+            } else {
+                inputSurfaceTexture.getTransformMatrix(texMatrix);
 
-            // 优化：只在必要时清除缓冲，避免闪屏
-            if (needsClear) {
-                GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-                needsClear = false;
-            }
+                // 设置视口
+                GLES20.glViewport(0, 0, width, height);
 
-            // 根据是否启用水印选择不同的渲染路径
-            if (watermarkEnabled && watermarkProgram != 0) {
-                drawFrameWithWatermark();
-            } else {
-                drawFrameWithoutWatermark();
+                // 优化：只在必要时清除缓冲，避免闪屏
+                if (needsClear) {
+                    GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+                    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+                    needsClear = false;
+                }
+
+                // 根据是否启用水印选择不同的渲染路径
+                drawVideoFrame(textureId, texMatrix);
+                if (watermarkEnabled && watermarkRenderer != null) {
+                    updateWatermark();
+                    watermarkRenderer.draw(width, height);
+                }
             }
 
             // 设置呈现时间戳并交换缓冲区
             EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationTimeNs);
             EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+            return true;
 
         } catch (Exception e) {
             AppLog.e(TAG, "Camera " + cameraId + " Error drawing frame", e);
+            return false;
         }
     }
 
     /**
-     * 无水印渲染
+     * 拼接渲染：各路画到网格中对应区域（尚无画面的区域保持黑色）
      */
-    private void drawFrameWithoutWatermark() {
+    private void drawTiles() {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        boolean withWatermark = watermarkEnabled && watermarkRenderer != null;
+        if (withWatermark) {
+            updateWatermark();
+        }
+        for (TileInput tile : tileInputs) {
+            if (!tile.hasFrame) {
+                continue;
+            }
+            // GL 视口原点在左下角
+            GLES20.glViewport(tile.x, height - tile.y - tile.height, tile.width, tile.height);
+            drawVideoFrame(tile.textureId, tile.texMatrix);
+            if (withWatermark) {
+                watermarkRenderer.draw(tile.width, tile.height);
+            }
+        }
+    }
+
+    /**
+     * 更新输入纹理（拼接模式下更新所有输入，没有新帧的输入保持上一帧）
+     */
+    private void latchInputs() {
+        if (tileInputs.isEmpty()) {
+            inputSurfaceTexture.updateTexImage();
+            return;
+        }
+        for (TileInput tile : tileInputs) {
+            if (tile.surfaceTexture == null) {
+                continue;
+            }
+            try {
+                tile.surfaceTexture.updateTexImage();
+                tile.surfaceTexture.getTransformMatrix(tile.texMatrix);
+                if (tile.surfaceTexture.getTimestamp() != 0) {
+                    tile.hasFrame = true;
+                }
+            } catch (Exception e) {
+                // 某一路 SurfaceTexture 失效时不影响其他路
+                AppLog.w(TAG, "Camera " + cameraId + " Tile " + tile.position + " update failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 绘制视频画面（水印随后叠加）
+     */
+    private void drawVideoFrame(int inputTextureId, float[] inputTexMatrix) {
         // 使用着色器程序
         GLES20.glUseProgram(program);
         checkGlError("glUseProgram");
 
         // 绑定纹理
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, inputTextureId);
 
         // 设置 uniform 变量
         GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, texMatrix, 0);
+        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, inputTexMatrix, 0);
         GLES20.glUniform1i(textureHandle, 0);
 
         // 设置顶点属性
@@ -376,63 +485,12 @@ public class EglSurfaceEncoder {
         GLES20.glDisableVertexAttribArray(texCoordHandle);
     }
 
-    // 性能优化：缓存水印位置（只需计算一次）
-    private float watermarkX, watermarkY, watermarkW, watermarkH;
-    private boolean watermarkPositionCached = false;
-    
     /**
-     * 带水印渲染（优化版）
+     * 更新水印字段（每帧一次，内容不变时不做任何事）
      */
-    private void drawFrameWithWatermark() {
-        // 性能优化：控制水印更新频率（每秒最多更新一次）
-        long currentTimeMs = System.currentTimeMillis();
-        if (currentTimeMs - lastWatermarkUpdateMs >= WATERMARK_UPDATE_INTERVAL_MS) {
-            updateWatermarkBitmap();
-            lastWatermarkUpdateMs = currentTimeMs;
-        }
-
-        // 使用水印着色器程序
-        GLES20.glUseProgram(watermarkProgram);
-        checkGlError("glUseProgram watermark");
-
-        // 绑定视频纹理到纹理单元0
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLES20.glUniform1i(watermarkOesTextureHandle, 0);
-
-        // 绑定水印纹理到纹理单元1
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-        GLES20.glUniform1i(watermarkTextureHandle, 1);
-
-        // 设置 uniform 变量
-        GLES20.glUniformMatrix4fv(watermarkMvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(watermarkTexMatrixHandle, 1, false, texMatrix, 0);
-
-        // 性能优化：缓存水印位置计算结果
-        if (!watermarkPositionCached) {
-            watermarkW = (float) WATERMARK_WIDTH / width;   // 水印宽度占比
-            watermarkH = (float) WATERMARK_HEIGHT / height; // 水印高度占比
-            watermarkX = 1.0f - watermarkW - 0.01f;  // 右边距 1%
-            watermarkY = 0.01f;  // 上边距 1%
-            watermarkPositionCached = true;
-        }
-        GLES20.glUniform4f(watermarkRectHandle, watermarkX, watermarkY, watermarkW, watermarkH);
-
-        // 设置顶点属性
-        GLES20.glEnableVertexAttribArray(watermarkPositionHandle);
-        GLES20.glVertexAttribPointer(watermarkPositionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-
-        GLES20.glEnableVertexAttribArray(watermarkTexCoordHandle);
-        GLES20.glVertexAttribPointer(watermarkTexCoordHandle, 2, GLES20.GL_FLOAT, false, 0, texCoordBuffer);
-
-        // 绘制
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        checkGlError("glDrawArrays watermark");
-
-        // 禁用顶点属性
-        GLES20.glDisableVertexAttribArray(watermarkPositionHandle);
-        GLES20.glDisableVertexAttribArray(watermarkTexCoordHandle);
+    private void updateWatermark() {
+        float speedKmh = speedSource != null ? speedSource.getSpeedKmh() : Float.NaN;
+        watermarkRenderer.update(System.currentTimeMillis(), speedKmh);
     }
 
     /**
@@ -452,7 +510,7 @@ public class EglSurfaceEncoder {
             // 销毁旧的 EGL Surface
             // 注意：当 surface 为 EGL_NO_SURFACE 时，context 必须也是 EGL_NO_CONTEXT，否则会报 EGL_BAD_MATCH
             if (eglSurface != EGL14.EGL_NO_SURFACE) {
-                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                releaseCurrent();
                 EGL14.eglDestroySurface(eglDisplay, eglSurface);
                 eglSurface = EGL14.EGL_NO_SURFACE;
             }
@@ -490,7 +548,7 @@ public class EglSurfaceEncoder {
             return;
         }
 
-        if (inputSurfaceTexture == null) {
+        if (inputSurfaceTexture == null && tileInputs.isEmpty()) {
             return;
         }
 
@@ -498,7 +556,7 @@ public class EglSurfaceEncoder {
             // 绑定 EGL context（必须在 updateTexImage 之前）
             makeCurrent();
             // 只消费帧，不渲染
-            inputSurfaceTexture.updateTexImage();
+            latchInputs();
         } catch (Exception e) {
             // 非录制状态下的错误不需要记录
         }
@@ -538,35 +596,30 @@ public class EglSurfaceEncoder {
                 textureId = 0;
             }
 
-            // 释放水印相关资源
-            if (watermarkProgram != 0) {
+            for (TileInput tile : tileInputs) {
                 try {
-                    GLES20.glDeleteProgram(watermarkProgram);
+                    GLES20.glDeleteTextures(1, new int[]{tile.textureId}, 0);
                 } catch (Exception e) {
-                    AppLog.w(TAG, "Camera " + cameraId + " Error deleting watermark program: " + e.getMessage());
+                    AppLog.w(TAG, "Camera " + cameraId + " Error deleting tile texture: " + e.getMessage());
                 }
-                watermarkProgram = 0;
+                tile.surfaceTexture = null;
             }
+            tileInputs.clear();
 
-            if (watermarkTextureId != 0) {
+            // 释放水印相关资源
+            if (watermarkRenderer != null) {
                 try {
-                    int[] textures = {watermarkTextureId};
-                    GLES20.glDeleteTextures(1, textures, 0);
+                    watermarkRenderer.release();
                 } catch (Exception e) {
-                    AppLog.w(TAG, "Camera " + cameraId + " Error deleting watermark texture: " + e.getMessage());
+                    AppLog.w(TAG, "Camera " + cameraId + " Error releasing watermark: " + e.getMessage());
                 }
-                watermarkTextureId = 0;
-            }
-
-            if (watermarkBitmap != null) {
-                watermarkBitmap.recycle();
-                watermarkBitmap = null;
+                watermarkRenderer = null;
             }
 
             // 释放 EGL 资源
             if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
                 try {
-                    EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                    releaseCurrent();
                 } catch (Exception e) {
                     AppLog.w(TAG, "Camera " + cameraId + " Error making EGL no current: " + e.getMessage());
                 }
@@ -580,20 +633,23 @@ public class EglSurfaceEncoder {
                     eglSurface = EGL14.EGL_NO_SURFACE;
                 }
 
-                if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                if (sharedRenderThread == null) {
+                    if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                        try {
+                            EGL14.eglDestroyContext(eglDisplay, eglContext);
+                        } catch (Exception e) {
+                            AppLog.w(TAG, "Camera " + cameraId + " Error destroying EGL context: " + e.getMessage());
+                        }
+                    }
+
                     try {
-                        EGL14.eglDestroyContext(eglDisplay, eglContext);
+                        EGL14.eglTerminate(eglDisplay);
                     } catch (Exception e) {
-                        AppLog.w(TAG, "Camera " + cameraId + " Error destroying EGL context: " + e.getMessage());
+                        AppLog.w(TAG, "Camera " + cameraId + " Error terminating EGL: " + e.getMessage());
                     }
-                    eglContext = EGL14.EGL_NO_CONTEXT;
-                }
-
-                try {
-                    EGL14.eglTerminate(eglDisplay);
-                } catch (Exception e) {
-                    AppLog.w(TAG, "Camera " + cameraId + " Error terminating EGL: " + e.getMessage());
                 }
+                // 共享 context 由 SharedRenderThread 销毁
+                eglContext = EGL14.EGL_NO_CONTEXT;
                 eglDisplay = EGL14.EGL_NO_DISPLAY;
             }
         } catch (Exception e) {
@@ -625,6 +681,20 @@ public class EglSurfaceEncoder {
      * 初始化 EGL
      */
     private void initEgl(Surface outputSurface) {
+        if (sharedRenderThread != null) {
+            // 共享 context：只创建绑定到 MediaCodec 输入 Surface 的 window surface
+            eglDisplay = sharedRenderThread.getEglDisplay();
+            eglConfig = sharedRenderThread.getEglConfig();
+            eglContext = sharedRenderThread.getEglContext();
+            eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, outputSurface, new int[]{EGL14.EGL_NONE}, 0);
+            if (eglSurface == EGL14.EGL_NO_SURFACE) {
+                throw new RuntimeException("Unable to create EGL window surface");
+            }
+            makeCurrent();
+            AppLog.d(TAG, "Camera " + cameraId + " EGL setup complete (shared context)");
+            return;
+        }
+
         // 获取 EGL Display
         eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
         if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
@@ -700,111 +770,67 @@ public class EglSurfaceEncoder {
         textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
 
         // 创建 OES 纹理
+        textureId = createOesTexture();
+
+        // 创建顶点缓冲
+        vertexBuffer = createFloatBuffer(VERTICES);
+        texCoordBuffer = createFloatBuffer(TEXTURE_COORDS);
+
+        AppLog.d(TAG, "Camera " + cameraId + " OpenGL setup complete, textureId=" + textureId);
+    }
+
+    /**
+     * 创建 OES 外部纹理（Camera 输出的 SurfaceTexture 绑定到该纹理）
+     */
+    private int createOesTexture() {
         int[] textures = new int[1];
         GLES20.glGenTextures(1, textures, 0);
-        textureId = textures[0];
+        int id = textures[0];
 
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, id);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-
-        // 创建顶点缓冲
-        vertexBuffer = createFloatBuffer(VERTICES);
-        texCoordBuffer = createFloatBuffer(TEXTURE_COORDS);
-
-        AppLog.d(TAG, "Camera " + cameraId + " OpenGL setup complete, textureId=" + textureId);
+        return id;
     }
 
     /**
      * 初始化水印相关的 OpenGL 资源
      */
     private void initWatermarkGl() {
-        if (watermarkProgram != 0) {
+        if (watermarkRenderer != null) {
             return;  // 已经初始化过了
         }
 
-        AppLog.d(TAG, "Camera " + cameraId + " Initializing watermark OpenGL resources");
+        WatermarkLayout layout = new WatermarkLayout(watermarkShowTime, watermarkShowSpeed,
+                watermarkShowBrand, TimeZone.getDefault());
+        if (layout.isEmpty()) {
+            AppLog.d(TAG, "Camera " + cameraId + " No watermark fields enabled");
+            return;
+        }
 
-        // 创建带水印的着色器程序
-        watermarkProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_WITH_WATERMARK);
+        // 创建水印着色器程序
+        int watermarkProgram = createProgram(WatermarkRenderer.VERTEX_SHADER, WatermarkRenderer.FRAGMENT_SHADER);
         if (watermarkProgram == 0) {
             AppLog.e(TAG, "Camera " + cameraId + " Failed to create watermark shader program");
             return;
         }
 
-        // 获取属性位置
-        watermarkPositionHandle = GLES20.glGetAttribLocation(watermarkProgram, "aPosition");
-        watermarkTexCoordHandle = GLES20.glGetAttribLocation(watermarkProgram, "aTextureCoord");
-        watermarkMvpMatrixHandle = GLES20.glGetUniformLocation(watermarkProgram, "uMVPMatrix");
-        watermarkTexMatrixHandle = GLES20.glGetUniformLocation(watermarkProgram, "uTexMatrix");
-        watermarkOesTextureHandle = GLES20.glGetUniformLocation(watermarkProgram, "sTexture");
-        watermarkTextureHandle = GLES20.glGetUniformLocation(watermarkProgram, "sWatermarkTexture");
-        watermarkRectHandle = GLES20.glGetUniformLocation(watermarkProgram, "uWatermarkRect");
-
-        // 创建水印纹理
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-        watermarkTextureId = textures[0];
-
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-
-        // 创建初始水印位图
-        watermarkBitmap = Bitmap.createBitmap(WATERMARK_WIDTH, WATERMARK_HEIGHT, Bitmap.Config.ARGB_8888);
-        updateWatermarkBitmap();
-
-        AppLog.d(TAG, "Camera " + cameraId + " Watermark OpenGL resources initialized, textureId=" + watermarkTextureId);
+        WatermarkRenderer renderer = new WatermarkRenderer(cameraId, layout, watermarkColor);
+        renderer.init(watermarkProgram);
+        checkGlError("initWatermarkGl");
+        watermarkRenderer = renderer;
     }
 
     /**
-     * 更新水印位图（每秒调用一次）
+     * 解除当前 Surface 绑定（共享 context 时切换到共享线程的 pbuffer，保持 context 可用）
      */
-    private void updateWatermarkBitmap() {
-        if (watermarkBitmap == null) {
-            return;
-        }
-
-        String currentTime = watermarkDateFormat.format(new Date());
-        
-        // 只有时间变化时才更新
-        if (currentTime.equals(lastWatermarkTime)) {
-            return;
-        }
-        lastWatermarkTime = currentTime;
-
-        // 清除位图
-        watermarkBitmap.eraseColor(Color.TRANSPARENT);
-
-        Canvas canvas = new Canvas(watermarkBitmap);
-
-        // 设置画笔 - 阴影
-        Paint shadowPaint = new Paint();
-        shadowPaint.setColor(Color.BLACK);
-        shadowPaint.setTextSize(28);
-        shadowPaint.setAntiAlias(true);
-        shadowPaint.setTypeface(Typeface.MONOSPACE);
-
-        // 设置画笔 - 主文字
-        Paint textPaint = new Paint();
-        textPaint.setColor(Color.WHITE);
-        textPaint.setTextSize(28);
-        textPaint.setAntiAlias(true);
-        textPaint.setTypeface(Typeface.MONOSPACE);
-
-        // 绘制阴影（偏移2像素）
-        canvas.drawText(currentTime, 8, 32, shadowPaint);
-        // 绘制主文字
-        canvas.drawText(currentTime, 6, 30, textPaint);
-
-        // 上传纹理到 GPU
-        if (watermarkTextureId != 0) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, watermarkTextureId);
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, watermarkBitmap, 0);
+    private void releaseCurrent() {
+        if (sharedRenderThread != null) {
+            sharedRenderThread.makeDefaultCurrent();
+        } else {
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
         }
     }
 
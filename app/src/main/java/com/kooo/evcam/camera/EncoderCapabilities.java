@@ -0,0 +1,357 @@
+package com.kooo.evcam.camera;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import com.kooo.evcam.AppLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编码器能力缓存
+ * 一次性探测本机视频编码器（支持的格式、选用的编码器、Profile/Level、最大实例数），
+ * 并记录各配置实际 configure 的成败；结果按系统指纹（Build.FINGERPRINT）保存在内部存储，
+ * 之后每次启动、每次分段重建编码器都直接复用，不再创建探测用的 MediaCodec 或遍历编码器列表
+ *
+ * - 系统升级（指纹变化）或格式版本变化时重新探测
+ * - 某配置 configure 失败后记录下来，下次直接避开（如 HEVC 失败时直接使用 H.264）
+ */
+public class EncoderCapabilities {
+    private static final String TAG = "EncoderCapabilities";
+
+    private static final String CACHE_FILE = "encoder_capabilities.json";
+    private static final int FORMAT_VERSION = 1;
+    private static final String[] PROBE_MIME_TYPES = {
+            MediaFormat.MIMETYPE_VIDEO_AVC,
+            MediaFormat.MIMETYPE_VIDEO_HEVC
+    };
+
+    /**
+     * 某格式选用的编码器
+     */
+    public static final class EncoderInfo {
+        public final String mimeType;
+        public final String name;
+        public final boolean hardware;
+        public final int maxInstances;
+        private final int[] profiles;
+        private final int[] levels;
+
+        EncoderInfo(String mimeType, String name, boolean hardware, int maxInstances, int[] profiles, int[] levels) {
+            this.mimeType = mimeType;
+            this.name = name;
+            this.hardware = hardware;
+            this.maxInstances = maxInstances;
+            this.profiles = profiles;
+            this.levels = levels;
+        }
+
+        /**
+         * 是否声明支持指定 Profile
+         */
+        public boolean supportsProfile(int profile) {
+            for (int p : profiles) {
+                if (p == profile) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 是否声明了任何 Profile（部分车机编码器不声明）
+         */
+        public boolean hasProfiles() {
+            return profiles.length > 0;
+        }
+    }
+
+    private static EncoderCapabilities instance;
+
+    private Context appContext;
+    private boolean loaded = false;
+    private final Map<String, EncoderInfo> encoders = new HashMap<>();     // MIME -> 选用的编码器
+    private final Map<String, Boolean> configureResults = new HashMap<>(); // 配置 -> configure 是否成功
+    private final AtomicInteger probesAvoided = new AtomicInteger();
+
+    public static synchronized EncoderCapabilities getInstance() {
+        if (instance == null) {
+            instance = new EncoderCapabilities();
+        }
+        return instance;
+    }
+
+    private EncoderCapabilities() {
+    }
+
+    /**
+     * 启动时调用：在后台线程读取缓存（没有可用缓存时探测并保存），录制开始时通常已就绪
+     */
+    public void init(Context context) {
+        synchronized (this) {
+            if (appContext == null) {
+                appContext = context.getApplicationContext();
+            }
+            if (loaded) {
+                return;
+            }
+        }
+        Thread thread = new Thread(this::ensureLoaded, "EncoderProbe");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 获取某格式选用的编码器（硬件编码器优先）
+     * @return 本机没有该格式的编码器时返回 null
+     */
+    public EncoderInfo getEncoder(String mimeType) {
+        ensureLoaded();
+        probesAvoided.incrementAndGet();
+        synchronized (this) {
+            return encoders.get(mimeType);
+        }
+    }
+
+    /**
+     * 查询某配置之前 configure 的结果
+     * @return true/false，未记录过时返回 null
+     */
+    public synchronized Boolean getConfigureResult(String codecName, String mimeType, int width, int height,
+                                                   boolean withProfile) {
+        return configureResults.get(configKey(codecName, mimeType, width, height, withProfile));
+    }
+
+    /**
+     * 记录某配置 configure 的结果（结果变化时保存）
+     */
+    public void recordConfigureResult(String codecName, String mimeType, int width, int height,
+                                      boolean withProfile, boolean success) {
+        String key = configKey(codecName, mimeType, width, height, withProfile);
+        synchronized (this) {
+            Boolean previous = configureResults.put(key, success);
+            if (previous != null && previous == success) {
+                return;
+            }
+            if (!success) {
+                AppLog.w(TAG, "Configure failed, remembered: " + key);
+            }
+            save();
+        }
+    }
+
+    /**
+     * 本进程内免去的探测次数（每次创建编码器原本要创建探测用的 MediaCodec 并遍历编码器列表）
+     */
+    public int getProbesAvoided() {
+        return probesAvoided.get();
+    }
+
+    private static String configKey(String codecName, String mimeType, int width, int height, boolean withProfile) {
+        return codecName + "|" + mimeType + "|" + width + "x" + height + "|" + (withProfile ? "profile" : "default");
+    }
+
+    private synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if (load()) {
+            AppLog.d(TAG, "Encoder capabilities loaded from cache: " + encoders.keySet() + ", " +
+                    configureResults.size() + " configure results, " + (System.currentTimeMillis() - start) + "ms");
+        } else {
+            probe();
+            AppLog.i(TAG, "Encoder capabilities probed in " + (System.currentTimeMillis() - start) + "ms: " +
+                    encoders.keySet());
+            save();
+        }
+        loaded = true;
+    }
+
+    // ==================== 探测 ====================
+
+    /**
+     * 遍历编码器列表，每种格式选出一个编码器（硬件编码器优先，与原 createHardwareEncoder 规则一致）
+     */
+    private void probe() {
+        encoders.clear();
+        configureResults.clear();
+        MediaCodecInfo[] codecInfos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        for (String mimeType : PROBE_MIME_TYPES) {
+            MediaCodecInfo best = null;
+            for (MediaCodecInfo codecInfo : codecInfos) {
+                if (!codecInfo.isEncoder() || !supportsType(codecInfo, mimeType)) {
+                    continue;
+                }
+                if (isSoftwareEncoder(codecInfo.getName())) {
+                    if (best == null) {
+                        best = codecInfo;  // 软件编码器，作为备选
+                    }
+                    continue;
+                }
+                best = codecInfo;
+                break;
+            }
+            if (best == null) {
+                AppLog.d(TAG, "No encoder for " + mimeType);
+                continue;
+            }
+            EncoderInfo info = describe(best, mimeType);
+            encoders.put(mimeType, info);
+            AppLog.d(TAG, "Encoder for " + mimeType + ": " + info.name + (info.hardware ? " (hardware)" : " (software)") +
+                    ", maxInstances=" + info.maxInstances + ", profiles=" + info.profiles.length);
+        }
+    }
+
+    private static boolean supportsType(MediaCodecInfo codecInfo, String mimeType) {
+        for (String type : codecInfo.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isSoftwareEncoder(String name) {
+        return name.contains("c2.android") || name.contains("OMX.google");
+    }
+
+    private static EncoderInfo describe(MediaCodecInfo codecInfo, String mimeType) {
+        int maxInstances = 0;
+        int[] profiles = new int[0];
+        int[] levels = new int[0];
+        try {
+            MediaCodecInfo.CodecCapabilities caps = codecInfo.getCapabilitiesForType(mimeType);
+            maxInstances = caps.getMaxSupportedInstances();
+            MediaCodecInfo.CodecProfileLevel[] profileLevels = caps.profileLevels;
+            profiles = new int[profileLevels.length];
+            levels = new int[profileLevels.length];
+            for (int i = 0; i < profileLevels.length; i++) {
+                profiles[i] = profileLevels[i].profile;
+                levels[i] = profileLevels[i].level;
+            }
+        } catch (Exception e) {
+            AppLog.w(TAG, "Failed to read capabilities of " + codecInfo.getName() + ": " + e.getMessage());
+        }
+        return new EncoderInfo(mimeType, codecInfo.getName(), !isSoftwareEncoder(codecInfo.getName()),
+                maxInstances, profiles, levels);
+    }
+
+    // ==================== 持久化 ====================
+
+    private File getCacheFile() {
+        return appContext != null ? new File(appContext.getFilesDir(), CACHE_FILE) : null;
+    }
+
+    /**
+     * 读取缓存
+     * @return 缓存存在且属于当前系统版本时返回 true
+     */
+    private boolean load() {
+        File file = getCacheFile();
+        if (file == null || !file.exists()) {
+            return false;
+        }
+        try (FileInputStream input = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = input.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            JSONObject root = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+            if (root.optInt("version") != FORMAT_VERSION || !Build.FINGERPRINT.equals(root.optString("fingerprint"))) {
+                AppLog.d(TAG, "Encoder capability cache outdated, probing again");
+                return false;
+            }
+
+            encoders.clear();
+            JSONArray array = root.getJSONArray("encoders");
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.getJSONObject(i);
+                JSONArray profileArray = item.getJSONArray("profiles");
+                JSONArray levelArray = item.getJSONArray("levels");
+                int[] profiles = new int[profileArray.length()];
+                int[] levels = new int[profileArray.length()];
+                for (int k = 0; k < profiles.length; k++) {
+                    profiles[k] = profileArray.getInt(k);
+                    levels[k] = levelArray.getInt(k);
+                }
+                EncoderInfo info = new EncoderInfo(item.getString("mime"), item.getString("name"),
+                        item.getBoolean("hardware"), item.getInt("maxInstances"), profiles, levels);
+                encoders.put(info.mimeType, info);
+            }
+
+            configureResults.clear();
+            JSONObject results = root.getJSONObject("configureResults");
+            Iterator<String> keys = results.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                configureResults.put(key, results.getBoolean(key));
+            }
+            return true;
+        } catch (IOException | JSONException e) {
+            AppLog.w(TAG, "Failed to read encoder capability cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void save() {
+        File file = getCacheFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            JSONObject root = new JSONObject();
+            root.put("version", FORMAT_VERSION);
+            root.put("fingerprint", Build.FINGERPRINT);
+            JSONArray array = new JSONArray();
+            for (EncoderInfo info : encoders.values()) {
+                JSONObject item = new JSONObject();
+                item.put("mime", info.mimeType);
+                item.put("name", info.name);
+                item.put("hardware", info.hardware);
+                item.put("maxInstances", info.maxInstances);
+                JSONArray profiles = new JSONArray();
+                JSONArray levels = new JSONArray();
+                for (int i = 0; i < info.profiles.length; i++) {
+                    profiles.put(info.profiles[i]);
+                    levels.put(info.levels[i]);
+                }
+                item.put("profiles", profiles);
+                item.put("levels", levels);
+                array.put(item);
+            }
+            root.put("encoders", array);
+            JSONObject results = new JSONObject();
+            for (Map.Entry<String, Boolean> entry : configureResults.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().booleanValue());
+            }
+            root.put("configureResults", results);
+
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                output.write(root.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException | JSONException e) {
+            AppLog.w(TAG, "Failed to write encoder capability cache: " + e.getMessage());
+        }
+    }
+}
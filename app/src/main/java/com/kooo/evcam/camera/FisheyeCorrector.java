@@ -33,6 +33,9 @@ import java.util.Map;
  * 3. 通过鱼眼矫正片段着色器渲染到主 TextureView 的 Surface
  * 4. 同一帧同时渲染到所有附加输出（补盲悬浮窗、副屏等），共享同一个 GL 管线
  *
+ * 共享渲染模式（setSharedRenderThread）：使用 {@link SharedRenderThread} 的线程和 EGL context，
+ * 帧回调合并到 vsync 绘制；涉及 GL 的公开方法自动切换到共享渲染线程执行
+ *
  * 矫正模型：Brown-Conrady 径向畸变
  *   r_corrected = r * (1.0 + k1 * r² + k2 * r⁴)
  * 其中 k1/k2 为畸变系数，r 为到画面中心的归一化距离。
@@ -166,6 +169,10 @@ public class FisheyeCorrector {
     private boolean isReleased = false;
     private Handler renderHandler;
 
+    // 共享渲染线程（null 表示独立 EGL context，在调用方传入的 Handler 上渲染）
+    private SharedRenderThread sharedRenderThread;
+    private RenderScheduler.Target renderTarget;
+
     public FisheyeCorrector(String cameraId, String cameraPosition, int width, int height) {
         this.cameraId = cameraId;
         this.cameraPosition = cameraPosition;
@@ -174,11 +181,18 @@ public class FisheyeCorrector {
         Matrix.setIdentityM(mvpMatrix, 0);
     }
 
+    /**
+     * 使用共享渲染线程（必须在 initialize 之前调用）
+     */
+    public void setSharedRenderThread(SharedRenderThread sharedRenderThread) {
+        this.sharedRenderThread = sharedRenderThread;
+    }
+
     /**
      * 初始化 EGL/GL，绑定到 TextureView 的输出 Surface
      *
      * @param outputSurface TextureView 的 Surface（通过 new Surface(textureView.getSurfaceTexture()) 获取）
-     * @param handler       用于帧回调的 Handler（应为摄像头后台线程）
+     * @param handler       用于帧回调的 Handler（应为摄像头后台线程；共享渲染模式下不使用）
      * @return 中间 Surface，应添加到 Camera2 的 OutputConfiguration 作为预览输出
      */
     public Surface initialize(Surface outputSurface, Handler handler) {
@@ -187,20 +201,23 @@ public class FisheyeCorrector {
             return intermediateSurface;
         }
 
-        this.renderHandler = handler;
-        AppLog.d(TAG, "Camera " + cameraId + " Initializing FisheyeCorrector " + width + "x" + height);
+        AppLog.d(TAG, "Camera " + cameraId + " Initializing FisheyeCorrector " + width + "x" + height +
+                (sharedRenderThread != null ? " (shared render thread)" : ""));
 
         try {
-            initEgl(outputSurface);
-            initGl();
-
-            // 创建中间 SurfaceTexture
-            intermediateSurfaceTexture = new SurfaceTexture(oesTextureId);
-            intermediateSurfaceTexture.setDefaultBufferSize(width, height);
-            intermediateSurface = new Surface(intermediateSurfaceTexture);
-
-            // 帧到达时进行矫正渲染
-            intermediateSurfaceTexture.setOnFrameAvailableListener(st -> drawFrame(), handler);
+            if (sharedRenderThread != null) {
+                try {
+                    sharedRenderThread.acquire();
+                } catch (RuntimeException e) {
+                    sharedRenderThread = null;  // 未取得使用权，释放时无需归还
+                    throw e;
+                }
+                this.renderHandler = sharedRenderThread.getHandler();
+                sharedRenderThread.runSync(() -> initRendering(outputSurface));
+            } else {
+                this.renderHandler = handler;
+                initRendering(outputSurface);
+            }
 
             isInitialized = true;
             AppLog.d(TAG, "Camera " + cameraId + " FisheyeCorrector initialized OK, textureId=" + oesTextureId);
@@ -213,6 +230,30 @@ public class FisheyeCorrector {
         }
     }
 
+    /**
+     * 初始化 EGL/GL 和中间 SurfaceTexture（在渲染线程调用）
+     */
+    private void initRendering(Surface outputSurface) {
+        initEgl(outputSurface);
+        initGl();
+
+        // 创建中间 SurfaceTexture
+        intermediateSurfaceTexture = new SurfaceTexture(oesTextureId);
+        intermediateSurfaceTexture.setDefaultBufferSize(width, height);
+        intermediateSurface = new Surface(intermediateSurfaceTexture);
+
+        // 帧到达时进行矫正渲染（共享模式下合并到 vsync，期间多出的帧直接消费）
+        if (sharedRenderThread != null) {
+            renderTarget = sharedRenderThread.register("fisheye-" + cameraId, (pendingFrames, frameTimeNanos) -> {
+                skipFrames(pendingFrames - 1);
+                drawFrame();
+            });
+            sharedRenderThread.attach(intermediateSurfaceTexture, renderTarget);
+        } else {
+            intermediateSurfaceTexture.setOnFrameAvailableListener(st -> drawFrame(), renderHandler);
+        }
+    }
+
     /**
      * 从 AppConfig 加载当前摄像头的矫正参数
      */
@@ -277,6 +318,10 @@ public class FisheyeCorrector {
     public void addOutputSurface(String tag, Surface surface) {
         if (!isInitialized || isReleased) return;
         if (surface == null || !surface.isValid()) return;
+        if (sharedRenderThread != null && !sharedRenderThread.isRenderThread()) {
+            runOnRenderThread(() -> addOutputSurface(tag, surface));
+            return;
+        }
 
         // 先移除旧的同名 Surface
         removeOutputSurface(tag);
@@ -301,6 +346,10 @@ public class FisheyeCorrector {
      * 移除一个附加输出 Surface。
      */
     public void removeOutputSurface(String tag) {
+        if (sharedRenderThread != null && !sharedRenderThread.isRenderThread()) {
+            runOnRenderThread(() -> removeOutputSurface(tag));
+            return;
+        }
         EGLSurface eglSurf = extraEglSurfaces.remove(tag);
         extraRawSurfaces.remove(tag);
         if (eglSurf != null && eglSurf != EGL14.EGL_NO_SURFACE) {
@@ -326,6 +375,21 @@ public class FisheyeCorrector {
 
     // ===== 渲染 =====
 
+    /**
+     * 消费积压的帧（共享模式下一个 vsync 只绘制最新一帧）
+     */
+    private void skipFrames(int count) {
+        if (count <= 0 || !isInitialized || isReleased || intermediateSurfaceTexture == null) return;
+        try {
+            makeCurrent();
+            for (int i = 0; i < count; i++) {
+                intermediateSurfaceTexture.updateTexImage();
+            }
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " skip frames failed: " + e.getMessage());
+        }
+    }
+
     private void drawFrame() {
         if (!isInitialized || isReleased) return;
         if (intermediateSurfaceTexture == null) return;
@@ -489,6 +553,18 @@ public class FisheyeCorrector {
 
     public void release() {
         if (isReleased) return;
+        if (sharedRenderThread != null && sharedRenderThread.getHandler() != null
+                && !sharedRenderThread.isRenderThread()) {
+            // 共享 context 只在渲染线程上可用
+            runOnRenderThread(this::release);
+            if (!isReleased) {
+                // 渲染线程无响应时仍要归还使用权
+                isReleased = true;
+                isInitialized = false;
+                releaseSharedRenderThread();
+            }
+            return;
+        }
         AppLog.d(TAG, "Camera " + cameraId + " Releasing FisheyeCorrector");
 
         isReleased = true;
@@ -523,7 +599,19 @@ public class FisheyeCorrector {
             oesTextureId = 0;
         }
 
-        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+        if (sharedRenderThread != null) {
+            // 共享 context 由 SharedRenderThread 销毁，这里只销毁自己的 window surface
+            if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+                sharedRenderThread.makeDefaultCurrent();
+                if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                    EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                    eglSurface = EGL14.EGL_NO_SURFACE;
+                }
+            }
+            eglContext = EGL14.EGL_NO_CONTEXT;
+            eglDisplay = EGL14.EGL_NO_DISPLAY;
+            releaseSharedRenderThread();
+        } else if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
             EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
             if (eglSurface != EGL14.EGL_NO_SURFACE) {
                 EGL14.eglDestroySurface(eglDisplay, eglSurface);
@@ -543,6 +631,29 @@ public class FisheyeCorrector {
 
     // ===== 工具方法 =====
 
+    /**
+     * 在共享渲染线程同步执行（出错时只记录日志）
+     */
+    private void runOnRenderThread(Runnable task) {
+        try {
+            sharedRenderThread.runSync(task);
+        } catch (RuntimeException e) {
+            AppLog.e(TAG, "Camera " + cameraId + " shared render task failed", e);
+        }
+    }
+
+    /**
+     * 注销渲染目标并归还共享渲染线程（只执行一次）
+     */
+    private void releaseSharedRenderThread() {
+        SharedRenderThread shared = sharedRenderThread;
+        if (shared == null) return;
+        sharedRenderThread = null;
+        shared.unregister(renderTarget);
+        renderTarget = null;
+        shared.release();
+    }
+
     private void makeCurrent() {
         if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
             throw new RuntimeException("eglMakeCurrent failed");
@@ -0,0 +1,111 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.storage.SegmentPreallocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 FragmentedMp4Writer 的分段封装器（分片 MP4）
+ * 每个 GOP 写出一个分片，断电或进程被杀时文件仍可播放到最后一个完整分片
+ */
+public class FragmentedMp4Muxer implements SegmentMuxer {
+    private static final String TAG = "FragmentedMp4Muxer";
+
+    private static final int WRITE_ALIGNMENT = 4096;  // 分片按 4KB 对齐写入
+    private static final int MAX_FRAGMENT_FRAMES = 30;  // 无关键帧时最多 30 帧一个分片（约1秒）
+
+    private final String path;
+    private final RandomAccessFile file;
+    private final boolean preallocated;
+    private final FragmentedMp4Writer writer;
+    private volatile long writtenBytes = 0;
+    private boolean failed = false;
+
+    /**
+     * @param reserveBytes 预分配大小，0 表示不预分配
+     */
+    public FragmentedMp4Muxer(String path, long reserveBytes) throws IOException {
+        this.path = path;
+        RandomAccessFile reserved = reserveBytes > 0 ? SegmentPreallocator.openReserved(new File(path), reserveBytes) : null;
+        this.preallocated = reserved != null;
+        if (reserved == null) {
+            reserved = new RandomAccessFile(path, "rw");
+            reserved.setLength(0);
+        }
+        this.file = reserved;
+        this.writer = new FragmentedMp4Writer(file.getChannel(), WRITE_ALIGNMENT, MAX_FRAGMENT_FRAMES);
+    }
+
+    public boolean isPreallocated() {
+        return preallocated;
+    }
+
+    @Override
+    public void start(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        boolean hevc = MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime);
+        ByteBuffer csd0 = format.containsKey("csd-0") ? format.getByteBuffer("csd-0") : null;
+        ByteBuffer csd1 = format.containsKey("csd-1") ? format.getByteBuffer("csd-1") : null;
+        try {
+            writer.start(hevc, format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT), csd0, csd1);
+        } catch (IOException e) {
+            // 与 MediaMuxer 一致：启动失败以运行时异常抛出，由调用方处理
+            throw new IllegalStateException("Failed to start fragmented MP4: " + path, e);
+        }
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) {
+        try {
+            writer.writeSample(data, offset, size, presentationTimeUs, keyFrame);
+            writtenBytes += size;
+        } catch (IOException e) {
+            failed = true;
+            throw new IllegalStateException("Failed to write fragment: " + path, e);
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return writer.isStarted();
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean close() {
+        boolean ok = !failed;
+        try {
+            writer.close();
+            AppLog.d(TAG, "Fragmented MP4 closed: " + path + ", fragments: " + writer.getFragmentCount());
+        } catch (IOException e) {
+            AppLog.e(TAG, "Error finishing fragmented MP4: " + path, e);
+            ok = false;
+        }
+        if (preallocated) {
+            // 预分配的文件截断到实际长度
+            SegmentPreallocator.finishMp4(file);
+        } else {
+            try {
+                file.close();
+            } catch (IOException e) {
+                AppLog.w(TAG, "Error closing file: " + e.getMessage());
+            }
+        }
+        return ok;
+    }
+}
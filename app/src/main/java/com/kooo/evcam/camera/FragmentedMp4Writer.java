@@ -0,0 +1,824 @@
+package com.kooo.evcam.camera;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分片 MP4（fMP4）写入器
+ * 文件头（ftyp + moov）在开始时一次写好，之后每个 GOP（或每 N 帧）写出一个 moof + mdat 分片。
+ * 与 MediaMuxer 只在 stop() 时写 moov 不同，断电后文件仍可播放到最后一个完整分片
+ *
+ * - 输入为编码器输出的 Annex-B 数据（起始码分隔），写入时转换为 4 字节长度前缀
+ * - 分片数据先在复用的缓冲区中组装，每个分片一次性写出；可选在分片后补 free box，
+ *   使每个分片从对齐边界开始（减少 U 盘上的读改写）
+ * - 写入帧时不创建对象，缓冲区按需扩容后复用
+ *
+ * 纯 Java 实现，不依赖 Android API，可以在 JVM 上用合成的 H.264/HEVC NAL 数据测试
+ */
+public class FragmentedMp4Writer {
+
+    private static final int MOVIE_TIMESCALE = 1000;     // mvhd/tkhd/mehd 时间单位（毫秒）
+    private static final int MEDIA_TIMESCALE = 90000;    // 视频轨道时间单位
+    private static final int TRACK_ID = 1;
+    private static final int DEFAULT_SAMPLE_TICKS = 3600;  // 无法推算帧间隔时的默认值（25fps）
+
+    // trun 中的 sample_flags
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;      // 不依赖其他帧
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;  // 依赖其他帧，非同步帧
+
+    // HEVC NAL 类型
+    private static final int HEVC_NAL_VPS = 32;
+    private static final int HEVC_NAL_SPS = 33;
+    private static final int HEVC_NAL_PPS = 34;
+
+    // H.264 NAL 类型
+    private static final int AVC_NAL_SPS = 7;
+    private static final int AVC_NAL_PPS = 8;
+
+    private final FileChannel channel;
+    private final int alignment;          // 分片对齐字节数，0 表示不对齐
+    private final int maxFragmentFrames;  // 单个分片最多帧数（无关键帧时也按此切分片）
+
+    // 复用缓冲区
+    private final BoxBuffer header = new BoxBuffer(4096);     // moof + mdat 头
+    private final BoxBuffer payload = new BoxBuffer(256 * 1024);  // mdat 数据
+    private byte[] scratch = new byte[64 * 1024];             // 从编码器缓冲区复制出的原始帧
+    private final ByteBuffer[] gather = new ByteBuffer[3];
+    private final ByteBuffer padding;
+
+    // 当前分片的帧信息
+    private int[] sampleSizes = new int[64];
+    private long[] sampleTicks = new long[64];
+    private boolean[] sampleKeys = new boolean[64];
+    private int sampleCount = 0;
+    private long lastSampleTicks = -1;
+    private int lastSampleDuration = DEFAULT_SAMPLE_TICKS;
+
+    // 文件头中需要在结束时回填时长的位置
+    private long mvhdDurationOffset = -1;
+    private long tkhdDurationOffset = -1;
+    private long mdhdDurationOffset = -1;
+    private long mehdDurationOffset = -1;
+
+    private boolean started = false;
+    private boolean closed = false;
+    private long position = 0;         // 文件写入位置
+    private long sampleBytes = 0;      // 已写入的帧数据量
+    private int fragmentSequence = 0;
+    private long firstSampleTicks = -1;
+
+    /**
+     * @param channel 输出文件（从当前位置开始写入）
+     * @param alignment 分片起始位置对齐字节数（如 4096），0 表示不对齐
+     * @param maxFragmentFrames 单个分片最多帧数，决定断电时最多丢失的帧数
+     */
+    public FragmentedMp4Writer(FileChannel channel, int alignment, int maxFragmentFrames) throws IOException {
+        this.channel = channel;
+        this.alignment = Math.max(0, alignment);
+        this.maxFragmentFrames = Math.max(1, maxFragmentFrames);
+        this.padding = ByteBuffer.allocate(this.alignment + 8);
+        this.position = channel.position();
+    }
+
+    /**
+     * 写入文件头（ftyp + moov）
+     * @param hevc true 为 H.265，false 为 H.264
+     * @param csd 编码器输出的配置数据（csd-0/csd-1，Annex-B 格式，包含 VPS/SPS/PPS）
+     */
+    public void start(boolean hevc, int width, int height, ByteBuffer... csd) throws IOException {
+        if (started) {
+            throw new IllegalStateException("already started");
+        }
+
+        List<byte[]> vps = new ArrayList<>();
+        List<byte[]> sps = new ArrayList<>();
+        List<byte[]> pps = new ArrayList<>();
+        for (ByteBuffer buffer : csd) {
+            if (buffer == null) {
+                continue;
+            }
+            ByteBuffer src = buffer.duplicate();
+            byte[] data = new byte[src.remaining()];
+            src.get(data);
+            for (byte[] nal : splitNalUnits(data, data.length)) {
+                int type = hevc ? (nal[0] >> 1) & 0x3F : nal[0] & 0x1F;
+                if (hevc && type == HEVC_NAL_VPS) {
+                    vps.add(nal);
+                } else if (type == (hevc ? HEVC_NAL_SPS : AVC_NAL_SPS)) {
+                    sps.add(nal);
+                } else if (type == (hevc ? HEVC_NAL_PPS : AVC_NAL_PPS)) {
+                    pps.add(nal);
+                }
+            }
+        }
+        if (sps.isEmpty() || pps.isEmpty() || (hevc && vps.isEmpty())) {
+            throw new IOException("missing parameter sets in codec config");
+        }
+
+        BoxBuffer init = new BoxBuffer(1024);
+        writeFtyp(init);
+        writeMoov(init, hevc, width, height, vps, sps, pps);
+        // 文件头之后同样补齐，使第一个分片也从对齐边界开始
+        writeFully(init.wrap(), fillPadding(position + init.size()));
+
+        started = true;
+    }
+
+    /**
+     * 写入一帧（Annex-B 格式）
+     * 遇到关键帧或帧数达到上限时，先把已缓存的帧作为一个分片写出
+     */
+    public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) throws IOException {
+        if (!started || closed) {
+            throw new IllegalStateException("writer not started");
+        }
+
+        long ticks = presentationTimeUs * MEDIA_TIMESCALE / 1000000L;
+        if (sampleCount > 0 && (keyFrame || sampleCount >= maxFragmentFrames)) {
+            flushFragment(ticks);
+        }
+
+        // 从编码器缓冲区复制出原始帧（相对位置读取，完成后恢复）
+        if (scratch.length < size) {
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+        }
+        int savedPosition = data.position();
+        int savedLimit = data.limit();
+        data.limit(offset + size);
+        data.position(offset);
+        data.get(scratch, 0, size);
+        data.limit(savedLimit);
+        data.position(savedPosition);
+
+        int start = payload.size();
+        appendLengthPrefixed(scratch, size);
+        int written = payload.size() - start;
+
+        if (sampleCount == sampleSizes.length) {
+            int capacity = sampleSizes.length * 2;
+            sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+            sampleTicks = Arrays.copyOf(sampleTicks, capacity);
+            sampleKeys = Arrays.copyOf(sampleKeys, capacity);
+        }
+        if (firstSampleTicks < 0) {
+            firstSampleTicks = ticks;
+        }
+        if (lastSampleTicks >= 0 && ticks > lastSampleTicks) {
+            lastSampleDuration = (int) (ticks - lastSampleTicks);
+        }
+        sampleSizes[sampleCount] = written;
+        sampleTicks[sampleCount] = ticks;
+        sampleKeys[sampleCount] = keyFrame;
+        sampleCount++;
+        lastSampleTicks = ticks;
+        sampleBytes += written;
+    }
+
+    /**
+     * 写出剩余帧并回填文件头中的时长
+     * 不关闭 channel，由调用方负责（预分配文件需要先截断）
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!started) {
+            return;
+        }
+        if (sampleCount > 0) {
+            flushFragment(lastSampleTicks + lastSampleDuration);
+        }
+        patchDurations();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * 已接收的帧数据量（含缓存中尚未写出的分片）
+     */
+    public long getWrittenBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * 文件当前写入位置（即有效文件长度）
+     */
+    public long getFileLength() {
+        return position;
+    }
+
+    public int getFragmentCount() {
+        return fragmentSequence;
+    }
+
+    // ==================== 分片 ====================
+
+    /**
+     * 写出当前缓存的帧：moof + mdat（+ 对齐用的 free）
+     * @param nextTicks 下一帧的时间，用于计算最后一帧的时长
+     */
+    private void flushFragment(long nextTicks) throws IOException {
+        int count = sampleCount;
+        int moofSize = 88 + 12 * count;
+
+        header.reset();
+        int moof = header.startBox("moof");
+        int mfhd = header.startFullBox("mfhd", 0, 0);
+        header.putInt(++fragmentSequence);
+        header.endBox(mfhd);
+        int traf = header.startBox("traf");
+        int tfhd = header.startFullBox("tfhd", 0, 0x020000);  // default-base-is-moof
+        header.putInt(TRACK_ID);
+        header.endBox(tfhd);
+        int tfdt = header.startFullBox("tfdt", 1, 0);
+        header.putLong(sampleTicks[0]);  // baseMediaDecodeTime
+        header.endBox(tfdt);
+        // data-offset | sample-duration | sample-size | sample-flags
+        int trun = header.startFullBox("trun", 0, 0x000701);
+        header.putInt(count);
+        header.putInt(moofSize + 8);  // 帧数据相对 moof 起始位置的偏移（跳过 mdat 头）
+        for (int i = 0; i < count; i++) {
+            long endTicks = i + 1 < count ? sampleTicks[i + 1] : nextTicks;
+            header.putInt((int) Math.max(1, endTicks - sampleTicks[i]));
+            header.putInt(sampleSizes[i]);
+            header.putInt(sampleKeys[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+        }
+        header.endBox(trun);
+        header.endBox(traf);
+        header.endBox(moof);
+
+        // mdat 头
+        header.putInt(8 + payload.size());
+        header.putType("mdat");
+
+        long fragmentEnd = position + header.size() + payload.size();
+        gather[0] = header.wrap();
+        gather[1] = payload.wrap();
+        gather[2] = fillPadding(fragmentEnd);
+        writeFully(gather);
+
+        payload.reset();
+        sampleCount = 0;
+    }
+
+    /**
+     * 生成把下一分片起点对齐到 alignment 的 free box（不需要时返回空缓冲区）
+     */
+    private ByteBuffer fillPadding(long end) {
+        padding.clear();
+        if (alignment > 0) {
+            int remainder = (int) (end % alignment);
+            if (remainder != 0) {
+                int pad = alignment - remainder;
+                if (pad < 8) {
+                    pad += alignment;  // free box 至少 8 字节
+                }
+                padding.putInt(pad);
+                padding.put((byte) 'f').put((byte) 'r').put((byte) 'e').put((byte) 'e');
+                while (padding.position() < pad) {
+                    padding.put((byte) 0);
+                }
+            }
+        }
+        padding.flip();
+        return padding;
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            remaining -= written;
+            position += written;
+        }
+    }
+
+    /**
+     * 将 Annex-B 数据转换为 4 字节长度前缀格式追加到 payload
+     * 没有起始码时视为单个 NAL
+     */
+    private void appendLengthPrefixed(byte[] data, int length) {
+        int startCode = findStartCode(data, 0, length);
+        if (startCode < 0) {
+            payload.putInt(length);
+            payload.putBytes(data, 0, length);
+            return;
+        }
+        int nalStart = startCode + 3;
+        while (true) {
+            int next = findStartCode(data, nalStart, length);
+            int nalEnd = next < 0 ? length : next;
+            // 去掉属于下一个 4 字节起始码或 trailing_zero 的 0 字节
+            while (nalEnd > nalStart && data[nalEnd - 1] == 0) {
+                nalEnd--;
+            }
+            if (nalEnd > nalStart) {
+                payload.putInt(nalEnd - nalStart);
+                payload.putBytes(data, nalStart, nalEnd - nalStart);
+            }
+            if (next < 0) {
+                break;
+            }
+            nalStart = next + 3;
+        }
+    }
+
+    private static int findStartCode(byte[] data, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (data[i + 2] > 1) {
+                i += 2;  // data[i+2] 不可能是起始码的任何一个字节
+            } else if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按起始码拆分 NAL 单元（只用于配置数据）
+     */
+    static List<byte[]> splitNalUnits(byte[] data, int length) {
+        List<byte[]> nals = new ArrayList<>();
+        int startCode = findStartCode(data, 0, length);
+        if (startCode < 0) {
+            if (length > 0) {
+                nals.add(Arrays.copyOf(data, length));
+            }
+            return nals;
+        }
+        int nalStart = startCode + 3;
+        while (true) {
+            int next = findStartCode(data, nalStart, length);
+            int nalEnd = next < 0 ? length : next;
+            while (nalEnd > nalStart && data[nalEnd - 1] == 0) {
+                nalEnd--;
+            }
+            if (nalEnd > nalStart) {
+                nals.add(Arrays.copyOfRange(data, nalStart, nalEnd));
+            }
+            if (next < 0) {
+                break;
+            }
+            nalStart = next + 3;
+        }
+        return nals;
+    }
+
+    // ==================== 文件头 ====================
+
+    private void writeFtyp(BoxBuffer out) {
+        int ftyp = out.startBox("ftyp");
+        out.putType("isom");
+        out.putInt(0x200);
+        out.putType("isom");
+        out.putType("iso6");
+        out.putType("mp41");
+        out.endBox(ftyp);
+    }
+
+    private void writeMoov(BoxBuffer out, boolean hevc, int width, int height,
+                           List<byte[]> vps, List<byte[]> sps, List<byte[]> pps) {
+        long base = position;
+        int moov = out.startBox("moov");
+
+        int mvhd = out.startFullBox("mvhd", 0, 0);
+        out.putInt(0);  // creation_time
+        out.putInt(0);  // modification_time
+        out.putInt(MOVIE_TIMESCALE);
+        mvhdDurationOffset = base + out.size();
+        out.putInt(0);  // duration（结束时回填）
+        out.putInt(0x00010000);  // rate 1.0
+        out.putShort(0x0100);    // volume 1.0
+        out.putZeros(10);
+        putMatrix(out);
+        out.putZeros(24);  // pre_defined
+        out.putInt(TRACK_ID + 1);  // next_track_ID
+        out.endBox(mvhd);
+
+        int mvex = out.startBox("mvex");
+        int mehd = out.startFullBox("mehd", 0, 0);
+        mehdDurationOffset = base + out.size();
+        out.putInt(0);  // fragment_duration（结束时回填）
+        out.endBox(mehd);
+        int trex = out.startFullBox("trex", 0, 0);
+        out.putInt(TRACK_ID);
+        out.putInt(1);  // default_sample_description_index
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.endBox(trex);
+        out.endBox(mvex);
+
+        int trak = out.startBox("trak");
+        int tkhd = out.startFullBox("tkhd", 0, 0x000003);  // enabled | in_movie
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TRACK_ID);
+        out.putInt(0);
+        tkhdDurationOffset = base + out.size();
+        out.putInt(0);  // duration（结束时回填）
+        out.putZeros(8);
+        out.putShort(0);  // layer
+        out.putShort(0);  // alternate_group
+        out.putShort(0);  // volume
+        out.putShort(0);
+        putMatrix(out);
+        out.putInt(width << 16);
+        out.putInt(height << 16);
+        out.endBox(tkhd);
+
+        int mdia = out.startBox("mdia");
+        int mdhd = out.startFullBox("mdhd", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(MEDIA_TIMESCALE);
+        mdhdDurationOffset = base + out.size();
+        out.putInt(0);  // duration（结束时回填）
+        out.putShort(0x55C4);  // language "und"
+        out.putShort(0);
+        out.endBox(mdhd);
+
+        int hdlr = out.startFullBox("hdlr", 0, 0);
+        out.putInt(0);
+        out.putType("vide");
+        out.putZeros(12);
+        byte[] name = "VideoHandler".getBytes(StandardCharsets.US_ASCII);
+        out.putBytes(name, 0, name.length);
+        out.putByte(0);
+        out.endBox(hdlr);
+
+        int minf = out.startBox("minf");
+        int vmhd = out.startFullBox("vmhd", 0, 1);
+        out.putZeros(8);  // graphicsmode + opcolor
+        out.endBox(vmhd);
+        int dinf = out.startBox("dinf");
+        int dref = out.startFullBox("dref", 0, 0);
+        out.putInt(1);
+        int url = out.startFullBox("url ", 0, 1);  // 数据在本文件中
+        out.endBox(url);
+        out.endBox(dref);
+        out.endBox(dinf);
+
+        int stbl = out.startBox("stbl");
+        int stsd = out.startFullBox("stsd", 0, 0);
+        out.putInt(1);
+        int entry = out.startBox(hevc ? "hvc1" : "avc1");
+        out.putZeros(6);
+        out.putShort(1);  // data_reference_index
+        out.putZeros(16);
+        out.putShort(width);
+        out.putShort(height);
+        out.putInt(0x00480000);  // 72 dpi
+        out.putInt(0x00480000);
+        out.putInt(0);
+        out.putShort(1);  // frame_count
+        out.putZeros(32);  // compressorname
+        out.putShort(0x0018);  // depth
+        out.putShort(0xFFFF);  // pre_defined = -1
+        if (hevc) {
+            writeHvcC(out, vps, sps, pps);
+        } else {
+            writeAvcC(out, sps, pps);
+        }
+        out.endBox(entry);
+        out.endBox(stsd);
+        // 样本表为空，帧信息都在分片中
+        int stts = out.startFullBox("stts", 0, 0);
+        out.putInt(0);
+        out.endBox(stts);
+        int stsc = out.startFullBox("stsc", 0, 0);
+        out.putInt(0);
+        out.endBox(stsc);
+        int stsz = out.startFullBox("stsz", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.endBox(stsz);
+        int stco = out.startFullBox("stco", 0, 0);
+        out.putInt(0);
+        out.endBox(stco);
+        out.endBox(stbl);
+
+        out.endBox(minf);
+        out.endBox(mdia);
+        out.endBox(trak);
+        out.endBox(moov);
+    }
+
+    private static void putMatrix(BoxBuffer out) {
+        out.putInt(0x00010000);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0x00010000);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0x40000000);
+    }
+
+    private static void writeAvcC(BoxBuffer out, List<byte[]> sps, List<byte[]> pps) {
+        byte[] first = sps.get(0);
+        int avcC = out.startBox("avcC");
+        out.putByte(1);  // configurationVersion
+        out.putByte(first.length > 1 ? first[1] : 0);  // profile_idc
+        out.putByte(first.length > 2 ? first[2] : 0);  // constraint flags
+        out.putByte(first.length > 3 ? first[3] : 0);  // level_idc
+        out.putByte(0xFF);  // lengthSizeMinusOne = 3
+        out.putByte(0xE0 | sps.size());
+        for (byte[] nal : sps) {
+            out.putShort(nal.length);
+            out.putBytes(nal, 0, nal.length);
+        }
+        out.putByte(pps.size());
+        for (byte[] nal : pps) {
+            out.putShort(nal.length);
+            out.putBytes(nal, 0, nal.length);
+        }
+        int profile = first.length > 1 ? first[1] & 0xFF : 0;
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 144) {
+            // High 系列 profile 需要附加色度格式和位深
+            BitReader reader = new BitReader(unescape(first));
+            reader.skip(32);  // NAL 头 + profile/constraint/level
+            reader.readUe();  // seq_parameter_set_id
+            int chromaFormat = reader.readUe();
+            if (chromaFormat == 3) {
+                reader.skip(1);
+            }
+            int bitDepthLuma = reader.readUe();
+            int bitDepthChroma = reader.readUe();
+            out.putByte(0xFC | (chromaFormat & 0x03));
+            out.putByte(0xF8 | (bitDepthLuma & 0x07));
+            out.putByte(0xF8 | (bitDepthChroma & 0x07));
+            out.putByte(0);  // numOfSequenceParameterSetExt
+        }
+        out.endBox(avcC);
+    }
+
+    private static void writeHvcC(BoxBuffer out, List<byte[]> vps, List<byte[]> sps, List<byte[]> pps) {
+        byte[] rbsp = unescape(sps.get(0));
+        BitReader reader = new BitReader(rbsp);
+        reader.skip(16);  // NAL 头
+        reader.skip(4);   // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = reader.readBits(3);
+        int temporalIdNested = reader.readBits(1);
+        int ptlStart = reader.position() / 8;  // general_profile_tier_level 为字节对齐的 12 字节
+        reader.skip(96);
+        boolean[] subLayerProfile = new boolean[maxSubLayersMinus1];
+        boolean[] subLayerLevel = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            subLayerProfile[i] = reader.readBits(1) == 1;
+            subLayerLevel[i] = reader.readBits(1) == 1;
+        }
+        if (maxSubLayersMinus1 > 0) {
+            reader.skip(2 * (8 - maxSubLayersMinus1));
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (subLayerProfile[i]) {
+                reader.skip(88);
+            }
+            if (subLayerLevel[i]) {
+                reader.skip(8);
+            }
+        }
+        reader.readUe();  // sps_seq_parameter_set_id
+        int chromaFormat = reader.readUe();
+        if (chromaFormat == 3) {
+            reader.skip(1);
+        }
+        reader.readUe();  // pic_width_in_luma_samples
+        reader.readUe();  // pic_height_in_luma_samples
+        if (reader.readBits(1) == 1) {  // conformance_window_flag
+            reader.readUe();
+            reader.readUe();
+            reader.readUe();
+            reader.readUe();
+        }
+        int bitDepthLuma = reader.readUe();
+        int bitDepthChroma = reader.readUe();
+
+        int hvcC = out.startBox("hvcC");
+        out.putByte(1);  // configurationVersion
+        for (int i = 0; i < 12; i++) {
+            // profile_space/tier/profile_idc、兼容标志、约束标志、level_idc
+            out.putByte(ptlStart + i < rbsp.length ? rbsp[ptlStart + i] : 0);
+        }
+        out.putShort(0xF000);  // min_spatial_segmentation_idc = 0
+        out.putByte(0xFC);     // parallelismType = 0
+        out.putByte(0xFC | (chromaFormat & 0x03));
+        out.putByte(0xF8 | (bitDepthLuma & 0x07));
+        out.putByte(0xF8 | (bitDepthChroma & 0x07));
+        out.putShort(0);  // avgFrameRate
+        // constantFrameRate = 0, numTemporalLayers, temporalIdNested, lengthSizeMinusOne = 3
+        out.putByte(((maxSubLayersMinus1 + 1) << 3) | (temporalIdNested << 2) | 0x03);
+        out.putByte(3);  // numOfArrays
+        writeNalArray(out, HEVC_NAL_VPS, vps);
+        writeNalArray(out, HEVC_NAL_SPS, sps);
+        writeNalArray(out, HEVC_NAL_PPS, pps);
+        out.endBox(hvcC);
+    }
+
+    private static void writeNalArray(BoxBuffer out, int type, List<byte[]> nals) {
+        out.putByte(0x80 | type);  // array_completeness = 1
+        out.putShort(nals.size());
+        for (byte[] nal : nals) {
+            out.putShort(nal.length);
+            out.putBytes(nal, 0, nal.length);
+        }
+    }
+
+    /**
+     * 结束时回填文件头中的时长（断电时保持 0，不影响按分片播放）
+     */
+    private void patchDurations() throws IOException {
+        if (firstSampleTicks < 0) {
+            return;
+        }
+        long mediaTicks = lastSampleTicks + lastSampleDuration - firstSampleTicks;
+        long movieDuration = mediaTicks * MOVIE_TIMESCALE / MEDIA_TIMESCALE;
+        ByteBuffer value = ByteBuffer.allocate(4);
+        patchInt(value, mvhdDurationOffset, movieDuration);
+        patchInt(value, tkhdDurationOffset, movieDuration);
+        patchInt(value, mehdDurationOffset, movieDuration);
+        patchInt(value, mdhdDurationOffset, mediaTicks);
+    }
+
+    private void patchInt(ByteBuffer value, long offset, long number) throws IOException {
+        value.clear();
+        value.putInt((int) Math.min(number, 0xFFFFFFFFL));
+        value.flip();
+        while (value.hasRemaining()) {
+            channel.write(value, offset + value.position());
+        }
+    }
+
+    /**
+     * 去除防竞争字节（00 00 03 中的 03），用于解析 SPS
+     */
+    private static byte[] unescape(byte[] nal) {
+        byte[] out = new byte[nal.length];
+        int length = 0;
+        int zeros = 0;
+        for (byte b : nal) {
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            out[length++] = b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * SPS 比特读取（越界时返回 0）
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private int bit = 0;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        int position() {
+            return bit;
+        }
+
+        void skip(int bits) {
+            bit += bits;
+        }
+
+        int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int index = bit >> 3;
+                int b = index < data.length ? (data[index] >> (7 - (bit & 7))) & 1 : 0;
+                value = (value << 1) | b;
+                bit++;
+            }
+            return value;
+        }
+
+        int readUe() {
+            int leadingZeros = 0;
+            while (readBits(1) == 0 && leadingZeros < 31) {
+                leadingZeros++;
+            }
+            return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+        }
+    }
+
+    /**
+     * 可复用的 box 组装缓冲区（大端序）
+     */
+    private static final class BoxBuffer {
+        private byte[] data;
+        private int size = 0;
+        private ByteBuffer wrapped;
+
+        BoxBuffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * 返回覆盖 [0, size) 的缓冲区（扩容前复用同一个包装对象）
+         */
+        ByteBuffer wrap() {
+            if (wrapped == null || wrapped.array() != data) {
+                wrapped = ByteBuffer.wrap(data);
+            }
+            wrapped.clear();
+            wrapped.limit(size);
+            return wrapped;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + extra, data.length * 2));
+            }
+        }
+
+        int startBox(String type) {
+            int start = size;
+            putInt(0);
+            putType(type);
+            return start;
+        }
+
+        int startFullBox(String type, int version, int flags) {
+            int start = startBox(type);
+            putInt((version << 24) | (flags & 0xFFFFFF));
+            return start;
+        }
+
+        void endBox(int start) {
+            int length = size - start;
+            data[start] = (byte) (length >>> 24);
+            data[start + 1] = (byte) (length >>> 16);
+            data[start + 2] = (byte) (length >>> 8);
+            data[start + 3] = (byte) length;
+        }
+
+        void putType(String type) {
+            ensure(4);
+            for (int i = 0; i < 4; i++) {
+                data[size++] = (byte) type.charAt(i);
+            }
+        }
+
+        void putByte(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        void putShort(int value) {
+            ensure(2);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            data[size++] = (byte) (value >>> 24);
+            data[size++] = (byte) (value >>> 16);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putZeros(int count) {
+            ensure(count);
+            Arrays.fill(data, size, size + count, (byte) 0);
+            size += count;
+        }
+
+        void putBytes(byte[] src, int offset, int length) {
+            ensure(length);
+            System.arraycopy(src, offset, data, size, length);
+            size += length;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.storage.SegmentPreallocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 MediaMuxer 的分段封装器（MP4）
+ * 可选预分配：自行打开文件并预留空间，通过文件描述符交给 muxer（按路径创建会清空文件），
+ * 结束时截断到实际长度
+ */
+public class MediaSegmentMuxer implements SegmentMuxer {
+    private static final String TAG = "MediaSegmentMuxer";
+
+    private final String path;
+    private final MediaMuxer muxer;
+    private final RandomAccessFile reservedFile;  // 预分配时由本类打开的输出文件
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private int trackIndex = -1;
+    private boolean started = false;
+    private volatile long writtenBytes = 0;
+
+    /**
+     * @param reserveBytes 预分配大小，0 表示不预分配
+     */
+    public MediaSegmentMuxer(String path, long reserveBytes) throws IOException {
+        this.path = path;
+        RandomAccessFile file = reserveBytes > 0 ? SegmentPreallocator.openReserved(new File(path), reserveBytes) : null;
+        try {
+            if (file != null) {
+                muxer = new MediaMuxer(file.getFD(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            } else {
+                muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            }
+        } catch (IOException e) {
+            SegmentPreallocator.finishMp4(file);
+            throw e;
+        }
+        this.reservedFile = file;
+    }
+
+    public boolean isPreallocated() {
+        return reservedFile != null;
+    }
+
+    @Override
+    public void start(MediaFormat format) {
+        trackIndex = muxer.addTrack(format);
+        muxer.start();
+        started = true;
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) {
+        data.position(offset);
+        data.limit(offset + size);
+        bufferInfo.set(offset, size, presentationTimeUs, keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        muxer.writeSampleData(trackIndex, data, bufferInfo);
+        writtenBytes += size;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean close() {
+        boolean ok = true;
+        try {
+            if (started) {
+                muxer.stop();
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Error stopping muxer: " + path, e);
+            ok = false;
+        }
+        started = false;
+        try {
+            muxer.release();
+        } catch (Exception e) {
+            AppLog.w(TAG, "Error releasing muxer: " + e.getMessage());
+        }
+        // 预分配的文件截断到实际长度（必须在 muxer 停止后）
+        SegmentPreallocator.finishMp4(reservedFile);
+        return ok;
+    }
+}
@@ -0,0 +1,268 @@
+package com.kooo.evcam.camera;
+
+import android.content.Context;
+
+import com.kooo.evcam.AppLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 拼接录制布局
+ * 多路摄像头合成到同一画面（网格）录制时，记录各路所在的区域
+ *
+ * - 录制：每个分段创建时写一份布局旁路文件（JSON），回放时按布局从同一路解码画面中裁出各路
+ * - 旁路文件保存在内部存储（files/mosaic_layouts，以视频文件名命名），
+ *   视频在中转目录、分片目录之间移动时文件名不变，无需跟随移动
+ * - 找不到旁路文件时按默认顺序（前/后/左/右）的 2×2 网格解析
+ */
+public class MosaicLayout {
+    private static final String TAG = "MosaicLayout";
+
+    /** 拼接录制文件的位置名（文件名 yyyyMMdd_HHmmss_mosaic.mp4） */
+    public static final String POSITION_MOSAIC = "mosaic";
+
+    /** 网格中各路的默认顺序（与回放四宫格一致：左上前、右上后、左下左、右下右） */
+    public static final List<String> DEFAULT_ORDER = Collections.unmodifiableList(
+            Arrays.asList("front", "back", "left", "right"));
+
+    public static final int MAX_TILES = 4;
+
+    private static final String SIDECAR_DIR = "mosaic_layouts";
+    private static final String SIDECAR_SUFFIX = ".json";
+    private static final long SIDECAR_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;  // 旁路文件最长保留 30 天
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * 单路区域（像素，原点在画面左上角）
+     */
+    public static final class Tile {
+        public final String position;
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        Tile(String position, int x, int y, int width, int height) {
+            this.position = position;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final List<Tile> tiles;
+
+    private MosaicLayout(int width, int height, List<Tile> tiles) {
+        this.width = width;
+        this.height = height;
+        this.tiles = Collections.unmodifiableList(tiles);
+    }
+
+    /**
+     * 按网格排列各路（1 路整幅，2 路左右，3-4 路 2×2），按默认顺序排序
+     * @param positions 参与拼接的摄像头位置（最多 4 路）
+     * @param width 合成画面宽度
+     * @param height 合成画面高度
+     */
+    public static MosaicLayout grid(List<String> positions, int width, int height) {
+        List<String> ordered = new ArrayList<>();
+        for (String position : DEFAULT_ORDER) {
+            if (positions.contains(position)) {
+                ordered.add(position);
+            }
+        }
+        for (String position : positions) {
+            if (!ordered.contains(position)) {
+                ordered.add(position);
+            }
+        }
+        if (ordered.size() > MAX_TILES) {
+            ordered = ordered.subList(0, MAX_TILES);
+        }
+
+        int columns = ordered.size() > 1 ? 2 : 1;
+        int rows = (ordered.size() + columns - 1) / columns;
+        int tileWidth = (width / columns) & ~1;  // 保持偶数
+        int tileHeight = (height / Math.max(rows, 1)) & ~1;
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            tiles.add(new Tile(ordered.get(i), (i % columns) * tileWidth, (i / columns) * tileHeight,
+                    tileWidth, tileHeight));
+        }
+        return new MosaicLayout(width, height, tiles);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<Tile> getTiles() {
+        return tiles;
+    }
+
+    public Tile getTile(String position) {
+        for (Tile tile : tiles) {
+            if (tile.position.equals(position)) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasTile(String position) {
+        return getTile(position) != null;
+    }
+
+    /**
+     * 获取某一路的归一化区域 [x, y, width, height]（0-1，原点在左上角）
+     * @return 不在布局中时返回 null
+     */
+    public float[] getNormalizedRect(String position) {
+        Tile tile = getTile(position);
+        if (tile == null) {
+            return null;
+        }
+        return new float[]{(float) tile.x / width, (float) tile.y / height,
+                (float) tile.width / width, (float) tile.height / height};
+    }
+
+    /**
+     * 查找归一化坐标（0-1，原点在左上角）所在的一路
+     * @return 位置，不在任何一路区域内时返回 null
+     */
+    public String findPosition(float normalizedX, float normalizedY) {
+        float x = normalizedX * width;
+        float y = normalizedY * height;
+        for (Tile tile : tiles) {
+            if (x >= tile.x && x < tile.x + tile.width && y >= tile.y && y < tile.y + tile.height) {
+                return tile.position;
+            }
+        }
+        return null;
+    }
+
+    // ==================== 旁路文件 ====================
+
+    public static File getSidecarDir(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), SIDECAR_DIR);
+    }
+
+    /**
+     * 判断是否为拼接录制文件
+     */
+    public static boolean isMosaicFile(String fileName) {
+        return fileName.endsWith("_" + POSITION_MOSAIC + ".mp4");
+    }
+
+    /**
+     * 为视频文件写布局旁路文件
+     * @param videoName 视频文件名（不含目录）
+     */
+    public void writeSidecar(File sidecarDir, String videoName) {
+        if (!sidecarDir.exists() && !sidecarDir.mkdirs()) {
+            AppLog.w(TAG, "无法创建布局目录: " + sidecarDir.getAbsolutePath());
+            return;
+        }
+        File file = new File(sidecarDir, videoName + SIDECAR_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            AppLog.w(TAG, "写入布局文件失败: " + file.getName() + ", " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取视频文件的布局（找不到旁路文件时使用默认 2×2 布局）
+     */
+    public static MosaicLayout load(Context context, File videoFile) {
+        File file = new File(getSidecarDir(context), videoFile.getName() + SIDECAR_SUFFIX);
+        if (file.exists()) {
+            try (FileInputStream input = new FileInputStream(file)) {
+                byte[] data = new byte[(int) file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int n = input.read(data, read, data.length - read);
+                    if (n < 0) {
+                        break;
+                    }
+                    read += n;
+                }
+                return fromJson(new String(data, 0, read, StandardCharsets.UTF_8));
+            } catch (IOException | JSONException e) {
+                AppLog.w(TAG, "读取布局文件失败: " + file.getName() + ", " + e.getMessage());
+            }
+        }
+        return grid(DEFAULT_ORDER, 1920, 1080);
+    }
+
+    /**
+     * 删除过期的旁路文件（对应的视频通常已被循环覆盖清理）
+     */
+    public static void pruneSidecars(File sidecarDir) {
+        File[] files = sidecarDir.listFiles((dir, name) -> name.endsWith(SIDECAR_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - SIDECAR_MAX_AGE_MS;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < expireBefore && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            AppLog.d(TAG, "已删除过期布局文件: " + deleted);
+        }
+    }
+
+    String toJson() throws JSONException {
+        JSONObject root = new JSONObject();
+        root.put("version", FORMAT_VERSION);
+        root.put("width", width);
+        root.put("height", height);
+        JSONArray array = new JSONArray();
+        for (Tile tile : tiles) {
+            JSONObject item = new JSONObject();
+            item.put("position", tile.position);
+            item.put("x", tile.x);
+            item.put("y", tile.y);
+            item.put("width", tile.width);
+            item.put("height", tile.height);
+            array.put(item);
+        }
+        root.put("tiles", array);
+        return root.toString();
+    }
+
+    static MosaicLayout fromJson(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        JSONArray array = root.getJSONArray("tiles");
+        List<Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            tiles.add(new Tile(item.getString("position"), item.getInt("x"), item.getInt("y"),
+                    item.getInt("width"), item.getInt("height")));
+        }
+        return new MosaicLayout(root.getInt("width"), root.getInt("height"), tiles);
+    }
+}
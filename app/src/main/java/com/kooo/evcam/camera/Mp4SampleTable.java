@@ -0,0 +1,782 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MP4 视频轨道样本表（只读解析）
+ * 按 box 头逐级跳转，只读取视频轨道需要的表，帧数据本身不读入内存：
+ * - 普通 MP4（MediaMuxer）：stsd / stts / ctts / stss / stsz / stsc / stco(co64)
+ * - 分片 MP4（FragmentedMp4Writer）：trex 默认值 + 每个 moof 的 tfhd / tfdt / trun
+ *
+ * 分片 MP4 正在写入时也能解析到最后一个完整分片（预分配的全零尾部视为文件结束）；
+ * 普通 MP4 在 moov 写入之前（分段尚未结束）没有样本表，返回 null
+ */
+public class Mp4SampleTable {
+
+    private static final int MAX_TABLE_BOX_BYTES = 32 * 1024 * 1024;  // 单个表的大小上限，防止损坏文件耗尽内存
+
+    // tfhd / trun 标志位
+    private static final int TFHD_BASE_DATA_OFFSET = 0x000001;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x000002;
+    private static final int TFHD_DEFAULT_DURATION = 0x000008;
+    private static final int TFHD_DEFAULT_SIZE = 0x000010;
+    private static final int TFHD_DEFAULT_FLAGS = 0x000020;
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x000004;
+    private static final int TRUN_DURATION = 0x000100;
+    private static final int TRUN_SIZE = 0x000200;
+    private static final int TRUN_FLAGS = 0x000400;
+    private static final int TRUN_COMPOSITION_OFFSET = 0x000800;
+    private static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+
+    // 轨道信息
+    private int trackId = 0;
+    private String mime;
+    private int width;
+    private int height;
+    private int nalLengthSize = 4;
+    private final List<byte[]> parameterSets = new ArrayList<>();  // VPS/SPS/PPS（不含起始码）
+    private long timescale = 0;
+    private final Map<Integer, int[]> trexDefaults = new HashMap<>();  // trackId -> {duration, size, flags}
+
+    // 样本（解码顺序）
+    private int sampleCount = 0;
+    private long[] sampleOffsets = new long[0];
+    private int[] sampleSizes = new int[0];
+    private long[] decodeTimes = new long[0];
+    private int[] compositionOffsets = new int[0];
+    private boolean[] syncSamples = new boolean[0];
+    private long lastSampleDuration = 0;
+    private long nextFragmentDecodeTime = 0;
+
+    private byte[] scratch;  // 非 4 字节长度前缀时的转换缓冲
+
+    /**
+     * box 位置
+     */
+    private static final class Box {
+        final String type;
+        final long start;
+        final long payload;
+        final long end;
+
+        Box(String type, long start, long payload, long end) {
+            this.type = type;
+            this.start = start;
+            this.payload = payload;
+            this.end = end;
+        }
+    }
+
+    private Mp4SampleTable() {
+    }
+
+    /**
+     * 解析文件
+     * @return 样本表；没有视频轨道或还没有可用的样本表时返回 null
+     */
+    public static Mp4SampleTable parse(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long fileLength = channel.size();
+            Mp4SampleTable table = new Mp4SampleTable();
+            long position = 0;
+            while (position + 8 <= fileLength) {
+                Box box = readBox(channel, position, fileLength);
+                if (box == null) {
+                    break;  // 全零尾部（预分配）或损坏
+                }
+                if ("moov".equals(box.type)) {
+                    if (box.end > fileLength) {
+                        break;
+                    }
+                    table.parseMoov(channel, box);
+                } else if ("moof".equals(box.type)) {
+                    if (box.end > fileLength || table.trackId == 0) {
+                        break;  // 分片头未写完
+                    }
+                    table.parseMoof(channel, box);
+                }
+                position = box.end;
+            }
+            table.dropIncompleteSamples(fileLength);
+            if (table.trackId == 0 || table.mime == null || table.sampleCount == 0) {
+                return null;
+            }
+            return table;
+        }
+    }
+
+    // ==================== 查询 ====================
+
+    public String getMime() {
+        return mime;
+    }
+
+    public boolean isHevc() {
+        return MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getSampleSize(int index) {
+        return sampleSizes[index];
+    }
+
+    public boolean isSyncSample(int index) {
+        return syncSamples[index];
+    }
+
+    /**
+     * 样本显示时间（微秒，相对文件起点）
+     */
+    public long getSampleTimeUs(int index) {
+        return toUs(decodeTimes[index] + compositionOffsets[index]);
+    }
+
+    /**
+     * 样本时长（微秒）
+     */
+    public long getSampleDurationUs(int index) {
+        long ticks = index + 1 < sampleCount ? decodeTimes[index + 1] - decodeTimes[index] : lastSampleDuration;
+        return toUs(ticks);
+    }
+
+    /**
+     * 轨道总时长（微秒）
+     */
+    public long getDurationUs() {
+        if (sampleCount == 0) {
+            return 0;
+        }
+        return toUs(decodeTimes[sampleCount - 1] + lastSampleDuration - decodeTimes[0]);
+    }
+
+    /**
+     * 显示时间不晚于 timeUs 的最后一个关键帧
+     * @return 样本序号；timeUs 早于第一个关键帧时返回第一个关键帧，没有关键帧时返回 -1
+     */
+    public int findSyncSampleAtOrBefore(long timeUs) {
+        int found = -1;
+        for (int i = 0; i < sampleCount; i++) {
+            if (!syncSamples[i]) {
+                continue;
+            }
+            if (found >= 0 && getSampleTimeUs(i) > timeUs) {
+                break;
+            }
+            found = i;
+        }
+        return found;
+    }
+
+    /**
+     * 生成封装器使用的格式（csd 为 Annex-B 格式，与编码器输出一致）
+     */
+    public MediaFormat toMediaFormat() {
+        MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+        if (isHevc()) {
+            format.setByteBuffer("csd-0", annexB(parameterSets));
+        } else {
+            List<byte[]> sps = new ArrayList<>();
+            List<byte[]> pps = new ArrayList<>();
+            for (byte[] nal : parameterSets) {
+                if ((nal[0] & 0x1F) == 7) {
+                    sps.add(nal);
+                } else {
+                    pps.add(nal);
+                }
+            }
+            format.setByteBuffer("csd-0", annexB(sps));
+            format.setByteBuffer("csd-1", annexB(pps));
+        }
+        return format;
+    }
+
+    /**
+     * 是否可以与另一个文件的帧接在同一个输出中（编码格式、分辨率、参数集相同）
+     */
+    public boolean hasSameFormat(Mp4SampleTable other) {
+        if (!mime.equals(other.mime) || width != other.width || height != other.height
+                || parameterSets.size() != other.parameterSets.size()) {
+            return false;
+        }
+        for (int i = 0; i < parameterSets.size(); i++) {
+            if (!Arrays.equals(parameterSets.get(i), other.parameterSets.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取一帧并转换为 Annex-B 格式（与编码器输出一致）
+     * @param dst 目标缓冲区，从位置 0 写入，容量不足时抛出 IllegalArgumentException
+     * @return 转换后的字节数
+     */
+    public int readSample(FileChannel channel, int index, ByteBuffer dst) throws IOException {
+        int size = sampleSizes[index];
+        long offset = sampleOffsets[index];
+        if (nalLengthSize == 4) {
+            // 4 字节长度前缀原地替换为起始码，长度不变
+            if (dst.capacity() < size) {
+                throw new IllegalArgumentException("buffer too small: " + dst.capacity() + " < " + size);
+            }
+            dst.clear();
+            dst.limit(size);
+            readFully(channel, dst, offset);
+            int pos = 0;
+            while (pos + 4 <= size) {
+                int nalSize = dst.getInt(pos);
+                dst.putInt(pos, 1);
+                if (nalSize <= 0) {
+                    break;
+                }
+                pos += 4 + nalSize;
+            }
+            return size;
+        }
+
+        // 1/2 字节长度前缀：长度会变化，先读到临时缓冲
+        if (scratch == null || scratch.length < size) {
+            scratch = new byte[size];
+        }
+        ByteBuffer raw = ByteBuffer.wrap(scratch, 0, size);
+        readFully(channel, raw, offset);
+        dst.clear();
+        int pos = 0;
+        while (pos + nalLengthSize <= size) {
+            int nalSize = 0;
+            for (int i = 0; i < nalLengthSize; i++) {
+                nalSize = (nalSize << 8) | (scratch[pos + i] & 0xFF);
+            }
+            pos += nalLengthSize;
+            nalSize = Math.min(nalSize, size - pos);
+            if (dst.remaining() < 4 + nalSize) {
+                throw new IllegalArgumentException("buffer too small for sample " + index);
+            }
+            dst.putInt(1);
+            dst.put(scratch, pos, nalSize);
+            pos += nalSize;
+        }
+        int written = dst.position();
+        dst.flip();
+        return written;
+    }
+
+    /**
+     * readSample 需要的最大缓冲区大小
+     */
+    public int getMaxReadSize() {
+        int max = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            max = Math.max(max, sampleSizes[i]);
+        }
+        // 短长度前缀转换为 4 字节起始码后会变长
+        return nalLengthSize == 4 ? max : max * 2 + 16;
+    }
+
+    // ==================== moov ====================
+
+    private void parseMoov(FileChannel channel, Box moov) throws IOException {
+        for (Box child : children(channel, moov)) {
+            if ("trak".equals(child.type) && trackId == 0) {
+                parseTrak(channel, child);
+            } else if ("mvex".equals(child.type)) {
+                for (Box trex : children(channel, child)) {
+                    if ("trex".equals(trex.type)) {
+                        ByteBuffer data = readPayload(channel, trex);
+                        int id = data.getInt(4);
+                        trexDefaults.put(id, new int[]{data.getInt(12), data.getInt(16), data.getInt(20)});
+                    }
+                }
+            }
+        }
+    }
+
+    private void parseTrak(FileChannel channel, Box trak) throws IOException {
+        int id = 0;
+        Box mdia = null;
+        for (Box child : children(channel, trak)) {
+            if ("tkhd".equals(child.type)) {
+                ByteBuffer data = readPayload(channel, child);
+                id = data.getInt(data.get(0) == 1 ? 20 : 12);
+            } else if ("mdia".equals(child.type)) {
+                mdia = child;
+            }
+        }
+        if (mdia == null) {
+            return;
+        }
+
+        Box mdhd = null;
+        Box minf = null;
+        boolean video = false;
+        for (Box child : children(channel, mdia)) {
+            if ("mdhd".equals(child.type)) {
+                mdhd = child;
+            } else if ("hdlr".equals(child.type)) {
+                ByteBuffer data = readPayload(channel, child);
+                video = data.getInt(8) == fourCc("vide");
+            } else if ("minf".equals(child.type)) {
+                minf = child;
+            }
+        }
+        if (!video || mdhd == null || minf == null) {
+            return;
+        }
+
+        ByteBuffer mdhdData = readPayload(channel, mdhd);
+        timescale = mdhdData.getInt(mdhdData.get(0) == 1 ? 20 : 12) & 0xFFFFFFFFL;
+        if (timescale == 0) {
+            return;
+        }
+        for (Box child : children(channel, minf)) {
+            if ("stbl".equals(child.type)) {
+                parseStbl(channel, child);
+            }
+        }
+        if (mime != null) {
+            trackId = id;
+        }
+    }
+
+    private void parseStbl(FileChannel channel, Box stbl) throws IOException {
+        Map<String, Box> boxes = new HashMap<>();
+        for (Box child : children(channel, stbl)) {
+            boxes.put(child.type, child);
+        }
+        Box stsd = boxes.get("stsd");
+        if (stsd == null || !parseStsd(channel, stsd)) {
+            return;
+        }
+
+        // stsz：样本大小
+        Box stszBox = boxes.get("stsz");
+        if (stszBox == null) {
+            return;
+        }
+        ByteBuffer stsz = readPayload(channel, stszBox);
+        int uniformSize = stsz.getInt(4);
+        int count = stsz.getInt(8);
+        if (count == 0) {
+            return;  // 分片 MP4：样本在 moof 中
+        }
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            sampleSizes[i] = uniformSize != 0 ? uniformSize : stsz.getInt(12 + i * 4);
+        }
+
+        // stts：解码时间
+        Box sttsBox = boxes.get("stts");
+        if (sttsBox != null) {
+            ByteBuffer stts = readPayload(channel, sttsBox);
+            int entries = stts.getInt(4);
+            int sample = 0;
+            long time = 0;
+            for (int e = 0; e < entries && sample < count; e++) {
+                int run = stts.getInt(8 + e * 8);
+                long delta = stts.getInt(12 + e * 8) & 0xFFFFFFFFL;
+                for (int i = 0; i < run && sample < count; i++) {
+                    decodeTimes[sample++] = time;
+                    time += delta;
+                    lastSampleDuration = delta;
+                }
+            }
+        }
+
+        // ctts：显示时间偏移（有 B 帧时存在）
+        Box cttsBox = boxes.get("ctts");
+        if (cttsBox != null) {
+            ByteBuffer ctts = readPayload(channel, cttsBox);
+            int entries = ctts.getInt(4);
+            int sample = 0;
+            for (int e = 0; e < entries && sample < count; e++) {
+                int run = ctts.getInt(8 + e * 8);
+                int offset = ctts.getInt(12 + e * 8);
+                for (int i = 0; i < run && sample < count; i++) {
+                    compositionOffsets[sample++] = offset;
+                }
+            }
+        }
+
+        // stss：关键帧（不存在时全部为关键帧）
+        Box stssBox = boxes.get("stss");
+        if (stssBox != null) {
+            ByteBuffer stss = readPayload(channel, stssBox);
+            int entries = stss.getInt(4);
+            for (int e = 0; e < entries; e++) {
+                int sampleNumber = stss.getInt(8 + e * 4);
+                if (sampleNumber >= 1 && sampleNumber <= count) {
+                    syncSamples[sampleNumber - 1] = true;
+                }
+            }
+        } else {
+            Arrays.fill(syncSamples, 0, count, true);
+        }
+
+        // stsc + stco/co64：样本在文件中的位置
+        Box stscBox = boxes.get("stsc");
+        Box stcoBox = boxes.get("stco");
+        Box co64Box = boxes.get("co64");
+        if (stscBox == null || (stcoBox == null && co64Box == null)) {
+            return;
+        }
+        ByteBuffer stsc = readPayload(channel, stscBox);
+        boolean largeOffsets = stcoBox == null;
+        ByteBuffer chunkTable = readPayload(channel, largeOffsets ? co64Box : stcoBox);
+        int chunkCount = chunkTable.getInt(4);
+        int stscEntries = stsc.getInt(4);
+        int sample = 0;
+        int entry = 0;
+        for (int chunk = 1; chunk <= chunkCount && sample < count; chunk++) {
+            while (entry + 1 < stscEntries && stsc.getInt(8 + (entry + 1) * 12) <= chunk) {
+                entry++;
+            }
+            int samplesPerChunk = stscEntries > 0 ? stsc.getInt(12 + entry * 12) : 0;
+            long offset = largeOffsets ? chunkTable.getLong(8 + (chunk - 1) * 8)
+                    : chunkTable.getInt(8 + (chunk - 1) * 4) & 0xFFFFFFFFL;
+            for (int i = 0; i < samplesPerChunk && sample < count; i++) {
+                sampleOffsets[sample] = offset;
+                offset += sampleSizes[sample];
+                sample++;
+            }
+        }
+        sampleCount = sample;
+    }
+
+    /**
+     * 解析第一个样本描述（avc1/avc3/hvc1/hev1）及其 avcC/hvcC
+     */
+    private boolean parseStsd(FileChannel channel, Box stsd) throws IOException {
+        ByteBuffer data = readPayload(channel, stsd);
+        if (data.getInt(4) < 1 || data.limit() < 16) {
+            return false;
+        }
+        int entrySize = data.getInt(8);
+        String entryType = typeAt(data, 12);
+        boolean hevc = "hvc1".equals(entryType) || "hev1".equals(entryType);
+        boolean avc = "avc1".equals(entryType) || "avc3".equals(entryType);
+        if (!hevc && !avc) {
+            return false;
+        }
+        int entryStart = 8;
+        int entryEnd = Math.min(data.limit(), entryStart + entrySize);
+        // VisualSampleEntry：box 头 8 + 78 字节固定字段，宽高位于固定字段偏移 24/26
+        width = data.getShort(entryStart + 8 + 24) & 0xFFFF;
+        height = data.getShort(entryStart + 8 + 26) & 0xFFFF;
+
+        int pos = entryStart + 8 + 78;
+        while (pos + 8 <= entryEnd) {
+            int size = data.getInt(pos);
+            String type = typeAt(data, pos + 4);
+            if (size < 8 || pos + size > entryEnd) {
+                break;
+            }
+            if (avc && "avcC".equals(type)) {
+                parseAvcC(data, pos + 8, pos + size);
+            } else if (hevc && "hvcC".equals(type)) {
+                parseHvcC(data, pos + 8, pos + size);
+            }
+            pos += size;
+        }
+        if (parameterSets.isEmpty()) {
+            return false;
+        }
+        mime = hevc ? MediaFormat.MIMETYPE_VIDEO_HEVC : MediaFormat.MIMETYPE_VIDEO_AVC;
+        return true;
+    }
+
+    private void parseAvcC(ByteBuffer data, int pos, int end) {
+        nalLengthSize = (data.get(pos + 4) & 0x03) + 1;
+        pos += 5;
+        for (int list = 0; list < 2 && pos < end; list++) {
+            int count = data.get(pos++) & (list == 0 ? 0x1F : 0xFF);
+            for (int i = 0; i < count && pos + 2 <= end; i++) {
+                int length = data.getShort(pos) & 0xFFFF;
+                pos += 2;
+                if (pos + length > end) {
+                    return;
+                }
+                parameterSets.add(copyOf(data, pos, length));
+                pos += length;
+            }
+        }
+    }
+
+    private void parseHvcC(ByteBuffer data, int pos, int end) {
+        nalLengthSize = (data.get(pos + 21) & 0x03) + 1;
+        int arrays = data.get(pos + 22) & 0xFF;
+        pos += 23;
+        for (int a = 0; a < arrays && pos + 3 <= end; a++) {
+            int count = data.getShort(pos + 1) & 0xFFFF;
+            pos += 3;
+            for (int i = 0; i < count && pos + 2 <= end; i++) {
+                int length = data.getShort(pos) & 0xFFFF;
+                pos += 2;
+                if (pos + length > end) {
+                    return;
+                }
+                parameterSets.add(copyOf(data, pos, length));
+                pos += length;
+            }
+        }
+    }
+
+    // ==================== moof ====================
+
+    private void parseMoof(FileChannel channel, Box moof) throws IOException {
+        for (Box traf : children(channel, moof)) {
+            if ("traf".equals(traf.type)) {
+                parseTraf(channel, moof, traf);
+            }
+        }
+    }
+
+    private void parseTraf(FileChannel channel, Box moof, Box traf) throws IOException {
+        int[] trex = trexDefaults.get(trackId);
+        long defaultDuration = trex != null ? trex[0] & 0xFFFFFFFFL : 0;
+        int defaultSize = trex != null ? trex[1] : 0;
+        int defaultFlags = trex != null ? trex[2] : 0;
+        long baseOffset = moof.start;
+        long decodeTime = nextFragmentDecodeTime;
+        long dataPosition = -1;
+        boolean matched = false;
+
+        for (Box child : children(channel, traf)) {
+            if ("tfhd".equals(child.type)) {
+                ByteBuffer data = readPayload(channel, child);
+                int flags = data.getInt(0) & 0xFFFFFF;
+                if (data.getInt(4) != trackId) {
+                    return;
+                }
+                matched = true;
+                int pos = 8;
+                if ((flags & TFHD_BASE_DATA_OFFSET) != 0) {
+                    baseOffset = data.getLong(pos);
+                    pos += 8;
+                }
+                if ((flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0) {
+                    pos += 4;
+                }
+                if ((flags & TFHD_DEFAULT_DURATION) != 0) {
+                    defaultDuration = data.getInt(pos) & 0xFFFFFFFFL;
+                    pos += 4;
+                }
+                if ((flags & TFHD_DEFAULT_SIZE) != 0) {
+                    defaultSize = data.getInt(pos);
+                    pos += 4;
+                }
+                if ((flags & TFHD_DEFAULT_FLAGS) != 0) {
+                    defaultFlags = data.getInt(pos);
+                }
+            } else if ("tfdt".equals(child.type) && matched) {
+                ByteBuffer data = readPayload(channel, child);
+                decodeTime = data.get(0) == 1 ? data.getLong(4) : data.getInt(4) & 0xFFFFFFFFL;
+            } else if ("trun".equals(child.type) && matched) {
+                ByteBuffer data = readPayload(channel, child);
+                int flags = data.getInt(0) & 0xFFFFFF;
+                int count = data.getInt(4);
+                int pos = 8;
+                if ((flags & TRUN_DATA_OFFSET) != 0) {
+                    dataPosition = baseOffset + data.getInt(pos);
+                    pos += 4;
+                } else if (dataPosition < 0) {
+                    dataPosition = baseOffset;
+                }
+                int firstFlags = defaultFlags;
+                boolean hasFirstFlags = (flags & TRUN_FIRST_SAMPLE_FLAGS) != 0;
+                if (hasFirstFlags) {
+                    firstFlags = data.getInt(pos);
+                    pos += 4;
+                }
+                ensureCapacity(sampleCount + count);
+                for (int i = 0; i < count; i++) {
+                    long duration = defaultDuration;
+                    int size = defaultSize;
+                    int sampleFlags = i == 0 && hasFirstFlags ? firstFlags : defaultFlags;
+                    int compositionOffset = 0;
+                    if ((flags & TRUN_DURATION) != 0) {
+                        duration = data.getInt(pos) & 0xFFFFFFFFL;
+                        pos += 4;
+                    }
+                    if ((flags & TRUN_SIZE) != 0) {
+                        size = data.getInt(pos);
+                        pos += 4;
+                    }
+                    if ((flags & TRUN_FLAGS) != 0) {
+                        sampleFlags = data.getInt(pos);
+                        pos += 4;
+                    }
+                    if ((flags & TRUN_COMPOSITION_OFFSET) != 0) {
+                        compositionOffset = data.getInt(pos);
+                        pos += 4;
+                    }
+                    sampleOffsets[sampleCount] = dataPosition;
+                    sampleSizes[sampleCount] = size;
+                    decodeTimes[sampleCount] = decodeTime;
+                    compositionOffsets[sampleCount] = compositionOffset;
+                    syncSamples[sampleCount] = (sampleFlags & SAMPLE_IS_NON_SYNC) == 0;
+                    sampleCount++;
+                    dataPosition += size;
+                    decodeTime += duration;
+                    lastSampleDuration = duration;
+                }
+            }
+        }
+        if (matched) {
+            nextFragmentDecodeTime = decodeTime;
+        }
+    }
+
+    // ==================== 工具方法 ====================
+
+    /**
+     * 去掉数据不完整的尾部样本（正在写入或断电截断）
+     */
+    private void dropIncompleteSamples(long fileLength) {
+        while (sampleCount > 0) {
+            int last = sampleCount - 1;
+            if (sampleOffsets[last] + sampleSizes[last] <= fileLength && sampleSizes[last] > 0) {
+                break;
+            }
+            sampleCount--;
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (sampleOffsets.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, sampleOffsets.length * 2);
+        sampleOffsets = Arrays.copyOf(sampleOffsets, capacity);
+        sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+        decodeTimes = Arrays.copyOf(decodeTimes, capacity);
+        compositionOffsets = Arrays.copyOf(compositionOffsets, capacity);
+        syncSamples = Arrays.copyOf(syncSamples, capacity);
+    }
+
+    private long toUs(long ticks) {
+        return ticks * 1000000L / timescale;
+    }
+
+    /**
+     * 读取 box 头
+     * @return box 位置；类型为空（全零）或大小非法时返回 null
+     */
+    private static Box readBox(FileChannel channel, long position, long limit) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.limit((int) Math.min(16, limit - position));
+        readFully(channel, header, position);
+        long size = header.getInt(0) & 0xFFFFFFFFL;
+        if (header.getInt(4) == 0) {
+            return null;
+        }
+        String type = typeAt(header, 4);
+        int headerSize = 8;
+        if (size == 1) {
+            if (header.limit() < 16) {
+                return null;
+            }
+            size = header.getLong(8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = limit - position;  // 延伸到文件末尾
+        }
+        if (size < headerSize) {
+            return null;
+        }
+        return new Box(type, position, position + headerSize, position + size);
+    }
+
+    private static List<Box> children(FileChannel channel, Box parent) throws IOException {
+        List<Box> result = new ArrayList<>();
+        long position = parent.payload;
+        while (position + 8 <= parent.end) {
+            Box box = readBox(channel, position, parent.end);
+            if (box == null || box.end > parent.end) {
+                break;
+            }
+            result.add(box);
+            position = box.end;
+        }
+        return result;
+    }
+
+    private static ByteBuffer readPayload(FileChannel channel, Box box) throws IOException {
+        long length = box.end - box.payload;
+        if (length > MAX_TABLE_BOX_BYTES) {
+            throw new IOException("Box too large: " + box.type + " " + length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        readFully(channel, buffer, box.payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static String typeAt(ByteBuffer buffer, int index) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(index + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static int fourCc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static byte[] copyOf(ByteBuffer data, int pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(pos + i);
+        }
+        return bytes;
+    }
+
+    private static ByteBuffer annexB(List<byte[]> nals) {
+        int total = 0;
+        for (byte[] nal : nals) {
+            total += 4 + nal.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (byte[] nal : nals) {
+            buffer.putInt(1);
+            buffer.put(nal);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
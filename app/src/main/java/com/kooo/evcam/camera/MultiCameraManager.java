@@ -5,6 +5,10 @@ import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.VhalSignalObserver;
+import com.kooo.evcam.config.RecordingConfig;
+import com.kooo.evcam.storage.VideoShardLayout;
+import com.kooo.evcam.storage.VideoShardMigrator;
 import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
@@ -15,12 +19,16 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 四路摄像头管理器
@@ -38,6 +46,7 @@ public class MultiCameraManager {
     private final Map<String, SingleCamera> cameras = new LinkedHashMap<>();
     private final Map<String, VideoRecorder> recorders = new LinkedHashMap<>();
     private final Map<String, CodecVideoRecorder> codecRecorders = new LinkedHashMap<>();  // 软编码录制器
+    private RecordingConfig recordingConfig;  // 懒加载，见 getRecordingConfig()
     private final List<String> activeCameraKeys = new ArrayList<>();
     private int maxOpenCameras = DEFAULT_MAX_OPEN_CAMERAS;
 
@@ -46,6 +55,7 @@ public class MultiCameraManager {
     private boolean useCodecRecording = false;  // 是否使用软编码录制（用于 L6/L7）
     private boolean useRelayWrite = false;      // 是否使用中转写入（录制到内部存储，异步传输到U盘）
     private File finalSaveDir = null;           // 最终存储目录（用于中转写入模式）
+    private ExecutorService preEventExecutor;   // 预录片段写入线程（按需创建）
     private volatile int lastNotifiedSegmentIndex = -1;  // 已通知的分段索引，避免重复通知
     private long overrideSegmentDurationMs = 0;  // 临时覆盖分段时长（0=使用配置值，>0=使用此值）
     
@@ -128,6 +138,16 @@ public class MultiCameraManager {
      * 录制时间戳更新回调
      * 当 Watchdog 触发重建录制时，时间戳会改变，需要通知外部更新
      */
+    /**
+     * 预录片段保存完成回调（在主线程调用）
+     */
+    public interface PreEventClipsCallback {
+        /**
+         * @param timestamp 片段时间戳，没有保存任何片段时为 null
+         */
+        void onPreEventClipsSaved(String timestamp);
+    }
+
     public interface TimestampUpdateCallback {
         /**
          * 当录制时间戳更新时调用（通常在 Watchdog 重建后）
@@ -138,6 +158,8 @@ public class MultiCameraManager {
 
     public MultiCameraManager(Context context) {
         this.context = context;
+        // 预先读取（或首次探测）编码器能力，创建录制器时不再逐个探测
+        EncoderCapabilities.getInstance().init(context);
     }
 
     /**
@@ -224,6 +246,98 @@ public class MultiCameraManager {
         AppLog.d(TAG, "Segment duration override cleared, using config value");
     }
 
+    /**
+     * 在后台线程把各路软编码录制器的预录缓冲写成片段，完成后在主线程回调
+     * 所有摄像头使用同一个时间戳（当前时间减去最长的缓冲时长），与普通分段一样按时间戳分组；
+     * 中转写入模式下片段写在临时目录，写完直接加入传输队列
+     * 写入期间录制继续进行，调用方应在回调之后再停止录制
+     */
+    public void savePreEventClips(PreEventClipsCallback callback) {
+        // 拼接录制时多路共用一个录制器，去重
+        List<CodecVideoRecorder> activeRecorders = new ArrayList<>(new LinkedHashSet<>(codecRecorders.values()));
+        long bufferedMs = 0;
+        for (CodecVideoRecorder recorder : activeRecorders) {
+            bufferedMs = Math.max(bufferedMs, recorder.getPreEventDurationMs());
+        }
+        if (bufferedMs <= 0) {
+            mainHandler.post(() -> callback.onPreEventClipsSaved(null));
+            return;
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
+                .format(new Date(System.currentTimeMillis() - bufferedMs));
+        long finalBufferedMs = bufferedMs;
+        File relayDir = useRelayWrite ? finalSaveDir : null;
+        getPreEventExecutor().execute(() -> {
+            int saved = 0;
+            for (CodecVideoRecorder recorder : activeRecorders) {
+                String path = recorder.savePreEventClip(timestamp);
+                if (path == null) {
+                    continue;
+                }
+                saved++;
+                if (relayDir != null) {
+                    // 不等下次启动时 recoverPendingTempFiles 才搬到U盘
+                    scheduleRelayTransfer(path, relayDir);
+                }
+            }
+            AppLog.d(TAG, "Pre-event clips saved: " + saved + "/" + activeRecorders.size() + ", timestamp=" + timestamp +
+                    ", buffered " + (finalBufferedMs / 1000) + "s");
+            String result = saved > 0 ? timestamp : null;
+            mainHandler.post(() -> callback.onPreEventClipsSaved(result));
+        });
+    }
+
+    /**
+     * 把指定位置摄像头预录缓冲中最近一段导出到文件（阻塞，在后台线程调用）
+     * 远程回放时当前分段还没有索引（普通 MP4 结束前不可读），用预录缓冲补上最新的画面
+     * @param position 分段文件名中的摄像头位置
+     * @param maxDurationMs 最长导出时长
+     * @return 是否导出成功；没有该位置的录制器或未开启预录时返回 false
+     */
+    public boolean exportPreEventClip(String position, File clipFile, long maxDurationMs) {
+        CodecVideoRecorder recorder = findCodecRecorder(position);
+        if (recorder == null || recorder.getPreEventDurationMs() <= 0) {
+            return false;
+        }
+        return recorder.exportPreEventClip(clipFile, maxDurationMs * 1000);
+    }
+
+    /**
+     * 指定位置摄像头预录缓冲中已有的时长（毫秒），没有时返回 0
+     */
+    public long getPreEventDurationMs(String position) {
+        CodecVideoRecorder recorder = findCodecRecorder(position);
+        return recorder != null ? recorder.getPreEventDurationMs() : 0;
+    }
+
+    private CodecVideoRecorder findCodecRecorder(String position) {
+        List<CodecVideoRecorder> recorders;
+        try {
+            // 录制器只在主线程增删，这里从后台线程读取，遇到正在切换时视为不可用
+            recorders = new ArrayList<>(codecRecorders.values());
+        } catch (ConcurrentModificationException e) {
+            return null;
+        }
+        for (CodecVideoRecorder recorder : recorders) {
+            if (recorder.isRecording() && position.equals(recorder.getCameraPosition())) {
+                return recorder;
+            }
+        }
+        return null;
+    }
+
+    private synchronized ExecutorService getPreEventExecutor() {
+        if (preEventExecutor == null) {
+            preEventExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "PreEventClip");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        return preEventExecutor;
+    }
+
     public void setCodecFallbackCallback(CodecFallbackCallback callback) {
         this.codecFallbackCallback = callback;
     }
@@ -613,13 +727,19 @@ public class MultiCameraManager {
                             // 如果使用中转写入，将上一个分段的文件传输到最终目录
                             if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
                                 // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
-                                scheduleRelayTransfer(completedFilePath);
+                                scheduleRelayTransfer(completedFilePath, finalSaveDir);
+                            } else if (!useRelayWrite && completedFilePath != null) {
+                                // 直接写入最终目录，归档到分片目录并记录到存储索引
+                                VideoShardMigrator.getInstance(context).onSegmentCompleted(new File(completedFilePath));
                             }
                             
                             // 更新录制 Surface 并重新创建会话（MediaRecorder 模式）
-                            camera.setRecordSurface(recorder.getSurface(), false);
-                            camera.recreateSession();
-                            AppLog.d(TAG, "Recreated session for camera " + cameraId + " after segment switch");
+                            // 无缝分段时 Surface 不变，会话保持不动
+                            if (recorder.isWaitingForSessionReconfiguration()) {
+                                camera.setRecordSurface(recorder.getSurface(), false);
+                                camera.recreateSession();
+                                AppLog.d(TAG, "Recreated session for camera " + cameraId + " after segment switch");
+                            }
                         }
                         
                         // 通知分段切换回调（只通知一次，第一个触发的摄像头会通知）
@@ -806,8 +926,8 @@ public class MultiCameraManager {
         currentEnabledCameras = enabledCameras;
 
         // 检查是否使用中转写入模式
-        AppConfig appConfig = new AppConfig(context);
-        useRelayWrite = appConfig.shouldUseRelayWrite();
+        AppConfig.Snapshot configSnapshot = AppConfig.snapshot(context);
+        useRelayWrite = configSnapshot.relayWrite;
         
         // 获取录制目录（可能是临时目录或最终目录）
         File saveDir = StorageHelper.getRecordingDir(context);
@@ -869,20 +989,20 @@ public class MultiCameraManager {
             return false;
         }
 
-        // 获取录制配置（使用上面已创建的 appConfig）
+        // 获取录制配置（使用上面读取的配置快照）
         // 如果有临时覆盖值（远程录制），使用覆盖值；否则使用配置值
         long segmentDurationMs = (overrideSegmentDurationMs > 0) 
                 ? overrideSegmentDurationMs 
-                : appConfig.getSegmentDurationMs();
+                : configSnapshot.segmentDurationMs;
         if (overrideSegmentDurationMs > 0) {
             AppLog.d(TAG, "Segment duration (override for remote recording): " + (segmentDurationMs / 1000) + " seconds");
         } else {
-            AppLog.d(TAG, "Segment duration: " + (segmentDurationMs / 1000) + " seconds (" + appConfig.getSegmentDurationMinutes() + " minutes)");
+            AppLog.d(TAG, "Segment duration: " + (segmentDurationMs / 1000) + " seconds (" + (segmentDurationMs / 60000) + " minutes)");
         }
         
         // 获取帧率配置（根据帧率等级设置计算）
-        int targetFrameRate = appConfig.getActualFrameRate(25);  // 使用25fps降低CPU占用
-        AppLog.d(TAG, "Target frame rate: " + targetFrameRate + " fps (level: " + appConfig.getFramerateLevel() + ")");
+        int targetFrameRate = configSnapshot.getActualFrameRate(25);  // 使用25fps降低CPU占用
+        AppLog.d(TAG, "Target frame rate: " + targetFrameRate + " fps (level: " + configSnapshot.framerateLevel + ")");
 
         // 第一步：准备所有 MediaRecorder（但不启动）
         // 使用每个摄像头的实际预览分辨率，而不是硬编码的值
@@ -902,7 +1022,7 @@ public class MultiCameraManager {
             }
             
             // 计算码率（基于分辨率和帧率）
-            int bitrate = appConfig.getActualBitrate(
+            int bitrate = configSnapshot.getActualBitrate(
                     previewSize.getWidth(), 
                     previewSize.getHeight(), 
                     targetFrameRate);
@@ -911,6 +1031,7 @@ public class MultiCameraManager {
             recorder.setSegmentDuration(segmentDurationMs);
             recorder.setVideoBitrate(bitrate);
             recorder.setVideoFrameRate(targetFrameRate);
+            recorder.setGaplessSegmentEnabled(configSnapshot.gaplessSegmentEnabled);
             // 注：最大编码分辨率限制使用 VideoRecorder 内部默认值（4096x4096）
             
             AppLog.d(TAG, "Recording params for " + key + ": " + 
@@ -1113,6 +1234,177 @@ public class MultiCameraManager {
         return unstable;
     }
 
+    /**
+     * 设置软编码录制器的水印（时间角标、车速、品牌标识）
+     * 车速水印同样启用叠加绘制；品牌标识只随时间或车速一起显示
+     */
+    private void applyWatermarkConfig(CodecVideoRecorder codecRecorder, AppConfig.Snapshot config) {
+        RecordingConfig recordingConfig = getRecordingConfig();
+        boolean showTime = config.timestampWatermarkEnabled;
+        boolean showSpeed = recordingConfig.isSpeedWatermarkEnabled();
+        codecRecorder.setWatermarkFields(showTime, showSpeed, recordingConfig.isWatermarkBrandEnabled(),
+                RecordingConfig.getWatermarkColorArgb(recordingConfig.getWatermarkColor()),
+                VhalSignalObserver::getActiveSpeedKmh);
+        codecRecorder.setWatermarkEnabled(showTime || showSpeed);
+    }
+
+    /**
+     * 录制配置（车速水印等，读取时直接查 SharedPreferences，创建一次即可）
+     */
+    private synchronized RecordingConfig getRecordingConfig() {
+        if (recordingConfig == null) {
+            recordingConfig = new AppConfig(context).getRecordingConfig();
+        }
+        return recordingConfig;
+    }
+
+    /**
+     * 创建软编码录制器回调（独立录制与拼接录制共用）
+     */
+    private RecordCallback createCodecRecordCallback() {
+        return new RecordCallback() {
+            @Override
+            public void onRecordStart(String cameraId) {
+                AppLog.d(TAG, "Codec recording started for camera " + cameraId);
+            }
+
+            @Override
+            public void onRecordStop(String cameraId) {
+                AppLog.d(TAG, "Codec recording stopped for camera " + cameraId);
+            }
+
+            @Override
+            public void onRecordError(String cameraId, String error) {
+                AppLog.e(TAG, "Codec recording error for camera " + cameraId + ": " + error);
+            }
+
+            @Override
+            public void onPrepareSegmentSwitch(String cameraId, int currentSegmentIndex) {
+                AppLog.d(TAG, "Codec prepare segment switch for camera " + cameraId + " (current segment: " + currentSegmentIndex + ")");
+                // 软编码录制器使用独立的 SurfaceTexture，不需要暂停 Camera CaptureSession
+                // 但为了一致性，我们记录日志
+            }
+
+            @Override
+            public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
+                AppLog.d(TAG, "Codec segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
+                
+                // 如果使用中转写入，将上一个分段的文件传输到最终目录
+                if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
+                    // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
+                    scheduleRelayTransfer(completedFilePath, finalSaveDir);
+                } else if (!useRelayWrite && completedFilePath != null) {
+                    // 直接写入最终目录，归档到分片目录并记录到存储索引
+                    VideoShardMigrator.getInstance(context).onSegmentCompleted(new File(completedFilePath));
+                }
+                
+                // 通知分段切换回调（只通知一次，第一个触发的摄像头会通知）
+                if (segmentSwitchCallback != null && newSegmentIndex > lastNotifiedSegmentIndex) {
+                    lastNotifiedSegmentIndex = newSegmentIndex;
+                    segmentSwitchCallback.onSegmentSwitch(newSegmentIndex);
+                }
+            }
+
+            @Override
+            public void onCorruptedFilesDeleted(String cameraId, List<String> deletedFiles) {
+                if (deletedFiles != null && !deletedFiles.isEmpty()) {
+                    AppLog.w(TAG, "Corrupted files deleted for codec camera " + cameraId + ": " + deletedFiles.size() + " file(s)");
+                    for (String file : deletedFiles) {
+                        AppLog.d(TAG, "  Deleted: " + file);
+                    }
+                    // 通知 MainActivity 显示弹窗
+                    if (corruptedFilesCallback != null) {
+                        mainHandler.post(() -> corruptedFilesCallback.onCorruptedFilesDeleted(deletedFiles));
+                    }
+                }
+            }
+
+            @Override
+            public void onRecordingRebuildRequested(String cameraId, String reason) {
+                // CodecVideoRecorder 通常不会触发此回调，但为了接口完整性实现
+                AppLog.e(TAG, "Codec recording rebuild requested for camera " + cameraId + ", reason: " + reason);
+                // Codec 模式不需要回退，记录日志即可
+            }
+
+            @Override
+            public void onFirstDataWritten(String cameraId) {
+                AppLog.d(TAG, "Codec first data written for camera " + cameraId);
+                // 只在第一个摄像头首次写入时通知外部（每次录制只通知一次）
+                if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
+                    hasNotifiedFirstDataWritten = true;
+                    AppLog.d(TAG, "Notifying external: first data written, recording truly started");
+                    mainHandler.post(() -> firstDataWrittenCallback.onFirstDataWritten());
+                }
+            }
+        };
+    }
+
+    /**
+     * 准备拼接录制：各路摄像头合成到一个网格画面，共用一个 CodecVideoRecorder（一个编码器、一个文件）
+     * 同一个录制器登记在每一路的 key 下，启动/停止/释放流程与独立录制相同（重复调用会被忽略）
+     * @return 是否成功；失败时不登记任何录制器，由调用方回退为每路独立录制
+     */
+    private boolean prepareMosaicRecording(List<String> keys, File saveDir, String timestamp,
+                                           long segmentDurationMs, int frameRate, AppConfig.Snapshot config) {
+        List<String> positions = new ArrayList<>();
+        Map<String, Size> sourceSizes = new LinkedHashMap<>();
+        for (String key : keys) {
+            SingleCamera camera = cameras.get(key);
+            if (camera == null) {
+                continue;
+            }
+            Size previewSize = camera.getPreviewSize();
+            positions.add(key);
+            sourceSizes.put(key, previewSize != null ? previewSize : new Size(1280, 800));
+        }
+        if (positions.size() < 2) {
+            return false;
+        }
+
+        int[] resolution = {config.mosaicWidth, config.mosaicHeight};
+        MosaicLayout layout = MosaicLayout.grid(positions, resolution[0], resolution[1]);
+        int bitrate = config.getActualBitrate(resolution[0], resolution[1], frameRate);
+        File sidecarDir = MosaicLayout.getSidecarDir(context);
+
+        CodecVideoRecorder codecRecorder = new CodecVideoRecorder(
+                MosaicLayout.POSITION_MOSAIC, resolution[0], resolution[1]);
+        codecRecorder.setMosaicLayout(layout, sourceSizes, sidecarDir);
+        codecRecorder.setTimestampProvider(segmentTimestampProvider);
+        codecRecorder.setSegmentDuration(segmentDurationMs);
+        codecRecorder.setBitRate(bitrate);
+        codecRecorder.setFrameRate(frameRate);
+        codecRecorder.setQualityLevel(3);
+        codecRecorder.setForceH264(config.forceH264Encoding);
+        codecRecorder.setPreallocationEnabled(!useRelayWrite && config.segmentPreallocationEnabled);
+        codecRecorder.setFragmentedMp4Enabled(config.fragmentedMp4Enabled);
+        codecRecorder.setAsyncEncoderEnabled(config.asyncEncoderEnabled);
+        if (config.sharedRenderThreadEnabled) {
+            codecRecorder.setSharedRenderThread(SharedRenderThread.getInstance());
+        }
+        codecRecorder.setPreEventSeconds(config.preEventSeconds);
+        applyWatermarkConfig(codecRecorder, config);
+        codecRecorder.setCallback(createCodecRecordCallback());
+
+        AppLog.d(TAG, "Mosaic recording params: " + layout.getTiles().size() + " tiles " + positions +
+                ", " + resolution[0] + "x" + resolution[1] + " @ " + frameRate + "fps, " + AppConfig.formatBitrate(bitrate));
+
+        String path = new File(saveDir, timestamp + "_" + MosaicLayout.POSITION_MOSAIC + ".mp4").getAbsolutePath();
+        if (codecRecorder.prepareRecording(path) == null) {
+            // prepareRecording 失败时已自行释放
+            AppLog.w(TAG, "Failed to prepare mosaic recording, falling back to per-camera recording");
+            return false;
+        }
+
+        for (MosaicLayout.Tile tile : layout.getTiles()) {
+            SingleCamera camera = cameras.get(tile.position);
+            android.view.Surface recordSurface = new android.view.Surface(codecRecorder.getTileSurfaceTexture(tile.position));
+            camera.setRecordSurface(recordSurface, true);  // Codec 模式
+            codecRecorders.put(tile.position, codecRecorder);
+        }
+        MosaicLayout.pruneSidecars(sidecarDir);
+        return true;
+    }
+
     /**
      * 使用软编码开始录制（L6/L7 模式）
      * 使用 OpenGL 渲染 + MediaCodec 编码 + MediaMuxer 写入
@@ -1126,8 +1418,8 @@ public class MultiCameraManager {
         hasNotifiedFirstDataWritten = false;
 
         // 检查是否使用中转写入模式
-        AppConfig appConfig = new AppConfig(context);
-        useRelayWrite = appConfig.shouldUseRelayWrite();
+        AppConfig.Snapshot configSnapshot = AppConfig.snapshot(context);
+        useRelayWrite = configSnapshot.relayWrite;
         
         // 获取录制目录（可能是临时目录或最终目录）
         File saveDir = StorageHelper.getRecordingDir(context);
@@ -1173,20 +1465,20 @@ public class MultiCameraManager {
             return false;
         }
 
-        // 获取录制配置（使用上面已创建的 appConfig）
+        // 获取录制配置（使用上面读取的配置快照）
         // 如果有临时覆盖值（远程录制），使用覆盖值；否则使用配置值
         long segmentDurationMs = (overrideSegmentDurationMs > 0) 
                 ? overrideSegmentDurationMs 
-                : appConfig.getSegmentDurationMs();
+                : configSnapshot.segmentDurationMs;
         if (overrideSegmentDurationMs > 0) {
             AppLog.d(TAG, "Codec segment duration (override for remote recording): " + (segmentDurationMs / 1000) + " seconds");
         } else {
-            AppLog.d(TAG, "Codec segment duration: " + (segmentDurationMs / 1000) + " seconds (" + appConfig.getSegmentDurationMinutes() + " minutes)");
+            AppLog.d(TAG, "Codec segment duration: " + (segmentDurationMs / 1000) + " seconds (" + (segmentDurationMs / 60000) + " minutes)");
         }
         
         // 获取帧率配置（根据帧率等级设置计算）
-        int targetFrameRate = appConfig.getActualFrameRate(25);  // 使用25fps降低CPU占用
-        AppLog.d(TAG, "Codec target frame rate: " + targetFrameRate + " fps (level: " + appConfig.getFramerateLevel() + ")");
+        int targetFrameRate = configSnapshot.getActualFrameRate(25);  // 使用25fps降低CPU占用
+        AppLog.d(TAG, "Codec target frame rate: " + targetFrameRate + " fps (level: " + configSnapshot.framerateLevel + ")");
 
         // 清理之前的软编码录制器
         for (CodecVideoRecorder recorder : codecRecorders.values()) {
@@ -1194,12 +1486,17 @@ public class MultiCameraManager {
         }
         codecRecorders.clear();
 
+        // 拼接录制：多路合成到一个画面，只占用一个编码器（失败时回退为每路独立录制）
+        if (configSnapshot.mosaicRecordingEnabled && keys.size() > 1) {
+            prepareMosaicRecording(keys, saveDir, timestamp, segmentDurationMs, targetFrameRate, configSnapshot);
+        }
+
         // 为每个摄像头创建软编码录制器并准备
         boolean prepareSuccess = true;
         for (String key : keys) {
             SingleCamera camera = cameras.get(key);
-            if (camera == null) {
-                continue;
+            if (camera == null || codecRecorders.containsKey(key)) {
+                continue;  // 已加入拼接录制
             }
 
             // 获取摄像头的实际预览分辨率
@@ -1229,7 +1526,7 @@ public class MultiCameraManager {
             }
             
             // 计算码率（基于调整后的分辨率和帧率）
-            int bitrate = appConfig.getActualBitrate(encodeWidth, encodeHeight, targetFrameRate);
+            int bitrate = configSnapshot.getActualBitrate(encodeWidth, encodeHeight, targetFrameRate);
 
             // 创建软编码录制器（使用调整后的分辨率）
             CodecVideoRecorder codecRecorder = new CodecVideoRecorder(
@@ -1246,88 +1543,25 @@ public class MultiCameraManager {
             codecRecorder.setBitRate(bitrate);
             codecRecorder.setFrameRate(targetFrameRate);
             codecRecorder.setQualityLevel(3);  // 设置最高画质
-            codecRecorder.setForceH264(appConfig.isForceH264Encoding());
+            codecRecorder.setForceH264(configSnapshot.forceH264Encoding);
+            // 直接写入U盘时预分配分段文件，减少多路交错写入造成的碎片
+            codecRecorder.setPreallocationEnabled(!useRelayWrite && configSnapshot.segmentPreallocationEnabled);
+            codecRecorder.setFragmentedMp4Enabled(configSnapshot.fragmentedMp4Enabled);
+            codecRecorder.setAsyncEncoderEnabled(configSnapshot.asyncEncoderEnabled);
+            if (configSnapshot.sharedRenderThreadEnabled) {
+                codecRecorder.setSharedRenderThread(SharedRenderThread.getInstance());
+            }
+            codecRecorder.setPreEventSeconds(configSnapshot.preEventSeconds);
 
             AppLog.d(TAG, "Codec recording params for " + key + ": " +
                     encodeWidth + "x" + encodeHeight +
                     " @ " + targetFrameRate + "fps, " + AppConfig.formatBitrate(bitrate));
 
-            // 设置时间水印（从配置读取，使用方法开头已创建的 appConfig）
-            codecRecorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
+            // 设置水印（从配置读取）
+            applyWatermarkConfig(codecRecorder, configSnapshot);
 
             // 设置回调
-            codecRecorder.setCallback(new RecordCallback() {
-                @Override
-                public void onRecordStart(String cameraId) {
-                    AppLog.d(TAG, "Codec recording started for camera " + cameraId);
-                }
-
-                @Override
-                public void onRecordStop(String cameraId) {
-                    AppLog.d(TAG, "Codec recording stopped for camera " + cameraId);
-                }
-
-                @Override
-                public void onRecordError(String cameraId, String error) {
-                    AppLog.e(TAG, "Codec recording error for camera " + cameraId + ": " + error);
-                }
-
-                @Override
-                public void onPrepareSegmentSwitch(String cameraId, int currentSegmentIndex) {
-                    AppLog.d(TAG, "Codec prepare segment switch for camera " + cameraId + " (current segment: " + currentSegmentIndex + ")");
-                    // 软编码录制器使用独立的 SurfaceTexture，不需要暂停 Camera CaptureSession
-                    // 但为了一致性，我们记录日志
-                }
-
-                @Override
-                public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
-                    AppLog.d(TAG, "Codec segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
-                    
-                    // 如果使用中转写入，将上一个分段的文件传输到最终目录
-                    if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
-                        // 传输已完成的文件（由回调提供确切路径，避免传输正在录制的新文件）
-                        scheduleRelayTransfer(completedFilePath);
-                    }
-                    
-                    // 通知分段切换回调（只通知一次，第一个触发的摄像头会通知）
-                    if (segmentSwitchCallback != null && newSegmentIndex > lastNotifiedSegmentIndex) {
-                        lastNotifiedSegmentIndex = newSegmentIndex;
-                        segmentSwitchCallback.onSegmentSwitch(newSegmentIndex);
-                    }
-                }
-
-                @Override
-                public void onCorruptedFilesDeleted(String cameraId, List<String> deletedFiles) {
-                    if (deletedFiles != null && !deletedFiles.isEmpty()) {
-                        AppLog.w(TAG, "Corrupted files deleted for codec camera " + cameraId + ": " + deletedFiles.size() + " file(s)");
-                        for (String file : deletedFiles) {
-                            AppLog.d(TAG, "  Deleted: " + file);
-                        }
-                        // 通知 MainActivity 显示弹窗
-                        if (corruptedFilesCallback != null) {
-                            mainHandler.post(() -> corruptedFilesCallback.onCorruptedFilesDeleted(deletedFiles));
-                        }
-                    }
-                }
-
-                @Override
-                public void onRecordingRebuildRequested(String cameraId, String reason) {
-                    // CodecVideoRecorder 通常不会触发此回调，但为了接口完整性实现
-                    AppLog.e(TAG, "Codec recording rebuild requested for camera " + cameraId + ", reason: " + reason);
-                    // Codec 模式不需要回退，记录日志即可
-                }
-
-                @Override
-                public void onFirstDataWritten(String cameraId) {
-                    AppLog.d(TAG, "Codec first data written for camera " + cameraId);
-                    // 只在第一个摄像头首次写入时通知外部（每次录制只通知一次）
-                    if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
-                        hasNotifiedFirstDataWritten = true;
-                        AppLog.d(TAG, "Notifying external: first data written, recording truly started");
-                        mainHandler.post(() -> firstDataWrittenCallback.onFirstDataWritten());
-                    }
-                }
-            });
+            codecRecorder.setCallback(createCodecRecordCallback());
 
             // 准备录制
             String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
@@ -1539,9 +1773,9 @@ public class MultiCameraManager {
     private void reprepareCodecRecordingForCameras(List<String> cameraKeys) {
         AppLog.d(TAG, "Re-preparing codec recording for cameras: " + cameraKeys);
 
-        // 清理之前的录制器（只保留指定摄像头的）
+        // 清理之前的录制器（只保留指定摄像头的；拼接录制器由多路共用，全部重建）
         for (Map.Entry<String, CodecVideoRecorder> entry : new ArrayList<>(codecRecorders.entrySet())) {
-            if (!cameraKeys.contains(entry.getKey())) {
+            if (!cameraKeys.contains(entry.getKey()) || entry.getValue().isMosaic()) {
                 entry.getValue().release();
                 codecRecorders.remove(entry.getKey());
             }
@@ -1556,6 +1790,13 @@ public class MultiCameraManager {
         // 生成新的时间戳
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
 
+        // 拼接录制（失败时回退为每路独立录制）
+        AppConfig.Snapshot mosaicConfig = AppConfig.snapshot(context);
+        if (mosaicConfig.mosaicRecordingEnabled && cameraKeys.size() > 1) {
+            prepareMosaicRecording(cameraKeys, saveDir, timestamp, mosaicConfig.segmentDurationMs,
+                    mosaicConfig.getActualFrameRate(25), mosaicConfig);
+        }
+
         // 为每个指定的摄像头准备录制
         boolean prepareSuccess = true;
         for (String key : cameraKeys) {
@@ -1563,6 +1804,10 @@ public class MultiCameraManager {
             if (camera == null) {
                 continue;
             }
+            CodecVideoRecorder existing = codecRecorders.get(key);
+            if (existing != null && existing.isMosaic()) {
+                continue;  // 已加入拼接录制
+            }
 
             // 获取摄像头的实际预览分辨率
             Size previewSize = camera.getPreviewSize();
@@ -1578,13 +1823,20 @@ public class MultiCameraManager {
             );
 
             // 设置录制参数
-            AppConfig appConfig = new AppConfig(context);
-            codecRecorder.setSegmentDuration(appConfig.getSegmentDurationMs());
-            codecRecorder.setBitRate(appConfig.getActualBitrate(previewSize.getWidth(), previewSize.getHeight(), 25));  // 使用25fps降低CPU占用
-            codecRecorder.setFrameRate(appConfig.getActualFrameRate(25));  // 使用25fps降低CPU占用
+            AppConfig.Snapshot configSnapshot = AppConfig.snapshot(context);
+            codecRecorder.setSegmentDuration(configSnapshot.segmentDurationMs);
+            codecRecorder.setBitRate(configSnapshot.getActualBitrate(previewSize.getWidth(), previewSize.getHeight(), 25));  // 使用25fps降低CPU占用
+            codecRecorder.setFrameRate(configSnapshot.getActualFrameRate(25));  // 使用25fps降低CPU占用
             codecRecorder.setQualityLevel(3);  // 设置最高画质
-            codecRecorder.setForceH264(appConfig.isForceH264Encoding());
-            codecRecorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
+            codecRecorder.setForceH264(configSnapshot.forceH264Encoding);
+            codecRecorder.setPreallocationEnabled(!useRelayWrite && configSnapshot.segmentPreallocationEnabled);
+            codecRecorder.setFragmentedMp4Enabled(configSnapshot.fragmentedMp4Enabled);
+            codecRecorder.setAsyncEncoderEnabled(configSnapshot.asyncEncoderEnabled);
+            if (configSnapshot.sharedRenderThreadEnabled) {
+                codecRecorder.setSharedRenderThread(SharedRenderThread.getInstance());
+            }
+            codecRecorder.setPreEventSeconds(configSnapshot.preEventSeconds);
+            applyWatermarkConfig(codecRecorder, configSnapshot);
 
             // 准备录制
             String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
@@ -1711,6 +1963,22 @@ public class MultiCameraManager {
                     return;
                 }
 
+                // 记录直接写入模式下各路最后一个分段（停止后归档并加入存储索引）
+                List<String> lastSegmentPaths = new ArrayList<>();
+                if (!useRelayWrite) {
+                    for (String key : keys) {
+                        CodecVideoRecorder codecRecorder = codecRecorders.get(key);
+                        if (codecRecorder != null && codecRecorder.getCurrentFilePath() != null
+                                && !lastSegmentPaths.contains(codecRecorder.getCurrentFilePath())) {
+                            lastSegmentPaths.add(codecRecorder.getCurrentFilePath());  // 拼接录制多路共用同一文件
+                        }
+                        VideoRecorder recorder = recorders.get(key);
+                        if (recorder != null && recorder.isRecording() && recorder.getCurrentFilePath() != null) {
+                            lastSegmentPaths.add(recorder.getCurrentFilePath());
+                        }
+                    }
+                }
+
                 // 停止软编码录制（带超时保护）
                 if (!codecRecorders.isEmpty()) {
                     AppLog.d(TAG, "Stopping codec recorders...");
@@ -1747,6 +2015,10 @@ public class MultiCameraManager {
                     }
                 }
 
+                for (String path : lastSegmentPaths) {
+                    VideoShardMigrator.getInstance(context).onSegmentCompleted(new File(path));
+                }
+
                 // 在主线程清理摄像头会话（使用短延迟确保录制器已完全停止）
                 mainHandler.postDelayed(() -> {
                     for (String key : keys) {
@@ -1851,8 +2123,7 @@ public class MultiCameraManager {
         // 检查是否需要回退到 Codec
         if (rebuildAttemptCount >= CODEC_FALLBACK_THRESHOLD) {
             // 达到阈值，检查是否可以回退到 Codec
-            AppConfig appConfig = new AppConfig(context);
-            String recordingMode = appConfig.getRecordingMode();
+            String recordingMode = AppConfig.snapshot(context).recordingMode;
             
             if (AppConfig.RECORDING_MODE_AUTO.equals(recordingMode)) {
                 // 自动模式：切换到 Codec 录制
@@ -1954,9 +2225,10 @@ public class MultiCameraManager {
     /**
      * 调度将指定的已完成文件传输到最终目录
      * @param completedFilePath 已完成录制的文件完整路径
+     * @param targetDir 最终存储目录
      */
-    private void scheduleRelayTransfer(String completedFilePath) {
-        if (finalSaveDir == null || completedFilePath == null) {
+    private void scheduleRelayTransfer(String completedFilePath, File targetDir) {
+        if (targetDir == null || completedFilePath == null) {
             return;
         }
         
@@ -1972,7 +2244,7 @@ public class MultiCameraManager {
             return;
         }
         
-        File targetFile = new File(finalSaveDir, tempFile.getName());
+        File targetFile = VideoShardLayout.targetFor(context, targetDir, tempFile.getName());
         
         AppLog.d(TAG, "Scheduling relay transfer: " + tempFile.getName() + 
                 " -> " + targetFile.getAbsolutePath());
@@ -2053,7 +2325,7 @@ public class MultiCameraManager {
                 continue;
             }
             
-            File targetFile = new File(targetDir, tempFile.getName());
+            File targetFile = VideoShardLayout.targetFor(context, targetDir, tempFile.getName());
             
             transferManager.addTransferTask(tempFile, targetFile, 
                     new FileTransferManager.TransferCallback() {
@@ -2126,11 +2398,20 @@ public class MultiCameraManager {
                     AppLog.e(TAG, "Error releasing CodecVideoRecorder", e);
                 }
             }
+
+            // 8. 释放拍照位图池中的空闲 Bitmap，停止预录片段写入线程（已提交的片段写完后退出）
+            PhotoPipeline.getInstance().trimBitmapPool();
+            synchronized (this) {
+                if (preEventExecutor != null) {
+                    preEventExecutor.shutdown();
+                    preEventExecutor = null;
+                }
+            }
             
         } catch (Exception e) {
             AppLog.e(TAG, "Unexpected error during release", e);
         } finally {
-            // 8. 清理集合（确保执行）
+            // 9. 清理集合（确保执行）
             cameras.clear();
             recorders.clear();
             codecRecorders.clear();
@@ -2156,6 +2437,58 @@ public class MultiCameraManager {
         return isRecording;
     }
 
+    /**
+     * 获取所有录制中摄像头的总码率（bps）
+     * 用于存储清理预测写入速度，未录制时返回 0
+     */
+    public long getActiveRecordingBitrate() {
+        if (!isRecording) {
+            return 0;
+        }
+        long total = 0;
+        try {
+            for (CodecVideoRecorder recorder : new ArrayList<>(codecRecorders.values())) {
+                if (recorder.isRecording()) {
+                    total += recorder.getEffectiveBitRate();
+                }
+            }
+            for (VideoRecorder recorder : new ArrayList<>(recorders.values())) {
+                if (recorder.isRecording()) {
+                    total += recorder.getVideoBitrate();
+                }
+            }
+        } catch (Exception e) {
+            // 录制器集合可能在其他线程变化，本次估算失败不影响下次
+            AppLog.w(TAG, "Failed to sum recording bitrate: " + e.getMessage());
+        }
+        return total;
+    }
+
+    /**
+     * 获取正在录制的摄像头数量
+     */
+    public int getRecordingCameraCount() {
+        if (!isRecording) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            for (CodecVideoRecorder recorder : new ArrayList<>(codecRecorders.values())) {
+                if (recorder.isRecording()) {
+                    count++;
+                }
+            }
+            for (VideoRecorder recorder : new ArrayList<>(recorders.values())) {
+                if (recorder.isRecording()) {
+                    count++;
+                }
+            }
+        } catch (Exception e) {
+            AppLog.w(TAG, "Failed to count recording cameras: " + e.getMessage());
+        }
+        return count;
+    }
+
     /**
      * 拍照（所有活动的摄像头顺序拍照，避免资源耗尽）
      */
@@ -2182,17 +2515,19 @@ public class MultiCameraManager {
 
         AppLog.d(TAG, "Taking picture with " + keys.size() + " camera(s) using timestamp: " + timestamp);
 
-        // 快速拍照，每个摄像头间隔300ms触发拍照，但保存文件时按顺序延迟1秒
+        // 配置只读一次，所有摄像头共用
+        final boolean timestampWatermark = AppConfig.snapshot(context).timestampWatermarkEnabled;
+
+        // 快速拍照，每个摄像头间隔300ms触发拍照；保存由 PhotoPipeline 按字节限速写盘，不再按固定延迟错开
         for (int i = 0; i < keys.size(); i++) {
             final String key = keys.get(i);
             final int captureDelay = i * 300;      // 拍照触发延迟：300ms（快速抓拍画面）
-            final int saveDelay = i * 1000;        // 文件保存延迟：1秒（分散磁盘I/O）
 
             mainHandler.postDelayed(() -> {
                 SingleCamera camera = cameras.get(key);
                 if (camera != null && camera.isConnected()) {
                     AppLog.d(TAG, "Taking picture with camera " + key);
-                    camera.takePicture(timestamp, saveDelay);  // 传递统一时间戳和保存延迟
+                    camera.takePicture(timestamp, 0, timestampWatermark);  // 传递统一时间戳
                 } else {
                     AppLog.w(TAG, "Camera " + key + " not available for taking picture");
                 }
@@ -0,0 +1,481 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Process;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.storage.WritePressureMonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 拍照保存流水线
+ * 多路摄像头同时拍照时，截图之后的加时间角标、JPEG 编码、写文件统一交给这里的有界工作线程池，
+ * 不再占用各摄像头的后台线程，也不再用固定的 sleep 错开写盘
+ *
+ * - 位图池：按尺寸复用截图用的 Bitmap（TextureView.getBitmap(Bitmap) 直接写入），用完归还
+ * - 时间角标直接画在池中的 Bitmap 上，画笔、Canvas、编码缓冲区按工作线程复用
+ * - 写盘按字节限速（令牌桶），录制器报告写入压力时让路
+ * - 每张照片输出各阶段耗时（截图、排队、角标、编码、写入），并累计统计
+ */
+public class PhotoPipeline {
+    private static final String TAG = "PhotoPipeline";
+
+    // 线程池配置
+    private static final int WORKER_COUNT = 2;
+    private static final int QUEUE_CAPACITY = 8;
+
+    // 位图池配置（每种尺寸最多保留的空闲 Bitmap 数）
+    private static final int MAX_IDLE_BITMAPS_PER_SIZE = 2;
+
+    // 写盘限速配置
+    private static final long MAX_BYTES_PER_SECOND = 8L * 1024 * 1024;  // 每秒最多写入字节数
+    private static final int WRITE_CHUNK_SIZE = 256 * 1024;             // 每次写入的块大小
+    private static final long BACKOFF_STEP_MS = 200;                    // 写入压力时每次让路等待时间
+    private static final long MAX_BACKOFF_WAIT_MS = 2000;               // 单张照片最长让路时间
+
+    private static final int JPEG_QUALITY = 90;
+    private static final int STATS_LOG_INTERVAL = 20;  // 每保存多少张输出一次累计统计
+
+    /**
+     * 保存结果回调（在工作线程调用）
+     */
+    public interface Callback {
+        void onPhotoSaved(File file, boolean success);
+    }
+
+    private static PhotoPipeline instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, ArrayDeque<Bitmap>> bitmapPool = new HashMap<>();
+
+    // 令牌桶（字节）
+    private final Object rateLock = new Object();
+    private double availableBytes = MAX_BYTES_PER_SECOND;
+    private long lastRefillNs = System.nanoTime();
+
+    // 统计
+    private final AtomicInteger savedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong totalCaptureMs = new AtomicLong();
+    private final AtomicLong totalQueueMs = new AtomicLong();
+    private final AtomicLong totalWatermarkMs = new AtomicLong();
+    private final AtomicLong totalEncodeMs = new AtomicLong();
+    private final AtomicLong totalWriteMs = new AtomicLong();
+    private final AtomicLong totalThrottleMs = new AtomicLong();
+    private final AtomicInteger bitmapsCreated = new AtomicInteger();
+    private final AtomicInteger bitmapsReused = new AtomicInteger();
+
+    /**
+     * 工作线程复用的对象
+     */
+    private static final class WorkerState {
+        final ReusableOutputStream encodeBuffer = new ReusableOutputStream(512 * 1024);
+        final Canvas canvas = new Canvas();
+        final Paint shadowPaint = createWatermarkPaint(Color.BLACK);
+        final Paint textPaint = createWatermarkPaint(Color.WHITE);
+        final SimpleDateFormat inputFormat = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+        final SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        String lastTimestamp;
+        String lastDisplayTime;
+    }
+
+    /**
+     * 可直接读取内部数组的输出流（编码缓冲区复用，不再 toByteArray 复制）
+     */
+    private static final class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private static final ThreadLocal<WorkerState> WORKER_STATE = new ThreadLocal<WorkerState>() {
+        @Override
+        protected WorkerState initialValue() {
+            return new WorkerState();
+        }
+    };
+
+    public static synchronized PhotoPipeline getInstance() {
+        if (instance == null) {
+            instance = new PhotoPipeline();
+        }
+        return instance;
+    }
+
+    private PhotoPipeline() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "PhotoSave-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // ==================== 位图池 ====================
+
+    /**
+     * 取一个指定尺寸的可写 Bitmap（ARGB_8888，用于 TextureView.getBitmap(Bitmap)）
+     */
+    public Bitmap acquireBitmap(int width, int height) {
+        long key = sizeKey(width, height);
+        synchronized (bitmapPool) {
+            ArrayDeque<Bitmap> idle = bitmapPool.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                Bitmap bitmap = idle.poll();
+                if (!bitmap.isRecycled()) {
+                    bitmapsReused.incrementAndGet();
+                    return bitmap;
+                }
+            }
+        }
+        bitmapsCreated.incrementAndGet();
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 归还 Bitmap（超出保留数量时回收）
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        long key = sizeKey(bitmap.getWidth(), bitmap.getHeight());
+        synchronized (bitmapPool) {
+            ArrayDeque<Bitmap> idle = bitmapPool.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>(MAX_IDLE_BITMAPS_PER_SIZE);
+                bitmapPool.put(key, idle);
+            }
+            if (idle.size() < MAX_IDLE_BITMAPS_PER_SIZE) {
+                idle.add(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * 释放所有空闲 Bitmap（内存紧张或停止拍照时调用）
+     */
+    public void trimBitmapPool() {
+        synchronized (bitmapPool) {
+            for (ArrayDeque<Bitmap> idle : bitmapPool.values()) {
+                for (Bitmap bitmap : idle) {
+                    bitmap.recycle();
+                }
+            }
+            bitmapPool.clear();
+        }
+    }
+
+    private static long sizeKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    // ==================== 提交 ====================
+
+    /**
+     * 提交截图：加时间角标（可选）、编码为 JPEG 并写入文件，完成后 Bitmap 归还位图池
+     * @param bitmap 由 {@link #acquireBitmap} 取得的截图
+     * @param photoFile 目标文件
+     * @param watermarkTimestamp 时间角标对应的时间戳（yyyyMMdd_HHmmss），null 表示不加角标
+     * @param saveDelayMs 最早在提交后多久开始写入（毫秒）
+     * @param captureMs 截图耗时（毫秒，仅用于统计）
+     * @param label 日志标识（如摄像头位置）
+     */
+    public void submitBitmap(Bitmap bitmap, File photoFile, String watermarkTimestamp, int saveDelayMs,
+                             long captureMs, String label, Callback callback) {
+        long submitMs = System.currentTimeMillis();
+        execute(() -> {
+            StageTimes times = new StageTimes(captureMs, System.currentTimeMillis() - submitMs);
+            boolean success = false;
+            long size = 0;
+            try {
+                delayUntil(submitMs + saveDelayMs);
+                WorkerState state = WORKER_STATE.get();
+
+                if (watermarkTimestamp != null) {
+                    long start = System.currentTimeMillis();
+                    drawTimestamp(state, bitmap, watermarkTimestamp);
+                    times.watermarkMs = System.currentTimeMillis() - start;
+                }
+
+                long start = System.currentTimeMillis();
+                state.encodeBuffer.reset();
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, state.encodeBuffer)) {
+                    throw new IOException("JPEG compress failed");
+                }
+                times.encodeMs = System.currentTimeMillis() - start;
+
+                ByteBuffer data = state.encodeBuffer.asByteBuffer();
+                size = data.remaining();
+                writeThrottled(data, photoFile, times);
+                success = true;
+            } catch (IOException e) {
+                logWriteFailure(label, e);
+            } catch (RuntimeException e) {
+                AppLog.e(TAG, label + " failed to save photo", e);
+            } finally {
+                releaseBitmap(bitmap);
+            }
+            finish(photoFile, success, size, times, label, callback);
+        }, () -> releaseBitmap(bitmap), photoFile, label, callback);
+    }
+
+    /**
+     * 提交已编码的 JPEG 数据（硬件 JPEG），直接按限速写入文件
+     * @param data JPEG 数据（写入期间不得释放）
+     * @param onDone 写入结束（无论成败）后调用，用于释放数据（如 Image.close）
+     */
+    public void submitEncoded(ByteBuffer data, Runnable onDone, File photoFile, int saveDelayMs,
+                              long captureMs, String label, Callback callback) {
+        long submitMs = System.currentTimeMillis();
+        execute(() -> {
+            StageTimes times = new StageTimes(captureMs, System.currentTimeMillis() - submitMs);
+            boolean success = false;
+            long size = data.remaining();
+            try {
+                delayUntil(submitMs + saveDelayMs);
+                writeThrottled(data, photoFile, times);
+                success = true;
+            } catch (IOException e) {
+                logWriteFailure(label, e);
+            } catch (RuntimeException e) {
+                AppLog.e(TAG, label + " failed to save photo", e);
+            } finally {
+                onDone.run();
+            }
+            finish(photoFile, success, size, times, label, callback);
+        }, onDone, photoFile, label, callback);
+    }
+
+    private void execute(Runnable task, Runnable onRejected, File photoFile, String label, Callback callback) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            AppLog.w(TAG, label + " photo queue full (" + QUEUE_CAPACITY + "), dropped " + photoFile.getName());
+            onRejected.run();
+            failedCount.incrementAndGet();
+            if (callback != null) {
+                callback.onPhotoSaved(photoFile, false);
+            }
+        }
+    }
+
+    private static void delayUntil(long timeMs) {
+        long wait = timeMs - System.currentTimeMillis();
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== 各阶段 ====================
+
+    /**
+     * 每张照片的各阶段耗时
+     */
+    private static final class StageTimes {
+        final long captureMs;
+        final long queueMs;
+        long watermarkMs;
+        long encodeMs;
+        long writeMs;
+        long throttleMs;
+
+        StageTimes(long captureMs, long queueMs) {
+            this.captureMs = captureMs;
+            this.queueMs = queueMs;
+        }
+    }
+
+    private static Paint createWatermarkPaint(int color) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setAntiAlias(true);
+        paint.setTypeface(Typeface.MONOSPACE);
+        return paint;
+    }
+
+    /**
+     * 在 Bitmap 上直接绘制时间角标（左上角，白字黑色阴影）
+     * 各摄像头同一次拍照使用相同时间戳，格式化结果按线程缓存
+     */
+    private static void drawTimestamp(WorkerState state, Bitmap bitmap, String timestamp) {
+        if (!timestamp.equals(state.lastTimestamp)) {
+            String displayTime;
+            try {
+                Date date = state.inputFormat.parse(timestamp);
+                displayTime = state.outputFormat.format(date);
+            } catch (ParseException e) {
+                // 解析失败，使用当前时间
+                displayTime = state.outputFormat.format(new Date());
+            }
+            state.lastTimestamp = timestamp;
+            state.lastDisplayTime = displayTime;
+        }
+
+        // 根据图片宽度动态计算字体大小（约为图片宽度的3%，16~48像素）
+        float textSize = Math.max(16f, Math.min(48f, bitmap.getWidth() * 0.03f));
+        state.shadowPaint.setTextSize(textSize);
+        state.textPaint.setTextSize(textSize);
+
+        // 左上角留一定边距，阴影偏移2像素
+        float x = textSize * 0.5f;
+        float y = textSize * 1.2f;
+        state.canvas.setBitmap(bitmap);
+        state.canvas.drawText(state.lastDisplayTime, x + 2, y + 2, state.shadowPaint);
+        state.canvas.drawText(state.lastDisplayTime, x, y, state.textPaint);
+        state.canvas.setBitmap(null);
+    }
+
+    /**
+     * 按字节限速分块写入文件
+     */
+    private void writeThrottled(ByteBuffer data, File photoFile, StageTimes times) throws IOException {
+        long start = System.currentTimeMillis();
+        int limit = data.limit();
+        try (FileOutputStream output = new FileOutputStream(photoFile)) {
+            FileChannel channel = output.getChannel();
+            while (data.hasRemaining()) {
+                int chunk = Math.min(WRITE_CHUNK_SIZE, data.remaining());
+                times.throttleMs += acquireBytes(chunk);
+                data.limit(data.position() + chunk);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                data.limit(limit);
+            }
+        } finally {
+            data.limit(limit);
+        }
+        times.writeMs = System.currentTimeMillis() - start - times.throttleMs;
+    }
+
+    /**
+     * 从令牌桶取出写入额度，不足时等待；录制器报告写入压力时先让路
+     * @return 等待时间（毫秒）
+     */
+    private long acquireBytes(int bytes) {
+        long start = System.currentTimeMillis();
+        long backoffMs = 0;
+        while (WritePressureMonitor.isUnderPressure() && backoffMs < MAX_BACKOFF_WAIT_MS) {
+            if (!sleepQuietly(BACKOFF_STEP_MS)) {
+                break;
+            }
+            backoffMs += BACKOFF_STEP_MS;
+        }
+        while (true) {
+            long waitMs;
+            synchronized (rateLock) {
+                long now = System.nanoTime();
+                availableBytes = Math.min(MAX_BYTES_PER_SECOND,
+                        availableBytes + (now - lastRefillNs) / 1e9 * MAX_BYTES_PER_SECOND);
+                lastRefillNs = now;
+                if (availableBytes >= bytes) {
+                    availableBytes -= bytes;
+                    break;
+                }
+                waitMs = (long) Math.ceil((bytes - availableBytes) * 1000.0 / MAX_BYTES_PER_SECOND);
+            }
+            if (!sleepQuietly(waitMs)) {
+                break;
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static boolean sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void logWriteFailure(String label, IOException e) {
+        if (e.getMessage() != null && e.getMessage().contains("ENOSPC")) {
+            AppLog.e(TAG, label + " 保存照片失败：存储空间已满");
+        } else {
+            AppLog.e(TAG, label + " failed to save photo", e);
+        }
+    }
+
+    private void finish(File photoFile, boolean success, long size, StageTimes times, String label, Callback callback) {
+        if (success) {
+            int saved = savedCount.incrementAndGet();
+            savedBytes.addAndGet(size);
+            totalCaptureMs.addAndGet(times.captureMs);
+            totalQueueMs.addAndGet(times.queueMs);
+            totalWatermarkMs.addAndGet(times.watermarkMs);
+            totalEncodeMs.addAndGet(times.encodeMs);
+            totalWriteMs.addAndGet(times.writeMs);
+            totalThrottleMs.addAndGet(times.throttleMs);
+            AppLog.d(TAG, String.format(Locale.US,
+                    "%s photo %s (%s): 截图 %dms, 排队 %dms, 角标 %dms, 编码 %dms, 写入 %dms, 限速 %dms",
+                    label, photoFile.getName(), StorageHelper.formatSize(size), times.captureMs, times.queueMs,
+                    times.watermarkMs, times.encodeMs, times.writeMs, times.throttleMs));
+            if (saved % STATS_LOG_INTERVAL == 0) {
+                AppLog.d(TAG, getStats());
+            }
+        } else {
+            failedCount.incrementAndGet();
+        }
+        if (callback != null) {
+            callback.onPhotoSaved(photoFile, success);
+        }
+    }
+
+    /**
+     * 获取保存统计信息
+     */
+    public String getStats() {
+        int count = Math.max(1, savedCount.get());
+        return String.format(Locale.US,
+                "已保存: %d 张 (%s), 失败: %d, 平均 截图 %dms 排队 %dms 角标 %dms 编码 %dms 写入 %dms 限速 %dms, 位图 新建 %d 复用 %d",
+                savedCount.get(), StorageHelper.formatSize(savedBytes.get()), failedCount.get(),
+                totalCaptureMs.get() / count, totalQueueMs.get() / count, totalWatermarkMs.get() / count,
+                totalEncodeMs.get() / count, totalWriteMs.get() / count, totalThrottleMs.get() / count,
+                bitmapsCreated.get(), bitmapsReused.get());
+    }
+}
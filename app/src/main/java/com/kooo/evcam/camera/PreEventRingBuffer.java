@@ -0,0 +1,322 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * 预录环形缓冲
+ * 在堆外内存中保存每路摄像头最近一段时间的编码帧（按 GOP 对齐），
+ * 触发事件时可直接写成独立片段，事件视频包含触发前的画面，无需第二个编码器
+ *
+ * 内存：
+ * - 所有帧数据写入一块固定大小的 direct ByteBuffer（硬性上限），不随录制时长增长
+ * - 空间不足或超出时间窗口时按整个 GOP 淘汰最旧数据，缓冲总是从关键帧开始
+ *
+ * 写出：
+ * writeClip 先锁定当前已缓冲的帧，再在调用线程上写文件；锁定期间编码线程继续追加新帧，
+ * 但不会淘汰被锁定的数据（空间不够时新帧被丢弃，直到下一个关键帧）
+ */
+public class PreEventRingBuffer {
+
+    private final ByteBuffer arena;
+    private final long windowUs;
+    private final int maxEntries;
+
+    // 帧索引（环形，head 为最旧一帧）
+    private final int[] entryOffset;
+    private final int[] entrySize;
+    private final long[] entryPtsUs;
+    private final boolean[] entryKeyFrame;
+    private int head = 0;
+    private int count = 0;
+    private int writePos = 0;      // 下一帧在 arena 中的写入位置
+
+    private MediaFormat format;
+    private boolean waitingForKeyFrame = true;
+    private boolean pinned = false;        // 写出中：已缓冲的帧不可淘汰
+    private boolean clearOnUnpin = false;  // 写出中收到清空请求，写出完成后再清空
+
+    // 统计
+    private long appendedFrames = 0;
+    private long droppedFrames = 0;
+    private long evictedGops = 0;
+
+    /**
+     * 已锁定的帧（写出用）
+     */
+    private static final class Snapshot {
+        MediaFormat format;
+        int[] offset;
+        int[] size;
+        long[] ptsUs;
+        boolean[] keyFrame;
+    }
+
+    /**
+     * @param capacityBytes 帧数据内存上限（堆外）
+     * @param windowUs 保留时长（微秒）
+     * @param maxEntries 最多保留帧数
+     */
+    public PreEventRingBuffer(int capacityBytes, long windowUs, int maxEntries) {
+        this.arena = ByteBuffer.allocateDirect(capacityBytes);
+        this.windowUs = windowUs;
+        this.maxEntries = maxEntries;
+        this.entryOffset = new int[maxEntries];
+        this.entrySize = new int[maxEntries];
+        this.entryPtsUs = new long[maxEntries];
+        this.entryKeyFrame = new boolean[maxEntries];
+    }
+
+    /**
+     * 编码器输出格式（格式变化说明编码器已重建，旧数据无法与新格式混用）
+     */
+    public synchronized void setFormat(MediaFormat format) {
+        if (this.format != null) {
+            clear();
+        }
+        this.format = format;
+    }
+
+    /**
+     * 追加一帧（编码线程），不改变 data 之外的状态
+     * @return 是否已缓冲（等待关键帧或空间被锁定时返回 false）
+     */
+    public synchronized boolean append(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) {
+        if (format == null || clearOnUnpin || size <= 0 || size > arena.capacity()) {
+            return false;
+        }
+        if (waitingForKeyFrame) {
+            if (!keyFrame) {
+                droppedFrames++;
+                return false;
+            }
+            waitingForKeyFrame = false;
+        }
+
+        int position = allocate(size);
+        if (position < 0) {
+            // 空间被锁定：丢弃并等待下一个关键帧，保证缓冲中的 GOP 完整
+            droppedFrames++;
+            waitingForKeyFrame = true;
+            return false;
+        }
+
+        int savedLimit = data.limit();
+        int savedPosition = data.position();
+        data.limit(offset + size);
+        data.position(offset);
+        arena.limit(position + size);
+        arena.position(position);
+        arena.put(data);
+        data.limit(savedLimit);
+        data.position(savedPosition);
+
+        int index = (head + count) % maxEntries;
+        entryOffset[index] = position;
+        entrySize[index] = size;
+        entryPtsUs[index] = presentationTimeUs;
+        entryKeyFrame[index] = keyFrame;
+        count++;
+        writePos = position + size;
+        appendedFrames++;
+
+        trimToWindow(presentationTimeUs);
+        return true;
+    }
+
+    /**
+     * 已缓冲的时长（微秒）
+     */
+    public synchronized long getBufferedDurationUs() {
+        if (count < 2) {
+            return 0;
+        }
+        return entryPtsUs[(head + count - 1) % maxEntries] - entryPtsUs[head];
+    }
+
+    public synchronized int getBufferedFrames() {
+        return count;
+    }
+
+    /**
+     * 已缓冲的字节数
+     */
+    public synchronized long getBufferedBytes() {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += entrySize[(head + i) % maxEntries];
+        }
+        return total;
+    }
+
+    public int getCapacityBytes() {
+        return arena.capacity();
+    }
+
+    /**
+     * 把当前缓冲的帧写入封装器（阻塞，在后台线程调用）
+     * 封装器由本方法 start，调用方负责 close
+     * @return 写入的帧数，缓冲为空时返回 0（此时封装器未 start）
+     */
+    public int writeClip(SegmentMuxer muxer) {
+        return writeClip(muxer, Long.MAX_VALUE);
+    }
+
+    /**
+     * 只写出最近 maxDurationUs 的帧（起点对齐到不晚于该时间的关键帧）
+     * @see #writeClip(SegmentMuxer)
+     */
+    public int writeClip(SegmentMuxer muxer, long maxDurationUs) {
+        Snapshot snapshot = pin();
+        if (snapshot == null) {
+            return 0;
+        }
+        try {
+            int first = 0;
+            long startPtsUs = snapshot.ptsUs[snapshot.ptsUs.length - 1] - maxDurationUs;
+            for (int i = snapshot.ptsUs.length - 1; i > 0; i--) {
+                if (snapshot.keyFrame[i] && snapshot.ptsUs[i] <= startPtsUs) {
+                    first = i;
+                    break;
+                }
+            }
+            muxer.start(snapshot.format);
+            ByteBuffer view = arena.duplicate();
+            long basePtsUs = snapshot.ptsUs[first];
+            for (int i = first; i < snapshot.offset.length; i++) {
+                view.limit(view.capacity());
+                muxer.writeSample(view, snapshot.offset[i], snapshot.size[i],
+                        snapshot.ptsUs[i] - basePtsUs, snapshot.keyFrame[i]);
+            }
+            return snapshot.offset.length - first;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * 丢弃所有缓冲（写出中的数据在写出完成后失效）
+     */
+    public synchronized void clear() {
+        if (pinned) {
+            clearOnUnpin = true;
+        } else {
+            clearLocked();
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public synchronized String getStats() {
+        return String.format(Locale.US, "预录缓冲: %d 帧 %.1fs %dKB/%dKB, 追加 %d, 丢弃 %d, 淘汰 %d GOP",
+                count, getBufferedDurationUs() / 1e6, getBufferedBytes() / 1024, arena.capacity() / 1024,
+                appendedFrames, droppedFrames, evictedGops);
+    }
+
+    // ==================== 内部实现 ====================
+
+    private synchronized Snapshot pin() {
+        if (format == null || count == 0 || pinned || clearOnUnpin) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot();
+        snapshot.format = format;
+        snapshot.offset = new int[count];
+        snapshot.size = new int[count];
+        snapshot.ptsUs = new long[count];
+        snapshot.keyFrame = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % maxEntries;
+            snapshot.offset[i] = entryOffset[index];
+            snapshot.size[i] = entrySize[index];
+            snapshot.ptsUs[i] = entryPtsUs[index];
+            snapshot.keyFrame[i] = entryKeyFrame[index];
+        }
+        pinned = true;
+        return snapshot;
+    }
+
+    private synchronized void unpin() {
+        pinned = false;
+        if (clearOnUnpin) {
+            clearOnUnpin = false;
+            clearLocked();
+        }
+    }
+
+    /**
+     * 为一帧分配连续空间，不够时按 GOP 淘汰最旧数据
+     * @return 写入位置，空间被锁定时返回 -1
+     */
+    private int allocate(int size) {
+        while (true) {
+            if (count == 0) {
+                return 0;
+            }
+            if (count < maxEntries) {
+                int headOffset = entryOffset[head];
+                if (writePos > headOffset) {
+                    // 未回绕：优先写在尾部，尾部不够时回绕到开头
+                    if (arena.capacity() - writePos >= size) {
+                        return writePos;
+                    }
+                    if (headOffset >= size) {
+                        return 0;
+                    }
+                } else if (headOffset - writePos >= size) {
+                    // 已回绕：写在尾部与最旧帧之间
+                    return writePos;
+                }
+            }
+            if (!evictOldestGop()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 淘汰最旧的一个 GOP
+     * @return 被锁定无法淘汰时返回 false
+     */
+    private boolean evictOldestGop() {
+        if (count == 0 || pinned) {
+            return false;
+        }
+        do {
+            head = (head + 1) % maxEntries;
+            count--;
+        } while (count > 0 && !entryKeyFrame[head]);
+        evictedGops++;
+        return true;
+    }
+
+    /**
+     * 超出时间窗口时淘汰最旧的 GOP（淘汰后仍需覆盖整个窗口）
+     */
+    private void trimToWindow(long newestPtsUs) {
+        while (count > 0 && !pinned) {
+            int nextKey = -1;
+            for (int i = 1; i < count; i++) {
+                int index = (head + i) % maxEntries;
+                if (entryKeyFrame[index]) {
+                    nextKey = index;
+                    break;
+                }
+            }
+            if (nextKey < 0 || newestPtsUs - entryPtsUs[nextKey] < windowUs) {
+                return;
+            }
+            evictOldestGop();
+        }
+    }
+
+    private void clearLocked() {
+        head = 0;
+        count = 0;
+        writePos = 0;
+        waitingForKeyFrame = true;
+    }
+}
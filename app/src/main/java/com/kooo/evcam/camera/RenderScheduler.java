@@ -0,0 +1,235 @@
+package com.kooo.evcam.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 多路渲染调度器（共享渲染线程的调度与公平性逻辑）
+ * 不依赖 Android/GL，具体绘制通过 {@link Renderer} 完成，可用假渲染器单独测试
+ *
+ * - 各路 SurfaceTexture 的新帧只做标记，每个 vsync 统一绘制一批
+ * - 同一路在一批中只绘制一次：期间到达的多帧先消费旧帧、只绘制最新一帧
+ * - 一批超出时间预算时，剩余各路推迟到下一个 vsync，并从被推迟的那一路开始（轮转），
+ *   避免排在后面的摄像头一直被饿死
+ * - 统计每一路的绘制次数、丢弃帧数、推迟次数和绘制耗时
+ *
+ * 非线程安全的部分只在渲染线程调用；统计快照可在任意线程读取
+ */
+public class RenderScheduler {
+
+    /**
+     * 渲染器（GL 抽象）
+     */
+    public interface Renderer {
+        /**
+         * 绘制一帧（渲染线程调用）
+         * @param pendingFrames 自上次绘制以来到达的帧数（≥1），多出的帧应先消费掉
+         * @param frameTimeNanos 本批次的 vsync 时间（没有 vsync、由兜底定时器绘制时为 elapsedRealtimeNanos）
+         */
+        void render(int pendingFrames, long frameTimeNanos);
+    }
+
+    /**
+     * 时钟（测试时可替换）
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * 单路渲染目标
+     */
+    public static final class Target {
+        private final String name;
+        private final Renderer renderer;
+        private int pendingFrames;
+
+        // 统计（当前统计周期）
+        private long renderCount;
+        private long droppedFrames;
+        private long deferredCount;
+        private long totalRenderNs;
+        private long maxRenderNs;
+
+        private Target(String name, Renderer renderer) {
+            this.name = name;
+            this.renderer = renderer;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * 单路统计快照
+     */
+    public static final class Stats {
+        public final String name;
+        public final long renderCount;
+        public final long droppedFrames;
+        public final long deferredCount;
+        public final long avgRenderUs;
+        public final long maxRenderUs;
+
+        Stats(Target target) {
+            this.name = target.name;
+            this.renderCount = target.renderCount;
+            this.droppedFrames = target.droppedFrames;
+            this.deferredCount = target.deferredCount;
+            this.avgRenderUs = target.renderCount > 0 ? target.totalRenderNs / target.renderCount / 1000 : 0;
+            this.maxRenderUs = target.maxRenderNs / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d帧 平均%.1fms 最大%.1fms 丢弃%d 推迟%d",
+                    name, renderCount, avgRenderUs / 1000f, maxRenderUs / 1000f, droppedFrames, deferredCount);
+        }
+    }
+
+    private final List<Target> targets = new ArrayList<>();
+    private final Clock clock;
+    private final long batchBudgetNs;
+    private int cursor = 0;  // 下一批从哪一路开始
+    private boolean batchScheduled = false;
+
+    /**
+     * @param clock 时钟
+     * @param batchBudgetNs 每批绘制的时间预算（纳秒），超出后剩余各路推迟到下一批
+     */
+    public RenderScheduler(Clock clock, long batchBudgetNs) {
+        this.clock = clock;
+        this.batchBudgetNs = batchBudgetNs;
+    }
+
+    public synchronized Target register(String name, Renderer renderer) {
+        Target target = new Target(name, renderer);
+        targets.add(target);
+        return target;
+    }
+
+    public synchronized void unregister(Target target) {
+        int index = targets.indexOf(target);
+        if (index < 0) {
+            return;
+        }
+        targets.remove(index);
+        if (index < cursor) {
+            cursor--;
+        }
+        if (cursor >= targets.size()) {
+            cursor = 0;
+        }
+    }
+
+    /**
+     * 某一路有新帧到达
+     * @return 是否需要安排下一批（尚未安排时返回 true，调用方应请求下一个 vsync）
+     */
+    public synchronized boolean onFrameAvailable(Target target) {
+        if (!targets.contains(target)) {
+            return false;
+        }
+        target.pendingFrames++;
+        if (batchScheduled) {
+            return false;
+        }
+        batchScheduled = true;
+        return true;
+    }
+
+    /**
+     * 绘制一批（vsync 回调中调用）
+     * @return 是否还有推迟的帧（调用方应再请求一个 vsync）
+     */
+    public boolean runBatch(long frameTimeNanos) {
+        List<Target> order;
+        synchronized (this) {
+            batchScheduled = false;
+            order = new ArrayList<>(targets.size());
+            for (int i = 0; i < targets.size(); i++) {
+                order.add(targets.get((cursor + i) % targets.size()));
+            }
+        }
+
+        long batchStartNs = clock.nanoTime();
+        int rendered = 0;
+        boolean deferred = false;
+        for (Target target : order) {
+            int pending;
+            synchronized (this) {
+                pending = target.pendingFrames;
+                if (pending == 0 || !targets.contains(target)) {
+                    continue;
+                }
+                // 至少绘制一路，避免预算过小时永远无法前进
+                if (rendered > 0 && clock.nanoTime() - batchStartNs > batchBudgetNs) {
+                    target.deferredCount++;
+                    if (!deferred) {
+                        deferred = true;
+                        cursor = targets.indexOf(target);
+                    }
+                    continue;
+                }
+                target.pendingFrames = 0;
+            }
+
+            long startNs = clock.nanoTime();
+            target.renderer.render(pending, frameTimeNanos);
+            long elapsedNs = clock.nanoTime() - startNs;
+            rendered++;
+
+            synchronized (this) {
+                target.renderCount++;
+                target.droppedFrames += pending - 1;
+                target.totalRenderNs += elapsedNs;
+                target.maxRenderNs = Math.max(target.maxRenderNs, elapsedNs);
+            }
+        }
+
+        synchronized (this) {
+            if (!deferred && !targets.isEmpty()) {
+                cursor = (cursor + 1) % targets.size();  // 无推迟时也轮转起点
+            }
+            if (deferred || hasPendingFrames()) {
+                batchScheduled = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private boolean hasPendingFrames() {
+        for (Target target : targets) {
+            if (target.pendingFrames > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取各路统计快照
+     * @param reset 是否开始新的统计周期
+     */
+    public synchronized List<Stats> getStats(boolean reset) {
+        List<Stats> result = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            result.add(new Stats(target));
+            if (reset) {
+                target.renderCount = 0;
+                target.droppedFrames = 0;
+                target.deferredCount = 0;
+                target.totalRenderNs = 0;
+                target.maxRenderNs = 0;
+            }
+        }
+        return result;
+    }
+
+    public synchronized int getTargetCount() {
+        return targets.size();
+    }
+}
@@ -0,0 +1,49 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分段封装器
+ * 把编码后的视频帧写入一个分段文件。SegmentSplitter 只通过此接口写入，
+ * 与具体封装实现（MediaMuxer 等）解耦，分段切换逻辑可以用假的实现测试
+ */
+public interface SegmentMuxer {
+
+    /**
+     * 为指定路径创建封装器（创建后尚未开始写入）
+     */
+    interface Factory {
+        SegmentMuxer create(String path) throws IOException;
+    }
+
+    /**
+     * 添加视频轨道并开始写入
+     * @param format 编码器输出格式（包含 csd 配置数据）
+     */
+    void start(MediaFormat format);
+
+    /**
+     * 写入一帧编码数据
+     * @param presentationTimeUs 分段内的显示时间戳（微秒）
+     * @param keyFrame 是否为关键帧
+     */
+    void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame);
+
+    boolean isStarted();
+
+    /**
+     * 已写入的帧数据量（预分配时文件长度不反映写入进度，以此为准）
+     */
+    long getWrittenBytes();
+
+    String getPath();
+
+    /**
+     * 结束写入并释放资源（未开始时只释放）
+     * @return false 表示收尾失败，文件可能不完整
+     */
+    boolean close();
+}
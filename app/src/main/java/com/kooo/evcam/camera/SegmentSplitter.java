@@ -0,0 +1,193 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 无缝分段切换
+ * 编码器在分段边界不停止：收到切换请求后，当前分段继续写入，直到编码器输出下一个关键帧；
+ * 在该关键帧处打开新分段并把它作为新文件的第一帧，相邻文件之间不丢帧
+ * （调用方在请求切换时应让编码器立即产生同步帧，最迟也会在下一个 I 帧间隔处切换）
+ *
+ * 新分段先创建并开始写入，再把旧分段交给调用方收尾（MediaMuxer.stop 写索引较慢，可在其他线程执行）；
+ * 新分段创建失败时继续写入旧分段，不中断录制
+ *
+ * 只依赖 SegmentMuxer 接口，不直接使用 MediaMuxer/MediaCodec；编码器输出格式（MediaFormat）
+ * 只原样转交给封装器，不读取其中内容，本地单元测试中用桩对象代替（见 SegmentSplitterTest）
+ * 方法均已同步：异步编码模式下写入在封装线程、切换请求在渲染线程
+ */
+public class SegmentSplitter {
+
+    /**
+     * 分段事件（在写入线程上回调）
+     */
+    public interface Listener {
+        /**
+         * 已切换到新分段
+         * @param completed 已停止写入的旧分段，调用方负责 close()
+         * @param nextPath 新分段路径（第一个关键帧已写入）
+         */
+        void onSegmentSwitched(SegmentMuxer completed, String nextPath);
+
+        /**
+         * 新分段创建失败，继续写入当前分段
+         */
+        void onSplitFailed(String nextPath, Exception error);
+    }
+
+    private final SegmentMuxer.Factory factory;
+    private final long frameDurationUs;
+    private final Listener listener;
+
+    private SegmentMuxer current;
+    private MediaFormat outputFormat;   // 编码器输出格式（不透明，新分段直接复用）
+    private String pendingPath;         // 等待关键帧的切换请求
+    private long segmentFrameCount = 0;
+    private long framesWaitedForKeyFrame = 0;
+
+    // 统计
+    private long splitCount = 0;
+    private long totalFramesWaited = 0;
+
+    /**
+     * @param frameDurationUs 每帧时长（微秒），分段内时间戳按帧序号计算
+     */
+    public SegmentSplitter(SegmentMuxer.Factory factory, long frameDurationUs, Listener listener) {
+        this.factory = factory;
+        this.frameDurationUs = frameDurationUs;
+        this.listener = listener;
+    }
+
+    /**
+     * 打开新分段（开始录制、重建编码器后使用；正常分段切换使用 requestSplit）
+     * 已知编码器输出格式时立即开始写入，否则等待 onOutputFormat
+     */
+    public synchronized void open(String path) throws IOException {
+        close();
+        current = factory.create(path);
+        segmentFrameCount = 0;
+        if (outputFormat != null) {
+            current.start(outputFormat);
+        }
+    }
+
+    /**
+     * 编码器已重建：旧的输出格式不再适用
+     */
+    public synchronized void onEncoderReset() {
+        outputFormat = null;
+    }
+
+    /**
+     * 编码器输出格式确定
+     * @return true 如果当前分段因此开始写入
+     */
+    public synchronized boolean onOutputFormat(MediaFormat format) {
+        outputFormat = format;
+        if (current != null && !current.isStarted()) {
+            current.start(format);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 请求在下一个关键帧处切换到新分段（重复请求时以最后一次为准）
+     */
+    public synchronized void requestSplit(String nextPath) {
+        pendingPath = nextPath;
+        framesWaitedForKeyFrame = 0;
+    }
+
+    public synchronized boolean isSplitPending() {
+        return pendingPath != null;
+    }
+
+    /**
+     * 写入一帧编码数据
+     * @return false 如果当前没有已开始的分段（数据被丢弃）
+     */
+    public synchronized boolean writeSample(ByteBuffer data, int offset, int size, boolean keyFrame) {
+        if (current == null || !current.isStarted()) {
+            return false;
+        }
+        if (pendingPath != null) {
+            if (keyFrame) {
+                rollover();
+            } else {
+                framesWaitedForKeyFrame++;
+            }
+        }
+        current.writeSample(data, offset, size, segmentFrameCount * frameDurationUs, keyFrame);
+        segmentFrameCount++;
+        return true;
+    }
+
+    private void rollover() {
+        String nextPath = pendingPath;
+        pendingPath = null;
+
+        SegmentMuxer next = null;
+        try {
+            next = factory.create(nextPath);
+            next.start(outputFormat);
+        } catch (Exception e) {
+            if (next != null) {
+                next.close();
+            }
+            listener.onSplitFailed(nextPath, e);
+            return;
+        }
+
+        SegmentMuxer completed = current;
+        current = next;
+        segmentFrameCount = 0;
+        splitCount++;
+        totalFramesWaited += framesWaitedForKeyFrame;
+        listener.onSegmentSwitched(completed, nextPath);
+    }
+
+    /**
+     * 同步结束当前分段，取消未完成的切换请求
+     * @return false 如果收尾失败
+     */
+    public synchronized boolean close() {
+        pendingPath = null;
+        SegmentMuxer muxer = current;
+        current = null;
+        return muxer == null || muxer.close();
+    }
+
+    public synchronized boolean hasCurrent() {
+        return current != null;
+    }
+
+    public synchronized boolean isStarted() {
+        return current != null && current.isStarted();
+    }
+
+    public synchronized String getCurrentPath() {
+        return current != null ? current.getPath() : null;
+    }
+
+    public synchronized long getCurrentWrittenBytes() {
+        return current != null ? current.getWrittenBytes() : 0;
+    }
+
+    public synchronized long getSegmentFrameCount() {
+        return segmentFrameCount;
+    }
+
+    public synchronized long getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * 平均每次切换等待关键帧的帧数（这些帧写入旧分段，不丢失）
+     */
+    public synchronized double getAverageFramesWaited() {
+        return splitCount > 0 ? (double) totalFramesWaited / splitCount : 0;
+    }
+}
@@ -0,0 +1,354 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.kooo.evcam.AppLog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享渲染线程
+ * 所有摄像头的录制渲染（EglSurfaceEncoder）和鱼眼矫正预览（FisheyeCorrector）共用一个线程、一个 EGL context，
+ * 替代每路各自的 HandlerThread + EGL context（四路摄像头加补盲输出时最多八个）
+ *
+ * - 各组件只创建自己的 EGL window surface、纹理和着色器，context 由这里统一创建和销毁
+ * - 各路 SurfaceTexture 的帧回调都投递到本线程，由 {@link RenderScheduler} 合并到 vsync 统一绘制
+ * - 息屏或后台时系统停发 vsync，约 1.5 个帧间隔内没有收到 vsync 就用 Handler 直接绘制，录制不中断
+ * - 引用计数管理生命周期：第一个使用者 acquire 时启动，最后一个 release 时退出
+ * - 定期输出每一路的绘制耗时统计
+ */
+public class SharedRenderThread {
+    private static final String TAG = "SharedRenderThread";
+
+    private static final long BATCH_BUDGET_NS = 12_000_000L;  // 每批绘制预算（留出余量给 60Hz vsync）
+    private static final long STATS_INTERVAL_MS = 30_000L;    // 统计输出间隔
+    private static final long SYNC_TIMEOUT_MS = 3000;
+    private static final long VSYNC_FALLBACK_MS = 25;         // 约 1.5 个 60Hz 帧间隔没有 vsync 时直接绘制
+
+    private static SharedRenderThread instance;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private Choreographer choreographer;
+    private final RenderScheduler scheduler = new RenderScheduler(System::nanoTime, BATCH_BUDGET_NS);
+    private int refCount = 0;
+    private int fallbackBatches = 0;  // 统计周期内没有等到 vsync、由 Handler 绘制的批次数
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLConfig eglConfig;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;  // 没有输出 Surface 时保持 context 可用
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (handler != null) {
+                handler.removeCallbacks(vsyncFallback);
+            }
+            runBatch(frameTimeNanos);
+        }
+    };
+
+    // vsync 未按时到达（屏幕关闭时 Choreographer 不再回调）：取消等待中的 vsync 回调，直接绘制
+    private final Runnable vsyncFallback = new Runnable() {
+        @Override
+        public void run() {
+            if (choreographer != null) {
+                choreographer.removeFrameCallback(frameCallback);
+            }
+            fallbackBatches++;
+            runBatch(SystemClock.elapsedRealtimeNanos());
+        }
+    };
+
+    private final Runnable statsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (RenderScheduler.Stats stats : scheduler.getStats(true)) {
+                if (stats.renderCount > 0 || stats.deferredCount > 0) {
+                    AppLog.d(TAG, stats.toString());
+                }
+            }
+            if (fallbackBatches > 0) {
+                AppLog.d(TAG, "No vsync for " + fallbackBatches + " batches in the last " +
+                        (STATS_INTERVAL_MS / 1000) + "s, rendered by fallback timer");
+                fallbackBatches = 0;
+            }
+            if (handler != null) {
+                handler.postDelayed(this, STATS_INTERVAL_MS);
+            }
+        }
+    };
+
+    public static synchronized SharedRenderThread getInstance() {
+        if (instance == null) {
+            instance = new SharedRenderThread();
+        }
+        return instance;
+    }
+
+    private SharedRenderThread() {
+    }
+
+    /**
+     * 获取使用权（第一次调用时启动线程并创建 EGL context）
+     * @throws RuntimeException EGL 初始化失败
+     */
+    public synchronized void acquire() {
+        if (refCount++ > 0) {
+            return;
+        }
+        thread = new HandlerThread("SharedRender") {
+            @Override
+            protected void onLooperPrepared() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            }
+        };
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        try {
+            runSync(() -> {
+                initEgl();
+                choreographer = Choreographer.getInstance();  // 绑定到本线程的 Looper
+            });
+        } catch (RuntimeException e) {
+            refCount = 0;
+            shutdown();
+            throw e;
+        }
+        handler.postDelayed(statsRunnable, STATS_INTERVAL_MS);
+        AppLog.d(TAG, "Shared render thread started");
+    }
+
+    /**
+     * 释放使用权（最后一个使用者释放时销毁 EGL context 并退出线程）
+     */
+    public synchronized void release() {
+        if (refCount == 0) {
+            return;
+        }
+        if (--refCount > 0) {
+            return;
+        }
+        shutdown();
+        AppLog.d(TAG, "Shared render thread stopped");
+    }
+
+    private void shutdown() {
+        if (handler == null) {
+            return;
+        }
+        handler.removeCallbacks(statsRunnable);
+        try {
+            runSync(() -> {
+                if (choreographer != null) {
+                    choreographer.removeFrameCallback(frameCallback);
+                    choreographer = null;
+                }
+                handler.removeCallbacks(vsyncFallback);
+                releaseEgl();
+            });
+        } catch (RuntimeException e) {
+            AppLog.w(TAG, "Error releasing shared EGL: " + e.getMessage());
+        }
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public boolean isRenderThread() {
+        return handler != null && Looper.myLooper() == handler.getLooper();
+    }
+
+    /**
+     * 在渲染线程同步执行（已在渲染线程时直接执行）
+     * @throws RuntimeException 执行出错或超时
+     */
+    public void runSync(Runnable task) {
+        Handler renderHandler = handler;
+        if (renderHandler == null) {
+            throw new IllegalStateException("Shared render thread not running");
+        }
+        if (Looper.myLooper() == renderHandler.getLooper()) {
+            task.run();
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        RuntimeException[] error = {null};
+        renderHandler.post(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                error[0] = e;
+            } finally {
+                latch.countDown();
+            }
+        });
+        try {
+            if (!latch.await(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Timeout waiting for shared render thread");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for shared render thread", e);
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    // ==================== 调度 ====================
+
+    /**
+     * 注册一路渲染目标
+     * @param name 统计中显示的名称（如 "encoder-0"、"fisheye-1"）
+     */
+    public RenderScheduler.Target register(String name, RenderScheduler.Renderer renderer) {
+        return scheduler.register(name, renderer);
+    }
+
+    public void unregister(RenderScheduler.Target target) {
+        if (target != null) {
+            scheduler.unregister(target);
+        }
+    }
+
+    /**
+     * 把 SurfaceTexture 的帧回调接到调度器（回调在渲染线程执行）
+     */
+    public void attach(SurfaceTexture surfaceTexture, RenderScheduler.Target target) {
+        surfaceTexture.setOnFrameAvailableListener(st -> requestRender(target), handler);
+    }
+
+    /**
+     * 某一路有新帧，安排到下一个 vsync 绘制（渲染线程调用）
+     */
+    public void requestRender(RenderScheduler.Target target) {
+        if (scheduler.onFrameAvailable(target)) {
+            scheduleBatch();
+        }
+    }
+
+    /**
+     * 请求下一个 vsync，同时安排超时兜底（两者先到者绘制，另一个被取消）
+     */
+    private void scheduleBatch() {
+        if (choreographer == null || handler == null) {
+            return;
+        }
+        choreographer.postFrameCallback(frameCallback);
+        handler.removeCallbacks(vsyncFallback);
+        handler.postDelayed(vsyncFallback, VSYNC_FALLBACK_MS);
+    }
+
+    private void runBatch(long frameTimeNanos) {
+        if (scheduler.runBatch(frameTimeNanos)) {
+            scheduleBatch();
+        }
+    }
+
+    // ==================== EGL ====================
+
+    public EGLDisplay getEglDisplay() {
+        return eglDisplay;
+    }
+
+    public EGLConfig getEglConfig() {
+        return eglConfig;
+    }
+
+    public EGLContext getEglContext() {
+        return eglContext;
+    }
+
+    /**
+     * 切换到内部 pbuffer（组件销毁自己的 window surface 前调用，保持 context 可用）
+     */
+    public void makeDefaultCurrent() {
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+    }
+
+    private void initEgl() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("Unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("Unable to initialize EGL14");
+        }
+
+        // 同时满足录制（MediaCodec 输入 Surface）和预览（TextureView）
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
+                EGLExt.EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attribList, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+            throw new RuntimeException("Unable to find suitable EGL config");
+        }
+        eglConfig = configs[0];
+
+        int[] contextAttribList = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttribList, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("Unable to create EGL context");
+        }
+
+        int[] pbufferAttribList = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, pbufferAttribList, 0);
+        if (pbufferSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create EGL pbuffer surface");
+        }
+        makeDefaultCurrent();
+        AppLog.d(TAG, "Shared EGL context created: " + version[0] + "." + version[1]);
+    }
+
+    private void releaseEgl() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        if (pbufferSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+            pbufferSurface = EGL14.EGL_NO_SURFACE;
+        }
+        if (eglContext != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+            eglContext = EGL14.EGL_NO_CONTEXT;
+        }
+        // 不调用 eglTerminate：默认 display 由进程内其他未共享的 EGL 使用者共用
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+    }
+}
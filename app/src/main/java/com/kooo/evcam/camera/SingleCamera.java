@@ -4,6 +4,7 @@ package com.kooo.evcam.camera;
 import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.storage.StorageIndex;
 import android.content.Context;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
@@ -32,7 +33,6 @@ import android.view.TextureView;
 import androidx.annotation.NonNull;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
@@ -69,7 +69,13 @@ public class SingleCamera {
     private android.graphics.SurfaceTexture fullscreenPreviewSurfaceTexture; // 全屏预览SurfaceTexture（用于设置buffer尺寸）
     private OutputConfiguration activePreviewConfig; // 共享预览配置，用于动态 Surface 增减
     private Surface previewSurface;  // 预览Surface（缓存以避免重复创建）
-    private ImageReader imageReader;  // 用于拍照的ImageReader
+    private ImageReader imageReader;  // 用于拍照的ImageReader（硬件 JPEG 流）
+    private Size jpegSize;  // 硬件 JPEG 尺寸（未启用硬件 JPEG 拍照时为 null）
+    private boolean jpegStreamUnsupported = false;  // 加入 JPEG 流后会话配置失败，本次打开期间不再尝试
+    private volatile boolean jpegStreamActive = false;  // 当前会话是否包含 JPEG 流
+    private final java.util.ArrayDeque<PendingJpeg> pendingJpegs = new java.util.ArrayDeque<>();  // 已提交、等待图像的拍照请求
+    private static final int JPEG_QUALITY = 90;
+    private static final int JPEG_MAX_IMAGES = 2;
     private boolean singleOutputMode = false;  // 单一输出模式（用于不支持多路输出的车机平台）
     
     // 鱼眼矫正
@@ -542,8 +548,7 @@ public class SingleCamera {
      */
     private Size chooseOptimalSize(Size[] sizes) {
         // 从配置获取目标分辨率
-        AppConfig appConfig = new AppConfig(context);
-        String targetResolution = appConfig.getTargetResolution();
+        String targetResolution = AppConfig.snapshot(context).targetResolution;
         
         int targetWidth;
         int targetHeight;
@@ -842,9 +847,14 @@ public class SingleCamera {
                 previewSize = chooseOptimalSize(sizes);
                 AppLog.d(TAG, "Camera " + cameraId + " selected preview size: " + previewSize);
 
-                // 不在这里初始化ImageReader，改为拍照时按需创建
-                // 这样可以避免占用额外的缓冲区，防止超过系统限制(4个buffer)
-                AppLog.d(TAG, "Camera " + cameraId + " ImageReader will be created on demand when taking picture");
+                // 硬件 JPEG 拍照：ImageReader 在创建会话时按需创建（默认关闭，沿用 TextureView 截图，
+                // 避免占用额外的缓冲区，防止超过系统限制(4个buffer)）
+                jpegStreamUnsupported = false;
+                jpegSize = null;
+                if (AppConfig.snapshot(context).hardwareJpegCaptureEnabled) {
+                    jpegSize = chooseJpegSize(map.getOutputSizes(ImageFormat.JPEG));
+                    AppLog.d(TAG, "Camera " + cameraId + " hardware JPEG size: " + jpegSize);
+                }
 
                 // 通知回调预览尺寸已确定
                 if (callback != null && previewSize != null) {
@@ -1273,6 +1283,9 @@ public class SingleCamera {
                             int pw = previewSize != null ? previewSize.getWidth() : textureView.getWidth();
                             int ph = previewSize != null ? previewSize.getHeight() : textureView.getHeight();
                             fisheyeCorrector = new FisheyeCorrector(cameraId, cameraPosition, pw, ph);
+                            if (fisheyeConfig.isSharedRenderThreadEnabled()) {
+                                fisheyeCorrector.setSharedRenderThread(SharedRenderThread.getInstance());
+                            }
                             Surface tvSurface = new Surface(surfaceTexture);
                             previewSurface = fisheyeCorrector.initialize(tvSurface, backgroundHandler);
                             fisheyeCorrector.loadParams(fisheyeConfig);
@@ -1303,6 +1316,9 @@ public class SingleCamera {
                         int pw = previewSize != null ? previewSize.getWidth() : 1920;
                         int ph = previewSize != null ? previewSize.getHeight() : 1080;
                         fisheyeCorrector = new FisheyeCorrector(cameraId, cameraPosition, pw, ph);
+                        if (fisheyeConfig.isSharedRenderThreadEnabled()) {
+                            fisheyeCorrector.setSharedRenderThread(SharedRenderThread.getInstance());
+                        }
                         previewSurface = fisheyeCorrector.initialize(mainFloatingSurface, backgroundHandler);
                         fisheyeCorrector.loadParams(fisheyeConfig);
                         AppLog.d(TAG, "Camera " + cameraId + " fisheye corrector active (no textureView, using mainFloatingSurface)");
@@ -1368,6 +1384,8 @@ public class SingleCamera {
             // 准备所有输出Surface
             java.util.List<Surface> surfaces = new java.util.ArrayList<>();
             java.util.List<OutputConfiguration> outputConfigs = new java.util.ArrayList<>();
+            jpegStreamActive = false;
+            boolean jpegStreamAdded = false;
 
             // 单一输出模式处理（用于 L6/L7 等不支持多路输出的车机平台）
             if (singleOutputMode && recordSurface != null && recordSurface.isValid()) {
@@ -1495,7 +1513,15 @@ public class SingleCamera {
                     previewRequestBuilder.addTarget(recordSurface);
                     AppLog.d(TAG, "Added record surface as SEPARATE stream");
                 }
+
+                // 硬件 JPEG 流：只在拍照的单次请求中作为目标，不加入预览重复请求
+                if (!outputConfigs.isEmpty() && ensureJpegReader()) {
+                    outputConfigs.add(new OutputConfiguration(imageReader.getSurface()));
+                    jpegStreamAdded = true;
+                    AppLog.d(TAG, "Added JPEG surface as SEPARATE stream (" + jpegSize + ")");
+                }
             }
+            final boolean withJpegStream = jpegStreamAdded;
 
             if (outputConfigs.isEmpty()) {
                 AppLog.w(TAG, "Camera " + cameraId + " No valid surfaces for session, skipping configuration");
@@ -1554,6 +1580,7 @@ public class SingleCamera {
                     }
 
                     captureSession = session;
+                    jpegStreamActive = withJpegStream;
                     try {
                         frameCount = 0;
                         lastFrameLogTime = System.currentTimeMillis();
@@ -1592,6 +1619,19 @@ public class SingleCamera {
                         createCameraPreviewSession();
                         return;
                     }
+
+                    // 加入 JPEG 流后失败：去掉 JPEG 流重试，拍照回退到 TextureView 截图
+                    if (withJpegStream) {
+                        AppLog.w(TAG, "Camera " + cameraId + " session with JPEG stream failed, falling back to TextureView capture");
+                        jpegStreamUnsupported = true;
+                        releaseJpegReader();
+                        if (backgroundHandler != null) {
+                            backgroundHandler.postDelayed(() -> {
+                                if (cameraDevice != null) createCameraPreviewSession();
+                            }, 100);
+                        }
+                        return;
+                    }
                     
                     // 重试逻辑
                     boolean fisheyeActive = (fisheyeCorrector != null && fisheyeCorrector.isInitialized());
@@ -2061,6 +2101,28 @@ public class SingleCamera {
         }
     }
 
+    /**
+     * 获取当前预览画面，按目标 Bitmap 的尺寸缩放写入（用于心跳推图，复用调用方的 Bitmap）
+     * 注意：必须在主线程调用
+     *
+     * @param target 目标 Bitmap（ARGB_8888，可写）
+     * @return 是否成功
+     */
+    public boolean captureBitmap(android.graphics.Bitmap target) {
+        if (textureView == null || !textureView.isAvailable()) {
+            AppLog.w(TAG, "Camera " + cameraId + " TextureView not available for capture");
+            return false;
+        }
+
+        try {
+            textureView.getBitmap(target);
+            return true;
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " failed to capture bitmap", e);
+            return false;
+        }
+    }
+
     /**
      * 拍照（自动生成时间戳）
      */
@@ -2084,6 +2146,28 @@ public class SingleCamera {
      * @param saveDelayMs 保存文件前的延迟时间（毫秒）
      */
     public void takePicture(String timestamp, int saveDelayMs) {
+        takePicture(timestamp, saveDelayMs, AppConfig.snapshot(context).timestampWatermarkEnabled);
+    }
+
+    /**
+     * 拍照（使用指定的时间戳、保存延迟和时间角标设置）
+     * 截图之后的角标、编码和写盘交给 {@link PhotoPipeline}，不占用摄像头后台线程
+     * @param timestamp 文件命名用的时间戳
+     * @param saveDelayMs 保存文件前的延迟时间（毫秒，在保存线程中等待）
+     * @param timestampWatermark 是否添加时间角标（多摄像头拍照时由调用方统一读取配置）
+     */
+    public void takePicture(String timestamp, int saveDelayMs, boolean timestampWatermark) {
+        if (jpegStreamActive && captureSession != null && backgroundHandler != null) {
+            backgroundHandler.post(() -> captureJpeg(timestamp, saveDelayMs, timestampWatermark));
+            return;
+        }
+        takeTextureViewPicture(timestamp, saveDelayMs, timestampWatermark);
+    }
+
+    /**
+     * 拍照（从 TextureView 截图，未启用硬件 JPEG 或 JPEG 流不可用时使用）
+     */
+    private void takeTextureViewPicture(String timestamp, int saveDelayMs, boolean timestampWatermark) {
         if (textureView == null || !textureView.isAvailable()) {
             AppLog.e(TAG, "Camera " + cameraId + " TextureView not available");
             return;
@@ -2094,56 +2178,45 @@ public class SingleCamera {
             return;
         }
 
-        // 在后台线程中处理截图和保存
+        // 在后台线程中截图，保存交给拍照流水线
         if (backgroundHandler != null) {
             backgroundHandler.post(() -> {
+                PhotoPipeline pipeline = PhotoPipeline.getInstance();
+                android.graphics.Bitmap bitmap = null;
                 try {
-                    // 1. 立即从TextureView获取Bitmap（快速抓拍）
-                    android.graphics.Bitmap bitmap = textureView.getBitmap(
-                            previewSize.getWidth(),
-                            previewSize.getHeight()
-                    );
-                    
-                    if (bitmap != null) {
-                        AppLog.d(TAG, "Camera " + cameraId + " picture captured (" +
-                              bitmap.getWidth() + "x" + bitmap.getHeight() + "), will save in " + saveDelayMs + "ms");
-                        
-                        // 2. 延迟后再保存到磁盘（分散I/O压力）
-                        if (saveDelayMs > 0) {
-                            try {
-                                Thread.sleep(saveDelayMs);
-                            } catch (InterruptedException e) {
-                                AppLog.w(TAG, "Save delay interrupted");
-                            }
-                        }
-                        
-                        // 3. 保存文件
-                        saveBitmapAsJPEG(bitmap, timestamp);
-                        bitmap.recycle();
-                        AppLog.d(TAG, "Camera " + cameraId + " picture saved");
-                    } else {
-                        AppLog.e(TAG, "Camera " + cameraId + " failed to get bitmap from TextureView");
-                    }
+                    // 立即从TextureView获取画面（快速抓拍），写入位图池中复用的 Bitmap
+                    long captureStart = System.currentTimeMillis();
+                    bitmap = pipeline.acquireBitmap(previewSize.getWidth(), previewSize.getHeight());
+                    textureView.getBitmap(bitmap);
+                    long captureMs = System.currentTimeMillis() - captureStart;
+                    AppLog.d(TAG, "Camera " + cameraId + " picture captured (" +
+                            bitmap.getWidth() + "x" + bitmap.getHeight() + ") in " + captureMs + "ms");
+
+                    pipeline.submitBitmap(bitmap, preparePhotoFile(timestamp), timestampWatermark ? timestamp : null,
+                            saveDelayMs, captureMs, "Camera " + cameraId, this::onPhotoSaved);
                 } catch (Exception e) {
                     AppLog.e(TAG, "Camera " + cameraId + " error capturing picture", e);
+                    pipeline.releaseBitmap(bitmap);
                 }
             });
         }
     }
 
     /**
-     * 将Bitmap保存为JPEG文件
+     * 照片保存完成（拍照流水线线程）
      */
-    private void saveBitmapAsJPEG(android.graphics.Bitmap bitmap) {
-        // 生成时间戳
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        saveBitmapAsJPEG(bitmap, timestamp);
+    private void onPhotoSaved(File photoFile, boolean success) {
+        if (success) {
+            AppLog.i(TAG, "Photo saved: " + photoFile.getAbsolutePath());
+            StorageIndex.notifyFileAdded(context, photoFile);
+        }
     }
 
     /**
-     * 将Bitmap保存为JPEG文件（使用指定的时间戳）
+     * 准备照片文件（创建目录、检查剩余空间）
+     * 使用传入的时间戳命名：yyyyMMdd_HHmmss_摄像头位置.jpg
      */
-    private void saveBitmapAsJPEG(android.graphics.Bitmap bitmap, String timestamp) {
+    private File preparePhotoFile(String timestamp) {
         File photoDir = StorageHelper.getPhotoDir(context);
         if (!photoDir.exists()) {
             photoDir.mkdirs();
@@ -2156,108 +2229,253 @@ public class SingleCamera {
             // 仍然尝试保存，因为照片通常只有几百KB
         }
 
-        // 使用传入的时间戳命名：yyyyMMdd_HHmmss_摄像头位置.jpg
         String position = (cameraPosition != null) ? cameraPosition : cameraId;
-        File photoFile = new File(photoDir, timestamp + "_" + position + ".jpg");
+        return new File(photoDir, timestamp + "_" + position + ".jpg");
+    }
+
+    // ==================== 硬件 JPEG 拍照 ====================
 
-        // 检查是否需要添加时间角标
-        android.graphics.Bitmap finalBitmap = bitmap;
-        AppConfig appConfig = new AppConfig(context);
-        if (appConfig.isTimestampWatermarkEnabled()) {
-            finalBitmap = addTimestampWatermark(bitmap, timestamp);
+    /**
+     * 已提交、等待图像的拍照请求
+     */
+    private static final class PendingJpeg {
+        final String timestamp;
+        final int saveDelayMs;
+        final boolean timestampWatermark;
+        final long requestTimeMs;
+
+        PendingJpeg(String timestamp, int saveDelayMs, boolean timestampWatermark, long requestTimeMs) {
+            this.timestamp = timestamp;
+            this.saveDelayMs = saveDelayMs;
+            this.timestampWatermark = timestampWatermark;
+            this.requestTimeMs = requestTimeMs;
         }
+    }
 
-        FileOutputStream output = null;
-        try {
-            output = new FileOutputStream(photoFile);
-            finalBitmap.compress(android.graphics.Bitmap.CompressFormat.JPEG, 90, output);
-            output.flush();
-            AppLog.i(TAG, "Photo saved: " + photoFile.getAbsolutePath());
-        } catch (IOException e) {
-            if (e.getMessage() != null && e.getMessage().contains("ENOSPC")) {
-                AppLog.e(TAG, "Camera " + cameraId + " 保存照片失败：存储空间已满");
-            } else {
-                AppLog.e(TAG, "Failed to save photo", e);
+    /**
+     * 选择硬件 JPEG 尺寸：优先与预览相同，其次是覆盖预览的最小尺寸，都没有时用最大尺寸
+     */
+    private Size chooseJpegSize(Size[] sizes) {
+        if (sizes == null || sizes.length == 0) {
+            return null;
+        }
+        if (previewSize == null) {
+            return sizes[0];
+        }
+        Size covering = null;
+        Size largest = sizes[0];
+        for (Size size : sizes) {
+            if (size.equals(previewSize)) {
+                return size;
             }
-        } finally {
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (IOException e) {
-                    // 关闭流时的 ENOSPC 错误通常表示文件已保存，但空间紧张
-                    // 降低日志级别，避免误导用户以为保存失败
-                    if (e.getMessage() != null && e.getMessage().contains("ENOSPC")) {
-                        AppLog.w(TAG, "Camera " + cameraId + " 存储空间已满，请清理存储");
-                    } else {
-                        AppLog.e(TAG, "Failed to close output stream", e);
-                    }
-                }
+            long area = (long) size.getWidth() * size.getHeight();
+            if (size.getWidth() >= previewSize.getWidth() && size.getHeight() >= previewSize.getHeight()
+                    && (covering == null || area < (long) covering.getWidth() * covering.getHeight())) {
+                covering = size;
             }
-            // 如果创建了新的bitmap用于水印，需要回收
-            if (finalBitmap != bitmap && finalBitmap != null) {
-                finalBitmap.recycle();
+            if (area > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
             }
         }
+        return covering != null ? covering : largest;
     }
 
     /**
-     * 在Bitmap上添加时间角标
-     * @param originalBitmap 原始图片
-     * @param timestamp 时间戳字符串（格式：yyyyMMdd_HHmmss）
-     * @return 带有时间角标的新Bitmap
+     * 创建 JPEG ImageReader（已存在时复用）
+     * @return 是否可以在会话中加入 JPEG 流
      */
-    private android.graphics.Bitmap addTimestampWatermark(android.graphics.Bitmap originalBitmap, String timestamp) {
+    private boolean ensureJpegReader() {
+        if (jpegSize == null || jpegStreamUnsupported || backgroundHandler == null) {
+            return false;
+        }
+        if (imageReader != null) {
+            return true;
+        }
         try {
-            // 创建可编辑的副本
-            android.graphics.Bitmap mutableBitmap = originalBitmap.copy(android.graphics.Bitmap.Config.ARGB_8888, true);
-            android.graphics.Canvas canvas = new android.graphics.Canvas(mutableBitmap);
+            imageReader = ImageReader.newInstance(jpegSize.getWidth(), jpegSize.getHeight(), ImageFormat.JPEG, JPEG_MAX_IMAGES);
+            imageReader.setOnImageAvailableListener(this::onJpegAvailable, backgroundHandler);
+            AppLog.d(TAG, "Camera " + cameraId + " created JPEG image reader: " + jpegSize);
+            return true;
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " failed to create JPEG image reader: " + e.getMessage());
+            jpegStreamUnsupported = true;
+            imageReader = null;
+            return false;
+        }
+    }
 
-            // 将时间戳转换为可读格式：yyyyMMdd_HHmmss -> yyyy-MM-dd HH:mm:ss
-            String displayTime;
+    /**
+     * 释放 JPEG ImageReader；未完成的拍照请求回退到 TextureView 截图
+     */
+    private void releaseJpegReader() {
+        jpegStreamActive = false;
+        java.util.List<PendingJpeg> unfinished;
+        synchronized (pendingJpegs) {
+            unfinished = new java.util.ArrayList<>(pendingJpegs);
+            pendingJpegs.clear();
+        }
+        for (PendingJpeg pending : unfinished) {
+            AppLog.w(TAG, "Camera " + cameraId + " JPEG capture " + pending.timestamp + " unfinished, falling back to TextureView");
+            takeTextureViewPicture(pending.timestamp, pending.saveDelayMs, pending.timestampWatermark);
+        }
+        if (imageReader != null) {
             try {
-                java.text.SimpleDateFormat inputFormat = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
-                java.text.SimpleDateFormat outputFormat = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                java.util.Date date = inputFormat.parse(timestamp);
-                displayTime = outputFormat.format(date);
+                imageReader.close();
+                AppLog.d(TAG, "Camera " + cameraId + " released image reader");
             } catch (Exception e) {
-                // 解析失败，使用当前时间
-                displayTime = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new java.util.Date());
+                AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing image reader: " + e.getMessage());
             }
+            imageReader = null;
+        }
+    }
 
-            // 根据图片宽度动态计算字体大小（约为图片宽度的3%）
-            float textSize = mutableBitmap.getWidth() * 0.03f;
-            if (textSize < 16) textSize = 16;  // 最小16像素
-            if (textSize > 48) textSize = 48;  // 最大48像素
-
-            // 设置画笔 - 阴影效果
-            android.graphics.Paint shadowPaint = new android.graphics.Paint();
-            shadowPaint.setColor(android.graphics.Color.BLACK);
-            shadowPaint.setTextSize(textSize);
-            shadowPaint.setAntiAlias(true);
-            shadowPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+    /**
+     * 提交一次硬件 JPEG 拍照（后台线程）
+     * 在当前预览/录制请求的基础上加上 JPEG 目标，预览和录制不丢帧
+     */
+    private void captureJpeg(String timestamp, int saveDelayMs, boolean timestampWatermark) {
+        CameraCaptureSession session = captureSession;
+        ImageReader reader = imageReader;
+        if (!jpegStreamActive || session == null || reader == null || currentRequestBuilder == null) {
+            takeTextureViewPicture(timestamp, saveDelayMs, timestampWatermark);
+            return;
+        }
+        PendingJpeg pending = new PendingJpeg(timestamp, saveDelayMs, timestampWatermark, System.currentTimeMillis());
+        try {
+            Surface jpegSurface = reader.getSurface();
+            currentRequestBuilder.addTarget(jpegSurface);
+            currentRequestBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) JPEG_QUALITY);
+            CaptureRequest request;
+            try {
+                request = currentRequestBuilder.build();
+            } finally {
+                currentRequestBuilder.removeTarget(jpegSurface);
+            }
+            synchronized (pendingJpegs) {
+                pendingJpegs.add(pending);
+            }
+            session.capture(request, new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                            @NonNull android.hardware.camera2.CaptureFailure failure) {
+                    onJpegCaptureFailed(pending, "capture failed, reason=" + failure.getReason());
+                }
 
-            // 设置画笔 - 主文字
-            android.graphics.Paint textPaint = new android.graphics.Paint();
-            textPaint.setColor(android.graphics.Color.WHITE);
-            textPaint.setTextSize(textSize);
-            textPaint.setAntiAlias(true);
-            textPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+                @Override
+                public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                                @NonNull Surface target, long frameNumber) {
+                    if (target == jpegSurface) {
+                        onJpegCaptureFailed(pending, "buffer lost");
+                    }
+                }
+            }, backgroundHandler);
+            AppLog.d(TAG, "Camera " + cameraId + " JPEG capture submitted: " + timestamp);
+        } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " JPEG capture failed to submit: " + e.getMessage());
+            synchronized (pendingJpegs) {
+                pendingJpegs.remove(pending);
+            }
+            takeTextureViewPicture(timestamp, saveDelayMs, timestampWatermark);
+        }
+    }
 
-            // 计算位置（左上角，留一定边距）
-            float x = textSize * 0.5f;
-            float y = textSize * 1.2f;
+    private void onJpegCaptureFailed(PendingJpeg pending, String reason) {
+        boolean removed;
+        synchronized (pendingJpegs) {
+            removed = pendingJpegs.remove(pending);
+        }
+        if (removed) {
+            AppLog.w(TAG, "Camera " + cameraId + " JPEG " + reason + ", falling back to TextureView");
+            takeTextureViewPicture(pending.timestamp, pending.saveDelayMs, pending.timestampWatermark);
+        }
+    }
 
-            // 绘制阴影（偏移2像素）
-            canvas.drawText(displayTime, x + 2, y + 2, shadowPaint);
-            // 绘制主文字
-            canvas.drawText(displayTime, x, y, textPaint);
+    /**
+     * JPEG 图像就绪（后台线程）：按提交顺序对应拍照请求，延迟后直接写入编码好的数据
+     */
+    private void onJpegAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            // 这张图像对应的请求必须出队，否则之后每张图像都会对应到错误的请求
+            PendingJpeg skipped;
+            synchronized (pendingJpegs) {
+                skipped = pendingJpegs.poll();
+            }
+            AppLog.w(TAG, "Camera " + cameraId + " too many JPEG images pending: " + e.getMessage());
+            if (skipped != null) {
+                takeTextureViewPicture(skipped.timestamp, skipped.saveDelayMs, skipped.timestampWatermark);
+            }
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        PendingJpeg pending;
+        synchronized (pendingJpegs) {
+            pending = pendingJpegs.poll();
+        }
+        if (pending == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " unexpected JPEG image, dropped");
+            image.close();
+            return;
+        }
+        long captureMs = System.currentTimeMillis() - pending.requestTimeMs;
+        AppLog.d(TAG, "Camera " + cameraId + " JPEG captured (" + image.getWidth() + "x" + image.getHeight() + ") in " +
+                captureMs + "ms");
+        saveJpegImage(image, pending, captureMs);
+    }
 
-            AppLog.d(TAG, "Camera " + cameraId + " added timestamp watermark: " + displayTime);
-            return mutableBitmap;
+    /**
+     * 保存硬件编码的 JPEG（不解码、不重新压缩，由拍照流水线直接写入）
+     * 先把数据复制出来并立即关闭 Image：保存延迟和限速写入期间不占用 ImageReader 的槽位，
+     * 连拍时不会超过 {@link #JPEG_MAX_IMAGES}
+     * 时间角标以 EXIF 拍摄时间/描述写入，不在画面上绘制
+     */
+    private void saveJpegImage(Image image, PendingJpeg pending, long captureMs) {
+        File photoFile = preparePhotoFile(pending.timestamp);
+        byte[] jpeg;
+        try {
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            jpeg = new byte[buffer.remaining()];
+            buffer.get(jpeg);
+        } catch (IllegalStateException e) {
+            AppLog.e(TAG, "Camera " + cameraId + " JPEG image already closed", e);
+            return;
+        } finally {
+            image.close();
+        }
+        PhotoPipeline.getInstance().submitEncoded(ByteBuffer.wrap(jpeg), () -> { }, photoFile, pending.saveDelayMs,
+                captureMs, "Camera " + cameraId, (file, success) -> {
+                    if (success && pending.timestampWatermark) {
+                        writeTimestampExif(file, pending.timestamp);
+                    }
+                    onPhotoSaved(file, success);
+                });
+    }
 
-        } catch (Exception e) {
-            AppLog.e(TAG, "Camera " + cameraId + " failed to add timestamp watermark", e);
-            return originalBitmap;  // 失败时返回原图
+    /**
+     * 把拍摄时间写入 EXIF（硬件 JPEG 路径的时间角标）
+     * @param timestamp 时间戳字符串（格式：yyyyMMdd_HHmmss）
+     */
+    private void writeTimestampExif(File photoFile, String timestamp) {
+        try {
+            Date date;
+            try {
+                date = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).parse(timestamp);
+            } catch (Exception e) {
+                date = new Date();
+            }
+            android.media.ExifInterface exif = new android.media.ExifInterface(photoFile.getAbsolutePath());
+            String exifTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(date);
+            exif.setAttribute(android.media.ExifInterface.TAG_DATETIME_ORIGINAL, exifTime);
+            exif.setAttribute(android.media.ExifInterface.TAG_DATETIME, exifTime);
+            exif.setAttribute(android.media.ExifInterface.TAG_IMAGE_DESCRIPTION,
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(date));
+            exif.saveAttributes();
+        } catch (IOException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " failed to write timestamp EXIF: " + e.getMessage());
         }
     }
 
@@ -2359,15 +2577,7 @@ public class SingleCamera {
             }
 
             // 释放ImageReader
-            if (imageReader != null) {
-                try {
-                    imageReader.close();
-                    AppLog.d(TAG, "Camera " + cameraId + " released image reader");
-                } catch (Exception e) {
-                    AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing image reader: " + e.getMessage());
-                }
-                imageReader = null;
-            }
+            releaseJpegReader();
 
             stopBackgroundThread();
 
@@ -2,6 +2,7 @@ package com.kooo.evcam.camera;
 
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.storage.WritePressureMonitor;
 import android.media.MediaRecorder;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -103,6 +104,21 @@ public class VideoRecorder {
     private long recordingStartTime = 0;  // 录制开始时间
     private Runnable firstWriteTimeoutRunnable;  // 首次写入超时检查任务
 
+    // 无缝分段（setNextOutputFile）：录制 Surface 和相机会话跨分段保持不变
+    // MediaRecorder 只能按文件大小切换到下一个文件，因此按码率把分段时长换算成文件大小上限，
+    // 接近上限时（INFO_MAX_FILESIZE_APPROACHING）指定下一个文件，切换后收到 INFO_NEXT_OUTPUT_FILE_STARTED
+    // 分段定时器改为超时保护：超过分段时长 + 宽限期仍未切换，回退到停止/重建方式
+    private static final long GAPLESS_MIN_GRACE_MS = 10000;  // 超时宽限期下限（10秒）
+    private static final int GAPLESS_MAX_CONSECUTIVE_FALLBACKS = 3;  // 连续回退 N 次后本次录制停用无缝分段
+    private boolean gaplessSegmentEnabled = false;  // 配置：是否启用无缝分段
+    private boolean gaplessActive = false;  // 本次录制是否仍在使用无缝分段
+    private String stagedNextFilePath;  // 已通过 setNextOutputFile 指定、尚未开始写入的文件
+    private boolean recorderAutoStopped = false;  // 达到文件大小上限后 MediaRecorder 已自行停止
+    private long segmentStartTime = 0;  // 当前分段开始时间（用于估算实际写入速度）
+    private long observedBytesPerSecond = 0;  // 实测写入速度（字节/秒），0 表示尚未测得
+    private int gaplessSwitchCount = 0;  // 无缝切换次数
+    private int gaplessFallbackCount = 0;  // 连续回退次数
+
     public VideoRecorder(String cameraId) {
         this.cameraId = cameraId;
         // 创建独立的后台线程用于分段处理和文件 I/O 操作
@@ -176,6 +192,15 @@ public class VideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " max encode resolution set to " + maxWidth + "x" + maxHeight);
     }
 
+    /**
+     * 设置是否使用无缝分段（setNextOutputFile）
+     * 需要在 prepareRecording 之前调用
+     */
+    public void setGaplessSegmentEnabled(boolean enabled) {
+        this.gaplessSegmentEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " gapless segment " + (enabled ? "enabled" : "disabled"));
+    }
+
     /**
      * 获取最大编码宽度
      */
@@ -343,6 +368,15 @@ public class VideoRecorder {
                     break;
                 case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
                     info = "MAX_FILESIZE_REACHED";
+                    postGaplessEvent(() -> onMaxFileSizeReached(mr));
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    info = "MAX_FILESIZE_APPROACHING";
+                    postGaplessEvent(() -> stageNextOutputFile(mr));
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    info = "NEXT_OUTPUT_FILE_STARTED";
+                    postGaplessEvent(() -> onNextOutputFileStarted(mr));
                     break;
                 case MediaRecorder.MEDIA_RECORDER_INFO_UNKNOWN:
                     info = "INFO_UNKNOWN";
@@ -371,6 +405,15 @@ public class VideoRecorder {
         mediaRecorder.setVideoFrameRate(videoFrameRate);
         mediaRecorder.setVideoSize(encodeWidth, encodeHeight);  // 使用调整后的分辨率
         mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        recorderAutoStopped = false;
+        stagedNextFilePath = null;
+        if (gaplessActive) {
+            // 按分段时长换算文件大小上限，达到上限时切换到 setNextOutputFile 指定的文件
+            long maxFileSize = estimateSegmentBytes();
+            mediaRecorder.setMaxFileSize(maxFileSize);
+            AppLog.d(TAG, "Camera " + cameraId + " gapless segment size limit: " + (maxFileSize / 1024) + " KB" +
+                    (observedBytesPerSecond > 0 ? " (measured " + (observedBytesPerSecond / 1024) + " KB/s)" : " (from bitrate)"));
+        }
         mediaRecorder.prepare();
         
         // 日志：显示原始和实际编码分辨率
@@ -429,6 +472,11 @@ public class VideoRecorder {
             recordedFilePaths.clear();
             recordedFilePaths.add(filePath);
 
+            // 无缝分段状态按次录制重置
+            gaplessActive = gaplessSegmentEnabled;
+            gaplessSwitchCount = 0;
+            gaplessFallbackCount = 0;
+
             // 使用传入的文件路径作为第一段
             prepareMediaRecorder(filePath, width, height);
             currentFilePath = filePath;
@@ -498,6 +546,7 @@ public class VideoRecorder {
             isRecording.set(true);
             lastFileSize = 0;  // 重置文件大小计数
             recordingStartTime = System.currentTimeMillis();  // 记录开始时间
+            segmentStartTime = recordingStartTime;
             
             // 重置 Watchdog 状态
             noWriteCount = 0;
@@ -578,7 +627,8 @@ public class VideoRecorder {
 
         // 延迟执行（使用配置的分段时长 + 补偿时间）
         // 补偿编码器初始化延迟和停止时的帧丢失
-        long actualDelayMs = segmentDurationMs + SEGMENT_DURATION_COMPENSATION_MS;
+        // 无缝分段时由文件大小触发切换，定时器只作为超时保护，额外加上宽限期
+        long actualDelayMs = segmentDurationMs + (gaplessActive ? getGaplessGraceMs() : SEGMENT_DURATION_COMPENSATION_MS);
         segmentHandler.postDelayed(segmentRunnable, actualDelayMs);
         AppLog.d(TAG, "Camera " + cameraId + " scheduled next segment in " + (segmentDurationMs / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
     }
@@ -608,6 +658,7 @@ public class VideoRecorder {
                 File file = new File(currentFilePath);
                 long currentSize = file.exists() ? file.length() : 0;
                 long sizeIncrease = currentSize - lastFileSize;
+                boolean wasFirstWrite = hasFirstWrite;  // 本次检查前是否已有首次写入（检查间隔不同）
                 
                 // 检查是否有有效数据写入
                 // 关键：文件大小必须超过 MIN_VALID_FILE_SIZE 才算真正有视频数据
@@ -658,6 +709,14 @@ public class VideoRecorder {
                     }
                 }
                 
+                // 上报写入进度：后台删除在录制写入滞后时让路
+                if (!hasFirstWrite) {
+                    WritePressureMonitor.reportAwaitingFirstWrite("Camera " + cameraId);
+                } else if (wasFirstWrite) {
+                    long expectedIncrease = (long) videoBitrate / 8 * FILE_SIZE_CHECK_INTERVAL_MS / 1000;
+                    WritePressureMonitor.reportWriteProgress("Camera " + cameraId, sizeIncrease, expectedIncrease);
+                }
+
                 lastFileSize = currentSize;
                 
                 // 继续下一次检查（首次写入前用快速间隔，之后用正常间隔）
@@ -756,6 +815,14 @@ public class VideoRecorder {
      * 5. 通知外部重新配置会话（onSegmentSwitch）
      */
     private void switchToNextSegment() {
+        switchToNextSegment("segment overdue");
+    }
+
+    /**
+     * 切换到下一段
+     * @param gaplessFallbackReason 无缝分段启用时走到这里的原因（用于回退计数和日志）
+     */
+    private void switchToNextSegment(String gaplessFallbackReason) {
         // 【状态检查】确保当前处于录制状态才能切换分段
         synchronized (stateLock) {
             if (state != RecordingState.RECORDING) {
@@ -767,6 +834,11 @@ public class VideoRecorder {
         }
         
         AppLog.d(TAG, "Camera " + cameraId + " initiating segment switch from segment " + segmentIndex);
+
+        if (gaplessActive) {
+            // 无缝分段超时未切换（实际码率低于预估，或设备不支持），本段回退到停止/重建方式
+            onGaplessFallback(gaplessFallbackReason);
+        }
         
         // 【第一步】通知外部暂停 CaptureSession 的录制输出
         // 这会让 CaptureSession 停止向当前的 recordSurface 发送帧
@@ -838,6 +910,12 @@ public class VideoRecorder {
                     if (fileSizeBeforeStop < MIN_VALID_FILE_SIZE) {
                         AppLog.e(TAG, "Camera " + cameraId + " file size too small (" + fileSizeBeforeStop + " bytes < " + MIN_VALID_FILE_SIZE + "), MediaRecorder may not be receiving frames. Skipping stop().");
                         isRecording.set(false);
+                    } else if (recorderAutoStopped) {
+                        // 达到文件大小上限时 MediaRecorder 已自行停止并写完文件，不能再调用 stop()
+                        isRecording.set(false);
+                        AppLog.d(TAG, "Camera " + cameraId + " segment " + segmentIndex + " already finalized at size limit: " + currentFilePath);
+                        validateAndCleanupFile(currentFilePath);
+                        completedFileValid = true;
                     } else {
                         mediaRecorder.stop();
                         isRecording.set(false);  // 立即更新状态
@@ -862,6 +940,7 @@ public class VideoRecorder {
                     completedFilePath = null;  // 文件已删除，标记为无效
                 }
                 releaseMediaRecorder();
+                discardStagedNextFile();
             }
 
             // 【第四步】准备下一段（使用新的时间戳）
@@ -899,6 +978,169 @@ public class VideoRecorder {
         }
     }
 
+    /**
+     * 将 MediaRecorder 的无缝分段事件转到分段线程处理
+     * （OnInfoListener 在创建 MediaRecorder 的线程或主线程上回调）
+     */
+    private void postGaplessEvent(Runnable event) {
+        Handler handler = segmentHandler;
+        if (gaplessActive && handler != null) {
+            handler.post(event);
+        }
+    }
+
+    /**
+     * 接近文件大小上限：指定下一个分段文件
+     */
+    private void stageNextOutputFile(MediaRecorder mr) {
+        if (mr != mediaRecorder || !isRecording.get() || stagedNextFilePath != null) {
+            return;
+        }
+        synchronized (stateLock) {
+            if (state != RecordingState.RECORDING) {
+                return;
+            }
+        }
+
+        String nextPath = generateSegmentPath();
+        try {
+            mr.setNextOutputFile(new File(nextPath));
+            stagedNextFilePath = nextPath;
+            AppLog.d(TAG, "Camera " + cameraId + " next output file staged: " + nextPath);
+        } catch (IOException | IllegalStateException e) {
+            AppLog.e(TAG, "Camera " + cameraId + " setNextOutputFile failed, falling back to stop/start", e);
+            new File(nextPath).delete();
+            // 不切换的话到达上限后 MediaRecorder 会自行停止，立即走停止/重建方式
+            switchToNextSegment("setNextOutputFile failed");
+        }
+    }
+
+    /**
+     * MediaRecorder 已开始写入下一个分段文件，上一个文件已写完
+     */
+    private void onNextOutputFileStarted(MediaRecorder mr) {
+        if (mr != mediaRecorder || stagedNextFilePath == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        String completedFilePath = currentFilePath;
+        long completedDurationMs = now - segmentStartTime;
+        String nextPath = renameToCurrentTimestamp(stagedNextFilePath);
+        stagedNextFilePath = null;
+
+        segmentIndex++;
+        currentFilePath = nextPath;
+        recordedFilePaths.add(nextPath);  // 记录新分段文件
+        segmentStartTime = now;
+        lastFileSize = 0;
+        gaplessSwitchCount++;
+        gaplessFallbackCount = 0;
+
+        updateObservedByteRate(completedFilePath, completedDurationMs);
+        boolean completedFileValid = validateAndCleanupFile(completedFilePath) == null;
+
+        AppLog.d(TAG, "Camera " + cameraId + " gapless switch to segment " + segmentIndex + ": " + nextPath +
+                " (previous lasted " + (completedDurationMs / 1000) + "s)");
+
+        // 重新计时超时保护
+        scheduleNextSegment();
+
+        if (callback != null) {
+            callback.onSegmentSwitch(cameraId, segmentIndex, completedFileValid ? completedFilePath : null);
+        }
+    }
+
+    /**
+     * 达到文件大小上限但没有指定下一个文件：MediaRecorder 已自行停止，立即走停止/重建方式
+     */
+    private void onMaxFileSizeReached(MediaRecorder mr) {
+        if (mr != mediaRecorder || !isRecording.get() || stagedNextFilePath != null) {
+            return;
+        }
+        AppLog.w(TAG, "Camera " + cameraId + " size limit reached without next output file, recorder stopped");
+        recorderAutoStopped = true;
+        switchToNextSegment("size limit reached");
+    }
+
+    /**
+     * 无缝分段未能按时切换：本段改用停止/重建方式，连续多次则本次录制停用无缝分段
+     */
+    private void onGaplessFallback(String reason) {
+        gaplessFallbackCount++;
+        updateObservedByteRate(currentFilePath, System.currentTimeMillis() - segmentStartTime);
+        AppLog.w(TAG, "Camera " + cameraId + " gapless segment fallback (" + reason + "), count: " +
+                gaplessFallbackCount + "/" + GAPLESS_MAX_CONSECUTIVE_FALLBACKS);
+        if (gaplessFallbackCount >= GAPLESS_MAX_CONSECUTIVE_FALLBACKS) {
+            gaplessActive = false;
+            AppLog.w(TAG, "Camera " + cameraId + " gapless segment disabled for this recording, using stop/start");
+        }
+    }
+
+    /**
+     * 将预先指定的分段文件改名为实际开始写入时的时间戳
+     * （setNextOutputFile 在接近上限时就要调用，文件名时间戳会比实际开始时间早）
+     * MediaRecorder 持有文件描述符，改名不影响写入；改名失败时保留原文件名
+     */
+    private String renameToCurrentTimestamp(String stagedPath) {
+        String actualPath = generateSegmentPath();
+        if (actualPath.equals(stagedPath)) {
+            return stagedPath;
+        }
+        File actual = new File(actualPath);
+        if (!actual.exists() && new File(stagedPath).renameTo(actual)) {
+            return actualPath;
+        }
+        AppLog.w(TAG, "Camera " + cameraId + " keep staged file name: " + stagedPath);
+        return stagedPath;
+    }
+
+    /**
+     * 删除已指定但未开始写入的下一个分段文件
+     */
+    private void discardStagedNextFile() {
+        if (stagedNextFilePath == null) {
+            return;
+        }
+        File file = new File(stagedNextFilePath);
+        if (file.exists() && file.length() < MIN_VALID_FILE_SIZE) {
+            file.delete();
+            AppLog.d(TAG, "Camera " + cameraId + " discarded unused next output file: " + stagedNextFilePath);
+        }
+        stagedNextFilePath = null;
+    }
+
+    /**
+     * 根据已完成分段的大小和时长更新实测写入速度
+     */
+    private void updateObservedByteRate(String filePath, long durationMs) {
+        if (filePath == null || durationMs < FILE_SIZE_CHECK_INTERVAL_MS) {
+            return;
+        }
+        long size = new File(filePath).length();
+        if (size < MIN_VALID_FILE_SIZE) {
+            return;
+        }
+        long rate = size * 1000 / durationMs;
+        // 平滑处理，避免单个分段（如静止画面）影响过大
+        observedBytesPerSecond = observedBytesPerSecond > 0 ? (observedBytesPerSecond * 3 + rate) / 4 : rate;
+    }
+
+    /**
+     * 估算一个分段的文件大小（优先使用实测写入速度）
+     */
+    private long estimateSegmentBytes() {
+        long bytesPerSecond = observedBytesPerSecond > 0 ? observedBytesPerSecond : videoBitrate / 8;
+        return Math.max(MIN_VALID_FILE_SIZE * 1024, bytesPerSecond * segmentDurationMs / 1000);
+    }
+
+    /**
+     * 无缝分段超时保护的宽限期
+     */
+    private long getGaplessGraceMs() {
+        return Math.max(GAPLESS_MIN_GRACE_MS, segmentDurationMs / 4);
+    }
+
     /**
      * 开始录制（旧方法，保持兼容性）
      */
@@ -1002,12 +1244,20 @@ public class VideoRecorder {
                 // 如果文件太小（<10KB），说明 MediaRecorder 没有接收到帧，跳过 stop()
                 if (fileSizeBeforeStop < MIN_VALID_FILE_SIZE) {
                     AppLog.e(TAG, "Camera " + cameraId + " file size too small (" + fileSizeBeforeStop + " bytes < " + MIN_VALID_FILE_SIZE + "), MediaRecorder may not be receiving frames. Skipping stop().");
+                } else if (recorderAutoStopped) {
+                    AppLog.d(TAG, "Camera " + cameraId + " MediaRecorder already stopped at size limit: " + currentFilePath);
                 } else {
                     mediaRecorder.stop();
                     AppLog.d(TAG, "Camera " + cameraId + " stopped recording: " + currentFilePath + " (total segments: " + (segmentIndex + 1) + ")");
                 }
             }
             isRecording.set(false);
+            discardStagedNextFile();
+
+            if (gaplessSegmentEnabled) {
+                AppLog.d(TAG, "Camera " + cameraId + " gapless segment switches: " + gaplessSwitchCount +
+                        (gaplessActive ? "" : " (fell back to stop/start)"));
+            }
 
             // 验证并清理所有录制的文件
             deletedFiles = validateAndCleanupAllFiles();
@@ -1030,6 +1280,7 @@ public class VideoRecorder {
             }
         } finally {
             releaseMediaRecorder();
+            discardStagedNextFile();
             currentFilePath = null;
             segmentIndex = 0;
             
@@ -1167,6 +1418,7 @@ public class VideoRecorder {
         isRecording.set(false);
         waitingForSessionReconfiguration = false;
         releaseMediaRecorder();
+        discardStagedNextFile();
         
         // 【重要】验证并清理损坏文件（在清除路径记录之前）
         List<String> deletedFiles = validateAndCleanupAllFiles();
@@ -1232,6 +1484,7 @@ public class VideoRecorder {
             isRecording.set(false);
             waitingForSessionReconfiguration = false;
             releaseMediaRecorder();
+            discardStagedNextFile();
             currentFilePath = null;
             segmentIndex = 0;
             // 确保状态重置为 IDLE
@@ -0,0 +1,307 @@
+package com.kooo.evcam.camera;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * 录制水印排版（字形图集方式）
+ * 不依赖 Android/GL，只负责把各字段排成固定的字符格子并生成四边形顶点，可在 JVM 上单独测试
+ *
+ * - 字符集固定（{@link #GLYPHS}），由 {@link WatermarkRenderer} 一次性光栅化成一张图集纹理
+ * - 每个格子对应一个四边形，顶点数组预先分配；字段内容变化时只重写变化的格子，并记录脏区间供局部上传
+ * - 字段：时间（yyyy-MM-dd HH:mm:ss）、车速（km/h）、品牌标识；各行右对齐（水印锚定在右上角）
+ * - 每帧调用 {@link #update} 不产生任何对象分配
+ */
+public class WatermarkLayout {
+
+    /** 图集字符集（下标即图集中的格子序号，0 为空格，不绘制） */
+    public static final String GLYPHS = " 0123456789-:./kmhEVCa";
+
+    /** 品牌标识文字（字符必须都在 {@link #GLYPHS} 中） */
+    public static final String BRAND_TEXT = "EVCam";
+
+    /** 每个格子的顶点数据：4 个顶点 × (x, y, u, v) */
+    public static final int FLOATS_PER_CELL = 16;
+
+    /** 每个格子的索引数（两个三角形） */
+    public static final int INDICES_PER_CELL = 6;
+
+    private static final int TIME_LENGTH = 19;       // yyyy-MM-dd HH:mm:ss
+    private static final int SPEED_DIGITS = 3;
+    private static final String SPEED_UNIT = " km/h";
+    private static final int SPEED_LENGTH = SPEED_DIGITS + 5;
+    private static final int SPEED_UNKNOWN = -1;
+
+    /**
+     * 车速来源
+     */
+    public interface SpeedSource {
+        /**
+         * @return 当前车速（km/h），未知时返回 NaN
+         */
+        float getSpeedKmh();
+    }
+
+    private final int rows;
+    private final int columns;
+    private final char[] cells;        // 当前文字（行优先）
+    private final int[] glyphs;        // 已生成顶点的字形下标，-1 表示尚未生成
+    private final float[] vertices;
+
+    // 字段所在格子（-1 表示未启用）
+    private final int timeCell;
+    private final int speedCell;
+
+    // 脏区间（格子下标，[dirtyStart, dirtyEnd)）
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    private final Calendar calendar;
+    private long lastSecond = Long.MIN_VALUE;
+    private int lastSpeed = Integer.MIN_VALUE;
+
+    /**
+     * @param showTime 是否显示时间
+     * @param showSpeed 是否显示车速
+     * @param showBrand 是否显示品牌标识（只在同时显示时间或车速时生效，不单独显示）
+     * @param timeZone 时间所用时区
+     */
+    public WatermarkLayout(boolean showTime, boolean showSpeed, boolean showBrand, TimeZone timeZone) {
+        calendar = Calendar.getInstance(timeZone);
+        showBrand = showBrand && (showTime || showSpeed);
+
+        // 第一行时间；第二行品牌 + 车速（没有时间时上移到第一行）
+        int bottomLength = 0;
+        if (showBrand) {
+            bottomLength += BRAND_TEXT.length();
+        }
+        if (showSpeed) {
+            bottomLength += (bottomLength > 0 ? 1 : 0) + SPEED_LENGTH;
+        }
+        int timeRows = showTime ? 1 : 0;
+        rows = timeRows + (bottomLength > 0 ? 1 : 0);
+        columns = Math.max(showTime ? TIME_LENGTH : 0, bottomLength);
+
+        cells = new char[rows * columns];
+        glyphs = new int[rows * columns];
+        vertices = new float[rows * columns * FLOATS_PER_CELL];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = ' ';
+            glyphs[i] = -1;
+        }
+
+        timeCell = showTime ? columns - TIME_LENGTH : -1;
+        int bottomStart = timeRows * columns + columns - bottomLength;
+        if (showBrand) {
+            write(bottomStart, BRAND_TEXT);
+        }
+        speedCell = showSpeed ? timeRows * columns + columns - SPEED_LENGTH : -1;
+        if (showSpeed) {
+            write(speedCell + SPEED_DIGITS, SPEED_UNIT);
+        }
+        rebuildVertices();
+    }
+
+    /**
+     * 字符在图集中的下标（不在字符集中的字符按空格处理）
+     */
+    public static int glyphIndex(char c) {
+        int index = GLYPHS.indexOf(c);
+        return index < 0 ? 0 : index;
+    }
+
+    /**
+     * 生成格子索引（每个格子两个三角形，所有水印共用）
+     */
+    public static short[] createIndices(int cellCount) {
+        short[] indices = new short[cellCount * INDICES_PER_CELL];
+        for (int i = 0; i < cellCount; i++) {
+            int vertex = i * 4;
+            int offset = i * INDICES_PER_CELL;
+            indices[offset] = (short) vertex;
+            indices[offset + 1] = (short) (vertex + 1);
+            indices[offset + 2] = (short) (vertex + 2);
+            indices[offset + 3] = (short) (vertex + 2);
+            indices[offset + 4] = (short) (vertex + 1);
+            indices[offset + 5] = (short) (vertex + 3);
+        }
+        return indices;
+    }
+
+    /**
+     * 更新字段内容（每帧调用；时间按秒、车速按整数 km/h 判断是否变化）
+     * @param timeMs 当前时间（毫秒时间戳）
+     * @param speedKmh 当前车速（km/h），未知时传 NaN
+     * @return 是否有格子发生变化
+     */
+    public boolean update(long timeMs, float speedKmh) {
+        if (timeCell >= 0) {
+            long second = Math.floorDiv(timeMs, 1000L);
+            if (second != lastSecond) {
+                lastSecond = second;
+                writeTime(timeMs);
+            }
+        }
+        if (speedCell >= 0) {
+            int speed = Float.isNaN(speedKmh) ? SPEED_UNKNOWN : Math.min(Math.max(Math.round(speedKmh), 0), 999);
+            if (speed != lastSpeed) {
+                lastSpeed = speed;
+                writeSpeed(speed);
+            }
+        }
+        return rebuildVertices();
+    }
+
+    private void writeTime(long timeMs) {
+        calendar.setTimeInMillis(timeMs);
+        int cell = timeCell;
+        writeNumber(cell, calendar.get(Calendar.YEAR), 4);
+        cells[cell + 4] = '-';
+        writeNumber(cell + 5, calendar.get(Calendar.MONTH) + 1, 2);
+        cells[cell + 7] = '-';
+        writeNumber(cell + 8, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        cells[cell + 10] = ' ';
+        writeNumber(cell + 11, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        cells[cell + 13] = ':';
+        writeNumber(cell + 14, calendar.get(Calendar.MINUTE), 2);
+        cells[cell + 16] = ':';
+        writeNumber(cell + 17, calendar.get(Calendar.SECOND), 2);
+    }
+
+    /**
+     * 车速右对齐显示，未知时显示 "--"
+     */
+    private void writeSpeed(int speed) {
+        for (int i = 0; i < SPEED_DIGITS; i++) {
+            cells[speedCell + i] = ' ';
+        }
+        if (speed == SPEED_UNKNOWN) {
+            cells[speedCell + SPEED_DIGITS - 2] = '-';
+            cells[speedCell + SPEED_DIGITS - 1] = '-';
+            return;
+        }
+        int cell = speedCell + SPEED_DIGITS - 1;
+        do {
+            cells[cell--] = (char) ('0' + speed % 10);
+            speed /= 10;
+        } while (speed > 0);
+    }
+
+    /**
+     * 写入定长数字（不足位数补 0）
+     */
+    private void writeNumber(int cell, int value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            cells[cell + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void write(int cell, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            cells[cell + i] = text.charAt(i);
+        }
+    }
+
+    /**
+     * 重写字形变化的格子的顶点，并扩展脏区间
+     * 顶点坐标以格子为单位（x 向右、y 向下），纹理坐标为图集中的归一化坐标
+     */
+    private boolean rebuildVertices() {
+        boolean changed = false;
+        float glyphWidth = 1f / GLYPHS.length();
+        for (int i = 0; i < cells.length; i++) {
+            int glyph = glyphIndex(cells[i]);
+            if (glyph == glyphs[i]) {
+                continue;
+            }
+            glyphs[i] = glyph;
+            changed = true;
+            if (i < dirtyStart || dirtyStart == dirtyEnd) {
+                dirtyStart = i;
+            }
+            dirtyEnd = Math.max(dirtyEnd, i + 1);
+
+            int offset = i * FLOATS_PER_CELL;
+            if (glyph == 0) {
+                // 空格：退化四边形，不产生像素
+                for (int k = 0; k < FLOATS_PER_CELL; k++) {
+                    vertices[offset + k] = 0f;
+                }
+                continue;
+            }
+            float x0 = i % columns;
+            float y0 = i / columns;
+            float u0 = glyph * glyphWidth;
+            float u1 = u0 + glyphWidth;
+            putVertex(offset, x0, y0, u0, 0f);           // 左上
+            putVertex(offset + 4, x0 + 1, y0, u1, 0f);   // 右上
+            putVertex(offset + 8, x0, y0 + 1, u0, 1f);   // 左下
+            putVertex(offset + 12, x0 + 1, y0 + 1, u1, 1f);  // 右下
+        }
+        return changed;
+    }
+
+    private void putVertex(int offset, float x, float y, float u, float v) {
+        vertices[offset] = x;
+        vertices[offset + 1] = y;
+        vertices[offset + 2] = u;
+        vertices[offset + 3] = v;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getCellCount() {
+        return cells.length;
+    }
+
+    public boolean isEmpty() {
+        return cells.length == 0;
+    }
+
+    /**
+     * 顶点数组（长度为 格子数 × {@link #FLOATS_PER_CELL}，对象本身不会替换）
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public boolean hasDirtyCells() {
+        return dirtyEnd > dirtyStart;
+    }
+
+    /**
+     * 需要重新上传的第一个格子
+     */
+    public int getDirtyStart() {
+        return dirtyStart;
+    }
+
+    /**
+     * 需要重新上传的最后一个格子之后的位置
+     */
+    public int getDirtyEnd() {
+        return dirtyEnd;
+    }
+
+    /**
+     * 脏区间已上传
+     */
+    public void clearDirty() {
+        dirtyStart = 0;
+        dirtyEnd = 0;
+    }
+
+    /**
+     * 获取某一行的文字（调试/测试用）
+     */
+    public String getRowText(int row) {
+        return new String(cells, row * columns, columns);
+    }
+}
@@ -0,0 +1,257 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 录制水印渲染（字形图集）
+ * 字符集只光栅化一次（进程内共用同一张图集位图），每个 EGL context 上传一次纹理；
+ * 之后每帧只把 {@link WatermarkLayout} 中变化的格子局部上传到顶点缓冲，用一次 glDrawElements 叠加到画面上
+ *
+ * 必须在 EGL context 所在线程调用
+ */
+class WatermarkRenderer {
+    private static final String TAG = "WatermarkRenderer";
+
+    private static final float TEXT_SIZE = 28f;      // 与原时间水印一致
+    private static final int SHADOW_OFFSET = 2;      // 阴影偏移（像素）
+    private static final int CELL_PADDING = 1;       // 格子内边距，避免线性过滤采样到相邻字形
+    private static final float MARGIN_RATIO = 0.01f; // 右、上边距（占绘制区域的比例）
+
+    static final String VERTEX_SHADER =
+            "uniform vec4 uTransform;\n" +  // 左上角 x, y（NDC）, 格子宽, 格子高（NDC）
+            "attribute vec2 aPosition;\n" +  // 格子坐标（x 向右、y 向下）
+            "attribute vec2 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = vec4(uTransform.x + aPosition.x * uTransform.z,\n" +
+            "                       uTransform.y - aPosition.y * uTransform.w, 0.0, 1.0);\n" +
+            "    vTextureCoord = aTextureCoord;\n" +
+            "}\n";
+
+    // 图集为白字黑影（预乘 alpha），按颜色染色后白字变为指定颜色、阴影保持黑色
+    static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "uniform vec4 uColor;\n" +
+            "void main() {\n" +
+            "    vec4 glyph = texture2D(sTexture, vTextureCoord);\n" +
+            "    gl_FragColor = vec4(glyph.rgb * uColor.rgb, glyph.a);\n" +
+            "}\n";
+
+    // 进程内共用的图集位图（只光栅化一次）
+    private static Bitmap atlasBitmap;
+    private static int cellWidth;
+    private static int cellHeight;
+
+    private final String cameraId;
+    private final WatermarkLayout layout;
+    private final float colorR;
+    private final float colorG;
+    private final float colorB;
+
+    private int program;
+    private int textureId;
+    private int vertexBufferId;
+    private int indexBufferId;
+    private int positionHandle;
+    private int texCoordHandle;
+    private int transformHandle;
+    private int colorHandle;
+    private int textureHandle;
+    private FloatBuffer uploadBuffer;
+
+    // 缓存绘制区域对应的变换（拼接模式下为单路区域）
+    private int cachedViewWidth = 0;
+    private int cachedViewHeight = 0;
+    private float originX, originY, scaleX, scaleY;
+
+    /**
+     * @param colorArgb 文字颜色（阴影固定为黑色）
+     */
+    WatermarkRenderer(String cameraId, WatermarkLayout layout, int colorArgb) {
+        this.cameraId = cameraId;
+        this.layout = layout;
+        this.colorR = Color.red(colorArgb) / 255f;
+        this.colorG = Color.green(colorArgb) / 255f;
+        this.colorB = Color.blue(colorArgb) / 255f;
+    }
+
+    /**
+     * 光栅化字符集（白字 + 黑色阴影，每个字符一个等宽格子，横向排成一行）
+     */
+    private static synchronized Bitmap getAtlasBitmap() {
+        if (atlasBitmap != null) {
+            return atlasBitmap;
+        }
+        Paint textPaint = new Paint();
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setAntiAlias(true);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+        Paint shadowPaint = new Paint(textPaint);
+        shadowPaint.setColor(Color.BLACK);
+
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        float baseline = CELL_PADDING - metrics.ascent;
+        cellWidth = (int) Math.ceil(textPaint.measureText("0")) + SHADOW_OFFSET + CELL_PADDING * 2;
+        cellHeight = (int) Math.ceil(baseline + metrics.descent) + SHADOW_OFFSET + CELL_PADDING;
+
+        String glyphs = WatermarkLayout.GLYPHS;
+        Bitmap bitmap = Bitmap.createBitmap(cellWidth * glyphs.length(), cellHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 1; i < glyphs.length(); i++) {
+            String glyph = glyphs.substring(i, i + 1);
+            float x = i * cellWidth + CELL_PADDING;
+            canvas.drawText(glyph, x + SHADOW_OFFSET, baseline + SHADOW_OFFSET, shadowPaint);
+            canvas.drawText(glyph, x, baseline, textPaint);
+        }
+        atlasBitmap = bitmap;
+        AppLog.d(TAG, "Glyph atlas rasterized: " + bitmap.getWidth() + "x" + bitmap.getHeight() +
+                ", cell " + cellWidth + "x" + cellHeight);
+        return atlasBitmap;
+    }
+
+    /**
+     * 创建 GL 资源（图集纹理、顶点/索引缓冲）
+     * @param program 由 {@link #VERTEX_SHADER} 和 {@link #FRAGMENT_SHADER} 创建的着色器程序（之后归本类管理）
+     */
+    void init(int program) {
+        this.program = program;
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        transformHandle = GLES20.glGetUniformLocation(program, "uTransform");
+        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
+        textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
+
+        // 图集纹理
+        int[] ids = new int[2];
+        GLES20.glGenTextures(1, ids, 0);
+        textureId = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, getAtlasBitmap(), 0);
+
+        // 顶点缓冲（整块预分配，之后只局部更新）和索引缓冲（不再变化）
+        float[] vertices = layout.getVertices();
+        uploadBuffer = ByteBuffer.allocateDirect(vertices.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        uploadBuffer.put(vertices).position(0);
+        short[] indices = WatermarkLayout.createIndices(layout.getCellCount());
+        ShortBuffer indexBuffer = ByteBuffer.allocateDirect(indices.length * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        indexBuffer.put(indices).position(0);
+
+        GLES20.glGenBuffers(2, ids, 0);
+        vertexBufferId = ids[0];
+        indexBufferId = ids[1];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, uploadBuffer, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, indexBuffer, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        layout.clearDirty();
+
+        AppLog.d(TAG, "Camera " + cameraId + " Watermark renderer initialized: " +
+                layout.getRows() + "x" + layout.getColumns() + " cells");
+    }
+
+    /**
+     * 更新字段（每帧调用一次；拼接模式下在绘制各路之前调用）
+     * @param speedKmh 当前车速（km/h），未知时传 NaN
+     */
+    void update(long timeMs, float speedKmh) {
+        layout.update(timeMs, speedKmh);
+    }
+
+    /**
+     * 叠加绘制水印（锚定在当前视口的右上角）
+     * @param viewWidth 当前视口宽度（像素）
+     * @param viewHeight 当前视口高度
+     */
+    void draw(int viewWidth, int viewHeight) {
+        if (program == 0) {
+            return;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        if (layout.hasDirtyCells()) {
+            // 只上传变化的格子
+            int start = layout.getDirtyStart() * WatermarkLayout.FLOATS_PER_CELL;
+            int count = (layout.getDirtyEnd() - layout.getDirtyStart()) * WatermarkLayout.FLOATS_PER_CELL;
+            uploadBuffer.position(start);
+            uploadBuffer.put(layout.getVertices(), start, count);
+            uploadBuffer.position(start);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * 4, count * 4, uploadBuffer);
+            layout.clearDirty();
+        }
+
+        if (cachedViewWidth != viewWidth || cachedViewHeight != viewHeight) {
+            scaleX = 2f * cellWidth / viewWidth;
+            scaleY = 2f * cellHeight / viewHeight;
+            originX = 1f - layout.getColumns() * scaleX - 2f * MARGIN_RATIO;
+            originY = 1f - 2f * MARGIN_RATIO;
+            cachedViewWidth = viewWidth;
+            cachedViewHeight = viewHeight;
+        }
+
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glUniform1i(textureHandle, 0);
+        GLES20.glUniform4f(transformHandle, originX, originY, scaleX, scaleY);
+        GLES20.glUniform4f(colorHandle, colorR, colorG, colorB, 1f);
+
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 16, 0);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 16, 8);
+
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);  // 图集为预乘 alpha
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, layout.getCellCount() * WatermarkLayout.INDICES_PER_CELL,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20.glDisable(GLES20.GL_BLEND);
+
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(texCoordHandle);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * 释放 GL 资源（图集位图为进程内共用，不回收）
+     */
+    void release() {
+        if (program != 0) {
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        if (textureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+            textureId = 0;
+        }
+        if (vertexBufferId != 0) {
+            GLES20.glDeleteBuffers(2, new int[]{vertexBufferId, indexBufferId}, 0);
+            vertexBufferId = 0;
+            indexBufferId = 0;
+        }
+    }
+}
@@ -4,15 +4,19 @@ import android.util.Base64;
 
 import com.kooo.evcam.AppLog;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
+import okhttp3.Headers;
 import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -21,10 +25,18 @@ import okhttp3.Response;
 /**
  * 心跳推图 API 客户端
  * 负责 HTTPS 请求发送和签名生成
+ *
+ * 两种上传格式（签名请求头相同）：
+ * - JSON：图片 Base64 后放在 imageBase64 字段（原格式）
+ * - multipart：meta（认证和图片信息 JSON）、status（App 状态 JSON，gzip 压缩，
+ *   part 头带 Content-Encoding: gzip）、image（JPEG 原始字节）三个 part；
+ *   省去 Base64 的 33% 膨胀和整图字符串拷贝
+ * 画面未变化时可只发送状态（JSON 中 imageSkipped=true 且没有 imageBase64，multipart 中没有 image part）
  */
 public class HeartbeatApiClient {
     private static final String TAG = "HeartbeatApiClient";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType JPEG = MediaType.parse("image/jpeg");
     
     private final OkHttpClient client;
     
@@ -37,7 +49,7 @@ public class HeartbeatApiClient {
     }
     
     /**
-     * 发送心跳请求
+     * 发送心跳请求（JSON 格式）
      * 
      * @param serverUrl 服务器地址
      * @param vehicleId 车辆ID
@@ -52,13 +64,45 @@ public class HeartbeatApiClient {
     public HeartbeatResult sendHeartbeat(String serverUrl, String vehicleId, String secretKey,
                                           byte[] imageBytes, int imageWidth, int imageHeight,
                                           int cameraCount, String appStatus) {
-        if (serverUrl == null || serverUrl.isEmpty()) {
-            return new HeartbeatResult(false, "服务器地址未配置");
-        }
-        
+        return sendHeartbeat(serverUrl, vehicleId, secretKey, imageBytes, imageWidth, imageHeight,
+                cameraCount, appStatus, false);
+    }
+    
+    /**
+     * 发送带图心跳请求
+     * 
+     * @param multipart true 使用 multipart 格式，false 使用 JSON 格式
+     */
+    public HeartbeatResult sendHeartbeat(String serverUrl, String vehicleId, String secretKey,
+                                          byte[] imageBytes, int imageWidth, int imageHeight,
+                                          int cameraCount, String appStatus, boolean multipart) {
         if (imageBytes == null || imageBytes.length == 0) {
             return new HeartbeatResult(false, "图片数据为空");
         }
+        return send(serverUrl, vehicleId, secretKey, imageBytes, imageWidth, imageHeight,
+                cameraCount, appStatus, multipart);
+    }
+    
+    /**
+     * 发送只含状态的心跳请求（画面未变化时使用）
+     * 
+     * @param multipart true 使用 multipart 格式，false 使用 JSON 格式
+     */
+    public HeartbeatResult sendStatusOnly(String serverUrl, String vehicleId, String secretKey,
+                                           int cameraCount, String appStatus, boolean multipart) {
+        return send(serverUrl, vehicleId, secretKey, null, 0, 0, cameraCount, appStatus, multipart);
+    }
+    
+    /**
+     * 构建并发送请求
+     * @param imageBytes 为 null 时只发送状态
+     */
+    private HeartbeatResult send(String serverUrl, String vehicleId, String secretKey,
+                                 byte[] imageBytes, int imageWidth, int imageHeight,
+                                 int cameraCount, String appStatus, boolean multipart) {
+        if (serverUrl == null || serverUrl.isEmpty()) {
+            return new HeartbeatResult(false, "服务器地址未配置");
+        }
         
         try {
             // 生成请求参数
@@ -70,24 +114,60 @@ public class HeartbeatApiClient {
                 return new HeartbeatResult(false, "签名生成失败");
             }
             
-            // 构建 JSON 请求体
-            String imageBase64 = Base64.encodeToString(imageBytes, Base64.NO_WRAP);
-            String jsonBody = buildJsonBody(vehicleId, timestamp, nonce, signature,
-                    imageBase64, imageWidth, imageHeight, imageBytes.length, cameraCount, appStatus);
+            boolean imageSkipped = imageBytes == null;
+            int imageSize = imageSkipped ? 0 : imageBytes.length;
+            String statusJson = appStatus != null && !appStatus.isEmpty() ? appStatus : null;
+            
+            // 构建请求体
+            RequestBody body;
+            long bytesSaved = 0;
+            if (multipart) {
+                String meta = buildJsonBody(vehicleId, timestamp, nonce, signature,
+                        null, imageWidth, imageHeight, imageSize, cameraCount, null, false, imageSkipped);
+                MultipartBody.Builder builder = new MultipartBody.Builder()
+                        .setType(MultipartBody.FORM)
+                        .addFormDataPart("meta", null, RequestBody.create(meta, JSON));
+                if (statusJson != null) {
+                    byte[] gzipped = gzip(statusJson.getBytes(StandardCharsets.UTF_8));
+                    builder.addPart(Headers.of(
+                                    "Content-Disposition", "form-data; name=\"status\"; filename=\"status.json.gz\"",
+                                    "Content-Encoding", "gzip"),
+                            RequestBody.create(gzipped, JSON));
+                }
+                if (!imageSkipped) {
+                    builder.addFormDataPart("image", "heartbeat.jpg", RequestBody.create(imageBytes, JPEG));
+                }
+                body = builder.build();
+                // 相同内容按 JSON 格式发送时的大小（meta 字段 + Base64 图片 + 原始状态）
+                long jsonEquivalent = meta.length()
+                        + (imageSkipped ? 0 : "\"imageBase64\":\"\",".length() + base64Length(imageSize))
+                        + ",\"status\":".length()
+                        + (statusJson != null ? statusJson.getBytes(StandardCharsets.UTF_8).length : "null".length());
+                bytesSaved = Math.max(0, jsonEquivalent - body.contentLength());
+            } else {
+                String imageBase64 = imageSkipped ? null : Base64.encodeToString(imageBytes, Base64.NO_WRAP);
+                String jsonBody = buildJsonBody(vehicleId, timestamp, nonce, signature,
+                        imageBase64, imageWidth, imageHeight, imageSize, cameraCount, statusJson, true, imageSkipped);
+                body = RequestBody.create(jsonBody, JSON);
+            }
+            long bytesSent = body.contentLength();
             
             // 发送请求
-            RequestBody body = RequestBody.create(jsonBody, JSON);
-            Request request = new Request.Builder()
+            Request.Builder requestBuilder = new Request.Builder()
                     .url(serverUrl)
                     .post(body)
-                    .addHeader("Content-Type", "application/json")
                     .addHeader("X-Vehicle-Id", vehicleId)
                     .addHeader("X-Timestamp", String.valueOf(timestamp))
                     .addHeader("X-Nonce", nonce)
-                    .addHeader("X-Signature", signature)
-                    .build();
+                    .addHeader("X-Signature", signature);
+            if (!multipart) {
+                requestBuilder.addHeader("Content-Type", "application/json");
+            }
+            Request request = requestBuilder.build();
             
-            AppLog.d(TAG, "发送心跳请求: " + serverUrl + ", 图片大小: " + (imageBytes.length / 1024) + "KB");
+            AppLog.d(TAG, "发送心跳请求: " + serverUrl + (multipart ? " (multipart)" : " (JSON)") +
+                    (imageSkipped ? ", 画面未变化，仅状态" : ", 图片大小: " + (imageSize / 1024) + "KB") +
+                    ", 请求体: " + (bytesSent / 1024) + "KB");
             
             try (Response response = client.newCall(request).execute()) {
                 int code = response.code();
@@ -95,10 +175,11 @@ public class HeartbeatApiClient {
                 
                 if (response.isSuccessful()) {
                     AppLog.d(TAG, "心跳请求成功: " + code);
-                    return new HeartbeatResult(true, "成功", code, responseBody);
+                    return new HeartbeatResult(true, "成功", code, responseBody, bytesSent, bytesSaved);
                 } else {
                     AppLog.w(TAG, "心跳请求失败: " + code + ", " + responseBody);
-                    return new HeartbeatResult(false, "HTTP " + code + ": " + responseBody, code, responseBody);
+                    return new HeartbeatResult(false, "HTTP " + code + ": " + responseBody, code, responseBody,
+                            bytesSent, bytesSaved);
                 }
             }
             
@@ -111,6 +192,24 @@ public class HeartbeatApiClient {
         }
     }
     
+    /**
+     * Base64（无换行）编码后的长度
+     */
+    public static long base64Length(long bytes) {
+        return (bytes + 2) / 3 * 4;
+    }
+    
+    /**
+     * gzip 压缩
+     */
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+    
     /**
      * 生成请求签名
      * signature = HMAC-SHA256(vehicleId + timestamp + nonce, secretKey)
@@ -151,11 +250,14 @@ public class HeartbeatApiClient {
     }
     
     /**
-     * 构建 JSON 请求体
+     * 构建 JSON 请求体（multipart 的 meta part 也用它，不带图片和状态）
+     * @param imageBase64 为 null 时不写 imageBase64 字段
+     * @param includeStatus 是否写 status 字段（multipart 的状态在单独的 part 中）
      */
     private String buildJsonBody(String vehicleId, long timestamp, String nonce, String signature,
                                   String imageBase64, int imageWidth, int imageHeight,
-                                  int imageSizeBytes, int cameraCount, String appStatus) {
+                                  int imageSizeBytes, int cameraCount, String appStatus,
+                                  boolean includeStatus, boolean imageSkipped) {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
         
@@ -166,17 +268,20 @@ public class HeartbeatApiClient {
         sb.append("\"signature\":\"").append(escapeJson(signature)).append("\",");
         
         // 图片数据
-        sb.append("\"imageBase64\":\"").append(imageBase64).append("\",");
+        if (imageBase64 != null) {
+            sb.append("\"imageBase64\":\"").append(imageBase64).append("\",");
+        }
+        if (imageSkipped) {
+            sb.append("\"imageSkipped\":true,");
+        }
         sb.append("\"imageWidth\":").append(imageWidth).append(",");
         sb.append("\"imageHeight\":").append(imageHeight).append(",");
         sb.append("\"imageSizeBytes\":").append(imageSizeBytes).append(",");
-        sb.append("\"cameraCount\":").append(cameraCount).append(",");
+        sb.append("\"cameraCount\":").append(cameraCount);
         
         // App 状态（已经是 JSON 对象，直接嵌入）
-        if (appStatus != null && !appStatus.isEmpty()) {
-            sb.append("\"status\":").append(appStatus);
-        } else {
-            sb.append("\"status\":null");
+        if (includeStatus) {
+            sb.append(",\"status\":").append(appStatus != null ? appStatus : "null");
         }
         
         sb.append("}");
@@ -206,15 +311,25 @@ public class HeartbeatApiClient {
         public final int httpCode;
         public final String responseBody;
         
+        public final long bytesSent;   // 请求体大小
+        public final long bytesSaved;  // 相比同样内容用 JSON 格式发送节省的字节数
+        
         public HeartbeatResult(boolean success, String message) {
             this(success, message, 0, null);
         }
         
         public HeartbeatResult(boolean success, String message, int httpCode, String responseBody) {
+            this(success, message, httpCode, responseBody, 0, 0);
+        }
+        
+        public HeartbeatResult(boolean success, String message, int httpCode, String responseBody,
+                               long bytesSent, long bytesSaved) {
             this.success = success;
             this.message = message;
             this.httpCode = httpCode;
             this.responseBody = responseBody;
+            this.bytesSent = bytesSent;
+            this.bytesSaved = bytesSaved;
         }
     }
 }
@@ -27,12 +27,17 @@ public class HeartbeatConfig {
     private static final String KEY_SCREEN_ON_PUSH = "screen_on_push";        // 亮屏推图开关
     private static final String KEY_SCREEN_OFF_PUSH = "screen_off_push";      // 息屏推图开关
     private static final String KEY_AUTO_START = "auto_start";                // 自动启动服务
+    private static final String KEY_UPLOAD_MODE = "upload_mode";              // 上传格式
+    private static final String KEY_SKIP_UNCHANGED = "skip_unchanged";        // 画面未变化时不传图
     
     // 统计信息
     private static final String KEY_LAST_UPLOAD_TIME = "last_upload_time";    // 上次上传时间
     private static final String KEY_SUCCESS_COUNT = "success_count";          // 成功次数
     private static final String KEY_FAIL_COUNT = "fail_count";                // 失败次数
     private static final String KEY_LAST_ERROR = "last_error";                // 最后一次错误信息
+    private static final String KEY_IMAGE_COUNT = "image_count";              // 带图心跳次数
+    private static final String KEY_SKIPPED_COUNT = "skipped_count";          // 画面未变化、只传状态的次数
+    private static final String KEY_BYTES_SAVED = "bytes_saved";              // 相比 JSON+Base64 整图上传节省的字节数
     
     // 推送间隔常量（秒）
     public static final int INTERVAL_30_SECONDS = 30;
@@ -52,6 +57,10 @@ public class HeartbeatConfig {
     public static final int TARGET_SIZE_NO_COMPRESS = 0;  // 0 表示不压缩
     private static final int DEFAULT_TARGET_SIZE_KB = TARGET_SIZE_100KB;
     
+    // 上传格式
+    public static final int UPLOAD_MODE_JSON = 0;       // JSON 请求体，图片 Base64（兼容原服务端）
+    public static final int UPLOAD_MODE_MULTIPART = 1;  // multipart：图片二进制，状态 JSON gzip 压缩
+    
     private final SharedPreferences prefs;
     private final Context context;
     
@@ -304,6 +313,59 @@ public class HeartbeatConfig {
         AppLog.d(TAG, "自动启动设置: " + (enabled ? "启用" : "禁用"));
     }
     
+    // ==================== 上传配置 ====================
+    
+    /**
+     * 获取上传格式
+     */
+    public int getUploadMode() {
+        return prefs.getInt(KEY_UPLOAD_MODE, UPLOAD_MODE_JSON);
+    }
+    
+    /**
+     * 设置上传格式
+     */
+    public void setUploadMode(int mode) {
+        prefs.edit().putInt(KEY_UPLOAD_MODE, mode).apply();
+        AppLog.d(TAG, "上传格式设置: " + getUploadModeDisplayName(mode));
+    }
+    
+    /**
+     * 是否使用 multipart 上传
+     */
+    public boolean isMultipartUpload() {
+        return getUploadMode() == UPLOAD_MODE_MULTIPART;
+    }
+    
+    /**
+     * 获取上传格式的显示名称
+     */
+    public static String getUploadModeDisplayName(int mode) {
+        switch (mode) {
+            case UPLOAD_MODE_MULTIPART:
+                return "multipart（二进制图片 + gzip 状态）";
+            case UPLOAD_MODE_JSON:
+            default:
+                return "JSON（Base64 图片）";
+        }
+    }
+    
+    /**
+     * 获取"画面未变化时不传图"开关
+     * 开启后，画面与上次上传的图片相比没有明显变化时只发送状态心跳（需要服务端支持 imageSkipped）
+     */
+    public boolean isSkipUnchangedEnabled() {
+        return prefs.getBoolean(KEY_SKIP_UNCHANGED, false);
+    }
+    
+    /**
+     * 设置"画面未变化时不传图"开关
+     */
+    public void setSkipUnchangedEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_SKIP_UNCHANGED, enabled).apply();
+        AppLog.d(TAG, "画面未变化时不传图设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
     // ==================== 统计信息 ====================
     
     /**
@@ -350,6 +412,62 @@ public class HeartbeatConfig {
         prefs.edit().putInt(KEY_FAIL_COUNT, count).apply();
     }
     
+    /**
+     * 获取带图心跳次数
+     */
+    public int getImageCount() {
+        return prefs.getInt(KEY_IMAGE_COUNT, 0);
+    }
+    
+    /**
+     * 增加带图心跳次数
+     */
+    public void incrementImageCount() {
+        int count = getImageCount() + 1;
+        prefs.edit().putInt(KEY_IMAGE_COUNT, count).apply();
+    }
+    
+    /**
+     * 获取只传状态（画面未变化）的次数
+     */
+    public int getSkippedCount() {
+        return prefs.getInt(KEY_SKIPPED_COUNT, 0);
+    }
+    
+    /**
+     * 增加只传状态的次数
+     */
+    public void incrementSkippedCount() {
+        int count = getSkippedCount() + 1;
+        prefs.edit().putInt(KEY_SKIPPED_COUNT, count).apply();
+    }
+    
+    /**
+     * 获取跳过图片的比例（0~1），没有成功心跳时为 0
+     */
+    public float getSkipRate() {
+        int skipped = getSkippedCount();
+        int total = skipped + getImageCount();
+        return total == 0 ? 0f : skipped / (float) total;
+    }
+    
+    /**
+     * 获取累计节省的上传字节数
+     */
+    public long getBytesSaved() {
+        return prefs.getLong(KEY_BYTES_SAVED, 0);
+    }
+    
+    /**
+     * 累加节省的上传字节数
+     */
+    public void addBytesSaved(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        prefs.edit().putLong(KEY_BYTES_SAVED, getBytesSaved() + bytes).apply();
+    }
+    
     /**
      * 获取最后一次错误信息
      */
@@ -372,6 +490,9 @@ public class HeartbeatConfig {
             .putLong(KEY_LAST_UPLOAD_TIME, 0)
             .putInt(KEY_SUCCESS_COUNT, 0)
             .putInt(KEY_FAIL_COUNT, 0)
+            .putInt(KEY_IMAGE_COUNT, 0)
+            .putInt(KEY_SKIPPED_COUNT, 0)
+            .putLong(KEY_BYTES_SAVED, 0)
             .remove(KEY_LAST_ERROR)
             .apply();
         AppLog.d(TAG, "统计信息已重置");
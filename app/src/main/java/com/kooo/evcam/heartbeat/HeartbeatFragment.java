@@ -424,7 +424,14 @@ public class HeartbeatFragment extends Fragment implements HeartbeatManager.Hear
         // 成功/失败统计
         int success = config.getSuccessCount();
         int fail = config.getFailCount();
-        tvStatistics.setText("成功: " + success + " | 失败: " + fail);
+        String statistics = "成功: " + success + " | 失败: " + fail;
+        
+        // 画面未变化跳过比例 / 节省流量
+        if (config.getSkippedCount() > 0 || config.getBytesSaved() > 0) {
+            statistics += String.format(java.util.Locale.US, " | 跳过: %.0f%% | 节省: %dKB",
+                    config.getSkipRate() * 100, config.getBytesSaved() / 1024);
+        }
+        tvStatistics.setText(statistics);
     }
     
     // ==================== HeartbeatListener 回调 ====================
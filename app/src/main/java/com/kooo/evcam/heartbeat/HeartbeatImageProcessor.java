@@ -3,147 +3,209 @@ package com.kooo.evcam.heartbeat;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.Size;
-import android.view.TextureView;
 
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.camera.SingleCamera;
 
 import java.io.ByteArrayOutputStream;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * 心跳推图图片处理器
  * 负责从摄像头获取图片、拼接和压缩
+ *
+ * - 各摄像头画面直接按最终格子尺寸截取（TextureView 缩放输出），不再先取整幅预览再拼接
+ * - 格子 Bitmap 和拼接 Bitmap 在多次心跳之间复用，尺寸或布局变化时才重建
+ * - JPEG 质量由 {@link JpegQualityModel} 按最近心跳的结果预测，通常一到两次编码即达到目标大小
+ * - 截图时顺便为每个摄像头计算 {@link PerceptualHash} 指纹，供判断画面是否变化
  */
 public class HeartbeatImageProcessor {
     private static final String TAG = "HeartbeatImageProcessor";
-    
+
+    // 拼接图最大宽度（2 列时每格最多 960 像素宽）
+    private static final int MAX_MOSAIC_WIDTH = 1920;
+
+    // 压缩参数
+    private static final int MIN_QUALITY = 10;       // 最低质量限制
+    private static final int MAX_QUALITY = 95;
+    private static final int DEFAULT_QUALITY = 70;   // 没有历史结果时的初始质量
+    private static final int MAX_ENCODES = 6;        // 最多编码次数
+
+    // 指纹采样尺寸（格子先缩到此尺寸，再按块平均到 9x8）
+    private static final int HASH_SAMPLE_WIDTH = 72;
+    private static final int HASH_SAMPLE_HEIGHT = 64;
+
+    // 复用的 Bitmap（只在主线程截图、心跳线程压缩，两次心跳不会并发）
+    private Bitmap tileBitmap;
+    private Bitmap mosaicBitmap;
+    private Canvas mosaicCanvas;
+    private final ReusableOutputStream encodeBuffer = new ReusableOutputStream(256 * 1024);
+    private final JpegQualityModel qualityModel = new JpegQualityModel();
+
+    // 指纹采样（复用）
+    private Bitmap hashBitmap;
+    private Canvas hashCanvas;
+    private final Paint hashPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect hashRect = new Rect(0, 0, HASH_SAMPLE_WIDTH, HASH_SAMPLE_HEIGHT);
+    private final int[] hashPixels = new int[HASH_SAMPLE_WIDTH * HASH_SAMPLE_HEIGHT];
+    private long[] lastHashes;  // 最近一次截图每个摄像头的指纹
+
+    // 最近一次心跳的统计
+    private long lastCaptureMs;
+    private int lastEncodeCount;
+    private long lastEncodeMs;
+    private int lastQuality;
+    private int lastSizeKB;
+
     /**
-     * 从多个相机获取实时画面并拼接
-     * 
+     * 可重复使用的输出流（每次编码前 reset，不重新分配缓冲区）
+     */
+    private static final class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+    }
+
+    /**
+     * 从多个相机获取实时画面并拼接（必须在主线程调用）
+     * - 1张：原图
+     * - 2张：横向拼接
+     * - 3-4张：四宫格（3摄时右下角填黑）
+     *
      * @param cameras SingleCamera 列表
-     * @return 拼接后的 Bitmap（调用方负责回收），失败返回 null
+     * @return 拼接后的 Bitmap（由处理器复用，调用方不要回收），失败返回 null
      */
     public Bitmap captureAndMerge(List<SingleCamera> cameras) {
         if (cameras == null || cameras.isEmpty()) {
             AppLog.w(TAG, "相机列表为空");
             return null;
         }
-        
-        List<Bitmap> bitmaps = new ArrayList<>();
-        
+        long start = System.currentTimeMillis();
+
+        // 以第一个有预览尺寸的相机决定格子比例
+        int count = 0;
+        Size previewSize = null;
         for (SingleCamera camera : cameras) {
             if (camera == null) {
                 continue;
             }
-            
+            count++;
+            if (previewSize == null) {
+                previewSize = camera.getPreviewSize();
+            }
+        }
+        if (previewSize == null) {
+            AppLog.w(TAG, "相机预览尺寸未知");
+            return null;
+        }
+        count = Math.min(count, 4);
+        int columns = count == 1 ? 1 : 2;
+        int rows = count <= 2 ? 1 : 2;
+        int tileWidth = Math.min(previewSize.getWidth(), MAX_MOSAIC_WIDTH / columns);
+        int tileHeight = Math.max(1, Math.round(tileWidth * previewSize.getHeight() / (float) previewSize.getWidth()));
+        ensureBitmaps(tileWidth, tileHeight, columns, rows);
+        mosaicCanvas.drawColor(Color.BLACK);
+
+        int captured = 0;
+        int index = 0;
+        long[] hashes = new long[count];
+        for (SingleCamera camera : cameras) {
+            if (camera == null || index >= count) {
+                continue;
+            }
+            int cell = index++;
             try {
-                Bitmap bitmap = captureSingleCamera(camera);
-                if (bitmap != null) {
-                    bitmaps.add(bitmap);
+                if (camera.captureBitmap(tileBitmap)) {
+                    mosaicCanvas.drawBitmap(tileBitmap, (cell % columns) * tileWidth, (cell / columns) * tileHeight, null);
+                    hashes[cell] = hashTile();
+                    captured++;
                 }
             } catch (Exception e) {
                 AppLog.e(TAG, "获取相机画面失败: " + e.getMessage());
             }
         }
-        
-        if (bitmaps.isEmpty()) {
+
+        lastCaptureMs = System.currentTimeMillis() - start;
+        lastHashes = hashes;
+        if (captured == 0) {
             AppLog.w(TAG, "未能获取任何相机画面");
             return null;
         }
-        
-        AppLog.d(TAG, "成功获取 " + bitmaps.size() + " 个相机画面");
-        
-        // 拼接图片
-        Bitmap merged = mergeBitmaps(bitmaps);
-        
-        // 回收原始 bitmap（拼接后不再需要）
-        for (Bitmap bitmap : bitmaps) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
+        AppLog.d(TAG, "成功获取 " + captured + " 个相机画面，拼接尺寸: " + mosaicBitmap.getWidth() + "x" +
+                mosaicBitmap.getHeight() + "，耗时 " + lastCaptureMs + "ms");
+        return mosaicBitmap;
+    }
+
+    /**
+     * 计算当前格子画面的指纹
+     */
+    private long hashTile() {
+        if (hashBitmap == null) {
+            hashBitmap = Bitmap.createBitmap(HASH_SAMPLE_WIDTH, HASH_SAMPLE_HEIGHT, Bitmap.Config.ARGB_8888);
+            hashCanvas = new Canvas(hashBitmap);
         }
-        
-        return merged;
+        hashCanvas.drawBitmap(tileBitmap, null, hashRect, hashPaint);
+        hashBitmap.getPixels(hashPixels, 0, HASH_SAMPLE_WIDTH, 0, 0, HASH_SAMPLE_WIDTH, HASH_SAMPLE_HEIGHT);
+        return PerceptualHash.dHash(hashPixels, HASH_SAMPLE_WIDTH, HASH_SAMPLE_HEIGHT);
     }
-    
+
     /**
-     * 从单个相机获取画面
+     * 最近一次截图每个摄像头的指纹（按拼接顺序），未截到的摄像头为 0
      */
-    private Bitmap captureSingleCamera(SingleCamera camera) {
-        // 获取 TextureView（通过反射或公开方法）
-        // 由于 SingleCamera 类的设计，我们需要在主线程获取 Bitmap
-        // 这里假设 camera 有提供获取 Bitmap 的方法
-        
-        Size previewSize = camera.getPreviewSize();
-        if (previewSize == null) {
-            AppLog.w(TAG, "相机 " + camera.getCameraId() + " 预览尺寸未知");
-            return null;
+    public long[] getLastHashes() {
+        return lastHashes;
+    }
+
+    /**
+     * 按格子尺寸和布局准备复用的 Bitmap
+     */
+    private void ensureBitmaps(int tileWidth, int tileHeight, int columns, int rows) {
+        if (tileBitmap == null || tileBitmap.getWidth() != tileWidth || tileBitmap.getHeight() != tileHeight) {
+            if (tileBitmap != null) {
+                tileBitmap.recycle();
+            }
+            tileBitmap = Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+        }
+        int mosaicWidth = tileWidth * columns;
+        int mosaicHeight = tileHeight * rows;
+        if (mosaicBitmap == null || mosaicBitmap.getWidth() != mosaicWidth || mosaicBitmap.getHeight() != mosaicHeight) {
+            if (mosaicBitmap != null) {
+                mosaicBitmap.recycle();
+            }
+            mosaicBitmap = Bitmap.createBitmap(mosaicWidth, mosaicHeight, Bitmap.Config.ARGB_8888);
+            mosaicCanvas = new Canvas(mosaicBitmap);
+            AppLog.d(TAG, "拼接画布: " + mosaicWidth + "x" + mosaicHeight + " (" + columns + "x" + rows + ")");
         }
-        
-        // 使用 SingleCamera 内部的方法获取 Bitmap
-        // 注意：这需要在 SingleCamera 中添加一个公开方法
-        return camera.captureBitmap();
     }
-    
+
     /**
-     * 拼接 Bitmap
-     * - 1张：原图
-     * - 2张：横向拼接 (W*2, H)
-     * - 3-4张：四宫格 (W*2, H*2)
-     * 
-     * @param bitmaps Bitmap 列表
-     * @return 拼接后的 Bitmap
+     * 释放复用的 Bitmap（管理器销毁时调用）
      */
-    private Bitmap mergeBitmaps(List<Bitmap> bitmaps) {
-        int count = bitmaps.size();
-        Bitmap first = bitmaps.get(0);
-        int w = first.getWidth();
-        int h = first.getHeight();
-        
-        AppLog.d(TAG, "拼接 " + count + " 张图片，单张尺寸: " + w + "x" + h);
-        
-        if (count == 1) {
-            // 单张图片，直接复制返回
-            return first.copy(Bitmap.Config.ARGB_8888, false);
-        }
-        
-        if (count == 2) {
-            // 横向拼接
-            Bitmap result = Bitmap.createBitmap(w * 2, h, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(result);
-            canvas.drawBitmap(bitmaps.get(0), 0, 0, null);
-            canvas.drawBitmap(bitmaps.get(1), w, 0, null);
-            AppLog.d(TAG, "横向拼接完成，尺寸: " + (w * 2) + "x" + h);
-            return result;
-        }
-        
-        // 四宫格 (3或4张)
-        Bitmap result = Bitmap.createBitmap(w * 2, h * 2, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(result);
-        canvas.drawColor(Color.BLACK); // 背景色（3摄时右下角填黑）
-        
-        // 左上
-        canvas.drawBitmap(bitmaps.get(0), 0, 0, null);
-        // 右上
-        canvas.drawBitmap(bitmaps.get(1), w, 0, null);
-        // 左下
-        canvas.drawBitmap(bitmaps.get(2), 0, h, null);
-        // 右下（如果有第4张）
-        if (count >= 4) {
-            canvas.drawBitmap(bitmaps.get(3), w, h, null);
-        }
-        
-        AppLog.d(TAG, "四宫格拼接完成，尺寸: " + (w * 2) + "x" + (h * 2));
-        return result;
+    public void release() {
+        if (tileBitmap != null) {
+            tileBitmap.recycle();
+            tileBitmap = null;
+        }
+        if (mosaicBitmap != null) {
+            mosaicBitmap.recycle();
+            mosaicBitmap = null;
+            mosaicCanvas = null;
+        }
+        if (hashBitmap != null) {
+            hashBitmap.recycle();
+            hashBitmap = null;
+            hashCanvas = null;
+        }
     }
-    
+
     /**
      * 压缩 Bitmap 到目标大小
-     * 使用二分法动态调整 JPEG 质量
-     * 
+     * 起始质量由质量模型预测；未命中时用本次结果重新预测，有高低两个结果后在两点之间插值
+     *
      * @param bitmap 原图
      * @param targetSizeKB 目标大小（KB），0 表示不压缩
      * @return 压缩后的 byte[]
@@ -152,63 +214,74 @@ public class HeartbeatImageProcessor {
         if (bitmap == null) {
             return null;
         }
-        
+        long start = System.currentTimeMillis();
+        lastEncodeCount = 0;
+
         // 不压缩：使用 95% 质量
         if (targetSizeKB <= 0) {
             AppLog.d(TAG, "不压缩模式，使用 95% 质量");
-            return compressWithQuality(bitmap, 95);
-        }
-        
-        int targetSizeBytes = targetSizeKB * 1024;
-        int minQualityLimit = 10;  // 最低质量限制
-        int minQuality = minQualityLimit;
-        int maxQuality = 95;
-        int quality = 70; // 初始质量
-        byte[] result = null;
-        int iterations = 0;
-        int maxIterations = 6;  // 最多6次迭代，足够覆盖10-95范围
-        
-        // 二分法查找最佳质量
-        while (minQuality <= maxQuality && iterations < maxIterations) {
-            iterations++;
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-            result = baos.toByteArray();
-            
-            int currentSize = result.length;
-            int currentSizeKB = currentSize / 1024;
-            
-            // 容差：目标的 20% 或 20KB，取较大值，让它更早收敛
-            int tolerance = Math.max(20, targetSizeKB / 5);
-            if (Math.abs(currentSizeKB - targetSizeKB) <= tolerance) {
-                AppLog.d(TAG, "压缩完成: 质量=" + quality + ", 大小=" + currentSizeKB + "KB (目标=" + targetSizeKB + "KB), 迭代=" + iterations);
-                break;
-            }
-            
-            // 如果已经到最低质量，就不再降了
-            if (quality <= minQualityLimit) {
-                AppLog.d(TAG, "已达最低质量 " + minQualityLimit + "%, 大小=" + currentSizeKB + "KB (目标=" + targetSizeKB + "KB)");
+            encode(bitmap, MAX_QUALITY);
+            return finishCompress(MAX_QUALITY, start);
+        }
+
+        long targetBytes = targetSizeKB * 1024L;
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        // 容差：目标的 20% 或 20KB，取较大值
+        int tolerance = Math.max(20, targetSizeKB / 5);
+        int minQuality = MIN_QUALITY;
+        int maxQuality = MAX_QUALITY;
+        int quality = qualityModel.predictInitial(targetBytes, pixels, minQuality, maxQuality, DEFAULT_QUALITY);
+
+        int underQuality = -1;
+        long underBytes = 0;
+        int overQuality = -1;
+        long overBytes = 0;
+        while (lastEncodeCount < MAX_ENCODES) {
+            int size = encode(bitmap, quality);
+            qualityModel.learn(quality, size, pixels);
+
+            int sizeKB = size / 1024;
+            if (Math.abs(sizeKB - targetSizeKB) <= tolerance) {
                 break;
             }
-            
-            if (currentSize > targetSizeBytes) {
+            if (size > targetBytes) {
+                // 如果已经到最低质量，就不再降了
+                if (quality <= MIN_QUALITY) {
+                    AppLog.d(TAG, "已达最低质量 " + MIN_QUALITY + "%, 大小=" + sizeKB + "KB (目标=" + targetSizeKB + "KB)");
+                    break;
+                }
+                overQuality = quality;
+                overBytes = size;
                 maxQuality = quality - 1;
             } else {
+                underQuality = quality;
+                underBytes = size;
                 minQuality = quality + 1;
             }
-            quality = Math.max(minQualityLimit, (minQuality + maxQuality) / 2);
-        }
-        
-        if (result != null) {
-            AppLog.d(TAG, "最终压缩结果: " + (result.length / 1024) + "KB, 迭代次数: " + iterations);
+            if (minQuality > maxQuality) {
+                break;
+            }
+
+            int next;
+            if (underQuality >= 0 && overQuality >= 0) {
+                next = JpegQualityModel.interpolate(underQuality, underBytes, overQuality, overBytes, targetBytes,
+                        minQuality, maxQuality);
+            } else {
+                // 用本次结果的场景系数重新预测（同一画面，比历史系数更准）
+                next = JpegQualityModel.predict(JpegQualityModel.factorOf(quality, size, pixels), targetBytes, pixels,
+                        minQuality, maxQuality, (minQuality + maxQuality) / 2);
+            }
+            if (next == quality) {
+                break;
+            }
+            quality = next;
         }
-        
-        return result;
+        return finishCompress(quality, start);
     }
-    
+
     /**
      * 压缩 Bitmap 到指定质量
-     * 
+     *
      * @param bitmap 原图
      * @param quality JPEG 质量 (0-100)
      * @return 压缩后的 byte[]
@@ -217,9 +290,34 @@ public class HeartbeatImageProcessor {
         if (bitmap == null) {
             return null;
         }
-        
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
         return baos.toByteArray();
     }
+
+    private int encode(Bitmap bitmap, int quality) {
+        encodeBuffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, encodeBuffer);
+        lastEncodeCount++;
+        return encodeBuffer.size();
+    }
+
+    private byte[] finishCompress(int quality, long start) {
+        byte[] result = encodeBuffer.toByteArray();
+        lastQuality = quality;
+        lastSizeKB = result.length / 1024;
+        lastEncodeMs = System.currentTimeMillis() - start;
+        AppLog.d(TAG, "压缩完成: " + getLastStats());
+        return result;
+    }
+
+    /**
+     * 最近一次心跳的图片处理统计（截图耗时、编码次数和耗时、最终质量和大小）
+     */
+    public String getLastStats() {
+        return String.format(Locale.US, "截图 %dms, 编码 %d 次 %dms, 质量=%d, 大小=%dKB, 场景系数=%.3f",
+                lastCaptureMs, lastEncodeCount, lastEncodeMs, lastQuality, lastSizeKB,
+                qualityModel.getSceneFactor());
+    }
 }
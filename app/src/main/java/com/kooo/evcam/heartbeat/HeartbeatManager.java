@@ -57,6 +57,12 @@ public class HeartbeatManager {
     private static final long SCREEN_OFF_HEARTBEAT_DELAY_MS = 30000; // 息屏后30秒开始推图
     private volatile boolean wakeUpByHeartbeat = false;  // 是否由息屏推图唤醒的
     
+    // 画面变化检测（只在心跳线程访问）
+    private static final long FORCE_IMAGE_INTERVAL_MS = 10 * 60 * 1000; // 画面未变化时最多隔10分钟也传一次图
+    private long[] lastSentHashes;     // 上次成功上传的图片的指纹
+    private long lastImageSentTime = 0;
+    private int lastImageSize = 0;
+    
     /**
      * App 状态提供者接口
      */
@@ -563,6 +569,9 @@ public class HeartbeatManager {
     public void destroy() {
         stop();
         stopScreenOffHeartbeat();
+        if (!executor.isShutdown()) {
+            executor.execute(imageProcessor::release);  // 在心跳线程释放，避免与正在执行的心跳冲突
+        }
         executor.shutdown();
     }
     
@@ -711,43 +720,80 @@ public class HeartbeatManager {
             int imageWidth = merged.getWidth();
             int imageHeight = merged.getHeight();
             int cameraCount = cameras.size();
+            boolean multipart = config.isMultipartUpload();
             
-            // 3. 压缩图片
-            byte[] imageBytes = imageProcessor.compressToTargetSize(merged, config.getTargetSizeKB());
-            merged.recycle();
+            // 3. 与上次上传的画面比较，未变化时只发送状态
+            long[] hashes = imageProcessor.getLastHashes();
+            boolean unchanged = config.isSkipUnchangedEnabled()
+                    && System.currentTimeMillis() - lastImageSentTime < FORCE_IMAGE_INTERVAL_MS
+                    && PerceptualHash.isSimilar(hashes, lastSentHashes, PerceptualHash.DEFAULT_MAX_DISTANCE);
             
-            if (imageBytes == null || imageBytes.length == 0) {
-                AppLog.w(TAG, "图片压缩失败");
-                notifyFailed("图片压缩失败");
-                return;
+            // 4. 压缩图片
+            // 拼接图由 imageProcessor 复用，不回收
+            byte[] imageBytes = null;
+            if (!unchanged) {
+                imageBytes = imageProcessor.compressToTargetSize(merged, config.getTargetSizeKB());
+                
+                if (imageBytes == null || imageBytes.length == 0) {
+                    AppLog.w(TAG, "图片压缩失败");
+                    notifyFailed("图片压缩失败");
+                    return;
+                }
             }
             
-            // 4. 获取 App 状态
+            // 5. 获取 App 状态
             String appStatus = null;
             if (statusProvider != null) {
                 appStatus = statusProvider.getAppStatusJson();
             }
             
-            // 5. 发送请求
-            HeartbeatApiClient.HeartbeatResult result = apiClient.sendHeartbeat(
-                    config.getServerUrl(),
-                    config.getVehicleId(),
-                    config.getSecretKey(),
-                    imageBytes,
-                    imageWidth,
-                    imageHeight,
-                    cameraCount,
-                    appStatus
-            );
+            // 6. 发送请求
+            HeartbeatApiClient.HeartbeatResult result;
+            if (unchanged) {
+                result = apiClient.sendStatusOnly(
+                        config.getServerUrl(),
+                        config.getVehicleId(),
+                        config.getSecretKey(),
+                        cameraCount,
+                        appStatus,
+                        multipart
+                );
+            } else {
+                result = apiClient.sendHeartbeat(
+                        config.getServerUrl(),
+                        config.getVehicleId(),
+                        config.getSecretKey(),
+                        imageBytes,
+                        imageWidth,
+                        imageHeight,
+                        cameraCount,
+                        appStatus,
+                        multipart
+                );
+            }
             
-            // 6. 更新统计
+            // 7. 更新统计
             long now = System.currentTimeMillis();
             config.setLastUploadTime(now);
             
             if (result.success) {
                 config.incrementSuccessCount();
                 long duration = now - startTime;
-                AppLog.i(TAG, "心跳成功，耗时: " + duration + "ms, 图片: " + (imageBytes.length / 1024) + "KB");
+                if (unchanged) {
+                    // 省下的是上次那张图按 JSON+Base64 上传的大小
+                    config.incrementSkippedCount();
+                    config.addBytesSaved(result.bytesSaved + HeartbeatApiClient.base64Length(lastImageSize));
+                    AppLog.i(TAG, "心跳成功（画面未变化，仅状态），耗时: " + duration + "ms, 指纹距离: " +
+                            PerceptualHash.maxDistance(hashes, lastSentHashes) + ", 请求体: " + result.bytesSent + "B");
+                } else {
+                    config.incrementImageCount();
+                    config.addBytesSaved(result.bytesSaved);
+                    lastSentHashes = hashes;
+                    lastImageSentTime = now;
+                    lastImageSize = imageBytes.length;
+                    AppLog.i(TAG, "心跳成功，耗时: " + duration + "ms, 图片: " + (imageBytes.length / 1024) + "KB (" +
+                            imageProcessor.getLastStats() + "), 请求体: " + (result.bytesSent / 1024) + "KB");
+                }
                 notifySuccess(now);
             } else {
                 config.incrementFailCount();
@@ -0,0 +1,120 @@
+package com.kooo.evcam.heartbeat;
+
+/**
+ * 心跳推图 JPEG 质量预测模型
+ * 不依赖 Android，可在 JVM 上单独测试
+ *
+ * JPEG 大小 ≈ 场景系数 × 像素数 × 参考曲线(质量)：
+ * - 参考曲线描述大小随质量的相对变化（质量 75 时为 1），形状对大多数画面相近
+ * - 场景系数反映画面复杂度（白天/夜间、静止/街景），由最近几次心跳的实际编码结果平滑得到
+ * - 同一次压缩内已有高于/低于目标的两个结果时，直接在两点之间按对数大小插值
+ *
+ * 通常第一次编码就落在容差内，画面变化较大时第二次也能命中，不再需要逐次二分
+ */
+public class JpegQualityModel {
+
+    // 参考曲线（质量 -> 相对大小，质量 75 为 1）
+    private static final int[] CURVE_QUALITY = {10, 20, 30, 40, 50, 60, 70, 75, 80, 85, 90, 95};
+    private static final double[] CURVE_SIZE = {0.30, 0.45, 0.56, 0.64, 0.71, 0.80, 0.92, 1.00, 1.12, 1.32, 1.68, 2.45};
+
+    // 场景系数平滑（越大越偏向最新结果）
+    private static final double SMOOTHING = 0.5;
+
+    private double sceneFactor = Double.NaN;  // 每像素字节数 / 参考曲线，未学习时为 NaN
+    private int samples = 0;
+
+    /**
+     * 参考曲线上的相对大小（线性插值）
+     */
+    static double referenceSize(int quality) {
+        if (quality <= CURVE_QUALITY[0]) {
+            return CURVE_SIZE[0];
+        }
+        for (int i = 1; i < CURVE_QUALITY.length; i++) {
+            if (quality <= CURVE_QUALITY[i]) {
+                double t = (quality - CURVE_QUALITY[i - 1]) / (double) (CURVE_QUALITY[i] - CURVE_QUALITY[i - 1]);
+                return CURVE_SIZE[i - 1] + t * (CURVE_SIZE[i] - CURVE_SIZE[i - 1]);
+            }
+        }
+        return CURVE_SIZE[CURVE_SIZE.length - 1];
+    }
+
+    /**
+     * 参考曲线的反函数：相对大小 -> 质量
+     */
+    static double qualityForReferenceSize(double size) {
+        if (size <= CURVE_SIZE[0]) {
+            return CURVE_QUALITY[0];
+        }
+        for (int i = 1; i < CURVE_SIZE.length; i++) {
+            if (size <= CURVE_SIZE[i]) {
+                double t = (size - CURVE_SIZE[i - 1]) / (CURVE_SIZE[i] - CURVE_SIZE[i - 1]);
+                return CURVE_QUALITY[i - 1] + t * (CURVE_QUALITY[i] - CURVE_QUALITY[i - 1]);
+            }
+        }
+        return CURVE_QUALITY[CURVE_QUALITY.length - 1];
+    }
+
+    /**
+     * 由一次编码结果计算场景系数
+     */
+    static double factorOf(int quality, long bytes, long pixels) {
+        return bytes / (double) pixels / referenceSize(quality);
+    }
+
+    /**
+     * 按场景系数预测达到目标大小的质量
+     * @param factor 场景系数，NaN 时返回 fallbackQuality
+     */
+    static int predict(double factor, long targetBytes, long pixels, int minQuality, int maxQuality,
+                       int fallbackQuality) {
+        int quality;
+        if (Double.isNaN(factor) || factor <= 0 || pixels <= 0) {
+            quality = fallbackQuality;
+        } else {
+            quality = (int) Math.round(qualityForReferenceSize(targetBytes / (double) pixels / factor));
+        }
+        return Math.max(minQuality, Math.min(maxQuality, quality));
+    }
+
+    /**
+     * 在同一次压缩中高于、低于目标的两个结果之间按对数大小插值
+     */
+    static int interpolate(int lowQuality, long lowBytes, int highQuality, long highBytes, long targetBytes,
+                           int minQuality, int maxQuality) {
+        double t = 0.5;
+        if (highBytes > lowBytes && lowBytes > 0) {
+            t = (Math.log(targetBytes) - Math.log(lowBytes)) / (Math.log(highBytes) - Math.log(lowBytes));
+            t = Math.max(0, Math.min(1, t));
+        }
+        int quality = (int) Math.round(lowQuality + t * (highQuality - lowQuality));
+        return Math.max(minQuality, Math.min(maxQuality, quality));
+    }
+
+    /**
+     * 预测本次心跳的起始质量
+     */
+    public int predictInitial(long targetBytes, long pixels, int minQuality, int maxQuality, int fallbackQuality) {
+        return predict(sceneFactor, targetBytes, pixels, minQuality, maxQuality, fallbackQuality);
+    }
+
+    /**
+     * 学习一次编码结果（更新场景系数）
+     */
+    public void learn(int quality, long bytes, long pixels) {
+        if (bytes <= 0 || pixels <= 0) {
+            return;
+        }
+        double factor = factorOf(quality, bytes, pixels);
+        sceneFactor = Double.isNaN(sceneFactor) ? factor : sceneFactor + SMOOTHING * (factor - sceneFactor);
+        samples++;
+    }
+
+    public double getSceneFactor() {
+        return sceneFactor;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+}
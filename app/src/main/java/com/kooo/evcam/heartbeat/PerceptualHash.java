@@ -0,0 +1,101 @@
+package com.kooo.evcam.heartbeat;
+
+/**
+ * 心跳推图画面指纹（差值哈希 dHash）
+ * 不依赖 Android，可在 JVM 上单独测试
+ *
+ * 把画面按块平均缩成 9x8 的亮度网格，每行相邻两格比较明暗得到 64 位指纹：
+ * - 只反映画面的明暗结构，对 JPEG 噪点、轻微曝光变化不敏感
+ * - 两个指纹不同的位数（汉明距离）越小，画面越接近
+ * - 停车时画面不变，指纹距离通常为 0~3；整体变亮变暗不影响指纹，有人车在画面中占较大区域时会超过阈值
+ */
+public final class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    /** 判定为"画面未变化"的默认最大汉明距离（64 位中） */
+    public static final int DEFAULT_MAX_DISTANCE = 4;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * 计算一幅画面的 64 位指纹
+     *
+     * @param argb 像素（ARGB，按行排列）
+     * @param width 宽度（至少 9）
+     * @param height 高度（至少 8）
+     */
+    public static long dHash(int[] argb, int width, int height) {
+        if (width < GRID_WIDTH || height < GRID_HEIGHT || argb.length < width * height) {
+            throw new IllegalArgumentException("Image too small for dHash: " + width + "x" + height);
+        }
+        // 按块求平均亮度
+        long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[offset + x];
+                // 亮度近似 (R*2 + G*5 + B) / 8
+                int luma = (((pixel >> 16) & 0xFF) * 2 + ((pixel >> 8) & 0xFF) * 5 + (pixel & 0xFF)) >> 3;
+                int cell = cellRow + x * GRID_WIDTH / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        int bit = 0;
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            for (int col = 0; col < GRID_WIDTH - 1; col++) {
+                int left = row * GRID_WIDTH + col;
+                // 交叉相乘比较平均值，避免除法
+                if (sums[left] * counts[left + 1] > sums[left + 1] * counts[left]) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 两个指纹的汉明距离（0~64）
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * 两组指纹（每个摄像头一个）是否都足够接近
+     * 摄像头数量不同时视为已变化
+     */
+    public static boolean isSimilar(long[] a, long[] b, int maxDistance) {
+        if (a == null || b == null || a.length != b.length || a.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (distance(a[i], b[i]) > maxDistance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一组指纹中最大的汉明距离（用于日志），不可比较时返回 -1
+     */
+    public static int maxDistance(long[] a, long[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return -1;
+        }
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, distance(a[i], b[i]));
+        }
+        return max;
+    }
+}
@@ -26,6 +26,9 @@ public class DateSection<T> {
     /** 是否展开 */
     private boolean expanded;
     
+    /** 该日期的文件是否已加载（分片目录按天延迟加载） */
+    private boolean loaded = true;
+    
     public DateSection(String dateString, Date date) {
         this.dateString = dateString;
         this.date = date;
@@ -101,6 +104,20 @@ public class DateSection<T> {
         this.expanded = !this.expanded;
     }
     
+    /**
+     * 该日期的文件是否已加载
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+    
+    /**
+     * 设置加载状态（未加载的日期在展开时再列出文件）
+     */
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+    
     /**
      * 获取格式化的日期显示字符串
      * 今天显示"今天"，昨天显示"昨天"，其他显示日期
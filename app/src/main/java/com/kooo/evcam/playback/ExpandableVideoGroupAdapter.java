@@ -188,8 +188,8 @@ public class ExpandableVideoGroupAdapter extends RecyclerView.Adapter<RecyclerVi
         // 设置日期文字
         holder.dateText.setText(section.getFullDateDisplay());
         
-        // 设置组数量
-        holder.itemCount.setText(section.getItemCount() + "组");
+        // 设置组数量（未加载的日期数量未知，展开后显示）
+        holder.itemCount.setText(section.isLoaded() ? section.getItemCount() + "组" : "");
         
         // 设置展开/收起图标
         int iconRes = section.isExpanded() ? R.drawable.ic_expand_less : R.drawable.ic_expand_more;
@@ -12,6 +12,8 @@ import android.os.Looper;
 import android.util.Log;
 import android.widget.VideoView;
 
+import com.kooo.evcam.camera.MosaicLayout;
+
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
@@ -19,6 +21,7 @@ import java.util.Map;
 /**
  * 多路视频同步播放管理器
  * 支持1-4路视频同时播放，并保持同步
+ * 拼接录制的视频组只有一个文件，用单路 VideoView 一个解码器播放，单路模式时缩放裁出对应区域
  */
 public class MultiVideoPlayerManager {
     private static final String TAG = "MultiVideoPlayerManager";
@@ -117,6 +120,15 @@ public class MultiVideoPlayerManager {
             return;
         }
 
+        // 拼接录制：一个文件包含所有路
+        if (group.isMosaic()) {
+            totalVideos = 1;
+            loadVideoIfExists(VideoGroup.POSITION_MOSAIC, group.getMosaicFile(), videoSingle);
+            applyMosaicTransform();
+            return;
+        }
+        resetMosaicTransform();
+
         // 统计要加载的视频数量
         if (group.hasVideo(VideoGroup.POSITION_FRONT)) totalVideos++;
         if (group.hasVideo(VideoGroup.POSITION_BACK)) totalVideos++;
@@ -230,7 +242,7 @@ public class MultiVideoPlayerManager {
 
         isPlaying = true;
 
-        if (isSingleMode) {
+        if (isSingleMode || isMosaicGroup()) {
             // 单路模式播放 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.start();
@@ -316,7 +328,7 @@ public class MultiVideoPlayerManager {
     public void seekTo(int position) {
         if (!isPrepared) return;
 
-        if (isSingleMode) {
+        if (isSingleMode || isMosaicGroup()) {
             // 单路模式：操作 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.seekTo(position);
@@ -342,6 +354,13 @@ public class MultiVideoPlayerManager {
      */
     public int getCurrentPosition() {
         // 返回当前播放视频的位置
+        if (isMosaicGroup() && videoSingle != null) {
+            try {
+                return videoSingle.getCurrentPosition();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
         if (isSingleMode && videoSingle != null) {
             // 单路模式下优先从 videoSingle 获取位置
             try {
@@ -493,6 +512,15 @@ public class MultiVideoPlayerManager {
             this.singleModePosition = position;
         }
 
+        // 拼接录制：同一个播放器继续播放，只切换显示区域
+        if (isMosaicGroup()) {
+            applyMosaicTransform();
+            if (singleMode && playbackListener != null) {
+                playbackListener.onSingleVideoPrepared();
+            }
+            return;
+        }
+
         // 如果已准备好，需要重新同步
         if (isPrepared && currentGroup != null) {
             if (singleMode) {
@@ -531,7 +559,7 @@ public class MultiVideoPlayerManager {
      * 加载单路模式视频
      */
     private void loadSingleModeVideo(int seekPosition, boolean autoPlay) {
-        if (currentGroup == null || videoSingle == null) return;
+        if (currentGroup == null || videoSingle == null || currentGroup.isMosaic()) return;
 
         File videoFile = currentGroup.getVideoFile(singleModePosition);
         if (videoFile != null && videoFile.exists()) {
@@ -577,6 +605,46 @@ public class MultiVideoPlayerManager {
         }
     }
 
+    /**
+     * 当前是否为拼接录制的视频组
+     */
+    public boolean isMosaicGroup() {
+        return currentGroup != null && currentGroup.isMosaic();
+    }
+
+    /**
+     * 拼接录制：多路模式显示整个画面，单路模式把对应区域放大到整个 VideoView
+     * （以左上角为轴缩放后平移，超出部分由父布局裁剪）
+     */
+    private void applyMosaicTransform() {
+        if (videoSingle == null) return;
+        videoSingle.post(() -> {
+            if (!isMosaicGroup()) return;
+            MosaicLayout layout = currentGroup.getMosaicLayout();
+            float[] rect = (isSingleMode && layout != null) ? layout.getNormalizedRect(singleModePosition) : null;
+            if (rect == null) {
+                resetMosaicTransform();
+                return;
+            }
+            float scaleX = 1f / rect[2];
+            float scaleY = 1f / rect[3];
+            videoSingle.setPivotX(0);
+            videoSingle.setPivotY(0);
+            videoSingle.setScaleX(scaleX);
+            videoSingle.setScaleY(scaleY);
+            videoSingle.setTranslationX(-rect[0] * videoSingle.getWidth() * scaleX);
+            videoSingle.setTranslationY(-rect[1] * videoSingle.getHeight() * scaleY);
+        });
+    }
+
+    private void resetMosaicTransform() {
+        if (videoSingle == null) return;
+        videoSingle.setScaleX(1f);
+        videoSingle.setScaleY(1f);
+        videoSingle.setTranslationX(0);
+        videoSingle.setTranslationY(0);
+    }
+
     /**
      * 获取单路模式对应的VideoView
      */
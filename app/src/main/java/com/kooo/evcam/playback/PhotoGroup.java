@@ -1,5 +1,7 @@
 package com.kooo.evcam.playback;
 
+import com.kooo.evcam.storage.StorageIndex;
+
 import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -184,6 +186,7 @@ public class PhotoGroup {
         int deleted = 0;
         for (File file : photoFiles.values()) {
             if (file.delete()) {
+                StorageIndex.notifyFileRemoved(file);
                 deleted++;
             }
         }
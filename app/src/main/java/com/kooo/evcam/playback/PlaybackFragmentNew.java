@@ -36,9 +36,12 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.kooo.evcam.MainActivity;
 import com.kooo.evcam.R;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.camera.MosaicLayout;
+import com.kooo.evcam.storage.VideoShardLayout;
 import com.kooo.evcam.transfer.QrTransferDialog;
 
 import java.io.File;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -46,7 +49,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -297,6 +299,15 @@ public class PlaybackFragmentNew extends Fragment {
             updateSelectedCount();
         });
 
+        // 展开未加载的日期时列出当天分片中的录像
+        adapter.setOnDateHeaderClickListener((section, position) -> {
+            if (section.isExpanded() && !section.isLoaded() && getContext() != null) {
+                loadDateSection(StorageHelper.getVideoDir(getContext()), section);
+                adapter.buildFlattenedList();
+                adapter.notifyDataSetChanged();
+            }
+        });
+
         // 列表项长按 - 分享视频
         adapter.setOnItemLongClickListener((group, position) -> {
             if (adapter.isMultiSelectMode()) {
@@ -358,6 +369,12 @@ public class PlaybackFragmentNew extends Fragment {
                 public boolean onDoubleTap(MotionEvent e) {
                     if (isSingleMode) {
                         switchToMultiMode();
+                    } else {
+                        // 拼接录制的多路画面：双击哪一路放大哪一路
+                        String position = findMosaicPosition(e);
+                        if (position != null) {
+                            switchToSingleMode(position, getPositionLabel(position));
+                        }
                     }
                     return true;
                 }
@@ -388,6 +405,35 @@ public class PlaybackFragmentNew extends Fragment {
         });
     }
 
+    /**
+     * 查找拼接录制画面中触摸点所在的一路
+     */
+    private String findMosaicPosition(MotionEvent e) {
+        if (currentGroup == null || !currentGroup.isMosaic() || currentGroup.getMosaicLayout() == null
+                || videoSingle == null || videoSingle.getWidth() == 0 || videoSingle.getHeight() == 0) {
+            return null;
+        }
+        int[] location = new int[2];
+        videoSingle.getLocationOnScreen(location);
+        float x = (e.getRawX() - location[0]) / videoSingle.getWidth();
+        float y = (e.getRawY() - location[1]) / videoSingle.getHeight();
+        return currentGroup.getMosaicLayout().findPosition(x, y);
+    }
+
+    /**
+     * 显示多路画面（拼接录制只有一个画面，使用单路布局显示整个拼接画面）
+     */
+    private void showMultiViewLayout() {
+        if (currentGroup != null && currentGroup.isMosaic()) {
+            multiViewLayout.setVisibility(View.GONE);
+            singleViewLayout.setVisibility(View.VISIBLE);
+            labelSingle.setText("拼接");
+        } else {
+            singleViewLayout.setVisibility(View.GONE);
+            multiViewLayout.setVisibility(View.VISIBLE);
+        }
+    }
+
     /**
      * 切换到单路模式
      */
@@ -429,8 +475,7 @@ public class PlaybackFragmentNew extends Fragment {
         playerManager.setSingleMode(false, null);
         
         // 直接切换，不做动画（避免透明过渡时看到十字背景）
-        singleViewLayout.setVisibility(View.GONE);
-        multiViewLayout.setVisibility(View.VISIBLE);
+        showMultiViewLayout();
     }
 
     /**
@@ -538,6 +583,11 @@ public class PlaybackFragmentNew extends Fragment {
     private void loadVideoGroup(VideoGroup group) {
         this.currentGroup = group;
         noSelectionHint.setVisibility(View.GONE);
+
+        // 拼接录制：读取各路区域布局
+        if (group.isMosaic() && group.getMosaicLayout() == null) {
+            group.setMosaicLayout(MosaicLayout.load(getContext(), group.getMosaicFile()));
+        }
         
         // 如果在单路模式下，检查当前选择的摄像头是否有视频
         if (isSingleMode) {
@@ -552,8 +602,7 @@ public class PlaybackFragmentNew extends Fragment {
             multiViewLayout.setVisibility(View.GONE);
             singleViewLayout.setVisibility(View.VISIBLE);
         } else {
-            multiViewLayout.setVisibility(View.VISIBLE);
-            singleViewLayout.setVisibility(View.GONE);
+            showMultiViewLayout();
             btnViewMode.setText("多路");
         }
         
@@ -597,6 +646,7 @@ public class PlaybackFragmentNew extends Fragment {
 
     /**
      * 更新视频列表（按日期分组，然后按时间戳分组）
+     * 根目录中的录像直接加载；日期分片只列出目录，展开某天时再加载当天的文件
      */
     private void updateVideoList() {
         dateSections.clear();
@@ -607,13 +657,61 @@ public class PlaybackFragmentNew extends Fragment {
             return;
         }
 
+        // 第一步：根目录中的录像（不分片时的全部录像，或分片时录制中/尚未归档的录像）
+        Map<String, DateSection<VideoGroup>> dateSectionMap = new HashMap<>();
         File[] files = saveDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp4"));
-        if (files == null || files.length == 0) {
+        if (files != null) {
+            addVideoFiles(dateSectionMap, Arrays.asList(files));
+        }
+
+        // 第二步：日期分片只列出目录，不列出文件
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.getDefault());
+        for (String day : VideoShardLayout.listDays(saveDir)) {
+            String dateString = day.substring(0, 4) + "-" + day.substring(4, 6) + "-" + day.substring(6, 8);
+            DateSection<VideoGroup> section = dateSectionMap.get(dateString);
+            if (section == null) {
+                Date date;
+                try {
+                    date = dayFormat.parse(day);
+                } catch (ParseException e) {
+                    continue;
+                }
+                section = new DateSection<>(dateString, date);
+                dateSectionMap.put(dateString, section);
+            }
+            section.setLoaded(false);
+        }
+
+        // 按日期排序（最新的在前），默认展开的日期（今天）立即加载
+        List<DateSection<VideoGroup>> sections = new ArrayList<>(dateSectionMap.values());
+        Collections.sort(sections, (s1, s2) -> s2.getDate().compareTo(s1.getDate()));
+        for (DateSection<VideoGroup> section : sections) {
+            if (section.isExpanded() && !section.isLoaded()) {
+                loadDateSection(saveDir, section);
+                if (section.getItemCount() == 0) {
+                    continue;
+                }
+            }
+            dateSections.add(section);
+        }
+
+        // 更新UI
+        if (dateSections.isEmpty()) {
             showEmptyState();
-            return;
+        } else {
+            videoList.setVisibility(View.VISIBLE);
+            emptyText.setVisibility(View.GONE);
         }
 
-        // 第一步：按时间戳分组（同一秒录制的多路视频）
+        adapter.buildFlattenedList();
+        adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * 将视频文件按时间戳分组后加入对应日期
+     */
+    private void addVideoFiles(Map<String, DateSection<VideoGroup>> dateSectionMap, List<File> files) {
+        // 按时间戳分组（同一秒录制的多路视频）
         Map<String, VideoGroup> groupMap = new HashMap<>();
         for (File file : files) {
             String timestamp = VideoGroup.extractTimestampPrefix(file.getName());
@@ -629,10 +727,8 @@ public class PlaybackFragmentNew extends Fragment {
         List<VideoGroup> allGroups = new ArrayList<>(groupMap.values());
         Collections.sort(allGroups, (g1, g2) -> g2.getRecordTime().compareTo(g1.getRecordTime()));
 
-        // 第二步：按日期分组
+        // 按日期分组
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        Map<String, DateSection<VideoGroup>> dateSectionMap = new LinkedHashMap<>();
-        
         for (VideoGroup group : allGroups) {
             String dateString = dateFormat.format(group.getRecordTime());
             DateSection<VideoGroup> section = dateSectionMap.get(dateString);
@@ -642,20 +738,33 @@ public class PlaybackFragmentNew extends Fragment {
             }
             section.addItem(group);
         }
+    }
 
-        // 日期分组已按日期排序（LinkedHashMap 保持插入顺序，而 allGroups 已排序）
-        dateSections.addAll(dateSectionMap.values());
+    /**
+     * 加载某一天分片中的录像，与该日期已有的组（根目录中的录像）合并
+     */
+    private void loadDateSection(File saveDir, DateSection<VideoGroup> section) {
+        String day = section.getDateString().replace("-", "");
+        List<File> files = VideoShardLayout.listDayFiles(saveDir, day,
+                (dir, name) -> name.toLowerCase().endsWith(".mp4"));
 
-        // 更新UI
-        if (dateSections.isEmpty()) {
-            showEmptyState();
-        } else {
-            videoList.setVisibility(View.VISIBLE);
-            emptyText.setVisibility(View.GONE);
+        Map<String, VideoGroup> groupMap = new HashMap<>();
+        for (VideoGroup group : section.getItems()) {
+            groupMap.put(group.getTimestampPrefix(), group);
+        }
+        for (File file : files) {
+            String timestamp = VideoGroup.extractTimestampPrefix(file.getName());
+            VideoGroup group = groupMap.get(timestamp);
+            if (group == null) {
+                group = new VideoGroup(timestamp);
+                groupMap.put(timestamp, group);
+                section.addItem(group);
+            }
+            group.addFile(file);
         }
 
-        adapter.buildFlattenedList();
-        adapter.notifyDataSetChanged();
+        Collections.sort(section.getItems(), (g1, g2) -> g2.getRecordTime().compareTo(g1.getRecordTime()));
+        section.setLoaded(true);
     }
 
     private void showEmptyState() {
@@ -1,5 +1,8 @@
 package com.kooo.evcam.playback;
 
+import com.kooo.evcam.camera.MosaicLayout;
+import com.kooo.evcam.storage.StorageIndex;
+
 import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -12,6 +15,7 @@ import java.util.Map;
  * 视频分组模型
  * 将同一时间戳录制的多路视频组合在一起（前/后/左/右）
  * 文件命名格式：yyyyMMdd_HHmmss_{position}.mp4
+ * 拼接录制时多路在同一个文件中（position 为 mosaic），各路区域由 {@link MosaicLayout} 描述
  */
 public class VideoGroup {
     
@@ -20,6 +24,7 @@ public class VideoGroup {
     public static final String POSITION_BACK = "back";
     public static final String POSITION_LEFT = "left";
     public static final String POSITION_RIGHT = "right";
+    public static final String POSITION_MOSAIC = MosaicLayout.POSITION_MOSAIC;
     
     /** 时间戳前缀，如 "20260131_1254" */
     private final String timestampPrefix;
@@ -32,6 +37,9 @@ public class VideoGroup {
     
     /** 总文件大小（所有位置之和） */
     private long totalSize;
+
+    /** 拼接录制的布局（加载播放时读取，未读取前为 null） */
+    private MosaicLayout mosaicLayout;
     
     public VideoGroup(String timestampPrefix) {
         this.timestampPrefix = timestampPrefix;
@@ -177,6 +185,28 @@ public class VideoGroup {
         return videoFiles.get(POSITION_RIGHT);
     }
     
+    /**
+     * 是否为拼接录制（多路在同一个文件中）
+     */
+    public boolean isMosaic() {
+        return videoFiles.containsKey(POSITION_MOSAIC);
+    }
+
+    /**
+     * 获取拼接录制文件
+     */
+    public File getMosaicFile() {
+        return videoFiles.get(POSITION_MOSAIC);
+    }
+
+    public MosaicLayout getMosaicLayout() {
+        return mosaicLayout;
+    }
+
+    public void setMosaicLayout(MosaicLayout mosaicLayout) {
+        this.mosaicLayout = mosaicLayout;
+    }
+
     /**
      * 获取所有视频文件
      */
@@ -197,6 +227,8 @@ public class VideoGroup {
             return videoFiles.get(POSITION_LEFT);
         } else if (videoFiles.containsKey(POSITION_RIGHT)) {
             return videoFiles.get(POSITION_RIGHT);
+        } else if (videoFiles.containsKey(POSITION_MOSAIC)) {
+            return videoFiles.get(POSITION_MOSAIC);
         }
         return null;
     }
@@ -231,10 +263,13 @@ public class VideoGroup {
     }
     
     /**
-     * 检查是否有指定位置的视频
+     * 检查是否有指定位置的视频（拼接录制时按布局判断）
      */
     public boolean hasVideo(String position) {
-        return videoFiles.containsKey(position);
+        if (videoFiles.containsKey(position)) {
+            return true;
+        }
+        return isMosaic() && mosaicLayout != null && mosaicLayout.hasTile(position);
     }
     
     /**
@@ -245,6 +280,7 @@ public class VideoGroup {
         int deleted = 0;
         for (File file : videoFiles.values()) {
             if (file.delete()) {
+                StorageIndex.notifyFileRemoved(file);
                 deleted++;
             }
         }
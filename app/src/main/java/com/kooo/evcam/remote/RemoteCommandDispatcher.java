@@ -131,6 +131,19 @@ public class RemoteCommandDispatcher {
         }
     }
     
+    /**
+     * 发送最近一段时间的录像
+     */
+    public void sendRecentClip(RemotePlatform platform, ChatIdentifier chatId, int seconds) {
+        RemoteCommandHandler handler = getHandler(platform);
+        if (handler != null) {
+            AppLog.d(TAG, "分发远程回放命令到 " + platform.getDisplayName());
+            handler.sendRecentClip(chatId, seconds);
+        } else {
+            AppLog.e(TAG, "未找到 " + platform.getDisplayName() + " 处理器");
+        }
+    }
+    
     /**
      * 发送消息
      */
@@ -188,6 +201,14 @@ public class RemoteCommandDispatcher {
         startRemotePhoto(RemotePlatform.TELEGRAM, id);
     }
     
+    /**
+     * Telegram 远程回放（便捷方法）
+     */
+    public void sendTelegramClip(long chatId, int seconds) {
+        ChatIdentifier id = ChatIdentifier.telegram(chatId);
+        sendRecentClip(RemotePlatform.TELEGRAM, id, seconds);
+    }
+    
     // ==================== 便捷方法 - 飞书 ====================
     
     /**
@@ -92,6 +92,15 @@ public class RecordingContext {
         }
     }
     
+    /**
+     * 添加额外的文件时间戳（不改变当前时间戳），例如触发前保存的预录片段
+     */
+    public void addTimestamp(String timestamp) {
+        if (!allTimestamps.contains(timestamp)) {
+            allTimestamps.add(timestamp);
+        }
+    }
+    
     /**
      * 获取所有使用过的时间戳（包括 Watchdog 重建后的新时间戳）
      * 用于上传时查找所有录制的文件
@@ -13,6 +13,7 @@ import com.kooo.evcam.remote.core.ChatIdentifier;
 import com.kooo.evcam.remote.core.RecordingContext;
 import com.kooo.evcam.remote.core.RemotePlatform;
 import com.kooo.evcam.remote.core.RemoteUploadCallback;
+import com.kooo.evcam.remote.upload.ClipExtractor;
 import com.kooo.evcam.remote.upload.MediaFileFinder;
 import com.kooo.evcam.remote.upload.MediaUploadService;
 
@@ -66,6 +67,17 @@ public abstract class RemoteCommandHandler {
         void startRecording();  // 恢复手动录制
         void setSegmentDurationOverride(long durationMs);  // 设置分段时长覆盖（用于远程录制）
         void clearSegmentDurationOverride();  // 清除分段时长覆盖
+        void savePreEventClips(PreEventClipsCallback callback);  // 后台保存预录片段，完成后在主线程回调
+    }
+    
+    /**
+     * 预录片段保存完成回调（主线程）
+     */
+    public interface PreEventClipsCallback {
+        /**
+         * @param timestamp 片段时间戳，没有保存任何片段时为 null
+         */
+        void onPreEventClipsSaved(String timestamp);
     }
     
     /**
@@ -151,12 +163,39 @@ public abstract class RemoteCommandHandler {
         AppLog.d(TAG, platformName + " 录制统一时间戳: " + timestamp);
         
         // 5. 创建录制上下文
-        currentContext = new RecordingContext(chatId, durationSeconds, timestamp);
+        RecordingContext ctx = new RecordingContext(chatId, durationSeconds, timestamp);
+        currentContext = ctx;
+        
+        // 6. 如果正在手动录制，先在后台保存预录片段（触发前的画面），写完后再停止手动录制
+        if (cameraController.isRecording()) {
+            ctx.setWasManualRecordingBefore(true);
+            AppLog.d(TAG, platformName + ": 检测到手动录制正在进行，保存预录片段后暂停手动录制");
+            
+            // 保存期间拒绝新的录制指令
+            isRemoteRecording = true;
+            cameraController.savePreEventClips(preEventTimestamp -> {
+                if (currentContext != ctx || cameraController == null) {
+                    return;
+                }
+                // 上传时与本次录制一起查找
+                if (preEventTimestamp != null) {
+                    ctx.addTimestamp(preEventTimestamp);
+                    AppLog.d(TAG, platformName + ": 已保存预录片段，时间戳: " + preEventTimestamp);
+                }
+                stopManualRecordingAndStart(ctx, durationSeconds, timestamp);
+            });
+            return;
+        }
         
-        // 6. 如果正在手动录制，记录状态并停止
+        beginRemoteRecording(ctx, durationSeconds, timestamp);
+    }
+    
+    /**
+     * 暂停手动录制后开始远程录制
+     */
+    private void stopManualRecordingAndStart(RecordingContext ctx, int durationSeconds, String timestamp) {
+        // 保存预录片段期间手动录制可能已被停止
         if (cameraController.isRecording()) {
-            currentContext.setWasManualRecordingBefore(true);
-            AppLog.d(TAG, platformName + ": 检测到手动录制正在进行，暂停手动录制");
             cameraController.stopRecording(false);
             cameraController.stopRecordingTimer();
             cameraController.stopBlinkAnimation();
@@ -169,6 +208,15 @@ public abstract class RemoteCommandHandler {
             }
         }
         
+        beginRemoteRecording(ctx, durationSeconds, timestamp);
+    }
+    
+    /**
+     * 设置分段覆盖并开始远程录制
+     */
+    private void beginRemoteRecording(RecordingContext ctx, int durationSeconds, String timestamp) {
+        String platformName = getPlatformName();
+        
         // 7. 标记开始远程录制
         isRemoteRecording = true;
         
@@ -181,9 +229,9 @@ public abstract class RemoteCommandHandler {
         // 9. 开始录制
         boolean success = cameraController.startRecording(timestamp);
         if (success) {
-            onRecordingStarted(currentContext, durationSeconds);
+            onRecordingStarted(ctx, durationSeconds);
         } else {
-            onRecordingFailed(currentContext);
+            onRecordingFailed(ctx);
         }
     }
     
@@ -360,6 +408,67 @@ public abstract class RemoteCommandHandler {
         }, 5000);
     }
     
+    // ==================== 远程回放 - 公共逻辑 ====================
+    
+    /**
+     * 发送最近一段时间的录像
+     * 直接从已有分段中截取并重新封装（不重新录制），录制状态不受影响
+     */
+    public void sendRecentClip(ChatIdentifier chatId, int seconds) {
+        String platformName = getPlatformName();
+        AppLog.d(TAG, platformName + " 远程回放: chatId=" + chatId.getId() + ", 时长: " + seconds + "秒");
+        
+        if (!isApiClientReady()) {
+            AppLog.e(TAG, platformName + " API 客户端未初始化");
+            returnToBackgroundIfNeeded();
+            return;
+        }
+        
+        new Thread(() -> {
+            long start = System.currentTimeMillis();
+            ClipExtractor extractor = new ClipExtractor(context);
+            List<File> clips = extractor.extractRecent(seconds, null);
+            AppLog.d(TAG, platformName + " 回放片段导出耗时: " + (System.currentTimeMillis() - start) + "ms");
+            if (clips.isEmpty()) {
+                if (extractor.isCurrentSegmentRecording()) {
+                    // 普通 MP4 分段结束前没有索引，且未开启预录缓冲
+                    sendError(chatId, "最近 " + seconds + " 秒的录像所在分段仍在录制中，需等本段结束后才能截取" +
+                            "（开启分片 MP4 或预录缓冲后可立即截取）");
+                } else {
+                    sendError(chatId, "未找到最近 " + seconds + " 秒的录像");
+                }
+                returnToBackgroundIfNeeded();
+                return;
+            }
+            if (extractor.isCurrentSegmentRecording()) {
+                sendMessage(chatId, "当前分段仍在录制中，片段只包含本段开始之前的录像");
+            }
+            
+            MediaUploadService uploadService = createVideoUploadService();
+            uploadService.uploadVideos(clips, chatId, new RemoteUploadCallback() {
+                @Override
+                public void onProgress(String message) {
+                    AppLog.d(TAG, platformName + " 回放上传进度: " + message);
+                }
+                
+                @Override
+                public void onSuccess(String message) {
+                    AppLog.d(TAG, platformName + " 回放上传成功: " + message);
+                    ClipExtractor.deleteClips(clips);
+                    returnToBackgroundIfNeeded();
+                }
+                
+                @Override
+                public void onError(String error) {
+                    AppLog.e(TAG, platformName + " 回放上传失败: " + error);
+                    ClipExtractor.deleteClips(clips);
+                    handleUploadError(chatId, error);
+                    returnToBackgroundIfNeeded();
+                }
+            });
+        }, "ClipExport").start();
+    }
+    
     // ==================== 上传逻辑 ====================
     
     /**
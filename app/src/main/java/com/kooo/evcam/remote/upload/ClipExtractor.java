@@ -0,0 +1,320 @@
+package com.kooo.evcam.remote.upload;
+
+import android.content.Context;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.camera.CameraManagerHolder;
+import com.kooo.evcam.camera.MediaSegmentMuxer;
+import com.kooo.evcam.camera.Mp4SampleTable;
+import com.kooo.evcam.camera.MultiCameraManager;
+import com.kooo.evcam.camera.SegmentMuxer;
+import com.kooo.evcam.storage.VideoShardLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 回放片段导出
+ * 从已有的录像分段中截取指定时间段，按关键帧对齐直接重新封装成新的 MP4（不重新编码），
+ * 用于远程"发送最近 N 秒"：无需重新录制等待，也不影响正在进行的循环录制
+ *
+ * - 分段由文件名时间戳（yyyyMMdd_HHmmss_位置.mp4）定位，只解析可能覆盖该时间段的文件
+ * - 起点对齐到不晚于起始时间的关键帧，跨分段时按帧时长首尾相接
+ * - 正在写入的分片 MP4 分段也能读取到最后一个完整分片
+ * - 普通 MP4 分段在结束前没有索引：开启了预录缓冲时用缓冲中的帧补上最新一段，
+ *   否则跳过，并通过 isCurrentSegmentRecording 告知调用方
+ */
+public class ClipExtractor {
+    private static final String TAG = "ClipExtractor";
+
+    public static final String CLIP_DIR = "clips";  // 导出片段目录（缓存目录下，上传后删除）
+    private static final long MAX_SEGMENT_LOOKBACK_MS = 10 * 60 * 1000L;  // 分段最长时长（向前查找范围）
+    private static final int FILE_NAME_TIMESTAMP_LENGTH = 15;  // yyyyMMdd_HHmmss
+
+    private final Context context;
+    private final Set<String> unindexedPositions = new LinkedHashSet<>();  // 最新分段暂无索引的摄像头
+    private boolean currentSegmentRecording = false;
+
+    public ClipExtractor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * 导出最近一段时间的录像
+     * @param seconds 时长（秒）
+     * @param positions 摄像头位置（如 front/back），null 表示全部
+     */
+    public List<File> extractRecent(int seconds, Set<String> positions) {
+        long endMs = System.currentTimeMillis();
+        return extract(endMs - seconds * 1000L, endMs, positions);
+    }
+
+    /**
+     * 导出指定时间段（阻塞，在后台线程调用）
+     * @param startMs 起始时间（毫秒时间戳）
+     * @param endMs 结束时间（毫秒时间戳）
+     * @param positions 摄像头位置，null 表示全部
+     * @return 每路摄像头一个片段；没有录像覆盖该时间段的摄像头不包含在内
+     */
+    public List<File> extract(long startMs, long endMs, Set<String> positions) {
+        long begin = System.currentTimeMillis();
+        List<File> clips = new ArrayList<>();
+        unindexedPositions.clear();
+        currentSegmentRecording = false;
+        Map<String, TreeMap<Long, File>> segments = findSegments(startMs, endMs, positions);
+        if (segments.isEmpty()) {
+            AppLog.w(TAG, "没有覆盖该时间段的录像: " + formatTimestamp(startMs) + " ~ " + formatTimestamp(endMs));
+            return clips;
+        }
+
+        File outputDir = new File(context.getCacheDir(), CLIP_DIR);
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            AppLog.e(TAG, "无法创建片段目录: " + outputDir.getAbsolutePath());
+            return clips;
+        }
+
+        for (Map.Entry<String, TreeMap<Long, File>> entry : segments.entrySet()) {
+            String position = entry.getKey();
+            File clip = extractPosition(position, entry.getValue(), startMs, endMs, outputDir);
+            if (clip != null) {
+                clips.add(clip);
+            }
+            if (unindexedPositions.contains(position)) {
+                // 已导出的部分截止到当前分段开始，之后的画面从预录缓冲补
+                long fromMs = clip != null ? Math.max(startMs, entry.getValue().lastKey()) : startMs;
+                File recent = extractFromPreEventBuffer(position, fromMs, endMs, outputDir);
+                if (recent != null) {
+                    clips.add(recent);
+                } else {
+                    currentSegmentRecording = true;
+                }
+            }
+        }
+        AppLog.d(TAG, "导出完成: " + clips.size() + " 个片段，耗时 " + (System.currentTimeMillis() - begin) + "ms");
+        return clips;
+    }
+
+    /**
+     * 最近一次导出中是否有摄像头的当前分段正在录制、暂无索引，且无法用预录缓冲补上
+     * 此时片段缺少该分段的画面（或完全没有片段），调用方应说明原因而不是"未找到"
+     */
+    public boolean isCurrentSegmentRecording() {
+        return currentSegmentRecording;
+    }
+
+    /**
+     * 删除导出的片段（上传完成后调用）
+     */
+    public static void deleteClips(List<File> clips) {
+        for (File clip : clips) {
+            if (clip.exists() && !clip.delete()) {
+                AppLog.w(TAG, "删除片段失败: " + clip.getName());
+            }
+        }
+    }
+
+    // ==================== 分段查找 ====================
+
+    /**
+     * 按摄像头位置分组查找可能覆盖时间段的分段（按起始时间排序）
+     */
+    private Map<String, TreeMap<Long, File>> findSegments(long startMs, long endMs, Set<String> positions) {
+        Set<File> dirs = new LinkedHashSet<>();
+        // 中转写入时正在录制的分段在临时目录
+        dirs.add(StorageHelper.getRecordingDir(context));
+        File videoDir = StorageHelper.getVideoDir(context);
+        if (videoDir != null && videoDir.exists()) {
+            dirs.addAll(VideoShardLayout.candidateDirsFor(videoDir, formatTimestamp(startMs - MAX_SEGMENT_LOOKBACK_MS)));
+            dirs.addAll(VideoShardLayout.candidateDirsFor(videoDir, formatTimestamp(endMs)));
+        }
+
+        Map<String, TreeMap<Long, File>> result = new LinkedHashMap<>();
+        Set<String> seenNames = new LinkedHashSet<>();
+        for (File dir : dirs) {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4") && name.length() > FILE_NAME_TIMESTAMP_LENGTH + 5);
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                long fileStartMs = parseTimestamp(name.substring(0, FILE_NAME_TIMESTAMP_LENGTH));
+                if (fileStartMs < 0 || fileStartMs >= endMs || fileStartMs < startMs - MAX_SEGMENT_LOOKBACK_MS) {
+                    continue;
+                }
+                String position = name.substring(FILE_NAME_TIMESTAMP_LENGTH + 1, name.length() - 4);
+                if ((positions != null && !positions.contains(position)) || !seenNames.add(name)) {
+                    continue;  // 同名文件（中转目录与最终目录）只取第一个
+                }
+                TreeMap<Long, File> byTime = result.get(position);
+                if (byTime == null) {
+                    byTime = new TreeMap<>();
+                    result.put(position, byTime);
+                }
+                byTime.put(fileStartMs, file);
+            }
+        }
+        return result;
+    }
+
+    // ==================== 重新封装 ====================
+
+    /**
+     * 导出一路摄像头的片段
+     * @return 片段文件，没有可用的帧时返回 null
+     */
+    private File extractPosition(String position, TreeMap<Long, File> segments, long startMs, long endMs, File outputDir) {
+        Mp4SampleTable firstTable = null;
+        SegmentMuxer muxer = null;
+        File clipFile = null;
+        ByteBuffer sampleBuffer = null;
+        long nextPtsUs = 0;  // 下一分段第一帧在输出中的时间
+        int writtenFrames = 0;
+
+        try {
+            for (Map.Entry<Long, File> segment : segments.entrySet()) {
+                long segmentStartMs = segment.getKey();
+                File file = segment.getValue();
+                Mp4SampleTable table;
+                try {
+                    table = Mp4SampleTable.parse(file);
+                } catch (IOException e) {
+                    AppLog.w(TAG, "分段解析失败: " + file.getName() + ", " + e.getMessage());
+                    continue;
+                }
+                if (table == null) {
+                    AppLog.d(TAG, "分段暂无索引（可能正在录制）: " + file.getName());
+                    if (segmentStartMs == segments.lastKey()) {
+                        unindexedPositions.add(position);
+                    }
+                    continue;
+                }
+                if (segmentStartMs + table.getDurationUs() / 1000 <= startMs) {
+                    continue;  // 分段在起始时间之前结束
+                }
+
+                int first;
+                if (muxer == null) {
+                    first = table.findSyncSampleAtOrBefore((startMs - segmentStartMs) * 1000);
+                } else if (!table.hasSameFormat(firstTable)) {
+                    AppLog.w(TAG, "分段编码格式变化，片段在此结束: " + file.getName());
+                    break;
+                } else {
+                    first = table.isSyncSample(0) ? 0 : table.findSyncSampleAtOrBefore(0);
+                }
+                if (first < 0) {
+                    continue;
+                }
+                long endUs = (endMs - segmentStartMs) * 1000;
+                if (table.getSampleTimeUs(first) >= endUs) {
+                    continue;
+                }
+
+                if (muxer == null) {
+                    firstTable = table;
+                    long clipStartMs = segmentStartMs + table.getSampleTimeUs(first) / 1000;
+                    clipFile = new File(outputDir, formatTimestamp(clipStartMs) + "_" + position + ".mp4");
+                    muxer = new MediaSegmentMuxer(clipFile.getAbsolutePath(), 0);
+                    muxer.start(table.toMediaFormat());
+                }
+                if (sampleBuffer == null || sampleBuffer.capacity() < table.getMaxReadSize()) {
+                    sampleBuffer = ByteBuffer.allocateDirect(table.getMaxReadSize());
+                }
+
+                long baseUs = table.getSampleTimeUs(first);
+                long lastPtsUs = nextPtsUs;
+                try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+                    for (int i = first; i < table.getSampleCount(); i++) {
+                        long timeUs = table.getSampleTimeUs(i);
+                        if (timeUs >= endUs) {
+                            break;
+                        }
+                        int size = table.readSample(input.getChannel(), i, sampleBuffer);
+                        lastPtsUs = nextPtsUs + (timeUs - baseUs);
+                        muxer.writeSample(sampleBuffer, 0, size, lastPtsUs, table.isSyncSample(i));
+                        writtenFrames++;
+                        if (i + 1 == table.getSampleCount() || table.getSampleTimeUs(i + 1) >= endUs) {
+                            lastPtsUs += table.getSampleDurationUs(i);
+                        }
+                    }
+                }
+                nextPtsUs = lastPtsUs;
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "导出片段失败: " + position, e);
+            writtenFrames = 0;
+        }
+
+        if (muxer == null) {
+            return null;
+        }
+        boolean ok = muxer.close();
+        if (!ok || writtenFrames == 0) {
+            AppLog.w(TAG, "片段无效，删除: " + clipFile.getName());
+            clipFile.delete();
+            return null;
+        }
+        AppLog.d(TAG, "片段已导出: " + clipFile.getName() + ", 帧数: " + writtenFrames +
+                ", 时长: " + (nextPtsUs / 1000) + "ms, 大小: " + (clipFile.length() / 1024) + "KB");
+        return clipFile;
+    }
+
+    /**
+     * 从录制器的预录缓冲导出最新一段（缓冲总是截止到当前时刻）
+     * @return 片段文件，未开启预录或导出失败时返回 null
+     */
+    private File extractFromPreEventBuffer(String position, long fromMs, long endMs, File outputDir) {
+        MultiCameraManager cameraManager = CameraManagerHolder.getInstance().getCameraManager();
+        if (cameraManager == null) {
+            return null;
+        }
+        long bufferedMs = cameraManager.getPreEventDurationMs(position);
+        if (bufferedMs <= 0) {
+            AppLog.d(TAG, "当前分段暂无索引且未开启预录缓冲: " + position);
+            return null;
+        }
+        long durationMs = Math.min(endMs - fromMs, bufferedMs);
+        File clipFile = new File(outputDir, formatTimestamp(endMs - durationMs) + "_" + position + "_recent.mp4");
+        if (!cameraManager.exportPreEventClip(position, clipFile, durationMs)) {
+            AppLog.w(TAG, "预录缓冲导出失败: " + position);
+            return null;
+        }
+        AppLog.d(TAG, "当前分段由预录缓冲补齐: " + clipFile.getName() + ", 时长约 " + (durationMs / 1000) + "s" +
+                (durationMs < endMs - fromMs ? "（缓冲只有 " + (bufferedMs / 1000) + "s）" : ""));
+        return clipFile;
+    }
+
+    // ==================== 工具方法 ====================
+
+    private static String formatTimestamp(long timeMs) {
+        return new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date(timeMs));
+    }
+
+    /**
+     * 解析文件名中的时间戳
+     * @return 毫秒时间戳，无法解析时返回 -1
+     */
+    private static long parseTimestamp(String timestamp) {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+            format.setLenient(false);
+            Date date = format.parse(timestamp);
+            return date != null ? date.getTime() : -1;
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -5,11 +5,14 @@ import android.content.Context;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
 import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.storage.VideoShardLayout;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 媒体文件查找工具
@@ -59,17 +62,24 @@ public class MediaFileFinder {
             return new ArrayList<>();
         }
         
-        File[] files = videoDir.listFiles((dir, name) -> 
-            name.startsWith(timestamp) && name.endsWith(".mp4")
-        );
+        // 只查找根目录和该时间戳对应日期的分片，不列出其他日期
+        List<File> files = new ArrayList<>();
+        for (File dir : VideoShardLayout.candidateDirsFor(videoDir, timestamp)) {
+            File[] dirFiles = dir.listFiles((d, name) -> 
+                name.startsWith(timestamp) && name.endsWith(".mp4")
+            );
+            if (dirFiles != null) {
+                files.addAll(Arrays.asList(dirFiles));
+            }
+        }
         
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             AppLog.e(TAG, "未找到录制的视频文件，时间戳: " + timestamp);
-            return new ArrayList<>();
+            return files;
         }
         
-        AppLog.d(TAG, "从最终目录找到 " + files.length + " 个视频文件");
-        return new ArrayList<>(Arrays.asList(files));
+        AppLog.d(TAG, "从最终目录找到 " + files.size() + " 个视频文件");
+        return files;
     }
     
     /**
@@ -111,19 +121,30 @@ public class MediaFileFinder {
         // 2. 从最终目录查找所有时间戳对应的文件
         File videoDir = StorageHelper.getVideoDir(context);
         if (videoDir != null && videoDir.exists()) {
-            File[] files = videoDir.listFiles((dir, name) -> {
-                if (!name.endsWith(".mp4")) {
-                    return false;
-                }
-                for (String ts : timestamps) {
-                    if (name.startsWith(ts)) {
-                        return true;
+            // 只查找根目录和各时间戳对应日期的分片
+            Set<File> searchDirs = new LinkedHashSet<>();
+            for (String ts : timestamps) {
+                searchDirs.addAll(VideoShardLayout.candidateDirsFor(videoDir, ts));
+            }
+            List<File> files = new ArrayList<>();
+            for (File dir : searchDirs) {
+                File[] dirFiles = dir.listFiles((d, name) -> {
+                    if (!name.endsWith(".mp4")) {
+                        return false;
                     }
+                    for (String ts : timestamps) {
+                        if (name.startsWith(ts)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+                if (dirFiles != null) {
+                    files.addAll(Arrays.asList(dirFiles));
                 }
-                return false;
-            });
+            }
             
-            if (files != null && files.length > 0) {
+            if (!files.isEmpty()) {
                 // 避免重复添加（临时目录和最终目录可能有同名文件）
                 for (File f : files) {
                     boolean exists = false;
@@ -184,6 +205,7 @@ public class MediaFileFinder {
     
     /**
      * 将临时文件传输到最终目录
+     * 以远程命令优先级入队，先于常规中转处理
      * 
      * @param tempFiles 临时文件列表
      */
@@ -202,8 +224,8 @@ public class MediaFileFinder {
         FileTransferManager transferManager = FileTransferManager.getInstance(context);
         for (File tempFile : tempFiles) {
             if (tempFile.exists()) {
-                // 构造目标文件路径
-                File targetFile = new File(videoDir, tempFile.getName());
+                // 构造目标文件路径（按配置放入日期分片）
+                File targetFile = VideoShardLayout.targetFor(context, videoDir, tempFile.getName());
                 
                 transferManager.addTransferTask(tempFile, targetFile, new FileTransferManager.TransferCallback() {
                     @Override
@@ -215,7 +237,7 @@ public class MediaFileFinder {
                     public void onTransferFailed(File sourceFile, File targetFile, String error) {
                         AppLog.e(TAG, "文件传输失败: " + sourceFile.getName() + ", 错误: " + error);
                     }
-                });
+                }, FileTransferManager.PRIORITY_REMOTE);
             }
         }
     }
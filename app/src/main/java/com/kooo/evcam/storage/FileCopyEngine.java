@@ -0,0 +1,305 @@
+package com.kooo.evcam.storage;
+
+import android.os.SystemClock;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 文件复制引擎
+ * FileTransferManager 通过它把临时目录中的录像复制到U盘，复制方式和落盘策略可配置：
+ *
+ * 复制方式：
+ * - stream：经 Java 堆 byte[] 中转（原有方式，兼容性最好）
+ * - channel：FileChannel.transferTo，Linux 上走 sendfile，数据不经过 Java 堆
+ *
+ * 落盘策略：
+ * - syncIntervalBytes = 0：只在复制结束时 fsync 一次
+ * - syncIntervalBytes > 0：每写入 N 字节 force(false)，U盘脏页不会积压太多，拔出时丢失更少
+ *
+ * 支持从已校验的偏移续传，并在每个检查点（区段落盘后）回调区段偏移，供 TransferJournal 记录；
+ * 复制过程中不回读源文件计算校验和，CRC 只在续传校验时计算
+ *
+ * 每种配置分别统计吞吐量和复制线程 CPU 时间，用于在车机上比较不同策略
+ */
+public abstract class FileCopyEngine {
+
+    public static final String TYPE_STREAM = "stream";
+    public static final String TYPE_CHANNEL = "channel";
+
+    // 各配置的统计（key 为 describe()）
+    private static final Map<String, long[]> statsByEngine = new LinkedHashMap<>();
+    private static final int STAT_FILES = 0;
+    private static final int STAT_BYTES = 1;
+    private static final int STAT_WALL_MS = 2;
+    private static final int STAT_CPU_MS = 3;
+
+    private static final int CRC_BUFFER_SIZE = 256 * 1024;
+
+    protected final int chunkSize;
+    protected final long syncIntervalBytes;
+
+    protected FileCopyEngine(int chunkSize, long syncIntervalBytes) {
+        this.chunkSize = Math.max(4 * 1024, chunkSize);
+        this.syncIntervalBytes = Math.max(0, syncIntervalBytes);
+    }
+
+    /**
+     * 创建复制引擎
+     * @param type TYPE_STREAM 或 TYPE_CHANNEL（未知类型按 stream 处理）
+     * @param chunkSize 每次读写/传输的块大小（字节）
+     * @param syncIntervalBytes 周期落盘间隔（字节），0 表示只在结束时 fsync
+     */
+    public static FileCopyEngine create(String type, int chunkSize, long syncIntervalBytes) {
+        if (TYPE_CHANNEL.equals(type)) {
+            return new ChannelEngine(chunkSize, syncIntervalBytes);
+        }
+        return new StreamEngine(chunkSize, syncIntervalBytes);
+    }
+
+    /**
+     * 复制文件，结束时保证数据已落盘
+     * @param preallocate 是否先为目标文件预留最终大小（见 SegmentPreallocator）
+     * @return 复制的字节数
+     */
+    public final long copy(File source, File target, boolean preallocate) throws IOException {
+        return copy(source, target, 0, preallocate, 0, null);
+    }
+
+    /**
+     * 从指定偏移续传复制文件，结束时保证数据已落盘
+     * @param startOffset 起始偏移（此前的数据已在目标文件中且已校验）
+     * @param preallocate 是否先为目标文件预留最终大小（仅从头复制时生效）
+     * @param checkpointBytes 检查点间隔（字节），0 表示不设检查点
+     * @param listener 检查点回调，在区段数据落盘后调用（可为null）
+     * @return 本次复制的字节数
+     */
+    public final long copy(File source, File target, long startOffset, boolean preallocate,
+                           long checkpointBytes, CheckpointListener listener) throws IOException {
+        long wallStart = SystemClock.elapsedRealtime();
+        long cpuStart = SystemClock.currentThreadTimeMillis();
+        long copied;
+
+        try (FileInputStream fis = new FileInputStream(source);
+             RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            FileChannel in = fis.getChannel();
+            FileChannel out = raf.getChannel();
+            long size = in.size();
+            long position = Math.max(0, Math.min(startOffset, size));
+            if (position == 0) {
+                out.truncate(0);
+                if (preallocate) {
+                    SegmentPreallocator.reserve(raf, size);
+                }
+            }
+
+            long rangeStart = position;
+            long nextCheckpoint = checkpointBytes > 0 && listener != null
+                    ? (position / checkpointBytes + 1) * checkpointBytes : Long.MAX_VALUE;
+            long nextSyncAt = syncIntervalBytes > 0 ? position + syncIntervalBytes : Long.MAX_VALUE;
+
+            while (position < size) {
+                long max = Math.min(chunkSize, Math.min(size, nextCheckpoint) - position);
+                position += transferChunk(in, out, position, max);
+
+                if (position >= nextCheckpoint) {
+                    // 检查点：区段落盘后才交给回调记录，保证记录的偏移之前的数据都是持久的
+                    out.force(false);
+                    listener.onCheckpoint(rangeStart, position);
+                    rangeStart = position;
+                    nextCheckpoint += checkpointBytes;
+                    if (syncIntervalBytes > 0) {
+                        nextSyncAt = position + syncIntervalBytes;
+                    }
+                } else if (position >= nextSyncAt) {
+                    out.force(false);
+                    nextSyncAt = position + syncIntervalBytes;
+                }
+            }
+            if (out.size() > size) {
+                // 预分配或上次残留的尾部
+                out.truncate(size);
+            }
+
+            // 最终落盘（周期 force 只保证数据，这里连同元数据一起同步）
+            raf.getFD().sync();
+            copied = size - Math.max(0, Math.min(startOffset, size));
+        }
+
+        recordStats(copied, SystemClock.elapsedRealtime() - wallStart,
+                SystemClock.currentThreadTimeMillis() - cpuStart);
+        return copied;
+    }
+
+    /**
+     * 搬运一块数据
+     * @param position 源和目标中的偏移
+     * @param maxBytes 本次最多搬运的字节数（> 0）
+     * @return 实际搬运的字节数（> 0）
+     */
+    protected abstract long transferChunk(FileChannel in, FileChannel out,
+                                          long position, long maxBytes) throws IOException;
+
+    /**
+     * 检查点回调
+     */
+    public interface CheckpointListener {
+        /**
+         * 区段 [start, end) 已写入目标并落盘
+         */
+        void onCheckpoint(long start, long end) throws IOException;
+    }
+
+    /**
+     * 计算文件区段的 CRC32（直接缓冲区读取，不经过 Java 堆数组）
+     */
+    public static long crc32(FileChannel channel, long position, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(CRC_BUFFER_SIZE, Math.max(1, length)));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 配置描述（用于日志和统计）
+     */
+    public String describe() {
+        return getType() + "/" + (chunkSize / 1024) + "KB/"
+                + (syncIntervalBytes > 0 ? "force@" + (syncIntervalBytes / (1024 * 1024)) + "MB" : "fsync");
+    }
+
+    protected abstract String getType();
+
+    /**
+     * 获取各复制配置的统计：文件数、吞吐量（MB/s）、每 MB 的 CPU 时间
+     */
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (statsByEngine) {
+            for (Map.Entry<String, long[]> entry : statsByEngine.entrySet()) {
+                long[] s = entry.getValue();
+                double mb = s[STAT_BYTES] / (1024.0 * 1024);
+                double mbPerSec = s[STAT_WALL_MS] > 0 ? mb * 1000 / s[STAT_WALL_MS] : 0;
+                double cpuMsPerMb = mb > 0 ? s[STAT_CPU_MS] / mb : 0;
+                if (sb.length() > 0) {
+                    sb.append("; ");
+                }
+                sb.append(String.format("%s: %d 个文件, %.1f MB/s, CPU %.2f ms/MB",
+                        entry.getKey(), s[STAT_FILES], mbPerSec, cpuMsPerMb));
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : "无复制记录";
+    }
+
+    private void recordStats(long bytes, long wallMs, long cpuMs) {
+        synchronized (statsByEngine) {
+            long[] s = statsByEngine.get(describe());
+            if (s == null) {
+                s = new long[4];
+                statsByEngine.put(describe(), s);
+            }
+            s[STAT_FILES]++;
+            s[STAT_BYTES] += bytes;
+            s[STAT_WALL_MS] += wallMs;
+            s[STAT_CPU_MS] += cpuMs;
+        }
+    }
+
+    /**
+     * 经 Java 堆缓冲区复制
+     */
+    private static class StreamEngine extends FileCopyEngine {
+        private ByteBuffer buffer;
+
+        StreamEngine(int chunkSize, long syncIntervalBytes) {
+            super(chunkSize, syncIntervalBytes);
+        }
+
+        @Override
+        protected String getType() {
+            return TYPE_STREAM;
+        }
+
+        @Override
+        protected long transferChunk(FileChannel in, FileChannel out,
+                                     long position, long maxBytes) throws IOException {
+            if (buffer == null) {
+                buffer = ByteBuffer.wrap(new byte[chunkSize]);
+            }
+            buffer.clear();
+            buffer.limit((int) maxBytes);
+            int read = in.read(buffer, position);
+            if (read <= 0) {
+                throw new EOFException("Unexpected end of source at " + position);
+            }
+            buffer.flip();
+            long written = 0;
+            while (buffer.hasRemaining()) {
+                written += out.write(buffer, position + written);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * FileChannel.transferTo 零拷贝复制（内核内搬运，不经过 Java 堆）
+     */
+    private static class ChannelEngine extends FileCopyEngine {
+        private ByteBuffer fallbackBuffer;
+
+        ChannelEngine(int chunkSize, long syncIntervalBytes) {
+            super(chunkSize, syncIntervalBytes);
+        }
+
+        @Override
+        protected String getType() {
+            return TYPE_CHANNEL;
+        }
+
+        @Override
+        protected long transferChunk(FileChannel in, FileChannel out,
+                                     long position, long maxBytes) throws IOException {
+            out.position(position);
+            long n = in.transferTo(position, maxBytes, out);
+            if (n > 0) {
+                return n;
+            }
+
+            // transferTo 无进展（个别文件系统不支持 sendfile）：本块改用直接缓冲区复制
+            if (fallbackBuffer == null) {
+                fallbackBuffer = ByteBuffer.allocateDirect(chunkSize);
+            }
+            fallbackBuffer.clear();
+            fallbackBuffer.limit((int) maxBytes);
+            int read = in.read(fallbackBuffer, position);
+            if (read <= 0) {
+                throw new EOFException("Unexpected end of source at " + position);
+            }
+            fallbackBuffer.flip();
+            long written = 0;
+            while (fallbackBuffer.hasRemaining()) {
+                written += out.write(fallbackBuffer, position + written);
+            }
+            return written;
+        }
+    }
+}
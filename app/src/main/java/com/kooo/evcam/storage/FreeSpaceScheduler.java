@@ -0,0 +1,96 @@
+package com.kooo.evcam.storage;
+
+/**
+ * 预测式剩余空间调度器
+ * 根据录制中编码器的总码率估算写入速度，预测剩余空间降到安全余量的时间，
+ * 每个周期只淘汰"刚好够用"的旧录像，使剩余空间稳定保持在安全余量之上
+ *
+ * 与空间不足时一次性删除 20% 的应急清理相比，删除被均匀分散到各个周期：
+ * - 稳态：每周期释放量 ≈ 该周期的预计写入量
+ * - 已低于余量：缺口分 CATCH_UP_TICKS 个周期逐步补齐
+ *
+ * 纯计算类，不依赖 Android API
+ */
+public class FreeSpaceScheduler {
+
+    // 封装格式开销（MP4 头部/索引），在码率之外额外预留
+    private static final double CONTAINER_OVERHEAD_RATIO = 0.03;
+
+    // 低于余量时，缺口分摊的周期数
+    private static final int CATCH_UP_TICKS = 10;
+
+    private final long tickMs;       // 调度周期
+    private final long lookaheadMs;  // 预测窗口（应 >= 调度周期）
+
+    /**
+     * @param tickMs 调度周期（毫秒）
+     * @param lookaheadMs 预测窗口（毫秒），在此窗口内的预计写入也需要预留空间
+     */
+    public FreeSpaceScheduler(long tickMs, long lookaheadMs) {
+        this.tickMs = tickMs;
+        this.lookaheadMs = Math.max(tickMs, lookaheadMs);
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * 将编码器总码率换算为磁盘写入速度
+     * @param totalBitrate 所有录制中摄像头的码率之和（bps）
+     * @return 预计写入速度（字节/秒）
+     */
+    public static long toWriteBytesPerSecond(long totalBitrate) {
+        if (totalBitrate <= 0) {
+            return 0;
+        }
+        return (long) (totalBitrate / 8.0 * (1 + CONTAINER_OVERHEAD_RATIO));
+    }
+
+    /**
+     * 预测剩余空间降到安全余量以下的时间
+     * @return 毫秒；已低于余量返回 0；不写入返回 Long.MAX_VALUE
+     */
+    public long projectTimeToMarginMs(long freeBytes, long marginBytes, long writeBytesPerSec) {
+        long headroom = freeBytes - marginBytes;
+        if (headroom <= 0) {
+            return 0;
+        }
+        if (writeBytesPerSec <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return headroom * 1000 / writeBytesPerSec;
+    }
+
+    /**
+     * 计算本周期需要释放的字节数
+     * @param freeBytes 当前剩余空间
+     * @param marginBytes 安全余量
+     * @param writeBytesPerSec 预计写入速度
+     * @return 本周期应淘汰的字节数，0 表示无需清理
+     */
+    public long planEvictionBytes(long freeBytes, long marginBytes, long writeBytesPerSec) {
+        if (freeBytes < 0 || marginBytes <= 0) {
+            return 0;
+        }
+
+        // 预测窗口结束时的剩余空间
+        long expectedWrite = Math.max(0, writeBytesPerSec) * lookaheadMs / 1000;
+        long shortfall = marginBytes - (freeBytes - expectedWrite);
+        if (shortfall <= 0) {
+            return 0;
+        }
+
+        // 稳态部分：抵消本周期写入；补齐部分：已有缺口分摊到若干周期
+        long perTickWrite = Math.max(0, writeBytesPerSec) * tickMs / 1000;
+        long existingDeficit = Math.max(0, marginBytes - freeBytes);
+        long catchUp = existingDeficit / CATCH_UP_TICKS;
+
+        long planned = perTickWrite + catchUp;
+        if (planned <= 0) {
+            // 不写入且缺口很小：一次补齐
+            planned = shortfall;
+        }
+        return Math.min(shortfall, planned);
+    }
+}
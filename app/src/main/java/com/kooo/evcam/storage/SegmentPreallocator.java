@@ -0,0 +1,210 @@
+package com.kooo.evcam.storage;
+
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段文件预分配
+ *
+ * U盘（FAT32/exFAT）上多路录像同时以小块追加写入时，各文件的簇交错分配，
+ * 长期循环录制后碎片严重，读取和删除都会变慢。预分配在文件创建时一次性预留
+ * 预计大小的空间（按簇大小取整），写入完成后截断到实际长度。
+ *
+ * - 录像分段：预留 码率 × 分段时长，结束后按 MP4 顶层 box 计算实际长度并截断
+ * - 传输目标：源文件大小已知，直接预留最终大小
+ *
+ * 注意：预分配后文件长度即为预留大小，不能再用 file.length() 判断写入进度
+ */
+public final class SegmentPreallocator {
+    private static final String TAG = "SegmentPreallocator";
+
+    // 封装格式开销（MP4 头部/索引）
+    private static final double CONTAINER_OVERHEAD_RATIO = 0.05;
+
+    // 无法获取簇大小时使用的默认值（FAT32 大容量U盘常见 32KB 簇）
+    private static final long DEFAULT_CLUSTER_SIZE = 32 * 1024;
+
+    // 统计
+    private static final AtomicLong reservedCount = new AtomicLong();
+    private static final AtomicLong reservedBytes = new AtomicLong();
+    private static final AtomicLong trimmedBytes = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong reserveTimeMs = new AtomicLong();
+
+    private SegmentPreallocator() {
+    }
+
+    /**
+     * 估算分段文件大小（按簇大小向上取整）
+     * @param bitrate 视频码率（bps）
+     * @param durationMs 分段时长（毫秒）
+     * @param clusterSize 簇大小（字节）
+     */
+    public static long estimateSegmentBytes(long bitrate, long durationMs, long clusterSize) {
+        if (bitrate <= 0 || durationMs <= 0) {
+            return 0;
+        }
+        long bytes = (long) (bitrate / 8.0 * durationMs / 1000 * (1 + CONTAINER_OVERHEAD_RATIO));
+        return roundUpToCluster(bytes, clusterSize);
+    }
+
+    /**
+     * 按簇大小向上取整
+     */
+    public static long roundUpToCluster(long bytes, long clusterSize) {
+        if (clusterSize <= 0) {
+            return bytes;
+        }
+        return (bytes + clusterSize - 1) / clusterSize * clusterSize;
+    }
+
+    /**
+     * 获取目录所在文件系统的簇（块）大小
+     */
+    public static long getClusterSize(File dir) {
+        try {
+            long blockSize = new StatFs(dir.getAbsolutePath()).getBlockSizeLong();
+            return blockSize > 0 ? blockSize : DEFAULT_CLUSTER_SIZE;
+        } catch (Exception e) {
+            return DEFAULT_CLUSTER_SIZE;
+        }
+    }
+
+    /**
+     * 为已打开的文件预留空间
+     * 优先使用 posix_fallocate，文件系统不支持时退回到扩展文件长度
+     * @return 是否预留成功（失败不影响后续写入）
+     */
+    public static boolean reserve(RandomAccessFile raf, long bytes) {
+        if (raf == null || bytes <= 0) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            try {
+                Os.posix_fallocate(raf.getFD(), 0, bytes);
+            } catch (ErrnoException e) {
+                // exFAT 等不支持 fallocate 的文件系统：扩展文件长度同样会一次性分配簇
+                Os.ftruncate(raf.getFD(), bytes);
+            }
+            if (raf.length() < bytes) {
+                // fallocate 未改变文件长度（部分 FUSE 实现）时按长度补齐
+                raf.setLength(bytes);
+            }
+            reservedCount.incrementAndGet();
+            reservedBytes.addAndGet(bytes);
+            return true;
+        } catch (ErrnoException | IOException e) {
+            failedCount.incrementAndGet();
+            AppLog.w(TAG, "预分配失败 (" + bytes + " bytes): " + e.getMessage());
+            return false;
+        } finally {
+            reserveTimeMs.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 创建文件并预留空间，返回的文件由调用方写入（不会截断已预留的空间）
+     * @return 打开的文件；创建失败返回 null
+     */
+    public static RandomAccessFile openReserved(File file, long bytes) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            reserve(raf, bytes);
+            return raf;
+        } catch (IOException e) {
+            failedCount.incrementAndGet();
+            AppLog.w(TAG, "无法创建预分配文件: " + file.getAbsolutePath() + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * MP4 写入完成：截断到实际长度并关闭文件
+     * 实际长度由顶层 box（ftyp/mdat/moov/free...）依次累加得到，遇到无效 box 头即为结尾
+     */
+    public static void finishMp4(RandomAccessFile raf) {
+        if (raf == null) {
+            return;
+        }
+        try {
+            long length = raf.length();
+            long end = findMp4End(raf, length);
+            if (end < length) {
+                // end 为 0 表示未写入任何有效数据（muxer 未启动），截断为空文件交由调用方清理
+                raf.setLength(end);
+                trimmedBytes.addAndGet(length - end);
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "截断预分配文件失败: " + e.getMessage());
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * 获取预分配统计信息
+     */
+    public static String getStats() {
+        return String.format("预分配: %d 个文件 (%d MB), 截断: %d MB, 失败: %d, 耗时: %dms",
+                reservedCount.get(), reservedBytes.get() / (1024 * 1024),
+                trimmedBytes.get() / (1024 * 1024), failedCount.get(), reserveTimeMs.get());
+    }
+
+    private static long findMp4End(RandomAccessFile raf, long length) throws IOException {
+        long pos = 0;
+        byte[] header = new byte[16];
+        while (pos + 8 <= length) {
+            raf.seek(pos);
+            raf.readFully(header, 0, 8);
+            long size = readUInt32(header, 0);
+            if (!isBoxType(header, 4)) {
+                break;
+            }
+            if (size == 1) {
+                // 64 位 largesize
+                if (pos + 16 > length) {
+                    break;
+                }
+                raf.readFully(header, 8, 8);
+                size = (readUInt32(header, 8) << 32) | readUInt32(header, 12);
+            } else if (size == 0) {
+                // box 延伸到文件末尾，无法确定实际长度
+                return length;
+            }
+            if (size < 8 || pos + size > length) {
+                break;
+            }
+            pos += size;
+        }
+        return pos;
+    }
+
+    private static long readUInt32(byte[] b, int off) {
+        return ((b[off] & 0xFFL) << 24) | ((b[off + 1] & 0xFFL) << 16)
+                | ((b[off + 2] & 0xFFL) << 8) | (b[off + 3] & 0xFFL);
+    }
+
+    private static boolean isBoxType(byte[] b, int off) {
+        for (int i = off; i < off + 4; i++) {
+            // box 类型为可打印 ASCII（预留区域为全 0）
+            if (b[i] < 0x20 || b[i] > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
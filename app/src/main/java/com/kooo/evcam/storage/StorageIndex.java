@@ -0,0 +1,749 @@
+package com.kooo.evcam.storage;
+
+import android.content.Context;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * 存储索引
+ * 持久化记录某个媒体目录（视频或图片）中每个文件的大小和时间戳，
+ * 避免存储清理时每次都全量 listFiles() + length() + 排序
+ *
+ * 持久化格式（保存在内部存储 files/storage_index 下，不占用U盘写入）：
+ * - 快照文件（.snap）：紧凑的全量记录，整体 CRC 校验
+ * - 日志文件（.journal）：追加写入的增删记录，逐条 CRC 校验，启动时在快照上回放
+ *   一次操作（单个增删、一批淘汰、一批重新加入）的记录先缓冲，操作结束时只 fsync 一次；
+ *   断电造成的半条记录会被逐条 CRC 识别并丢弃
+ *
+ * 内存结构：
+ * - 按时间戳排序的最小堆（最旧在堆顶），淘汰 k 个文件为 O(k log n)
+ * - 相对路径 -> 条目 映射，用于去重和删除（堆中采用惰性删除）
+ * - 总占用字节数，O(1) 无锁读取；新文件写入后通知 UsageListener（事件驱动的配额检查）
+ *
+ * 全量扫描仅在首次建立索引或索引校验失败时执行
+ */
+public class StorageIndex {
+    private static final String TAG = "StorageIndex";
+
+    // 索引文件目录（内部存储）
+    private static final String INDEX_DIR_NAME = "storage_index";
+
+    // 文件格式
+    private static final int SNAPSHOT_MAGIC = 0x45564958;  // "EVIX"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // 日志记录数超过此值时压缩为快照
+    private static final int MAX_JOURNAL_RECORDS = 2000;
+
+    // 校验时抽查的最旧文件数量
+    private static final int VALIDATE_SAMPLE_COUNT = 8;
+
+    // 每个目录一个实例
+    private static final Map<String, StorageIndex> instances = new HashMap<>();
+
+    // 占用变化监听器
+    private static final List<UsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 占用变化监听器
+     * 在写入线程（录制/传输/拍照回调）中调用，实现方不应执行耗时操作
+     */
+    public interface UsageListener {
+        /**
+         * 有新文件记录到索引后调用
+         * @param index 发生变化的索引
+         * @param totalBytes 变化后的总占用
+         */
+        void onUsageIncreased(StorageIndex index, long totalBytes);
+    }
+
+    /**
+     * 索引条目
+     */
+    public static final class Entry {
+        public final String relativePath;  // 相对于索引目录的路径
+        public final long size;            // 文件大小（字节）
+        public final long timestamp;       // 修改时间（毫秒）
+        boolean removed = false;           // 惰性删除标记
+
+        Entry(String relativePath, long size, long timestamp) {
+            this.relativePath = relativePath;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final File directory;
+    private final File snapshotFile;
+    private final File journalFile;
+
+    private final PriorityQueue<Entry> oldestFirst = new PriorityQueue<>(256,
+            (a, b) -> Long.compare(a.timestamp, b.timestamp));
+    private final Map<String, Entry> entries = new HashMap<>();
+    private volatile long totalBytes = 0;  // 仅在锁内修改，读取无需加锁
+
+    private DataOutputStream journalOut;
+    private FileOutputStream journalFileOut;
+    private int journalRecords = 0;
+    private boolean journalDirty = false;  // 有已写入缓冲、尚未 fsync 的记录
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    private boolean needsRescan = false;
+    private boolean rescanning = false;
+    private final List<Entry> addedDuringRescan = new ArrayList<>();
+    private final List<String> removedDuringRescan = new ArrayList<>();
+
+    /**
+     * 获取指定目录的索引（首次获取时从磁盘加载）
+     * @param context 上下文
+     * @param directory 媒体目录
+     * @return 索引实例
+     */
+    public static StorageIndex get(Context context, File directory) {
+        String key = directory.getAbsolutePath();
+        synchronized (instances) {
+            StorageIndex index = instances.get(key);
+            if (index == null) {
+                File indexDir = new File(context.getApplicationContext().getFilesDir(), INDEX_DIR_NAME);
+                if (!indexDir.exists()) {
+                    indexDir.mkdirs();
+                }
+                index = new StorageIndex(directory, indexDir);
+                index.load();
+                instances.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 注册占用变化监听器
+     */
+    public static void addUsageListener(UsageListener listener) {
+        if (listener != null && !usageListeners.contains(listener)) {
+            usageListeners.add(listener);
+        }
+    }
+
+    /**
+     * 移除占用变化监听器
+     */
+    public static void removeUsageListener(UsageListener listener) {
+        usageListeners.remove(listener);
+    }
+
+    /**
+     * 通知有新文件写入完成（分段完成、传输完成、照片保存）
+     * 根据文件所在目录找到对应索引并记录（分片子目录中的文件记入录像根目录的索引）
+     */
+    public static void notifyFileAdded(Context context, File file) {
+        File root = file != null ? VideoShardLayout.rootOf(file) : null;
+        if (context == null || root == null) {
+            return;
+        }
+        try {
+            get(context, root).add(file);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Failed to index file: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 通知文件已被删除（用户在回放界面删除等）
+     * 只更新已加载的索引，未加载的索引下次加载时通过校验发现
+     */
+    public static void notifyFileRemoved(File file) {
+        File root = file != null ? VideoShardLayout.rootOf(file) : null;
+        if (root == null) {
+            return;
+        }
+        StorageIndex index;
+        synchronized (instances) {
+            index = instances.get(root.getAbsolutePath());
+        }
+        if (index != null) {
+            index.remove(file);
+        }
+    }
+
+    private StorageIndex(File directory, File indexDir) {
+        this.directory = directory;
+        String baseName = Integer.toHexString(directory.getAbsolutePath().hashCode());
+        this.snapshotFile = new File(indexDir, baseName + ".snap");
+        this.journalFile = new File(indexDir, baseName + ".journal");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 获取索引记录的总占用（O(1)）
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 获取索引记录的文件数量
+     */
+    public synchronized int getFileCount() {
+        return entries.size();
+    }
+
+    /**
+     * 索引是否需要全量扫描（无持久化数据或数据损坏）
+     */
+    public synchronized boolean needsRescan() {
+        return needsRescan;
+    }
+
+    /**
+     * 标记索引失效，下次清理时执行全量扫描
+     */
+    public synchronized void invalidate() {
+        needsRescan = true;
+    }
+
+    /**
+     * 记录一个文件
+     */
+    public void add(File file) {
+        // 在锁外读取文件元数据，避免阻塞其他线程
+        if (!file.isFile()) {
+            return;
+        }
+        long size = file.length();
+        long timestamp = file.lastModified();
+        String relativePath = relativePathOf(file);
+        if (relativePath == null) {
+            return;
+        }
+        long total;
+        synchronized (this) {
+            Entry entry = putEntry(relativePath, size, timestamp);
+            if (rescanning) {
+                addedDuringRescan.add(entry);
+            }
+            appendJournal(OP_ADD, relativePath, size, timestamp);
+            syncJournal();
+            total = totalBytes;
+        }
+
+        // 在锁外通知，避免监听器回调中再次访问索引导致锁竞争
+        for (UsageListener listener : usageListeners) {
+            listener.onUsageIncreased(this, total);
+        }
+    }
+
+    /**
+     * 一次记录多个文件（如删除失败的文件重新加入），日志只 fsync 一次、只通知一次
+     */
+    public void addAll(List<File> files) {
+        // 在锁外读取文件元数据，避免阻塞其他线程
+        List<Entry> pending = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            String relativePath = relativePathOf(file);
+            if (relativePath != null) {
+                pending.add(new Entry(relativePath, file.length(), file.lastModified()));
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        long total;
+        synchronized (this) {
+            for (Entry item : pending) {
+                Entry entry = putEntry(item.relativePath, item.size, item.timestamp);
+                if (rescanning) {
+                    addedDuringRescan.add(entry);
+                }
+                appendJournal(OP_ADD, item.relativePath, item.size, item.timestamp);
+            }
+            syncJournal();
+            total = totalBytes;
+        }
+
+        for (UsageListener listener : usageListeners) {
+            listener.onUsageIncreased(this, total);
+        }
+    }
+
+    /**
+     * 移除一个文件的记录
+     */
+    public void remove(File file) {
+        String relativePath = relativePathOf(file);
+        if (relativePath != null) {
+            remove(relativePath);
+        }
+    }
+
+    /**
+     * 移除一个文件的记录
+     * @param relativePath 相对于索引目录的路径
+     */
+    public synchronized void remove(String relativePath) {
+        if (removeEntry(relativePath) == null) {
+            return;
+        }
+        if (rescanning) {
+            removedDuringRescan.add(relativePath);
+        }
+        appendJournal(OP_REMOVE, relativePath, 0, 0);
+        syncJournal();
+    }
+
+    /**
+     * 记录文件被移动（目录分片迁移），保留原有大小和时间，不触发占用变化通知
+     * @return true 如果原路径在索引中
+     */
+    public synchronized boolean rename(File from, File to) {
+        String oldPath = relativePathOf(from);
+        String newPath = relativePathOf(to);
+        if (oldPath == null || newPath == null) {
+            return false;
+        }
+        Entry old = removeEntry(oldPath);
+        if (old == null) {
+            return false;
+        }
+        appendJournal(OP_REMOVE, oldPath, 0, 0);
+        Entry entry = putEntry(newPath, old.size, old.timestamp);
+        appendJournal(OP_ADD, newPath, old.size, old.timestamp);
+        if (rescanning) {
+            removedDuringRescan.add(oldPath);
+            addedDuringRescan.add(entry);
+        }
+        syncJournal();
+        return true;
+    }
+
+    /**
+     * 获取最旧的文件（不移除）
+     */
+    public synchronized Entry peekOldest() {
+        Entry head;
+        while ((head = oldestFirst.peek()) != null && head.removed) {
+            oldestFirst.poll();
+        }
+        return head;
+    }
+
+    /**
+     * 从索引中取出最旧的若干文件，直到累计大小达到 bytesToFree
+     * 调用方负责实际删除；删除失败时应通过 add() 重新记录
+     * @param bytesToFree 需要释放的字节数
+     * @return 待删除条目（最旧在前）
+     */
+    public synchronized List<Entry> pollOldest(long bytesToFree) {
+        List<Entry> result = new ArrayList<>();
+        long collected = 0;
+        while (collected < bytesToFree) {
+            Entry head = peekOldest();
+            if (head == null) {
+                break;
+            }
+            removeEntry(head.relativePath);
+            if (rescanning) {
+                removedDuringRescan.add(head.relativePath);
+            }
+            appendJournal(OP_REMOVE, head.relativePath, 0, 0);
+            result.add(head);
+            collected += head.size;
+        }
+        // 整批淘汰只 fsync 一次
+        syncJournal();
+        return result;
+    }
+
+    /**
+     * 将条目解析为实际文件
+     */
+    public File resolve(Entry entry) {
+        return new File(directory, entry.relativePath);
+    }
+
+    /**
+     * 校验索引与磁盘是否一致
+     * 抽查最旧的若干文件（即下次会被淘汰的文件）是否存在且大小一致
+     * @return true 如果校验通过
+     */
+    public synchronized boolean validate() {
+        if (needsRescan) {
+            return false;
+        }
+        if (!directory.isDirectory()) {
+            return entries.isEmpty();
+        }
+        List<Entry> sample = new ArrayList<>(VALIDATE_SAMPLE_COUNT);
+        PriorityQueue<Entry> copy = new PriorityQueue<>(oldestFirst);
+        while (sample.size() < VALIDATE_SAMPLE_COUNT && !copy.isEmpty()) {
+            Entry entry = copy.poll();
+            if (!entry.removed) {
+                sample.add(entry);
+            }
+        }
+        for (Entry entry : sample) {
+            File file = resolve(entry);
+            if (!file.isFile() || file.length() != entry.size) {
+                AppLog.w(TAG, "Index validation failed at " + entry.relativePath + " (" + directory.getAbsolutePath() + ")");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 全量扫描目录重建索引
+     * 扫描在锁外进行，扫描期间的增删会在结束时合并
+     */
+    public void rebuild() {
+        synchronized (this) {
+            rescanning = true;
+            addedDuringRescan.clear();
+            removedDuringRescan.clear();
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<Entry> scanned = new ArrayList<>();
+        scanDirectory(directory, "", scanned);
+
+        synchronized (this) {
+            entries.clear();
+            oldestFirst.clear();
+            totalBytes = 0;
+            for (Entry entry : scanned) {
+                putEntry(entry.relativePath, entry.size, entry.timestamp);
+            }
+            for (String relativePath : removedDuringRescan) {
+                removeEntry(relativePath);
+            }
+            for (Entry entry : addedDuringRescan) {
+                if (!entry.removed) {
+                    putEntry(entry.relativePath, entry.size, entry.timestamp);
+                }
+            }
+            addedDuringRescan.clear();
+            removedDuringRescan.clear();
+            rescanning = false;
+            needsRescan = false;
+            compact();
+        }
+
+        AppLog.d(TAG, "Rebuilt index for " + directory.getAbsolutePath() + ": " + scanned.size() +
+                " files, " + totalBytes + " bytes in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * 扫描目录（递归子目录，跳过隐藏文件）
+     */
+    private void scanDirectory(File dir, String prefix, List<Entry> out) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                scanDirectory(file, prefix + name + "/", out);
+            } else {
+                out.add(new Entry(prefix + name, file.length(), file.lastModified()));
+            }
+        }
+    }
+
+    // ===== 内存结构 =====
+
+    private Entry putEntry(String relativePath, long size, long timestamp) {
+        removeEntry(relativePath);
+        Entry entry = new Entry(relativePath, size, timestamp);
+        entries.put(relativePath, entry);
+        oldestFirst.offer(entry);
+        totalBytes += size;
+        return entry;
+    }
+
+    private Entry removeEntry(String relativePath) {
+        Entry old = entries.remove(relativePath);
+        if (old != null) {
+            old.removed = true;
+            totalBytes -= old.size;
+        }
+        return old;
+    }
+
+    private String relativePathOf(File file) {
+        String dirPath = directory.getAbsolutePath() + File.separator;
+        String filePath = file.getAbsolutePath();
+        if (!filePath.startsWith(dirPath)) {
+            return null;
+        }
+        return filePath.substring(dirPath.length());
+    }
+
+    // ===== 持久化 =====
+
+    /**
+     * 加载快照并回放日志
+     */
+    private synchronized void load() {
+        if (!snapshotFile.exists()) {
+            AppLog.d(TAG, "No index for " + directory.getAbsolutePath() + ", full scan required");
+            needsRescan = true;
+            return;
+        }
+
+        if (!readSnapshot()) {
+            AppLog.w(TAG, "Index snapshot corrupted for " + directory.getAbsolutePath() + ", full scan required");
+            entries.clear();
+            oldestFirst.clear();
+            totalBytes = 0;
+            needsRescan = true;
+            return;
+        }
+
+        boolean journalIntact = replayJournal();
+        if (!journalIntact || journalRecords > MAX_JOURNAL_RECORDS) {
+            // 日志尾部不完整（写入时断电）或过长，压缩成新快照
+            compact();
+        }
+
+        AppLog.d(TAG, "Loaded index for " + directory.getAbsolutePath() + ": " + entries.size() +
+                " files, " + totalBytes + " bytes");
+    }
+
+    private boolean readSnapshot() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024));
+            CRC32 snapshotCrc = new CRC32();
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            if (!directory.getAbsolutePath().equals(in.readUTF())) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String relativePath = in.readUTF();
+                long size = in.readLong();
+                long timestamp = in.readLong();
+                updateCrc(snapshotCrc, relativePath, size, timestamp);
+                putEntry(relativePath, size, timestamp);
+            }
+            return in.readLong() == snapshotCrc.getValue();
+        } catch (IOException e) {
+            AppLog.w(TAG, "Failed to read index snapshot: " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 回放日志
+     * @return false 如果日志尾部损坏
+     */
+    private boolean replayJournal() {
+        journalRecords = 0;
+        if (!journalFile.exists()) {
+            return true;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024));
+            CRC32 recordCrc = new CRC32();
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return true;
+                }
+                String relativePath = in.readUTF();
+                long size = in.readLong();
+                long timestamp = in.readLong();
+                long storedCrc = in.readLong();
+                recordCrc.reset();
+                recordCrc.update(op);
+                updateCrc(recordCrc, relativePath, size, timestamp);
+                if (storedCrc != recordCrc.getValue()) {
+                    return false;
+                }
+                if (op == OP_ADD) {
+                    putEntry(relativePath, size, timestamp);
+                } else if (op == OP_REMOVE) {
+                    removeEntry(relativePath);
+                } else {
+                    return false;
+                }
+                journalRecords++;
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "Index journal truncated: " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 追加一条日志记录（只写入缓冲，由操作结束时的 syncJournal 落盘）
+     */
+    private void appendJournal(byte op, String relativePath, long size, long timestamp) {
+        if (needsRescan) {
+            // 索引尚未建立，重建时会直接写快照
+            return;
+        }
+        try {
+            if (journalOut == null) {
+                journalFileOut = new FileOutputStream(journalFile, true);
+                journalOut = new DataOutputStream(new BufferedOutputStream(journalFileOut, 512));
+            }
+            crc.reset();
+            crc.update(op);
+            updateCrc(crc, relativePath, size, timestamp);
+            journalOut.writeByte(op);
+            journalOut.writeUTF(relativePath);
+            journalOut.writeLong(size);
+            journalOut.writeLong(timestamp);
+            journalOut.writeLong(crc.getValue());
+            journalDirty = true;
+            journalRecords++;
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to append index journal", e);
+            closeJournal();
+            needsRescan = true;
+            return;
+        }
+
+        if (journalRecords > MAX_JOURNAL_RECORDS) {
+            compact();
+        }
+    }
+
+    /**
+     * 把本次操作缓冲的日志记录写入并 fsync（每个对外操作结束时调用一次）
+     */
+    private void syncJournal() {
+        if (!journalDirty || journalOut == null) {
+            journalDirty = false;
+            return;
+        }
+        try {
+            journalOut.flush();
+            journalFileOut.getFD().sync();
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to sync index journal", e);
+            closeJournal();
+            needsRescan = true;
+        }
+        journalDirty = false;
+    }
+
+    /**
+     * 将当前内存状态写成快照并清空日志
+     */
+    private void compact() {
+        // 快照写入失败时日志仍需完整
+        syncJournal();
+        closeJournal();
+
+        // 堆中惰性删除的条目过多时重建堆
+        if (oldestFirst.size() > entries.size() * 2) {
+            oldestFirst.clear();
+            oldestFirst.addAll(entries.values());
+        }
+
+        File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            CRC32 snapshotCrc = new CRC32();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(directory.getAbsolutePath());
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.relativePath);
+                out.writeLong(entry.size);
+                out.writeLong(entry.timestamp);
+                updateCrc(snapshotCrc, entry.relativePath, entry.size, entry.timestamp);
+            }
+            out.writeLong(snapshotCrc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            fileOut = null;
+
+            if (!tempFile.renameTo(snapshotFile)) {
+                throw new IOException("rename failed: " + tempFile.getAbsolutePath());
+            }
+            journalFile.delete();
+            journalRecords = 0;
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to write index snapshot", e);
+            closeQuietly(fileOut);
+            tempFile.delete();
+        }
+    }
+
+    private void closeJournal() {
+        journalDirty = false;
+        closeQuietly(journalOut);
+        journalOut = null;
+        journalFileOut = null;
+    }
+
+    /**
+     * 计算记录的 CRC（与写入格式一致：UTF 路径 + 大小 + 时间戳）
+     */
+    private void updateCrc(CRC32 target, String relativePath, long size, long timestamp) throws IOException {
+        recordBuffer.reset();
+        recordOut.writeUTF(relativePath);
+        recordOut.writeLong(size);
+        recordOut.writeLong(timestamp);
+        recordOut.flush();
+        target.update(recordBuffer.toByteArray());
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.kooo.evcam.storage;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限速后台删除执行器
+ *
+ * FAT32/exFAT 上删除大文件需要重写整条簇链，连续删除会阻塞同一介质上的录制写入，
+ * 导致新分段首次写入超时。这里把删除放到独立的低优先级线程：
+ * - 分批删除：每批最多 BATCH_SIZE 个文件，批与批之间留出间隔
+ * - 限速：同时限制每秒删除文件数和每秒释放字节数
+ * - 让路：录制器报告写入压力时（WritePressureMonitor）暂停删除，最长等待 MAX_BACKOFF_WAIT_MS
+ * - 单个删除耗时过长时额外冷却同样的时间
+ *
+ * 删除失败（文件仍存在）的条目重新加入索引，分片目录被删空后一并删除
+ * 调用方通过 Callback 得知批次完成，不需要阻塞等待
+ */
+public class ThrottledDeleter {
+    private static final String TAG = "ThrottledDeleter";
+
+    // 限速配置
+    private static final int BATCH_SIZE = 4;                                // 每批最多删除文件数
+    private static final int MAX_DELETES_PER_SECOND = 4;                    // 每秒最多删除文件数
+    private static final long MAX_BYTES_PER_SECOND = 512L * 1024 * 1024;    // 每秒最多释放字节数
+    private static final long SLOW_DELETE_MS = 200;                         // 超过此耗时的删除视为慢删除
+
+    // 写入压力让路配置
+    private static final long BACKOFF_STEP_MS = 1000;          // 每次让路等待时间
+    private static final long MAX_BACKOFF_WAIT_MS = 30 * 1000; // 单批最长让路时间，避免空间告急时无限等待
+
+    // 单例
+    private static ThrottledDeleter instance;
+
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private Thread worker;
+
+    // 统计
+    private final AtomicLong totalDeleted = new AtomicLong();
+    private final AtomicLong totalBytesFreed = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+    private final AtomicLong totalBackoffMs = new AtomicLong();
+
+    /**
+     * 批次完成回调（在删除线程中调用，不要在回调里做耗时操作）
+     */
+    public interface Callback {
+        void onBatchComplete(Batch batch);
+    }
+
+    /**
+     * 一次提交的删除批次，可等待完成并读取结果
+     */
+    public static class Batch {
+        private final StorageIndex index;
+        private final String label;
+        private final Callback callback;
+        private final AtomicInteger remaining;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicInteger deletedCount = new AtomicInteger();
+        private final AtomicLong deletedBytes = new AtomicLong();
+
+        private Batch(StorageIndex index, String label, int size, Callback callback) {
+            this.index = index;
+            this.label = label;
+            this.callback = callback;
+            this.remaining = new AtomicInteger(size);
+            if (size == 0) {
+                complete();
+            }
+        }
+
+        /**
+         * 等待批次中所有文件处理完毕
+         * @return 是否在超时前完成
+         */
+        public boolean await(long timeoutMs) {
+            try {
+                return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        public int getDeletedCount() {
+            return deletedCount.get();
+        }
+
+        public long getDeletedBytes() {
+            return deletedBytes.get();
+        }
+
+        private void finishOne() {
+            if (remaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            done.countDown();
+            if (callback != null) {
+                try {
+                    callback.onBatchComplete(this);
+                } catch (Exception e) {
+                    AppLog.e(TAG, "删除批次回调异常", e);
+                }
+            }
+        }
+    }
+
+    private static class Job {
+        final Batch batch;
+        final StorageIndex.Entry entry;
+
+        Job(Batch batch, StorageIndex.Entry entry) {
+            this.batch = batch;
+            this.entry = entry;
+        }
+    }
+
+    private ThrottledDeleter() {
+    }
+
+    public static synchronized ThrottledDeleter getInstance() {
+        if (instance == null) {
+            instance = new ThrottledDeleter();
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一组已从索引中取出的条目进行删除
+     * @param index 条目所属索引（删除失败时重新加入）
+     * @param entries 待删除条目（通常来自 StorageIndex.pollOldest）
+     * @param label 类型名称（用于日志）
+     */
+    public Batch submit(StorageIndex index, List<StorageIndex.Entry> entries, String label) {
+        return submit(index, entries, label, null);
+    }
+
+    /**
+     * 提交一组条目进行删除，全部处理完毕后回调
+     * @param callback 批次完成回调（删除线程中调用；条目为空时在当前线程立即调用），可为 null
+     */
+    public Batch submit(StorageIndex index, List<StorageIndex.Entry> entries, String label, Callback callback) {
+        Batch batch = new Batch(index, label, entries.size(), callback);
+        if (entries.isEmpty()) {
+            return batch;
+        }
+        ensureWorker();
+        for (StorageIndex.Entry entry : entries) {
+            queue.offer(new Job(batch, entry));
+        }
+        return batch;
+    }
+
+    /**
+     * 获取等待删除的文件数
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * 获取平均单文件删除耗时（毫秒）
+     */
+    public long getAverageLatencyMs() {
+        long count = totalDeleted.get() + totalFailed.get();
+        return count > 0 ? totalLatencyMs.get() / count : 0;
+    }
+
+    /**
+     * 获取最大单文件删除耗时（毫秒）
+     */
+    public long getMaxLatencyMs() {
+        return maxLatencyMs.get();
+    }
+
+    /**
+     * 获取删除统计信息
+     */
+    public String getStats() {
+        return String.format("已删除: %d 个文件 (%s), 失败: %d, 队列: %d, 平均耗时: %dms, 最大耗时: %dms, 让路: %ds",
+                totalDeleted.get(), StorageHelper.formatSize(totalBytesFreed.get()), totalFailed.get(),
+                getQueueLength(), getAverageLatencyMs(), getMaxLatencyMs(), totalBackoffMs.get() / 1000);
+    }
+
+    // ===== 私有方法 =====
+
+    private synchronized void ensureWorker() {
+        if (worker != null && worker.isAlive()) {
+            return;
+        }
+        worker = new Thread(this::runLoop, "ThrottledDeleter");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    private void runLoop() {
+        List<Job> batch = new ArrayList<>(BATCH_SIZE);
+        Map<StorageIndex, List<File>> failed = new LinkedHashMap<>();
+        while (true) {
+            try {
+                Job first = queue.take();
+                waitForWritePressure();
+
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                long batchStart = System.currentTimeMillis();
+                long batchBytes = 0;
+                long slowPenaltyMs = 0;
+                failed.clear();
+                try {
+                    for (Job job : batch) {
+                        long latency = deleteOne(job, failed);
+                        batchBytes += job.entry.size;
+                        if (latency > SLOW_DELETE_MS) {
+                            slowPenaltyMs += latency;
+                        }
+                    }
+                    // 删除失败的文件按索引一次重新加入（每个索引只写一次日志），之后再标记完成
+                    for (Map.Entry<StorageIndex, List<File>> item : failed.entrySet()) {
+                        item.getKey().addAll(item.getValue());
+                    }
+                } finally {
+                    for (Job job : batch) {
+                        job.batch.finishOne();
+                    }
+                }
+
+                // 按文件数和字节数两个上限计算本批最短耗时，不足部分休眠补齐
+                long minDurationMs = Math.max(
+                        batch.size() * 1000L / MAX_DELETES_PER_SECOND,
+                        batchBytes * 1000 / MAX_BYTES_PER_SECOND);
+                long sleepMs = minDurationMs - (System.currentTimeMillis() - batchStart) + slowPenaltyMs;
+                if (sleepMs > 0) {
+                    Thread.sleep(sleepMs);
+                }
+            } catch (InterruptedException e) {
+                AppLog.w(TAG, "删除线程被中断");
+                return;
+            } catch (Exception e) {
+                AppLog.e(TAG, "后台删除异常", e);
+            }
+        }
+    }
+
+    /**
+     * 录制写入有压力时等待，直到压力解除或达到最长等待时间
+     */
+    private void waitForWritePressure() throws InterruptedException {
+        long waited = 0;
+        while (WritePressureMonitor.isUnderPressure() && waited < MAX_BACKOFF_WAIT_MS) {
+            if (waited == 0) {
+                AppLog.d(TAG, "录制写入有压力，暂停删除（队列: " + getQueueLength() + "）");
+            }
+            Thread.sleep(BACKOFF_STEP_MS);
+            waited += BACKOFF_STEP_MS;
+        }
+        if (waited > 0) {
+            totalBackoffMs.addAndGet(waited);
+        }
+    }
+
+    /**
+     * 删除单个文件
+     * @param failed 删除失败的文件按索引收集到这里，由调用方统一重新加入索引
+     * @return 删除耗时（毫秒）
+     */
+    private long deleteOne(Job job, Map<StorageIndex, List<File>> failed) {
+        StorageIndex.Entry entry = job.entry;
+        Batch batch = job.batch;
+        File file = batch.index.resolve(entry);
+
+        long start = System.currentTimeMillis();
+        boolean deleted = file.delete() || !file.exists();
+        long latency = System.currentTimeMillis() - start;
+
+        totalLatencyMs.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatencyMs.get()) && !maxLatencyMs.compareAndSet(max, latency)) {
+            // 重试直到更新成功
+        }
+
+        if (deleted) {
+            totalDeleted.incrementAndGet();
+            totalBytesFreed.addAndGet(entry.size);
+            batch.deletedCount.incrementAndGet();
+            batch.deletedBytes.addAndGet(entry.size);
+            if (entry.relativePath.indexOf('/') >= 0) {
+                // 分片目录中最后一个文件被删除后，整个分片目录一并删除
+                VideoShardLayout.pruneEmptyDirs(batch.index.getDirectory(), file.getParentFile());
+            }
+            AppLog.d(TAG, "已删除" + batch.label + ": " + entry.relativePath + " (" + StorageHelper.formatSize(entry.size) + ", " + latency + "ms)");
+        } else {
+            totalFailed.incrementAndGet();
+            AppLog.w(TAG, "删除" + batch.label + "失败: " + entry.relativePath);
+            List<File> files = failed.get(batch.index);
+            if (files == null) {
+                files = new ArrayList<>();
+                failed.put(batch.index, files);
+            }
+            files.add(file);
+        }
+        return latency;
+    }
+}
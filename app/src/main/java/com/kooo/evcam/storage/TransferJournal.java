@@ -0,0 +1,446 @@
+package com.kooo.evcam.storage;
+
+import android.content.Context;
+
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 中转传输日志
+ * 记录每个进行中的传输（源文件、目标文件、已落盘的区段边界），
+ * U盘拔出或断电后，下次可从最后一个校验通过的区段续传，而不是从 0 重新复制
+ *
+ * 校验在续传时才做：源文件大小和修改时间未变时，逐个区段比较源文件与部分文件的 CRC32。
+ * 复制过程中只记录偏移，不回读源文件（否则每个字节要多读一遍，抵消 transferTo 省下的开销）
+ *
+ * 持久化格式（内部存储 files/transfer_journal，与 StorageIndex 日志相同的逐条 CRC 记录）：
+ * - BEGIN：源路径、目标路径、源大小、源修改时间（同一源的新 BEGIN 覆盖旧记录）
+ * - COMMIT：区段结束偏移（区段从上一个 COMMIT 的结束偏移开始；第二个字段保留为 0）
+ * - FINISH：传输完成或放弃
+ * 尾部不完整的记录（写入时断电）在回放时丢弃；没有进行中的传输时日志文件被删除
+ *
+ * 复制过程中数据先写入目标旁的 .part 文件，完成后再重命名为最终文件名，
+ * 回放界面和存储索引不会看到不完整的录像
+ */
+public class TransferJournal {
+    private static final String TAG = "TransferJournal";
+
+    private static final String JOURNAL_FILE_NAME = "transfer_journal";
+
+    // 检查点区段大小：每落盘这么多数据记录一次
+    public static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    // 复制中的目标文件后缀
+    public static final String PART_SUFFIX = ".part";
+
+    private static final byte OP_BEGIN = 1;
+    private static final byte OP_COMMIT = 2;
+    private static final byte OP_FINISH = 3;
+
+    // 日志记录数超过此值时按当前状态重写
+    private static final int MAX_JOURNAL_RECORDS = 1000;
+
+    /**
+     * 一个进行中的传输
+     */
+    public static final class Entry {
+        public final File source;
+        public final File target;
+        final long sourceSize;
+        final long sourceModified;
+        final List<Long> ranges = new ArrayList<>();  // 各区段结束偏移，区段首尾相接
+
+        Entry(File source, File target, long sourceSize, long sourceModified) {
+            this.source = source;
+            this.target = target;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+        }
+
+        /**
+         * 已落盘并记录的字节数
+         */
+        public synchronized long getCommittedBytes() {
+            return ranges.isEmpty() ? 0 : ranges.get(ranges.size() - 1);
+        }
+
+        boolean matches(File source, File target) {
+            return this.target.getAbsolutePath().equals(target.getAbsolutePath())
+                    && sourceSize == source.length()
+                    && sourceModified == source.lastModified();
+        }
+    }
+
+    private static TransferJournal instance;
+
+    private final File journalFile;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();  // 源路径 -> 传输
+
+    private DataOutputStream journalOut;
+    private FileOutputStream journalFileOut;
+    private int journalRecords = 0;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    // 统计
+    private long resumedCount = 0;
+    private long resumedBytes = 0;
+
+    public static synchronized TransferJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransferJournal(new File(context.getApplicationContext().getFilesDir(), JOURNAL_FILE_NAME));
+            instance.load();
+        }
+        return instance;
+    }
+
+    private TransferJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * 复制中使用的临时目标文件
+     */
+    public static File partFileOf(File target) {
+        return new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * 开始（或继续）一个传输
+     * 已有记录且源文件未变化、目标相同时沿用原记录，否则重新开始
+     */
+    public synchronized Entry begin(File source, File target) {
+        String key = source.getAbsolutePath();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(source, target)) {
+            return entry;
+        }
+        if (entry != null) {
+            // 源文件或目标已变化，旧的部分文件不可再用
+            partFileOf(entry.target).delete();
+        }
+        entry = new Entry(source, target, source.length(), source.lastModified());
+        entries.put(key, entry);
+        appendRecord(OP_BEGIN, entry, entry.sourceSize, entry.sourceModified);
+        return entry;
+    }
+
+    /**
+     * 校验部分文件，返回可续传的偏移
+     * 从最后一个区段向前比较源文件与部分文件的 CRC，第一个一致的区段之后的记录被丢弃（断电时可能未真正落盘）
+     * 调用前 begin 已确认源文件大小和修改时间未变
+     * @return 续传偏移，0 表示需要从头复制
+     */
+    public long verifyResumeOffset(Entry entry) {
+        File partFile = partFileOf(entry.target);
+        List<Long> ranges;
+        synchronized (entry) {
+            ranges = new ArrayList<>(entry.ranges);
+        }
+        if (ranges.isEmpty() || !partFile.exists()) {
+            trimTo(entry, 0);
+            return 0;
+        }
+
+        long partLength = partFile.length();
+        int verified = 0;
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(entry.source, "r");
+             RandomAccessFile partRaf = new RandomAccessFile(partFile, "r")) {
+            FileChannel sourceChannel = sourceRaf.getChannel();
+            FileChannel partChannel = partRaf.getChannel();
+            long sourceLength = sourceChannel.size();
+            for (int i = ranges.size() - 1; i >= 0; i--) {
+                long start = i == 0 ? 0 : ranges.get(i - 1);
+                long end = ranges.get(i);
+                if (end <= partLength && end <= sourceLength
+                        && FileCopyEngine.crc32(partChannel, start, end - start)
+                        == FileCopyEngine.crc32(sourceChannel, start, end - start)) {
+                    verified = i + 1;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "Failed to verify partial file: " + partFile.getName() + " - " + e.getMessage());
+            verified = 0;
+        }
+
+        long offset = verified == 0 ? 0 : ranges.get(verified - 1);
+        if (verified < ranges.size()) {
+            AppLog.w(TAG, "Partial file " + partFile.getName() + ": " + (ranges.size() - verified) +
+                    " range(s) failed verification, resuming from " + offset);
+            trimTo(entry, verified);
+        }
+        if (offset > 0) {
+            synchronized (this) {
+                resumedCount++;
+                resumedBytes += offset;
+            }
+            AppLog.d(TAG, "Resuming " + entry.source.getName() + " from " + StorageHelper.formatSize(offset));
+        }
+        return offset;
+    }
+
+    /**
+     * 记录一个已落盘的区段
+     */
+    public synchronized void commit(Entry entry, long end) {
+        synchronized (entry) {
+            entry.ranges.add(end);
+        }
+        appendRecord(OP_COMMIT, entry, end, 0);
+    }
+
+    /**
+     * 结束传输（完成、或源文件已无效需要放弃）
+     */
+    public synchronized void finish(Entry entry) {
+        if (entries.get(entry.source.getAbsolutePath()) != entry) {
+            return;
+        }
+        entries.remove(entry.source.getAbsolutePath());
+        if (entries.isEmpty()) {
+            // 没有进行中的传输，直接删除日志
+            closeJournal();
+            journalFile.delete();
+            journalRecords = 0;
+            return;
+        }
+        appendRecord(OP_FINISH, entry, 0, 0);
+    }
+
+    /**
+     * 获取未完成的传输（用于启动时重新入队）
+     */
+    public synchronized List<Entry> getPendingEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * 查找某个源文件的未完成传输
+     */
+    public synchronized Entry find(File source) {
+        return entries.get(source.getAbsolutePath());
+    }
+
+    public synchronized String getStats() {
+        return String.format("进行中: %d, 续传: %d 次 (跳过 %s)",
+                entries.size(), resumedCount, StorageHelper.formatSize(resumedBytes));
+    }
+
+    /**
+     * 只保留前 count 个区段，并重写该传输的记录
+     */
+    private synchronized void trimTo(Entry entry, int count) {
+        synchronized (entry) {
+            if (entry.ranges.size() <= count) {
+                return;
+            }
+            while (entry.ranges.size() > count) {
+                entry.ranges.remove(entry.ranges.size() - 1);
+            }
+        }
+        if (entries.get(entry.source.getAbsolutePath()) != entry) {
+            return;
+        }
+        appendRecord(OP_BEGIN, entry, entry.sourceSize, entry.sourceModified);
+        synchronized (entry) {
+            for (long end : entry.ranges) {
+                appendRecord(OP_COMMIT, entry, end, 0);
+            }
+        }
+    }
+
+    // ===== 持久化 =====
+
+    private synchronized void load() {
+        boolean intact = replayJournal();
+        if (!intact || journalRecords > MAX_JOURNAL_RECORDS) {
+            compact();
+        }
+        if (!entries.isEmpty()) {
+            AppLog.d(TAG, "Loaded transfer journal: " + entries.size() + " pending transfer(s)");
+        }
+    }
+
+    /**
+     * 回放日志
+     * @return false 如果日志尾部损坏
+     */
+    private boolean replayJournal() {
+        journalRecords = 0;
+        if (!journalFile.exists()) {
+            return true;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 16 * 1024));
+            CRC32 recordCrc = new CRC32();
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return true;
+                }
+                String source = in.readUTF();
+                String target = in.readUTF();
+                long a = in.readLong();
+                long b = in.readLong();
+                long storedCrc = in.readLong();
+                recordCrc.reset();
+                updateCrc(recordCrc, op, source, target, a, b);
+                if (storedCrc != recordCrc.getValue()) {
+                    return false;
+                }
+                if (op == OP_BEGIN) {
+                    entries.put(source, new Entry(new File(source), new File(target), a, b));
+                } else if (op == OP_COMMIT) {
+                    Entry entry = entries.get(source);
+                    if (entry != null) {
+                        entry.ranges.add(a);  // 旧版本记录的区段 CRC 不再使用
+                    }
+                } else if (op == OP_FINISH) {
+                    entries.remove(source);
+                } else {
+                    return false;
+                }
+                journalRecords++;
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "Transfer journal truncated: " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void appendRecord(byte op, Entry entry, long a, long b) {
+        String source = entry.source.getAbsolutePath();
+        String target = entry.target.getAbsolutePath();
+        try {
+            if (journalOut == null) {
+                journalFileOut = new FileOutputStream(journalFile, true);
+                journalOut = new DataOutputStream(new BufferedOutputStream(journalFileOut, 512));
+            }
+            crc.reset();
+            updateCrc(crc, op, source, target, a, b);
+            journalOut.writeByte(op);
+            journalOut.writeUTF(source);
+            journalOut.writeUTF(target);
+            journalOut.writeLong(a);
+            journalOut.writeLong(b);
+            journalOut.writeLong(crc.getValue());
+            journalOut.flush();
+            journalFileOut.getFD().sync();
+            journalRecords++;
+        } catch (IOException e) {
+            // 日志写入失败只影响续传，不影响传输本身
+            AppLog.e(TAG, "Failed to append transfer journal", e);
+            closeJournal();
+            return;
+        }
+
+        if (journalRecords > MAX_JOURNAL_RECORDS) {
+            compact();
+        }
+    }
+
+    /**
+     * 按当前状态重写日志
+     */
+    private void compact() {
+        closeJournal();
+        File tempFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        FileOutputStream fileOut = null;
+        try {
+            fileOut = new FileOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 16 * 1024));
+            int records = 0;
+            CRC32 recordCrc = new CRC32();
+            for (Entry entry : entries.values()) {
+                records += writeRecord(out, recordCrc, OP_BEGIN, entry, entry.sourceSize, entry.sourceModified);
+                for (long end : entry.ranges) {
+                    records += writeRecord(out, recordCrc, OP_COMMIT, entry, end, 0);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            fileOut = null;
+
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("rename failed: " + tempFile.getAbsolutePath());
+            }
+            journalRecords = records;
+        } catch (IOException e) {
+            AppLog.e(TAG, "Failed to compact transfer journal", e);
+            closeQuietly(fileOut);
+            tempFile.delete();
+        }
+    }
+
+    private int writeRecord(DataOutputStream out, CRC32 recordCrc, byte op, Entry entry,
+                            long a, long b) throws IOException {
+        String source = entry.source.getAbsolutePath();
+        String target = entry.target.getAbsolutePath();
+        recordCrc.reset();
+        updateCrc(recordCrc, op, source, target, a, b);
+        out.writeByte(op);
+        out.writeUTF(source);
+        out.writeUTF(target);
+        out.writeLong(a);
+        out.writeLong(b);
+        out.writeLong(recordCrc.getValue());
+        return 1;
+    }
+
+    private void closeJournal() {
+        closeQuietly(journalOut);
+        journalOut = null;
+        journalFileOut = null;
+    }
+
+    /**
+     * 计算记录的 CRC（与写入格式一致）
+     */
+    private void updateCrc(CRC32 target, byte op, String source, String targetPath,
+                           long a, long b) throws IOException {
+        recordBuffer.reset();
+        recordOut.writeByte(op);
+        recordOut.writeUTF(source);
+        recordOut.writeUTF(targetPath);
+        recordOut.writeLong(a);
+        recordOut.writeLong(b);
+        recordOut.flush();
+        target.update(recordBuffer.toByteArray());
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.kooo.evcam.storage;
+
+import android.content.Context;
+
+import com.kooo.evcam.AppConfig;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 录像目录分片布局
+ * 将录像按录制时间放入 yyyy/MM/dd（或 yyyy/MM/dd/HH）子目录，避免单个目录下文件过多
+ * （FAT32/exFAT 目录查找是线性扫描，数万个文件时列目录和创建文件都会明显变慢）
+ *
+ * 分片由文件名中的时间戳（yyyyMMdd_HHmmss_xxx.mp4）决定，因此：
+ * - 按时间戳查找文件时只需要查看对应日期的分片
+ * - 回放列表可以只列出日期目录，展开某天时再列出当天的文件
+ *
+ * 根目录仍可能存在录制中或尚未迁移的文件，所有查找都会同时查看根目录
+ */
+public final class VideoShardLayout {
+
+    private VideoShardLayout() {
+    }
+
+    /**
+     * 根据配置获取文件应存放的位置
+     * @param root 录像根目录
+     * @param fileName 文件名（以 yyyyMMdd_HHmmss 开头）
+     */
+    public static File targetFor(Context context, File root, String fileName) {
+        return targetFor(root, fileName, new AppConfig(context).getVideoShardMode());
+    }
+
+    /**
+     * 获取文件在指定分片方式下应存放的位置
+     * 文件名不含可解析的时间戳时放在根目录
+     */
+    public static File targetFor(File root, String fileName, String mode) {
+        String shardPath = shardPathOf(fileName, mode);
+        if (shardPath == null) {
+            return new File(root, fileName);
+        }
+        return new File(new File(root, shardPath), fileName);
+    }
+
+    /**
+     * 根据文件名计算分片相对路径
+     * @return yyyy/MM/dd 或 yyyy/MM/dd/HH；不分片或无法解析时返回 null
+     */
+    public static String shardPathOf(String fileName, String mode) {
+        if (mode == null || AppConfig.VIDEO_SHARD_MODE_NONE.equals(mode)) {
+            return null;
+        }
+        String day = dayKeyOf(fileName);
+        if (day == null) {
+            return null;
+        }
+        String path = day.substring(0, 4) + "/" + day.substring(4, 6) + "/" + day.substring(6, 8);
+        if (AppConfig.VIDEO_SHARD_MODE_HOURLY.equals(mode)) {
+            // 小时取自 yyyyMMdd_HH
+            if (fileName.length() < 11 || fileName.charAt(8) != '_' || !isDigits(fileName, 9, 11)) {
+                return path;
+            }
+            path += "/" + fileName.substring(9, 11);
+        }
+        return path;
+    }
+
+    /**
+     * 从文件名（或时间戳）中提取日期 yyyyMMdd
+     * @return 日期字符串，无法解析时返回 null
+     */
+    public static String dayKeyOf(String fileNameOrTimestamp) {
+        if (fileNameOrTimestamp == null || fileNameOrTimestamp.length() < 8 || !isDigits(fileNameOrTimestamp, 0, 8)) {
+            return null;
+        }
+        return fileNameOrTimestamp.substring(0, 8);
+    }
+
+    /**
+     * 是否为分片目录名（4位年份或2位月/日/小时）
+     */
+    public static boolean isShardDirName(String name) {
+        return (name.length() == 4 || name.length() == 2) && isDigits(name, 0, name.length());
+    }
+
+    /**
+     * 获取文件所属的录像根目录（跳过分片子目录）
+     */
+    public static File rootOf(File file) {
+        File dir = file.getParentFile();
+        while (dir != null && isShardDirName(dir.getName()) && dir.getParentFile() != null) {
+            dir = dir.getParentFile();
+        }
+        return dir;
+    }
+
+    /**
+     * 列出根目录下所有有分片的日期（只列目录，不列文件）
+     * @return yyyyMMdd 列表，最新的在前
+     */
+    public static List<String> listDays(File root) {
+        List<String> days = new ArrayList<>();
+        for (File year : listShardDirs(root, 4)) {
+            for (File month : listShardDirs(year, 2)) {
+                for (File day : listShardDirs(month, 2)) {
+                    days.add(year.getName() + month.getName() + day.getName());
+                }
+            }
+        }
+        Collections.sort(days, Collections.reverseOrder());
+        return days;
+    }
+
+    /**
+     * 获取日期对应的分片目录
+     * @param day yyyyMMdd
+     */
+    public static File dayDir(File root, String day) {
+        return new File(root, day.substring(0, 4) + "/" + day.substring(4, 6) + "/" + day.substring(6, 8));
+    }
+
+    /**
+     * 列出某一天分片中的文件（包括按小时分片的子目录）
+     * @param day yyyyMMdd
+     */
+    public static List<File> listDayFiles(File root, String day, FilenameFilter filter) {
+        List<File> result = new ArrayList<>();
+        File dayDir = dayDir(root, day);
+        File[] files = dayDir.listFiles();
+        if (files == null) {
+            return result;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (isShardDirName(file.getName())) {
+                    File[] hourFiles = file.listFiles(filter);
+                    if (hourFiles != null) {
+                        result.addAll(Arrays.asList(hourFiles));
+                    }
+                }
+            } else if (filter == null || filter.accept(dayDir, file.getName())) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查找指定时间戳可能所在的目录：根目录 + 对应日期的分片（含小时子目录）
+     * 不列出其他日期的分片
+     */
+    public static List<File> candidateDirsFor(File root, String timestamp) {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(root);
+        String day = dayKeyOf(timestamp);
+        if (day == null) {
+            return dirs;
+        }
+        File dayDir = dayDir(root, day);
+        if (!dayDir.isDirectory()) {
+            return dirs;
+        }
+        dirs.add(dayDir);
+        if (timestamp.length() >= 11 && timestamp.charAt(8) == '_' && isDigits(timestamp, 9, 11)) {
+            File hourDir = new File(dayDir, timestamp.substring(9, 11));
+            if (hourDir.isDirectory()) {
+                dirs.add(hourDir);
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * 删除已清空的分片目录（从 dir 向上直到根目录）
+     */
+    public static void pruneEmptyDirs(File root, File dir) {
+        while (dir != null && !dir.equals(root) && isShardDirName(dir.getName())) {
+            String[] children = dir.list();
+            if (children == null || children.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
+    private static List<File> listShardDirs(File parent, int nameLength) {
+        // 先按名称过滤，避免对根目录下大量录像文件逐个 stat
+        File[] dirs = parent.listFiles((dir, name) -> name.length() == nameLength
+                && isShardDirName(name) && new File(dir, name).isDirectory());
+        return dirs != null ? Arrays.asList(dirs) : Collections.emptyList();
+    }
+
+    private static boolean isDigits(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+package com.kooo.evcam.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.kooo.evcam.AppConfig;
+import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 录像分片归档与迁移
+ *
+ * - 归档：直接写入模式下分段录制完成后，将文件从录像根目录移动到对应的分片目录
+ *   （同一文件系统内重命名，只修改目录项，不复制数据）
+ * - 迁移：分片方式改变（或首次启用）后，在后台把已有录像移动到新的目录结构；
+ *   布局未变化时只处理根目录中遗留的文件（异常退出时未归档的分段）
+ *
+ * 迁移逐个文件重命名，录制写入有压力时（WritePressureMonitor）暂停让路
+ */
+public class VideoShardMigrator {
+    private static final String TAG = "VideoShardMigrator";
+
+    private static final String PREF_NAME = "video_shard_layout";
+    private static final String KEY_LAYOUT_PREFIX = "layout_";  // 每个录像根目录已完成迁移的分片方式
+
+    // 最近修改过的文件视为录制中，不移动
+    private static final long ACTIVE_FILE_GRACE_MS = 2 * 60 * 1000;
+
+    // 迁移节奏：每移动 MIGRATE_BATCH_SIZE 个文件暂停一次
+    private static final int MIGRATE_BATCH_SIZE = 20;
+    private static final long MIGRATE_PAUSE_MS = 200;
+    private static final long PRESSURE_WAIT_MS = 1000;
+
+    // 隐藏文件和传输中的部分文件（TransferJournal 按原路径续传）不迁移
+    private static final FilenameFilter MIGRATABLE = (dir, name) ->
+            !name.startsWith(".") && !name.endsWith(TransferJournal.PART_SUFFIX);
+
+    // 单例
+    private static VideoShardMigrator instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean migrationPending = new AtomicBoolean(false);
+
+    private VideoShardMigrator(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized VideoShardMigrator getInstance(Context context) {
+        if (instance == null) {
+            instance = new VideoShardMigrator(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 分段录制完成：按配置归档到分片目录并记入存储索引
+     * 文件不在录像根目录（如中转临时目录）时只记入索引
+     */
+    public void onSegmentCompleted(File file) {
+        if (file == null) {
+            return;
+        }
+        executor.execute(() -> {
+            File placed = file;
+            try {
+                File root = file.getParentFile();
+                if (root != null && root.equals(StorageHelper.getVideoDir(context)) && file.isFile()) {
+                    File target = VideoShardLayout.targetFor(context, root, file.getName());
+                    if (!target.equals(file) && moveFile(file, target)) {
+                        placed = target;
+                    }
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "归档分段失败: " + file.getAbsolutePath(), e);
+            }
+            StorageIndex.notifyFileAdded(context, placed);
+        });
+    }
+
+    /**
+     * 请求后台迁移（多次请求合并为一次）
+     */
+    public void requestMigration() {
+        if (!migrationPending.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            migrationPending.set(false);
+            try {
+                migrate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                AppLog.e(TAG, "录像目录迁移失败", e);
+            }
+        });
+    }
+
+    private void migrate() throws InterruptedException {
+        File root = StorageHelper.getVideoDir(context);
+        if (root == null || !root.isDirectory()) {
+            return;
+        }
+        String mode = new AppConfig(context).getVideoShardMode();
+        String layoutKey = KEY_LAYOUT_PREFIX + Integer.toHexString(root.getAbsolutePath().hashCode());
+        boolean layoutChanged = !mode.equals(prefs.getString(layoutKey, AppConfig.VIDEO_SHARD_MODE_NONE));
+
+        List<File> candidates = new ArrayList<>();
+        if (!AppConfig.VIDEO_SHARD_MODE_NONE.equals(mode)) {
+            // 根目录中的文件都需要归档（不分片时根目录就是目标位置，无需处理）
+            File[] rootFiles = root.listFiles(MIGRATABLE);
+            if (rootFiles != null) {
+                for (File file : rootFiles) {
+                    if (file.isFile()) {
+                        candidates.add(file);
+                    }
+                }
+            }
+        }
+        if (layoutChanged) {
+            // 分片方式改变：已有分片中的文件也要移动到新的位置
+            for (String day : VideoShardLayout.listDays(root)) {
+                candidates.addAll(VideoShardLayout.listDayFiles(root, day, MIGRATABLE));
+            }
+        }
+        if (candidates.isEmpty()) {
+            prefs.edit().putString(layoutKey, mode).apply();
+            return;
+        }
+
+        AppLog.d(TAG, "开始迁移录像目录: " + root.getAbsolutePath() + "，分片方式: " + mode + "，候选文件: " + candidates.size());
+        StorageIndex index = StorageIndex.get(context, root);
+        long now = System.currentTimeMillis();
+        int moved = 0;
+        int skipped = 0;
+
+        for (File file : candidates) {
+            File target = VideoShardLayout.targetFor(root, file.getName(), mode);
+            if (target.equals(file)) {
+                continue;
+            }
+            if (now - file.lastModified() < ACTIVE_FILE_GRACE_MS) {
+                skipped++;
+                continue;
+            }
+            while (WritePressureMonitor.isUnderPressure()) {
+                Thread.sleep(PRESSURE_WAIT_MS);
+            }
+            File sourceDir = file.getParentFile();
+            if (!moveFile(file, target)) {
+                skipped++;
+                continue;
+            }
+            if (!index.rename(file, target)) {
+                index.add(target);
+            }
+            VideoShardLayout.pruneEmptyDirs(root, sourceDir);
+            moved++;
+            if (moved % MIGRATE_BATCH_SIZE == 0) {
+                Thread.sleep(MIGRATE_PAUSE_MS);
+            }
+        }
+
+        // 有跳过的文件（录制中）时保留原布局记录，下次启动继续迁移
+        if (skipped == 0) {
+            prefs.edit().putString(layoutKey, mode).apply();
+        }
+        AppLog.d(TAG, "录像目录迁移完成：移动 " + moved + " 个文件，跳过 " + skipped + " 个");
+    }
+
+    private boolean moveFile(File source, File target) {
+        File targetDir = target.getParentFile();
+        if (targetDir != null && !targetDir.exists() && !targetDir.mkdirs()) {
+            AppLog.w(TAG, "无法创建分片目录: " + targetDir.getAbsolutePath());
+            return false;
+        }
+        if (target.exists()) {
+            AppLog.w(TAG, "目标文件已存在，跳过: " + target.getAbsolutePath());
+            return false;
+        }
+        if (!source.renameTo(target)) {
+            AppLog.w(TAG, "移动失败: " + source.getAbsolutePath() + " -> " + target.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+}
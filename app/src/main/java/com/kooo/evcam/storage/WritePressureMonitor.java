@@ -0,0 +1,77 @@
+package com.kooo.evcam.storage;
+
+import com.kooo.evcam.AppLog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 录制写入压力监测
+ * 录制器在文件大小检查时上报写入进度，后台删除据此判断是否需要让路
+ *
+ * 判定为有写入压力的情况：
+ * - 新分段已开始但尚未写入有效数据（首次写入最容易被 FAT 重写阻塞而超时）
+ * - 文件增长量明显低于按码率估算的写入量
+ *
+ * 压力信号保持 PRESSURE_HOLD_MS，期间没有新的滞后上报则自动解除
+ */
+public final class WritePressureMonitor {
+    private static final String TAG = "WritePressureMonitor";
+
+    // 实际增长低于预期的比例即视为写入滞后（VBR 静止画面码率偏低，阈值放宽）
+    private static final double LAG_RATIO = 0.25;
+
+    // 压力信号保持时间
+    private static final long PRESSURE_HOLD_MS = 10 * 1000;
+
+    private static volatile long lastPressureAt = 0;
+    private static final AtomicLong pressureEvents = new AtomicLong();
+
+    private WritePressureMonitor() {
+    }
+
+    /**
+     * 上报一次文件大小检查的写入进度
+     * @param recorderKey 录制器标识（用于日志）
+     * @param sizeIncrease 本次检查间隔内的文件增长量（字节）
+     * @param expectedIncrease 按码率估算的增长量（字节），<= 0 表示无法估算
+     */
+    public static void reportWriteProgress(String recorderKey, long sizeIncrease, long expectedIncrease) {
+        if (expectedIncrease <= 0 || sizeIncrease < 0) {
+            // 分段切换导致的回退或码率未知，不作判断
+            return;
+        }
+        if (sizeIncrease < expectedIncrease * LAG_RATIO) {
+            markPressure(recorderKey, "写入滞后 " + sizeIncrease + "/" + expectedIncrease + " bytes");
+        }
+    }
+
+    /**
+     * 上报录制器正在等待新分段的首次写入
+     */
+    public static void reportAwaitingFirstWrite(String recorderKey) {
+        markPressure(recorderKey, "等待首次写入");
+    }
+
+    /**
+     * 当前是否存在录制写入压力
+     */
+    public static boolean isUnderPressure() {
+        long last = lastPressureAt;
+        return last > 0 && System.currentTimeMillis() - last < PRESSURE_HOLD_MS;
+    }
+
+    /**
+     * 累计压力上报次数
+     */
+    public static long getPressureEventCount() {
+        return pressureEvents.get();
+    }
+
+    private static void markPressure(String recorderKey, String reason) {
+        if (!isUnderPressure()) {
+            AppLog.d(TAG, recorderKey + " 报告写入压力: " + reason);
+        }
+        pressureEvents.incrementAndGet();
+        lastPressureAt = System.currentTimeMillis();
+    }
+}
@@ -66,6 +66,14 @@ public class TelegramBotManager {
         default String onBackgroundCommand() {
             return "功能不可用";
         }
+        
+        /**
+         * 发送最近一段时间的录像（从已有分段截取）
+         * @return 执行结果消息
+         */
+        default String onClipCommand(long chatId, int seconds) {
+            return "功能不可用";
+        }
     }
 
     public TelegramBotManager(Context context, TelegramConfig config,
@@ -267,6 +275,18 @@ public class TelegramBotManager {
                     WakeUpHelper.launchForRecordingTelegram(context, chatId, durationSeconds);
                 });
 
+            } else if (command.startsWith("/clip") || command.startsWith("回放") ||
+                       command.toLowerCase().startsWith("clip")) {
+                // 回放指令：从已有录像截取最近 N 秒发送，不重新录制
+                int seconds = parseClipDuration(command);
+                AppLog.d(TAG, "收到回放指令，时长: " + seconds + " 秒");
+                if (currentCommandCallback != null) {
+                    String result = currentCommandCallback.onClipCommand(chatId, seconds);
+                    apiClient.sendMessage(chatId, result);
+                } else {
+                    apiClient.sendMessage(chatId, "❌ 功能不可用");
+                }
+
             } else if ("/photo".equals(command) || "拍照".equals(command) ||
                        "photo".equalsIgnoreCase(command)) {
 
@@ -363,6 +383,10 @@ public class TelegramBotManager {
                     "/start_rec ─ 开始持续录制\n" +
                     "/stop_rec ─ 停止录制\n" +
                     "启动录制 / 结束录制 ─ 中文\n\n" +
+                    "⏪ <b>回放</b>\n" +
+                    "/clip ─ 发送最近60秒录像\n" +
+                    "/clip 30 ─ 发送最近指定秒数\n" +
+                    "回放 / 回放30 ─ 中文指令\n\n" +
                     "📷 <b>拍照</b>\n" +
                     "/photo ─ 拍摄照片\n" +
                     "拍照 ─ 中文指令\n\n" +
@@ -435,6 +459,28 @@ public class TelegramBotManager {
         }
     }
 
+    /**
+     * 解析回放时长（秒）
+     * 支持格式：/clip、/clip 30、回放、回放30、回放 30
+     */
+    private int parseClipDuration(String command) {
+        String durationStr = command
+                .replaceAll("(?i)(/clip|回放|clip)", "")
+                .trim();
+        if (durationStr.isEmpty()) {
+            return 60;
+        }
+
+        try {
+            int duration = Integer.parseInt(durationStr);
+            // 限制范围：最少 5 秒，最多 300 秒（受循环录制分段保留限制）
+            return Math.max(5, Math.min(300, duration));
+        } catch (NumberFormatException e) {
+            AppLog.w(TAG, "无法解析回放时长: " + durationStr + "，使用默认值 60 秒");
+            return 60;
+        }
+    }
+
     /**
      * 发送响应消息，并在发送完成后执行回调
      */
@@ -0,0 +1,414 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分片 MP4 写入：用合成的 H.264/HEVC 参数集和帧写入临时文件，逐个检查 box 结构，
+ * 再通过 Mp4SampleTable 读回，确认帧数据、关键帧和时间戳与写入时一致
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final int ALIGNMENT = 4096;
+    private static final long FRAME_US = 40_000;  // 25fps
+    private static final int TICKS_PER_FRAME = 3600;  // 90kHz
+    private static final int FRAME_OFFSET = 5;  // 帧在编码器缓冲区中的起始位置
+
+    // H.264 High profile SPS：seq_parameter_set_id=0, chroma_format_idc=1, 8 bit
+    private static final byte[] AVC_SPS = bytes(0x67, 0x64, 0x00, 0x28, 0xAC);
+    private static final byte[] AVC_PPS = bytes(0x68, 0xEE, 0x3C, 0x80);
+
+    // HEVC：profile_tier_level 中的 00 00 含防竞争字节 03，
+    // 之后 chroma_format_idc=1、8 bit、无裁剪窗口
+    private static final byte[] HEVC_VPS = bytes(0x40, 0x01, 0x0C, 0x01, 0xFF, 0xFF);
+    private static final byte[] HEVC_SPS = bytes(0x42, 0x01, 0x01,
+            0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0x90, 0x00, 0x00, 0x03, 0x00, 0x00, 0x03, 0x00, 0x5D,
+            0xAD, 0xC0);
+    private static final byte[] HEVC_PPS = bytes(0x44, 0x01, 0xC1, 0x72);
+    // 去掉防竞争字节后的 general_profile_tier_level（12 字节）
+    private static final byte[] HEVC_PTL = bytes(0x01, 0x60, 0x00, 0x00, 0x00, 0x90, 0x00, 0x00, 0x00, 0x00, 0x00, 0x5D);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private int frameSize;  // 最近一次 frame() 生成的帧长度
+
+    @Test
+    public void writesAlignedFragmentsWithLengthPrefixedNals() throws IOException {
+        // 关键帧间隔 4，单分片最多 3 帧：分片为 [K P P] [P] [K P P] [P] [K]
+        boolean[] keys = {true, false, false, false, true, false, false, false, true};
+        List<List<byte[]>> frames = new ArrayList<>();
+        File file = write(false, keys, frames, 3);
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<Box> top = boxes(data, 0, data.length);
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        assertEquals("free", top.get(2).type);
+        assertEquals(data.length, top.get(top.size() - 1).end);
+
+        int[] expectedCounts = {3, 1, 3, 1, 1};
+        int fragment = 0;
+        int frame = 0;
+        for (int i = 0; i < top.size(); i++) {
+            Box box = top.get(i);
+            if (!"moof".equals(box.type)) {
+                continue;
+            }
+            // 每个分片都从 4KB 边界开始
+            assertEquals("moof " + fragment, 0, box.start % ALIGNMENT);
+            int count = expectedCounts[fragment];
+            assertEquals(88 + 12 * count, box.size());
+
+            Box mfhd = child(data, box, "mfhd");
+            assertEquals(fragment + 1, getInt(data, mfhd.start + 12));
+            Box traf = child(data, box, "traf");
+            Box tfdt = child(data, traf, "tfdt");
+            assertEquals((long) frame * TICKS_PER_FRAME, getLong(data, tfdt.start + 12));
+
+            Box trun = child(data, traf, "trun");
+            assertEquals(0x000701, getInt(data, trun.start + 8) & 0xFFFFFF);
+            assertEquals(count, getInt(data, trun.start + 12));
+            int dataOffset = getInt(data, trun.start + 16);
+            assertEquals(box.size() + 8, dataOffset);
+
+            Box mdat = top.get(i + 1);
+            assertEquals("mdat", mdat.type);
+            assertEquals(box.end, mdat.start);
+
+            int pos = box.start + dataOffset;
+            for (int s = 0; s < count; s++, frame++) {
+                int entry = trun.start + 20 + 12 * s;
+                assertEquals(TICKS_PER_FRAME, getInt(data, entry));
+                int size = getInt(data, entry + 4);
+                int flags = getInt(data, entry + 8);
+                assertEquals(keys[frame] ? 0x02000000 : 0x01010000, flags);
+
+                // 起始码替换为 4 字节长度前缀
+                int end = pos + size;
+                for (byte[] nal : frames.get(frame)) {
+                    assertEquals(nal.length, getInt(data, pos));
+                    assertArrayEquals(nal, Arrays.copyOfRange(data, pos + 4, pos + 4 + nal.length));
+                    pos += 4 + nal.length;
+                }
+                assertEquals("sample " + frame, end, pos);
+            }
+            assertEquals(mdat.end, pos);
+            if (i + 2 < top.size()) {
+                Box next = top.get(i + 2);
+                assertTrue(next.type, "free".equals(next.type) || "moof".equals(next.type));
+            }
+            fragment++;
+        }
+        assertEquals(expectedCounts.length, fragment);
+        assertEquals(keys.length, frame);
+    }
+
+    @Test
+    public void avcCCarriesProfileAndHighProfileExtension() throws IOException {
+        File file = write(false, new boolean[]{true, false}, new ArrayList<>(), 30);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Box avc1 = sampleEntry(data, "avc1");
+        assertEquals(1920, getShort(data, avc1.start + 32));
+        assertEquals(1080, getShort(data, avc1.start + 34));
+
+        Box avcC = boxes(data, avc1.start + 86, avc1.end).get(0);
+        assertEquals("avcC", avcC.type);
+        int p = avcC.start + 8;
+        assertEquals(1, data[p] & 0xFF);
+        assertEquals(0x64, data[p + 1] & 0xFF);
+        assertEquals(0x00, data[p + 2] & 0xFF);
+        assertEquals(0x28, data[p + 3] & 0xFF);
+        assertEquals(0xFF, data[p + 4] & 0xFF);  // lengthSizeMinusOne = 3
+        assertEquals(0xE1, data[p + 5] & 0xFF);
+        assertEquals(AVC_SPS.length, getShort(data, p + 6));
+        assertArrayEquals(AVC_SPS, Arrays.copyOfRange(data, p + 8, p + 8 + AVC_SPS.length));
+        p += 8 + AVC_SPS.length;
+        assertEquals(1, data[p] & 0xFF);
+        assertEquals(AVC_PPS.length, getShort(data, p + 1));
+        assertArrayEquals(AVC_PPS, Arrays.copyOfRange(data, p + 3, p + 3 + AVC_PPS.length));
+        p += 3 + AVC_PPS.length;
+        // High profile：chroma_format 4:2:0、8 bit、无 SPS 扩展
+        assertArrayEquals(bytes(0xFD, 0xF8, 0xF8, 0x00), Arrays.copyOfRange(data, p, p + 4));
+        assertEquals(avcC.end, p + 4);
+    }
+
+    @Test
+    public void hvcCCarriesUnescapedProfileTierLevel() throws IOException {
+        File file = write(true, new boolean[]{true, false}, new ArrayList<>(), 30);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Box hvc1 = sampleEntry(data, "hvc1");
+
+        Box hvcC = boxes(data, hvc1.start + 86, hvc1.end).get(0);
+        assertEquals("hvcC", hvcC.type);
+        int p = hvcC.start + 8;
+        assertEquals(1, data[p] & 0xFF);
+        assertArrayEquals(HEVC_PTL, Arrays.copyOfRange(data, p + 1, p + 13));
+        assertEquals(0xF000, getShort(data, p + 13));
+        assertEquals(0xFC, data[p + 15] & 0xFF);
+        assertEquals(0xFD, data[p + 16] & 0xFF);  // chroma_format_idc = 1
+        assertEquals(0xF8, data[p + 17] & 0xFF);
+        assertEquals(0xF8, data[p + 18] & 0xFF);
+        // 1 个时间层、temporal_id_nesting、lengthSizeMinusOne = 3
+        assertEquals(0x0F, data[p + 21] & 0xFF);
+        assertEquals(3, data[p + 22] & 0xFF);
+
+        p += 23;
+        int[] types = {32, 33, 34};
+        byte[][] nals = {HEVC_VPS, HEVC_SPS, HEVC_PPS};
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0x80 | types[i], data[p] & 0xFF);
+            assertEquals(1, getShort(data, p + 1));
+            assertEquals(nals[i].length, getShort(data, p + 3));
+            assertArrayEquals(nals[i], Arrays.copyOfRange(data, p + 5, p + 5 + nals[i].length));
+            p += 5 + nals[i].length;
+        }
+        assertEquals(hvcC.end, p);
+    }
+
+    @Test
+    public void closePatchesDurations() throws IOException {
+        boolean[] keys = new boolean[50];
+        keys[0] = true;
+        keys[25] = true;
+        File file = write(true, keys, new ArrayList<>(), 30);
+        byte[] data = Files.readAllBytes(file.toPath());
+
+        Box moov = boxes(data, 0, data.length).get(1);
+        long movieMs = keys.length * FRAME_US / 1000;
+        assertEquals(movieMs, getInt(data, child(data, moov, "mvhd").start + 24));
+        Box trak = child(data, moov, "trak");
+        assertEquals(movieMs, getInt(data, child(data, trak, "tkhd").start + 28));
+        assertEquals(movieMs, getInt(data, child(data, child(data, moov, "mvex"), "mehd").start + 12));
+        Box mdhd = child(data, child(data, trak, "mdia"), "mdhd");
+        assertEquals(90000, getInt(data, mdhd.start + 20));
+        assertEquals(keys.length * TICKS_PER_FRAME, getInt(data, mdhd.start + 24));
+    }
+
+    @Test
+    public void readsBackThroughSampleTable() throws IOException {
+        for (boolean hevc : new boolean[]{false, true}) {
+            boolean[] keys = new boolean[12];
+            keys[0] = true;
+            keys[6] = true;
+            List<List<byte[]>> frames = new ArrayList<>();
+            File file = write(hevc, keys, frames, 4);
+
+            Mp4SampleTable table = Mp4SampleTable.parse(file);
+            assertNotNull(table);
+            assertEquals(hevc, table.isHevc());
+            assertEquals(1920, table.getWidth());
+            assertEquals(1080, table.getHeight());
+            assertEquals(keys.length, table.getSampleCount());
+            assertEquals(keys.length * FRAME_US, table.getDurationUs());
+            assertEquals(6, table.findSyncSampleAtOrBefore(7 * FRAME_US));
+
+            ByteBuffer buffer = ByteBuffer.allocate(table.getMaxReadSize());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                for (int i = 0; i < keys.length; i++) {
+                    assertEquals(keys[i], table.isSyncSample(i));
+                    assertEquals(i * FRAME_US, table.getSampleTimeUs(i));
+                    int size = table.readSample(raf.getChannel(), i, buffer);
+                    assertArrayEquals("sample " + i, annexB(frames.get(i)),
+                            Arrays.copyOfRange(buffer.array(), 0, size));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsCompleteFragmentsOfUnfinishedFile() throws IOException {
+        File file = temp.newFile("unfinished.mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(raf.getChannel(), ALIGNMENT, 30);
+            writer.start(false, 1920, 1080, csd(AVC_SPS), csd(AVC_PPS));
+            for (int i = 0; i < 8; i++) {
+                boolean key = i % 4 == 0;
+                writer.writeSample(frame(false, key, i, new ArrayList<>()), FRAME_OFFSET, frameSize, i * FRAME_US, key);
+            }
+            // 不调用 close：第二个 GOP 仍在缓存中，只有第一个分片已写出
+            assertEquals(1, writer.getFragmentCount());
+            assertEquals(writer.getFileLength(), raf.length());
+        }
+
+        Mp4SampleTable table = Mp4SampleTable.parse(file);
+        assertNotNull(table);
+        assertEquals(4, table.getSampleCount());
+    }
+
+    // ==================== 工具方法 ====================
+
+    private File write(boolean hevc, boolean[] keys, List<List<byte[]>> frames, int maxFragmentFrames)
+            throws IOException {
+        File file = temp.newFile((hevc ? "hevc" : "avc") + "-" + keys.length + ".mp4");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(channel, ALIGNMENT, maxFragmentFrames);
+            if (hevc) {
+                writer.start(true, 1920, 1080, csd(HEVC_VPS, HEVC_SPS, HEVC_PPS));
+            } else {
+                writer.start(false, 1920, 1080, csd(AVC_SPS), csd(AVC_PPS));
+            }
+            long sampleBytes = 0;
+            for (int i = 0; i < keys.length; i++) {
+                // 按 offset/size 读取，且不改变编码器缓冲区的位置
+                ByteBuffer buffer = frame(hevc, keys[i], i, frames);
+                buffer.position(3);
+                writer.writeSample(buffer, FRAME_OFFSET, frameSize, i * FRAME_US, keys[i]);
+                assertEquals(3, buffer.position());
+                for (byte[] nal : frames.get(i)) {
+                    sampleBytes += 4 + nal.length;
+                }
+            }
+            writer.close();
+            assertEquals(sampleBytes, writer.getWrittenBytes());
+            assertEquals(writer.getFileLength(), channel.size());
+        }
+        return file;
+    }
+
+    /**
+     * 生成一帧 Annex-B 数据：关键帧为 4 字节起始码的 SEI + 3 字节起始码的 IDR，
+     * 非关键帧为单个带 trailing_zero 的 slice
+     */
+    private ByteBuffer frame(boolean hevc, boolean key, int index, List<List<byte[]>> frames) {
+        List<byte[]> nals = new ArrayList<>();
+        if (key) {
+            nals.add(hevc ? payload(0x4E, 0x01, 10 + index) : payload(0x06, -1, 10 + index));
+            nals.add(hevc ? payload(0x26, 0x01, 300 + index) : payload(0x65, -1, 300 + index));
+        } else {
+            nals.add(hevc ? payload(0x02, 0x01, 100 + index) : payload(0x41, -1, 100 + index));
+        }
+        frames.add(nals);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(bytes(0xEE, 0xEE, 0xEE, 0xEE, 0xEE));  // 帧之前的无关数据
+        for (int i = 0; i < nals.size(); i++) {
+            buffer.put(i == 0 ? bytes(0, 0, 0, 1) : bytes(0, 0, 1));
+            buffer.put(nals.get(i));
+        }
+        if (!key) {
+            buffer.put((byte) 0);  // trailing_zero_8bits
+        }
+        frameSize = buffer.position() - FRAME_OFFSET;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 不含起始码的 NAL 内容（字节值 >= 2，不会出现起始码）
+     */
+    private static byte[] payload(int header0, int header1, int length) {
+        byte[] nal = new byte[length];
+        int pos = 0;
+        nal[pos++] = (byte) header0;
+        if (header1 >= 0) {
+            nal[pos++] = (byte) header1;
+        }
+        for (int i = pos; i < length; i++) {
+            nal[i] = (byte) (2 + (i * 7 + length) % 250);
+        }
+        return nal;
+    }
+
+    private static ByteBuffer csd(byte[]... nals) {
+        List<byte[]> list = Arrays.asList(nals);
+        return ByteBuffer.wrap(annexB(list));
+    }
+
+    private static byte[] annexB(List<byte[]> nals) {
+        ByteBuffer out = ByteBuffer.allocate(nals.stream().mapToInt(n -> n.length + 4).sum());
+        for (byte[] nal : nals) {
+            out.putInt(1);
+            out.put(nal);
+        }
+        return out.array();
+    }
+
+    private static Box sampleEntry(byte[] data, String type) {
+        Box moov = boxes(data, 0, data.length).get(1);
+        Box stbl = child(data, child(data, child(data, child(data, moov, "trak"), "mdia"), "minf"), "stbl");
+        Box stsd = child(data, stbl, "stsd");
+        assertEquals(1, getInt(data, stsd.start + 12));
+        Box entry = boxes(data, stsd.start + 16, stsd.end).get(0);
+        assertEquals(type, entry.type);
+        return entry;
+    }
+
+    private static Box child(byte[] data, Box parent, String type) {
+        int header = isFullBox(parent.type) ? 12 : 8;
+        for (Box box : boxes(data, parent.start + header, parent.end)) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        throw new AssertionError(type + " not found in " + parent.type);
+    }
+
+    private static boolean isFullBox(String type) {
+        return "stsd".equals(type) || "dref".equals(type);
+    }
+
+    private static List<Box> boxes(byte[] data, int from, int to) {
+        List<Box> boxes = new ArrayList<>();
+        int pos = from;
+        while (pos + 8 <= to) {
+            int size = getInt(data, pos);
+            assertTrue("box at " + pos + " has size " + size, size >= 8 && pos + size <= to);
+            boxes.add(new Box(new String(data, pos + 4, 4, StandardCharsets.US_ASCII), pos, pos + size));
+            pos += size;
+        }
+        assertEquals("trailing bytes", to, pos);
+        return boxes;
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return ByteBuffer.wrap(data).getInt(pos);
+    }
+
+    private static long getLong(byte[] data, int pos) {
+        return ByteBuffer.wrap(data).getLong(pos);
+    }
+
+    private static int getShort(byte[] data, int pos) {
+        return ByteBuffer.wrap(data).getShort(pos) & 0xFFFF;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+
+    private static final class Box {
+        final String type;
+        final int start;
+        final int end;
+
+        Box(String type, int start, int end) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
+
+        int size() {
+            return end - start;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多路渲染调度：用假渲染器记录绘制顺序，用可控时钟模拟每路的绘制耗时
+ */
+public class RenderSchedulerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final List<String> drawn = new ArrayList<>();
+    private final List<Integer> drawnPending = new ArrayList<>();
+    private long now = 0;
+    private RenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new RenderScheduler(() -> now, 10 * MS);
+    }
+
+    @Test
+    public void drawsEachCameraAtMostOncePerBatch() {
+        RenderScheduler.Target front = register("front", 2 * MS);
+        RenderScheduler.Target back = register("back", 2 * MS);
+        register("left", 2 * MS);
+
+        assertTrue(scheduler.onFrameAvailable(front));
+        assertFalse(scheduler.onFrameAvailable(front));  // 已安排，无需再请求 vsync
+        assertFalse(scheduler.onFrameAvailable(back));
+        assertFalse(scheduler.onFrameAvailable(front));
+
+        assertFalse(scheduler.runBatch(0));
+        assertEquals(List.of("front", "back"), drawn);  // 没有新帧的一路不绘制
+
+        drawn.clear();
+        assertFalse(scheduler.runBatch(1));
+        assertTrue(drawn.isEmpty());
+    }
+
+    @Test
+    public void backloggedFramesAreConsumedWithoutExtraDraws() {
+        RenderScheduler.Target front = register("front", MS);
+        for (int i = 0; i < 4; i++) {
+            scheduler.onFrameAvailable(front);
+        }
+
+        scheduler.runBatch(0);
+        assertEquals(List.of("front"), drawn);
+        assertEquals(List.of(4), drawnPending);  // 渲染器一次消费 4 帧，只绘制最新一帧
+
+        RenderScheduler.Stats stats = scheduler.getStats(false).get(0);
+        assertEquals(1, stats.renderCount);
+        assertEquals(3, stats.droppedFrames);
+    }
+
+    @Test
+    public void frameArrivingDuringDrawIsScheduledForNextBatch() {
+        RenderScheduler.Target[] front = new RenderScheduler.Target[1];
+        front[0] = scheduler.register("front", (pending, frameTimeNanos) -> {
+            drawn.add("front");
+            if (drawn.size() == 1) {
+                assertTrue(scheduler.onFrameAvailable(front[0]));
+            }
+        });
+        scheduler.onFrameAvailable(front[0]);
+
+        assertTrue(scheduler.runBatch(0));  // 绘制期间到达的帧需要下一个 vsync
+        assertFalse(scheduler.runBatch(1));
+        assertEquals(List.of("front", "front"), drawn);
+    }
+
+    @Test
+    public void overBudgetBatchResumesAtFirstDeferredCamera() {
+        List<RenderScheduler.Target> targets = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            targets.add(register(name, 6 * MS));
+        }
+
+        frameOnAll(targets);
+        // a 用时 6ms，b 开始时未超预算；b 结束后已用 12ms，c、d 推迟
+        assertTrue(scheduler.runBatch(0));
+        assertEquals(List.of("a", "b"), drawn);
+
+        drawn.clear();
+        assertFalse(scheduler.runBatch(1));
+        assertEquals(List.of("c", "d"), drawn);  // 从第一个被推迟的 c 开始
+
+        // 上一批无推迟，起点正常轮转到 d；这次推迟的是 b、c
+        drawn.clear();
+        frameOnAll(targets);
+        assertTrue(scheduler.runBatch(2));
+        assertEquals(List.of("d", "a"), drawn);
+
+        drawn.clear();
+        assertFalse(scheduler.runBatch(3));
+        assertEquals(List.of("b", "c"), drawn);
+
+        List<RenderScheduler.Stats> stats = scheduler.getStats(false);
+        long[] expectedDeferred = {0, 1, 2, 1};
+        for (int i = 0; i < stats.size(); i++) {
+            assertEquals(stats.get(i).name, expectedDeferred[i], stats.get(i).deferredCount);
+            assertEquals(stats.get(i).name, 2, stats.get(i).renderCount);
+        }
+    }
+
+    @Test
+    public void alwaysDrawsAtLeastOneCamera() {
+        scheduler = new RenderScheduler(() -> now, 0);
+        RenderScheduler.Target a = register("a", 20 * MS);
+        RenderScheduler.Target b = register("b", 20 * MS);
+        scheduler.onFrameAvailable(a);
+        scheduler.onFrameAvailable(b);
+
+        assertTrue(scheduler.runBatch(0));
+        assertFalse(scheduler.runBatch(1));
+        assertEquals(List.of("a", "b"), drawn);
+    }
+
+    @Test
+    public void countsPerCameraStatisticsAndResets() {
+        RenderScheduler.Target fast = register("fast", 2 * MS);
+        RenderScheduler.Target slow = register("slow", 4 * MS);
+        for (int batch = 0; batch < 3; batch++) {
+            scheduler.onFrameAvailable(fast);
+            scheduler.onFrameAvailable(slow);
+            if (batch == 1) {
+                scheduler.onFrameAvailable(slow);
+            }
+            scheduler.runBatch(batch);
+        }
+
+        List<RenderScheduler.Stats> stats = scheduler.getStats(true);
+        assertEquals("fast", stats.get(0).name);
+        assertEquals(3, stats.get(0).renderCount);
+        assertEquals(0, stats.get(0).droppedFrames);
+        assertEquals(2000, stats.get(0).avgRenderUs);
+        assertEquals(2000, stats.get(0).maxRenderUs);
+        assertEquals(3, stats.get(1).renderCount);
+        assertEquals(1, stats.get(1).droppedFrames);
+        assertEquals(4000, stats.get(1).avgRenderUs);
+        assertEquals(0, stats.get(1).deferredCount);
+
+        // 重置后开始新的统计周期
+        RenderScheduler.Stats cleared = scheduler.getStats(false).get(1);
+        assertEquals(0, cleared.renderCount);
+        assertEquals(0, cleared.droppedFrames);
+        assertEquals(0, cleared.avgRenderUs);
+        assertEquals(0, cleared.maxRenderUs);
+    }
+
+    @Test
+    public void unregisteredCameraIsNoLongerDrawn() {
+        RenderScheduler.Target a = register("a", MS);
+        RenderScheduler.Target b = register("b", MS);
+        scheduler.onFrameAvailable(a);
+        scheduler.onFrameAvailable(b);
+        scheduler.unregister(a);
+
+        assertFalse(scheduler.runBatch(0));
+        assertEquals(List.of("b"), drawn);
+        assertFalse(scheduler.onFrameAvailable(a));
+        assertEquals(1, scheduler.getTargetCount());
+    }
+
+    private RenderScheduler.Target register(String name, long costNs) {
+        return scheduler.register(name, (pending, frameTimeNanos) -> {
+            drawn.add(name);
+            drawnPending.add(pending);
+            now += costNs;
+        });
+    }
+
+    private void frameOnAll(List<RenderScheduler.Target> targets) {
+        for (RenderScheduler.Target target : targets) {
+            scheduler.onFrameAvailable(target);
+        }
+    }
+}
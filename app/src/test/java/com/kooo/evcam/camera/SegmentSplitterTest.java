@@ -0,0 +1,229 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaFormat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 无缝分段切换：用假的 SegmentMuxer 记录每个分段收到的帧
+ * MediaFormat 只作为不透明的值传递（单元测试中是 android.jar 的默认值桩对象）
+ */
+public class SegmentSplitterTest {
+
+    private static final long FRAME_US = 40_000;
+
+    private final Map<String, FakeMuxer> created = new LinkedHashMap<>();
+    private final Set<String> failingPaths = new HashSet<>();
+    private final List<String> switched = new ArrayList<>();
+    private final List<FakeMuxer> completed = new ArrayList<>();
+    private final List<String> failed = new ArrayList<>();
+
+    private SegmentSplitter splitter;
+    private MediaFormat format;
+    private int frameId = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        splitter = new SegmentSplitter(path -> {
+            if (failingPaths.remove(path)) {
+                throw new IOException("disk full");
+            }
+            FakeMuxer muxer = new FakeMuxer(path);
+            created.put(path, muxer);
+            return muxer;
+        }, FRAME_US, new SegmentSplitter.Listener() {
+            @Override
+            public void onSegmentSwitched(SegmentMuxer muxer, String nextPath) {
+                completed.add((FakeMuxer) muxer);
+                switched.add(nextPath);
+            }
+
+            @Override
+            public void onSplitFailed(String nextPath, Exception error) {
+                failed.add(nextPath);
+            }
+        });
+        format = new MediaFormat();
+        splitter.open("a.mp4");
+        assertTrue(splitter.onOutputFormat(format));
+    }
+
+    @Test
+    public void rollsOverOnlyAtNextKeyFrame() {
+        write(true, false, false);
+        splitter.requestSplit("b.mp4");
+        assertTrue(splitter.isSplitPending());
+
+        write(false, false, false);
+        assertEquals("a.mp4", splitter.getCurrentPath());
+        assertTrue(switched.isEmpty());
+        assertFalse(created.containsKey("b.mp4"));
+
+        write(true);
+        assertEquals("b.mp4", splitter.getCurrentPath());
+        assertEquals(List.of("b.mp4"), switched);
+        assertSame(created.get("a.mp4"), completed.get(0));
+        assertFalse(splitter.isSplitPending());
+        assertSame(format, created.get("b.mp4").format);
+        assertEquals(1, splitter.getSplitCount());
+        assertEquals(3.0, splitter.getAverageFramesWaited(), 0.0);
+    }
+
+    @Test
+    public void framesBeforeKeyFrameStayInOldSegment() {
+        write(true, false);
+        splitter.requestSplit("b.mp4");
+        write(false, false, true, false);
+
+        FakeMuxer a = created.get("a.mp4");
+        FakeMuxer b = created.get("b.mp4");
+        assertEquals(List.of(0, 1, 2, 3), a.frameIds);
+        assertEquals(List.of(4, 5), b.frameIds);
+        assertTrue(b.keyFrames.get(0));
+        // 旧分段交给调用方收尾，切换本身不关闭
+        assertFalse(a.closed);
+    }
+
+    @Test
+    public void ptsRestartsAtZeroInEachSegment() {
+        write(true, false, false);
+        splitter.requestSplit("b.mp4");
+        write(false, true, false);
+        splitter.requestSplit("c.mp4");
+        write(true, false);
+
+        assertEquals(List.of(0L, FRAME_US, 2 * FRAME_US, 3 * FRAME_US), created.get("a.mp4").ptsUs);
+        assertEquals(List.of(0L, FRAME_US), created.get("b.mp4").ptsUs);
+        assertEquals(List.of(0L, FRAME_US), created.get("c.mp4").ptsUs);
+        assertEquals(2, splitter.getSegmentFrameCount());
+    }
+
+    @Test
+    public void factoryFailureKeepsRecordingIntoCurrentSegment() {
+        failingPaths.add("b.mp4");
+        write(true, false);
+        splitter.requestSplit("b.mp4");
+        write(false, true, false);
+
+        assertEquals(List.of("b.mp4"), failed);
+        assertTrue(switched.isEmpty());
+        assertEquals("a.mp4", splitter.getCurrentPath());
+        assertFalse(splitter.isSplitPending());
+        FakeMuxer a = created.get("a.mp4");
+        assertEquals(List.of(0, 1, 2, 3, 4), a.frameIds);
+        assertEquals(4 * FRAME_US, (long) a.ptsUs.get(4));
+
+        // 录制器稍后重试切换
+        splitter.requestSplit("b.mp4");
+        write(false, true);
+        assertEquals(List.of("b.mp4"), switched);
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), a.frameIds);
+        assertEquals(List.of(6), created.get("b.mp4").frameIds);
+        assertEquals(List.of(0L), created.get("b.mp4").ptsUs);
+    }
+
+    @Test
+    public void startFailureClosesNewMuxerAndKeepsCurrent() {
+        write(true);
+        splitter.requestSplit("b.mp4");
+        created.clear();
+        FakeMuxer.failStartFor = "b.mp4";
+        try {
+            write(true);
+        } finally {
+            FakeMuxer.failStartFor = null;
+        }
+
+        assertEquals(List.of("b.mp4"), failed);
+        assertTrue(created.get("b.mp4").closed);
+        assertEquals("a.mp4", splitter.getCurrentPath());
+    }
+
+    @Test
+    public void dropsFramesUntilFormatKnown() throws IOException {
+        splitter.onEncoderReset();
+        splitter.open("c.mp4");
+        assertFalse(splitter.isStarted());
+        assertFalse(splitter.writeSample(ByteBuffer.allocate(4), 0, 4, true));
+
+        assertTrue(splitter.onOutputFormat(format));
+        assertTrue(splitter.writeSample(ByteBuffer.allocate(4), 0, 4, true));
+        assertEquals(1, created.get("c.mp4").frameIds.size());
+        // open 会同步关闭上一个分段
+        assertTrue(created.get("a.mp4").closed);
+    }
+
+    private void write(boolean... keyFrames) {
+        for (boolean keyFrame : keyFrames) {
+            ByteBuffer data = ByteBuffer.allocate(8);
+            data.putInt(0, frameId++);
+            assertTrue(splitter.writeSample(data, 0, 8, keyFrame));
+        }
+    }
+
+    private static final class FakeMuxer implements SegmentMuxer {
+        static String failStartFor;
+
+        final String path;
+        final List<Integer> frameIds = new ArrayList<>();
+        final List<Long> ptsUs = new ArrayList<>();
+        final List<Boolean> keyFrames = new ArrayList<>();
+        MediaFormat format;
+        boolean closed;
+        long writtenBytes;
+
+        FakeMuxer(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void start(MediaFormat format) {
+            if (path.equals(failStartFor)) {
+                throw new IllegalStateException("addTrack failed");
+            }
+            this.format = format;
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) {
+            assertFalse("write after close", closed);
+            frameIds.add(data.getInt(offset));
+            ptsUs.add(presentationTimeUs);
+            keyFrames.add(keyFrame);
+            writtenBytes += size;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return format != null;
+        }
+
+        @Override
+        public long getWrittenBytes() {
+            return writtenBytes;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean close() {
+            closed = true;
+            return true;
+        }
+    }
+}
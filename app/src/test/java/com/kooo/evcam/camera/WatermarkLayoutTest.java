@@ -0,0 +1,187 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * 水印排版：字形下标、索引生成、字段排版和脏区间
+ */
+public class WatermarkLayoutTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long T0 = LocalDateTime.of(2024, 3, 5, 12, 34, 56).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+    @Test
+    public void glyphIndexMapsCharsetAndFallsBackToSpace() {
+        assertEquals(0, WatermarkLayout.glyphIndex(' '));
+        assertEquals(1, WatermarkLayout.glyphIndex('0'));
+        assertEquals(10, WatermarkLayout.glyphIndex('9'));
+        assertEquals(WatermarkLayout.GLYPHS.length() - 1, WatermarkLayout.glyphIndex('a'));
+        assertEquals(0, WatermarkLayout.glyphIndex('Z'));
+        assertEquals(0, WatermarkLayout.glyphIndex('年'));
+        for (char c : (WatermarkLayout.BRAND_TEXT + "km/h-:.").toCharArray()) {
+            assertTrue(String.valueOf(c), WatermarkLayout.glyphIndex(c) > 0);
+        }
+    }
+
+    @Test
+    public void createIndicesBuildsTwoTrianglesPerCell() {
+        short[] indices = WatermarkLayout.createIndices(3);
+        assertEquals(3 * WatermarkLayout.INDICES_PER_CELL, indices.length);
+        assertArrayEquals(new short[]{0, 1, 2, 2, 1, 3, 4, 5, 6, 6, 5, 7, 8, 9, 10, 10, 9, 11}, indices);
+        assertEquals(0, WatermarkLayout.createIndices(0).length);
+    }
+
+    @Test
+    public void laysOutTimeBrandAndSpeedRightAligned() {
+        WatermarkLayout layout = new WatermarkLayout(true, true, true, UTC);
+        assertEquals(2, layout.getRows());
+        assertEquals(19, layout.getColumns());
+
+        assertTrue(layout.update(T0, Float.NaN));
+        assertEquals("2024-03-05 12:34:56", layout.getRowText(0));
+        // 还没有车速信号时显示 "--"
+        assertEquals("     EVCam  -- km/h", layout.getRowText(1));
+
+        layout.update(T0, 7.4f);
+        assertEquals("     EVCam   7 km/h", layout.getRowText(1));
+        layout.update(T0, 59.6f);
+        assertEquals("     EVCam  60 km/h", layout.getRowText(1));
+        layout.update(T0, 1500f);
+        assertEquals("     EVCam 999 km/h", layout.getRowText(1));
+        layout.update(T0, -3f);
+        assertEquals("     EVCam   0 km/h", layout.getRowText(1));
+        layout.update(T0, Float.NaN);
+        assertEquals("     EVCam  -- km/h", layout.getRowText(1));
+    }
+
+    @Test
+    public void speedWithoutTimeMovesToFirstRow() {
+        WatermarkLayout layout = new WatermarkLayout(false, true, true, UTC);
+        layout.update(T0, Float.NaN);
+        assertEquals(1, layout.getRows());
+        assertEquals("EVCam  -- km/h", layout.getRowText(0));
+
+        WatermarkLayout speedOnly = new WatermarkLayout(false, true, false, UTC);
+        speedOnly.update(T0, 88f);
+        assertEquals(" 88 km/h", speedOnly.getRowText(0));
+    }
+
+    @Test
+    public void brandAppearsOnlyWithTimeOrSpeed() {
+        WatermarkLayout brandOnly = new WatermarkLayout(false, false, true, UTC);
+        assertTrue(brandOnly.isEmpty());
+        assertEquals(0, brandOnly.getRows());
+        assertFalse(brandOnly.update(T0, 30f));
+
+        WatermarkLayout withTime = new WatermarkLayout(true, false, true, UTC);
+        assertEquals(2, withTime.getRows());
+        assertEquals("              EVCam", withTime.getRowText(1));
+
+        WatermarkLayout timeOnly = new WatermarkLayout(true, false, false, UTC);
+        assertEquals(1, timeOnly.getRows());
+        timeOnly.update(T0, Float.NaN);
+        assertFalse(timeOnly.getRowText(0).contains(WatermarkLayout.BRAND_TEXT));
+
+        assertTrue(new WatermarkLayout(false, false, false, UTC).isEmpty());
+    }
+
+    @Test
+    public void onlyChangedCellsLandInDirtyRange() {
+        WatermarkLayout layout = new WatermarkLayout(true, true, true, UTC);
+        int columns = layout.getColumns();
+        layout.update(T0, Float.NaN);
+        assertTrue(layout.hasDirtyCells());
+        layout.clearDirty();
+
+        // 同一秒内、车速不变：没有变化
+        float[] before = layout.getVertices().clone();
+        assertFalse(layout.update(T0 + 999, Float.NaN));
+        assertFalse(layout.hasDirtyCells());
+
+        // 56 -> 57 秒：只有秒的个位
+        assertTrue(layout.update(T0 + 1000, Float.NaN));
+        assertEquals(18, layout.getDirtyStart());
+        assertEquals(19, layout.getDirtyEnd());
+        assertUnchangedOutside(before, layout, 18, 19);
+        assertCell(layout, 18, '7');
+        layout.clearDirty();
+
+        // "--" -> "5"：第二行车速的后两位
+        before = layout.getVertices().clone();
+        assertTrue(layout.update(T0 + 1500, 5f));
+        int speedCell = columns + columns - 8;
+        assertEquals(speedCell + 1, layout.getDirtyStart());
+        assertEquals(speedCell + 3, layout.getDirtyEnd());
+        assertUnchangedOutside(before, layout, speedCell + 1, speedCell + 3);
+        assertCell(layout, speedCell + 1, ' ');
+        assertCell(layout, speedCell + 2, '5');
+
+        // 未上传前继续变化：脏区间合并
+        assertTrue(layout.update(T0 + 2000, 5f));
+        assertEquals(18, layout.getDirtyStart());
+        assertEquals(speedCell + 3, layout.getDirtyEnd());
+
+        // 12:34:59 -> 12:35:00：分、秒共 3 个格子（十位 3 和 5 不变）
+        layout.clearDirty();
+        layout.update(T0 + 3000, 5f);
+        layout.clearDirty();
+        before = layout.getVertices().clone();
+        assertTrue(layout.update(T0 + 4000, 5f));
+        assertEquals(15, layout.getDirtyStart());
+        assertEquals(19, layout.getDirtyEnd());
+        assertEquals("2024-03-05 12:35:00", layout.getRowText(0));
+        assertUnchangedOutside(before, layout, 15, 19);
+        assertArrayEquals(Arrays.copyOfRange(before, 16 * 16, 17 * 16),
+                Arrays.copyOfRange(layout.getVertices(), 16 * 16, 17 * 16), 0f);  // ':' 未变
+    }
+
+    @Test
+    public void vertexQuadsUseCellPositionAndAtlasColumn() {
+        WatermarkLayout layout = new WatermarkLayout(true, false, true, UTC);
+        layout.update(T0, Float.NaN);
+        assertEquals(layout.getCellCount() * WatermarkLayout.FLOATS_PER_CELL, layout.getVertices().length);
+
+        // 第二行最后一格是品牌的 'm'
+        int cell = layout.getCellCount() - 1;
+        assertCell(layout, cell, 'm');
+        float[] v = Arrays.copyOfRange(layout.getVertices(), cell * 16, cell * 16 + 16);
+        float u0 = WatermarkLayout.glyphIndex('m') / (float) WatermarkLayout.GLYPHS.length();
+        float u1 = (WatermarkLayout.glyphIndex('m') + 1) / (float) WatermarkLayout.GLYPHS.length();
+        assertArrayEquals(new float[]{
+                18, 1, u0, 0,
+                19, 1, u1, 0,
+                18, 2, u0, 1,
+                19, 2, u1, 1}, v, 1e-6f);
+
+        // 空格为退化四边形
+        float[] blank = Arrays.copyOfRange(layout.getVertices(), 19 * 16, 20 * 16);
+        assertArrayEquals(new float[16], blank, 0f);
+    }
+
+    private static void assertCell(WatermarkLayout layout, int cell, char expected) {
+        int columns = layout.getColumns();
+        assertEquals(expected, layout.getRowText(cell / columns).charAt(cell % columns));
+        float u0 = layout.getVertices()[cell * WatermarkLayout.FLOATS_PER_CELL + 2];
+        if (expected == ' ') {
+            assertEquals(0f, u0, 0f);
+        } else {
+            assertEquals(WatermarkLayout.glyphIndex(expected) / (float) WatermarkLayout.GLYPHS.length(), u0, 1e-6f);
+        }
+    }
+
+    private static void assertUnchangedOutside(float[] before, WatermarkLayout layout, int start, int end) {
+        float[] after = layout.getVertices();
+        int from = start * WatermarkLayout.FLOATS_PER_CELL;
+        int to = end * WatermarkLayout.FLOATS_PER_CELL;
+        assertArrayEquals(Arrays.copyOfRange(before, 0, from), Arrays.copyOfRange(after, 0, from), 0f);
+        assertArrayEquals(Arrays.copyOfRange(before, to, before.length), Arrays.copyOfRange(after, to, after.length), 0f);
+        assertFalse(Arrays.equals(Arrays.copyOfRange(before, from, to), Arrays.copyOfRange(after, from, to)));
+    }
+}
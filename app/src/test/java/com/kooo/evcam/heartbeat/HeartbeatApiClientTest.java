@@ -0,0 +1,244 @@
+package com.kooo.evcam.heartbeat;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.MultipartReader;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * 心跳推图请求格式：用 MockWebServer 接收请求，检查 multipart 各 part、只发状态的请求、
+ * 签名请求头和 bytesSaved 统计
+ * JSON 带图请求依赖 android.util.Base64，单元测试中不可用，不在这里覆盖
+ */
+public class HeartbeatApiClientTest {
+
+    private static final String VEHICLE_ID = "car-001";
+    private static final String SECRET = "secret-key";
+    private static final String STATUS = "{\"recording\":true,\"cameras\":[" +
+            "{\"id\":\"front\",\"state\":\"recording\"},{\"id\":\"back\",\"state\":\"recording\"}," +
+            "{\"id\":\"left\",\"state\":\"recording\"},{\"id\":\"right\",\"state\":\"recording\"}]}";
+
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    private final HeartbeatApiClient client = new HeartbeatApiClient();
+
+    @Test
+    public void multipartSendsMetaGzippedStatusAndRawImage() throws Exception {
+        byte[] image = randomBytes(30_000);
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        HeartbeatApiClient.HeartbeatResult result = client.sendHeartbeat(url(), VEHICLE_ID, SECRET,
+                image, 1280, 720, 4, STATUS, true);
+        assertTrue(result.message, result.success);
+        assertEquals(200, result.httpCode);
+        assertEquals("ok", result.responseBody);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        List<Part> parts = readParts(request);
+        assertEquals(3, parts.size());
+
+        Part meta = parts.get(0);
+        assertEquals("form-data; name=\"meta\"", meta.headers.get("Content-Disposition"));
+        String metaJson = meta.text();
+        assertTrue(metaJson, metaJson.contains("\"vehicleId\":\"car-001\""));
+        assertTrue(metaJson, metaJson.contains(
+                "\"imageWidth\":1280,\"imageHeight\":720,\"imageSizeBytes\":30000,\"cameraCount\":4"));
+        assertFalse(metaJson, metaJson.contains("imageBase64"));
+        assertFalse(metaJson, metaJson.contains("imageSkipped"));
+        assertFalse(metaJson, metaJson.contains("status"));
+
+        Part status = parts.get(1);
+        assertEquals("form-data; name=\"status\"; filename=\"status.json.gz\"",
+                status.headers.get("Content-Disposition"));
+        assertEquals("gzip", status.headers.get("Content-Encoding"));
+        assertEquals(STATUS, new String(gunzip(status.body), StandardCharsets.UTF_8));
+
+        Part imagePart = parts.get(2);
+        assertEquals("form-data; name=\"image\"; filename=\"heartbeat.jpg\"",
+                imagePart.headers.get("Content-Disposition"));
+        assertEquals("image/jpeg", imagePart.headers.get("Content-Type"));
+        assertArrayEquals(image, imagePart.body);
+
+        // bytesSaved = 同样内容按 JSON 发送的大小 - 实际请求体大小
+        long jsonEquivalent = metaJson.length()
+                + "\"imageBase64\":\"\",".length() + HeartbeatApiClient.base64Length(image.length)
+                + ",\"status\":".length() + STATUS.length();
+        assertEquals(request.getBodySize(), result.bytesSent);
+        assertEquals(jsonEquivalent - request.getBodySize(), result.bytesSaved);
+        assertTrue(result.bytesSaved > image.length / 4);
+    }
+
+    @Test
+    public void multipartStatusOnlyOmitsImagePart() throws Exception {
+        server.enqueue(new MockResponse());
+
+        HeartbeatApiClient.HeartbeatResult result = client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 4, STATUS, true);
+        assertTrue(result.message, result.success);
+
+        RecordedRequest request = server.takeRequest();
+        List<Part> parts = readParts(request);
+        assertEquals(2, parts.size());
+        String metaJson = parts.get(0).text();
+        assertTrue(metaJson, metaJson.contains("\"imageSkipped\":true"));
+        assertTrue(metaJson, metaJson.contains("\"imageSizeBytes\":0"));
+        assertEquals("gzip", parts.get(1).headers.get("Content-Encoding"));
+        assertEquals(STATUS, new String(gunzip(parts.get(1).body), StandardCharsets.UTF_8));
+
+        long jsonEquivalent = metaJson.length() + ",\"status\":".length() + STATUS.length();
+        assertEquals(Math.max(0, jsonEquivalent - request.getBodySize()), result.bytesSaved);
+    }
+
+    @Test
+    public void multipartWithoutStatusSendsOnlyMeta() throws Exception {
+        server.enqueue(new MockResponse());
+
+        assertTrue(client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 2, null, true).success);
+        List<Part> parts = readParts(server.takeRequest());
+        assertEquals(1, parts.size());
+        assertTrue(parts.get(0).headers.get("Content-Disposition").contains("name=\"meta\""));
+    }
+
+    @Test
+    public void jsonStatusOnlyEmbedsStatusWithoutImage() throws Exception {
+        server.enqueue(new MockResponse());
+
+        HeartbeatApiClient.HeartbeatResult result = client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 4, STATUS, false);
+        assertTrue(result.message, result.success);
+        assertEquals(0, result.bytesSaved);
+
+        RecordedRequest request = server.takeRequest();
+        assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+        String body = request.getBody().readUtf8();
+        assertEquals(body.length(), result.bytesSent);
+        assertTrue(body, body.startsWith("{\"vehicleId\":\"car-001\","));
+        assertTrue(body, body.contains(
+                "\"imageSkipped\":true,\"imageWidth\":0,\"imageHeight\":0,\"imageSizeBytes\":0"));
+        assertTrue(body, body.endsWith(",\"status\":" + STATUS + "}"));
+        assertFalse(body, body.contains("imageBase64"));
+    }
+
+    @Test
+    public void jsonStatusOnlyWithoutStatusWritesNull() throws Exception {
+        server.enqueue(new MockResponse());
+
+        assertTrue(client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 1, "", false).success);
+        assertTrue(server.takeRequest().getBody().readUtf8().endsWith(",\"status\":null}"));
+    }
+
+    @Test
+    public void signsRequestHeadersWithHmacSha256() throws Exception {
+        for (boolean multipart : new boolean[]{false, true}) {
+            server.enqueue(new MockResponse());
+            client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 4, STATUS, multipart);
+
+            RecordedRequest request = server.takeRequest();
+            assertEquals(VEHICLE_ID, request.getHeader("X-Vehicle-Id"));
+            long timestamp = Long.parseLong(request.getHeader("X-Timestamp"));
+            assertTrue(Math.abs(System.currentTimeMillis() - timestamp) < 60_000);
+            String nonce = request.getHeader("X-Nonce");
+            assertNotNull(nonce);
+            String signature = request.getHeader("X-Signature");
+            assertEquals(HeartbeatApiClient.generateSignature(VEHICLE_ID, timestamp, nonce, SECRET), signature);
+
+            // 请求体中的认证字段与请求头一致
+            String body = multipart ? readParts(request).get(0).text() : request.getBody().readUtf8();
+            assertTrue(body, body.contains("\"timestamp\":" + timestamp + ",\"nonce\":\"" + nonce
+                    + "\",\"signature\":\"" + signature + "\""));
+        }
+    }
+
+    @Test
+    public void signatureMatchesKnownVector() {
+        // HMAC-SHA256("car-001" + "1700000000000" + "nonce-1", "secret-key")
+        assertEquals("e4c5fa98186e8ff2dc26c02abe802027bf5bdd005685bf52785d17f13c38ef79",
+                HeartbeatApiClient.generateSignature(VEHICLE_ID, 1_700_000_000_000L, "nonce-1", SECRET));
+        assertNull(HeartbeatApiClient.generateSignature(VEHICLE_ID, 1L, "n", ""));
+        assertNotEquals(HeartbeatApiClient.generateNonce(), HeartbeatApiClient.generateNonce());
+    }
+
+    @Test
+    public void reportsHttpErrorAndMissingConfig() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401).setBody("bad signature"));
+        HeartbeatApiClient.HeartbeatResult result = client.sendStatusOnly(url(), VEHICLE_ID, SECRET, 4, STATUS, true);
+        assertFalse(result.success);
+        assertEquals(401, result.httpCode);
+        assertEquals("bad signature", result.responseBody);
+
+        assertFalse(client.sendStatusOnly("", VEHICLE_ID, SECRET, 4, STATUS, true).success);
+        assertFalse(client.sendStatusOnly(url(), VEHICLE_ID, null, 4, STATUS, true).success);
+        assertFalse(client.sendHeartbeat(url(), VEHICLE_ID, SECRET, new byte[0], 0, 0, 4, STATUS, true).success);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void base64LengthRoundsUpToQuads() {
+        assertEquals(0, HeartbeatApiClient.base64Length(0));
+        assertEquals(4, HeartbeatApiClient.base64Length(1));
+        assertEquals(4, HeartbeatApiClient.base64Length(3));
+        assertEquals(8, HeartbeatApiClient.base64Length(4));
+        assertEquals(40_000, HeartbeatApiClient.base64Length(30_000));
+    }
+
+    // ==================== 工具方法 ====================
+
+    private String url() {
+        return server.url("/api/heartbeat").toString();
+    }
+
+    private static List<Part> readParts(RecordedRequest request) throws IOException {
+        MediaType type = MediaType.parse(request.getHeader("Content-Type"));
+        assertNotNull(type);
+        assertEquals("multipart/form-data", type.type() + "/" + type.subtype());
+        List<Part> parts = new ArrayList<>();
+        try (MultipartReader reader = new MultipartReader(request.getBody(), type.parameter("boundary"))) {
+            MultipartReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                parts.add(new Part(part.headers(), part.body().readByteArray()));
+            }
+        }
+        return parts;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+
+    private static final class Part {
+        final Headers headers;
+        final byte[] body;
+
+        Part(Headers headers, byte[] body) {
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+}
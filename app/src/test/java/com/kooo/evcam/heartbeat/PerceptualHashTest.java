@@ -0,0 +1,130 @@
+package com.kooo.evcam.heartbeat;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 画面指纹：相同/近似画面的距离在阈值内，画面内容变化时超过阈值
+ * 用合成的灰度画面代替摄像头截图
+ */
+public class PerceptualHashTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 90;
+    private static final int MAX = PerceptualHash.DEFAULT_MAX_DISTANCE;
+
+    @Test
+    public void identicalFramesHaveZeroDistance() {
+        int[] frame = scene(1);
+        long a = PerceptualHash.dHash(frame, WIDTH, HEIGHT);
+        long b = PerceptualHash.dHash(frame.clone(), WIDTH, HEIGHT);
+        assertEquals(0, PerceptualHash.distance(a, b));
+    }
+
+    @Test
+    public void noiseAndExposureChangesStayWithinThreshold() {
+        int[] frame = scene(1);
+        long base = PerceptualHash.dHash(frame, WIDTH, HEIGHT);
+
+        // JPEG 噪点：每个像素 ±3
+        Random random = new Random(2);
+        int[] noisy = map(frame, luma -> luma + random.nextInt(7) - 3);
+        int noisyDistance = PerceptualHash.distance(base, PerceptualHash.dHash(noisy, WIDTH, HEIGHT));
+        assertTrue("noise distance " + noisyDistance, noisyDistance <= MAX);
+
+        // 整体变亮（云层移开）
+        int[] brighter = map(frame, luma -> luma + 15);
+        int brighterDistance = PerceptualHash.distance(base, PerceptualHash.dHash(brighter, WIDTH, HEIGHT));
+        assertTrue("exposure distance " + brighterDistance, brighterDistance <= MAX);
+
+        assertTrue(PerceptualHash.isSimilar(new long[]{base, base},
+                new long[]{PerceptualHash.dHash(noisy, WIDTH, HEIGHT), PerceptualHash.dHash(brighter, WIDTH, HEIGHT)},
+                MAX));
+    }
+
+    @Test
+    public void changedSceneExceedsThreshold() {
+        int[] frame = scene(1);
+        long base = PerceptualHash.dHash(frame, WIDTH, HEIGHT);
+
+        // 一辆车开进画面左侧三分之一
+        int[] withCar = frame.clone();
+        for (int y = HEIGHT / 4; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH / 3; x++) {
+                withCar[y * WIDTH + x] = gray(((x / 6) % 2 == 0) ? 10 : 240);
+            }
+        }
+        long car = PerceptualHash.dHash(withCar, WIDTH, HEIGHT);
+        assertTrue("car distance " + PerceptualHash.distance(base, car), PerceptualHash.distance(base, car) > MAX);
+
+        // 完全不同的画面
+        long other = PerceptualHash.dHash(scene(99), WIDTH, HEIGHT);
+        assertTrue(PerceptualHash.distance(base, other) > MAX);
+
+        assertFalse(PerceptualHash.isSimilar(new long[]{base, base}, new long[]{base, car}, MAX));
+        assertEquals(PerceptualHash.distance(base, car),
+                PerceptualHash.maxDistance(new long[]{base, base}, new long[]{base, car}));
+    }
+
+    @Test
+    public void cameraCountMismatchIsNotSimilar() {
+        long[] one = {0L};
+        assertFalse(PerceptualHash.isSimilar(one, new long[]{0L, 0L}, MAX));
+        assertFalse(PerceptualHash.isSimilar(new long[0], new long[0], MAX));
+        assertFalse(PerceptualHash.isSimilar(null, one, MAX));
+        assertEquals(-1, PerceptualHash.maxDistance(one, new long[]{0L, 0L}));
+        assertEquals(64, PerceptualHash.distance(0L, -1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImageSmallerThanGrid() {
+        PerceptualHash.dHash(new int[8 * 8], 8, 8);
+    }
+
+    // ==================== 工具方法 ====================
+
+    /**
+     * 合成画面：9x8 个亮度块（相邻块亮度差至少 20），块内有轻微渐变
+     */
+    private static int[] scene(long seed) {
+        Random random = new Random(seed);
+        int[][] blocks = new int[8][9];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 9; col++) {
+                int luma;
+                do {
+                    luma = 30 + random.nextInt(180);
+                } while (col > 0 && Math.abs(luma - blocks[row][col - 1]) < 20);
+                blocks[row][col] = luma;
+            }
+        }
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int luma = blocks[y * 8 / HEIGHT][x * 9 / WIDTH] + (x % 5) - 2;
+                argb[y * WIDTH + x] = gray(luma);
+            }
+        }
+        return argb;
+    }
+
+    private interface LumaMapper {
+        int map(int luma);
+    }
+
+    private static int[] map(int[] argb, LumaMapper mapper) {
+        int[] out = new int[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            out[i] = gray(mapper.map(argb[i] & 0xFF));
+        }
+        return out;
+    }
+
+    private static int gray(int luma) {
+        int v = Math.max(0, Math.min(255, luma));
+        return 0xFF000000 | (v << 16) | (v << 8) | v;
+    }
+}
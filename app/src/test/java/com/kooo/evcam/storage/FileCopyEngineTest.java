@@ -0,0 +1,137 @@
+package com.kooo.evcam.storage;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 复制引擎：stream / channel 两种方式在各块大小下的吞吐量对比，并校验输出逐字节一致
+ * 吞吐量只打印不断言（取决于开发机磁盘），车机上的对比见 FileCopyEngine.getStats()
+ */
+public class FileCopyEngineTest {
+
+    private static final int SOURCE_SIZE = 16 * 1024 * 1024 + 12_345;  // 不是块大小的整数倍
+    private static final int[] CHUNK_SIZES = {4 * 1024, 64 * 1024, 1024 * 1024};
+    private static final String[] TYPES = {FileCopyEngine.TYPE_STREAM, FileCopyEngine.TYPE_CHANNEL};
+
+    @ClassRule
+    public static TemporaryFolder temp = new TemporaryFolder();
+
+    private static File source;
+
+    @BeforeClass
+    public static void createSource() throws IOException {
+        source = temp.newFile("source.mp4");
+        byte[] block = new byte[64 * 1024];
+        Random random = new Random(42);
+        try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+            int remaining = SOURCE_SIZE;
+            while (remaining > 0) {
+                random.nextBytes(block);
+                int n = Math.min(block.length, remaining);
+                raf.write(block, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    @Test
+    public void throughputAndIdenticalOutput() throws IOException {
+        for (String type : TYPES) {
+            for (int chunkSize : CHUNK_SIZES) {
+                for (long syncInterval : new long[]{0, 4L * 1024 * 1024}) {
+                    FileCopyEngine engine = FileCopyEngine.create(type, chunkSize, syncInterval);
+                    File target = new File(temp.getRoot(), "target.mp4");
+                    target.delete();
+
+                    long start = System.nanoTime();
+                    long copied = engine.copy(source, target, false);
+                    long elapsedNs = System.nanoTime() - start;
+
+                    assertEquals(engine.describe(), SOURCE_SIZE, copied);
+                    assertSameContent(engine.describe(), source, target);
+                    System.out.println(String.format(Locale.US, "%-28s %7.1f MB/s", engine.describe(),
+                            SOURCE_SIZE / (1024.0 * 1024) / (elapsedNs / 1e9)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void overwritesLongerTargetAndPreallocatedTail() throws IOException {
+        for (String type : TYPES) {
+            File target = new File(temp.getRoot(), "longer-" + type + ".mp4");
+            try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+                raf.setLength(SOURCE_SIZE + 1_000_000L);  // 上次残留的更长文件
+            }
+            FileCopyEngine.create(type, 64 * 1024, 0).copy(source, target, true);
+            assertSameContent(type, source, target);
+        }
+    }
+
+    @Test
+    public void resumesFromOffset() throws IOException {
+        for (String type : TYPES) {
+            File target = new File(temp.getRoot(), "resume-" + type + ".mp4");
+            long offset = 5L * 1024 * 1024 + 17;
+            // 目标中已有前 offset 字节
+            try (RandomAccessFile in = new RandomAccessFile(source, "r");
+                 RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+                out.setLength(0);
+                in.getChannel().transferTo(0, offset, out.getChannel());
+            }
+
+            long copied = FileCopyEngine.create(type, 64 * 1024, 0)
+                    .copy(source, target, offset, false, 0, null);
+            assertEquals(SOURCE_SIZE - offset, copied);
+            assertSameContent(type, source, target);
+        }
+    }
+
+    @Test
+    public void reportsContiguousCheckpoints() throws IOException {
+        long checkpointBytes = 4L * 1024 * 1024;
+        for (String type : TYPES) {
+            File target = new File(temp.getRoot(), "checkpoint-" + type + ".mp4");
+            List<long[]> ranges = new ArrayList<>();
+            FileCopyEngine.create(type, 1024 * 1024, 0).copy(source, target, 0, false, checkpointBytes,
+                    (start, end) -> ranges.add(new long[]{start, end}));
+
+            // 只有完整的区段才回调，最后不足一个区段的尾部不记录
+            assertEquals(type, SOURCE_SIZE / checkpointBytes, ranges.size());
+            for (int i = 0; i < ranges.size(); i++) {
+                assertEquals(i * checkpointBytes, ranges.get(i)[0]);
+                assertEquals((i + 1) * checkpointBytes, ranges.get(i)[1]);
+            }
+        }
+    }
+
+    private static void assertSameContent(String message, File expected, File actual) throws IOException {
+        assertEquals(message, expected.length(), actual.length());
+        byte[] bufferA = new byte[1024 * 1024];
+        byte[] bufferB = new byte[bufferA.length];
+        try (RandomAccessFile a = new RandomAccessFile(expected, "r");
+             RandomAccessFile b = new RandomAccessFile(actual, "r")) {
+            for (long pos = 0; pos < expected.length(); pos += bufferA.length) {
+                int len = (int) Math.min(bufferA.length, expected.length() - pos);
+                a.readFully(bufferA, 0, len);
+                b.readFully(bufferB, 0, len);
+                if (!Arrays.equals(bufferA, 0, len, bufferB, 0, len)) {
+                    fail(message + ": content differs in block at " + pos);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.kooo.evcam.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段预分配：预留长度与 MP4 写完后的截断
+ * 只验证文件长度逻辑；U盘上的碎片程度无法在 JVM 上测量
+ */
+public class SegmentPreallocatorTest {
+
+    private static final long CLUSTER = 32 * 1024;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void estimateRoundsUpToCluster() {
+        // 4 Mbps × 60s × 1.05 = 31,500,000 字节
+        long bytes = SegmentPreallocator.estimateSegmentBytes(4_000_000, 60_000, CLUSTER);
+        assertEquals(0, bytes % CLUSTER);
+        assertTrue(bytes >= 31_500_000L && bytes < 31_500_000L + CLUSTER);
+
+        assertEquals(CLUSTER, SegmentPreallocator.roundUpToCluster(1, CLUSTER));
+        assertEquals(CLUSTER, SegmentPreallocator.roundUpToCluster(CLUSTER, CLUSTER));
+        assertEquals(2 * CLUSTER, SegmentPreallocator.roundUpToCluster(CLUSTER + 1, CLUSTER));
+        assertEquals(0, SegmentPreallocator.estimateSegmentBytes(0, 60_000, CLUSTER));
+    }
+
+    @Test
+    public void reserveGrowsFileToRoundedSize() throws IOException {
+        File file = temp.newFile("reserve.mp4");
+        long bytes = SegmentPreallocator.roundUpToCluster(1_000_001, CLUSTER);
+
+        RandomAccessFile raf = SegmentPreallocator.openReserved(file, bytes);
+        assertNotNull(raf);
+        try {
+            assertEquals(bytes, raf.length());
+            assertEquals(0, raf.length() % CLUSTER);
+            // 预留后从头写入，不截断已预留的空间
+            raf.write(new byte[100]);
+            assertEquals(bytes, raf.length());
+        } finally {
+            raf.close();
+        }
+        assertEquals(bytes, file.length());
+    }
+
+    @Test
+    public void reserveIgnoresNonPositiveSize() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(temp.newFile(), "rw")) {
+            assertFalse(SegmentPreallocator.reserve(raf, 0));
+            assertEquals(0, raf.length());
+        }
+    }
+
+    @Test
+    public void finishTrimsZeroFilledTailToLastTopLevelBox() throws IOException {
+        File file = temp.newFile("segment.mp4");
+        RandomAccessFile raf = SegmentPreallocator.openReserved(file, 4 * CLUSTER);
+        assertNotNull(raf);
+        long end = writeBoxes(raf, box("ftyp", 24), box("mdat", 50_000), box("moov", 1_200));
+        assertEquals(4 * CLUSTER, raf.length());
+
+        SegmentPreallocator.finishMp4(raf);
+        assertEquals(end, file.length());
+    }
+
+    @Test
+    public void finishKeepsTrailingFreeBox() throws IOException {
+        File file = temp.newFile("fragmented.mp4");
+        RandomAccessFile raf = SegmentPreallocator.openReserved(file, 2 * CLUSTER);
+        long end = writeBoxes(raf, box("ftyp", 24), box("moov", 800), box("free", 3_272),
+                box("moof", 100), box("mdat", 20_000));
+
+        SegmentPreallocator.finishMp4(raf);
+        assertEquals(end, file.length());
+    }
+
+    @Test
+    public void finishHandlesLargeSizeBox() throws IOException {
+        File file = temp.newFile("large.mp4");
+        RandomAccessFile raf = SegmentPreallocator.openReserved(file, 2 * CLUSTER);
+        writeBoxes(raf, box("ftyp", 24));
+        // 64 位 largesize 的 mdat：size 字段为 1，真实大小在 8 字节扩展头中
+        raf.writeInt(1);
+        raf.write("mdat".getBytes(StandardCharsets.US_ASCII));
+        raf.writeLong(10_016);
+        raf.write(new byte[10_000]);
+        long end = raf.getFilePointer();
+
+        SegmentPreallocator.finishMp4(raf);
+        assertEquals(end, file.length());
+    }
+
+    @Test
+    public void finishDropsIncompleteLastBox() throws IOException {
+        File file = temp.newFile("crashed.mp4");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long end = writeBoxes(raf, box("ftyp", 24), box("moov", 500));
+        // mdat 声明的大小超出文件（写入中断）
+        raf.writeInt(1_000_000);
+        raf.write("mdat".getBytes(StandardCharsets.US_ASCII));
+        raf.write(new byte[2_000]);
+
+        SegmentPreallocator.finishMp4(raf);
+        assertEquals(end, file.length());
+    }
+
+    @Test
+    public void finishEmptiesFileWithoutBoxes() throws IOException {
+        File file = temp.newFile("unused.mp4");
+        RandomAccessFile raf = SegmentPreallocator.openReserved(file, CLUSTER);
+
+        SegmentPreallocator.finishMp4(raf);
+        assertEquals(0, file.length());
+    }
+
+    // ==================== 工具方法 ====================
+
+    private static byte[] box(String type, int size) {
+        byte[] box = new byte[size];
+        box[0] = (byte) (size >>> 24);
+        box[1] = (byte) (size >>> 16);
+        box[2] = (byte) (size >>> 8);
+        box[3] = (byte) size;
+        System.arraycopy(type.getBytes(StandardCharsets.US_ASCII), 0, box, 4, 4);
+        for (int i = 8; i < size; i++) {
+            box[i] = (byte) (i * 31 + 7);  // 非零内容
+        }
+        return box;
+    }
+
+    private static long writeBoxes(RandomAccessFile raf, byte[]... boxes) throws IOException {
+        raf.seek(0);
+        for (byte[] box : boxes) {
+            raf.write(box);
+        }
+        return raf.getFilePointer();
+    }
+}